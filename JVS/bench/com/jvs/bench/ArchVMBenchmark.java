@@ -0,0 +1,75 @@
+package com.jvs.bench;
+
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jvs.archvm.ArchVM;
+
+/**
+ * Running ArchVM programs (see {@link Programs}) with both engines and
+ * compiled. Loading is not measured: a fresh VM is created before every
+ * invocation. The compiled programs come from a class cache, so only the first
+ * invocation compiles them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArchVMBenchmark {
+    @Param({ "switch", "threaded", "compiled" })
+    public String engine;
+
+    private Path loop, fib, print, classCache;
+    private ArchVM loopVM, fibVM, printVM;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        loop = Programs.writeJvse(Programs.archLoop(1_000_000));
+        fib = Programs.writeJvse(Programs.archFib(20));
+        print = Programs.writeJvse(Programs.archPrint(10_000));
+        classCache = Files.createTempDirectory("jvs-classes");
+        out = Programs.silenceOutput();
+    }
+
+    @Setup(Level.Invocation)
+    public void load() {
+        loopVM = create(loop);
+        fibVM = create(fib);
+        printVM = create(print);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void loop() {
+        loopVM.start();
+    }
+
+    @Benchmark
+    public void fib() {
+        fibVM.start();
+    }
+
+    @Benchmark
+    public void print() {
+        printVM.start();
+    }
+
+    private ArchVM create(Path file) {
+        ArchVM vm = new ArchVM(file.toString());
+        vm.setThreaded(engine.equals("threaded"));
+        vm.setCompiled(engine.equals("compiled"));
+        vm.setClassCache(classCache);
+        return vm;
+    }
+}
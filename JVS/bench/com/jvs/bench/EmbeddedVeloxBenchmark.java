@@ -0,0 +1,46 @@
+package com.jvs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jvs.velox.VeloxInstructions;
+import com.jvs.velox.VeloxVM;
+import com.jvs.velox.VeloxVMPool;
+
+/**
+ * Running a small module many times with different arguments, the way an
+ * embedding application does: on a fresh VM for every run, or on a pooled VM
+ * which is reset between runs. The module is the fib function of
+ * {@link Programs#veloxFib(int)}, entered directly with n as its argument.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmbeddedVeloxBenchmark {
+    @Param({ "5", "15" })
+    public int n;
+
+    private VeloxInstructions module;
+    private VeloxVMPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        Programs.Velox fib = Programs.veloxFib(n);
+        module = new VeloxInstructions(fib.code(), new String[0], 0, fib.metadata(), 0);
+        pool = new VeloxVMPool(module, 1);
+    }
+
+    @Benchmark
+    public long fresh() throws Exception {
+        return new VeloxVM(module).run(n);
+    }
+
+    @Benchmark
+    public long pooled() throws Exception {
+        return pool.run(n);
+    }
+}
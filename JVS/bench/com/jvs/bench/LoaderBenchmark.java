@@ -0,0 +1,43 @@
+package com.jvs.bench;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jvs.archvm.JVSEInstructions;
+import com.jvs.archvm.JVSELoader;
+import com.jvs.velox.VeloxInstructions;
+import com.jvs.velox.VeloxLoader;
+
+/**
+ * Loading synthetic programs of 1K and 100K instructions (words for Velox).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderBenchmark {
+    @Param({ "1000", "100000" })
+    public int instructions;
+
+    private Path jvse, jvelox;
+
+    @Setup
+    public void setup() throws Exception {
+        jvse = Programs.writeJvse(Programs.archSynthetic(instructions));
+        jvelox = Programs.writeJvelox(Programs.veloxSynthetic(instructions));
+    }
+
+    @Benchmark
+    public JVSEInstructions jvseLoad() {
+        return JVSELoader.load(jvse.toString());
+    }
+
+    @Benchmark
+    public VeloxInstructions veloxLoad() throws Exception {
+        return VeloxLoader.load(jvelox.toString());
+    }
+}
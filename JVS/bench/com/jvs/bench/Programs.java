@@ -0,0 +1,240 @@
+package com.jvs.bench;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.jvs.velox.FunctionMeta;
+import com.jvs.velox.VeloxVMError;
+import com.jvs.velox.VeloxWriter;
+
+import static com.jvs.velox.Opcode.*;
+
+/**
+ * The synthetic programs run by the benchmarks.
+ * <p>
+ * Every workload exists for both VMs: a .jvse text for ArchVM and the
+ * equivalent Velox code for VeloxVM, so the numbers of the two VMs can be
+ * compared directly.
+ */
+public final class Programs {
+    private Programs() {
+    }
+
+    // ARCHVM
+
+    /**
+     * A loop adding the numbers 0 to n - 1.
+     */
+    public static String archLoop(int n) {
+        return "put int, i, 0\n"
+                + "put int, s, 0\n"
+                + "cmplt i, " + n + ", $c\n"
+                + "assert $c, 5, 8\n"
+                + "iadd s, i, s\n"
+                + "incr i\n"
+                + "goto 3\n";
+    }
+
+    /**
+     * The recursive fibonacci function. ArchVM methods have neither arguments nor
+     * results, so fib works on the global n (restored before returning) and adds
+     * the leaves to r.
+     */
+    public static String archFib(int n) {
+        return "put int, n, " + n + "\n"
+                + "put int, r, 0\n"
+                + "call fib\n"
+                + "goto 17\n"
+                + "funcdec fib\n"
+                + "cmplt n, 2, $c\n"
+                + "assert $c, 8, 10\n"
+                + "iadd r, n, r\n"
+                + "return\n"
+                + "decr n\n"
+                + "call fib\n"
+                + "decr n\n"
+                + "call fib\n"
+                + "incr n\n"
+                + "incr n\n"
+                + "return\n";
+    }
+
+    /**
+     * A loop printing n lines.
+     */
+    public static String archPrint(int n) {
+        return "put int, i, 0\n"
+                + "cmplt i, " + n + ", $c\n"
+                + "assert $c, 4, 7\n"
+                + "print \"i = \", i, \"\\n\"\n"
+                + "incr i\n"
+                + "goto 2\n";
+    }
+
+    /**
+     * A straight-line program of (about) n instructions using up to 1000
+     * variables, for the loader benchmarks.
+     */
+    public static String archSynthetic(int n) {
+        StringBuilder sb = new StringBuilder();
+        for (int line = 1; line <= n; line += 5) {
+            String v = "v" + (line % 1000);
+            sb.append("put int, ").append(v).append(", ").append(line).append('\n');
+            sb.append("iadd ").append(v).append(", 1, $t\n");
+            sb.append("cmplt $t, 10, $c\n");
+            sb.append("assert $c, ").append(line + 4).append(", ").append(line + 4).append('\n');
+            sb.append("print \"").append(v).append(" = \", $t, \"\\n\"\n");
+        }
+        return sb.toString();
+    }
+
+    // VELOX
+
+    /**
+     * A Velox program: its code, functions and start address.
+     */
+    public record Velox(int[] code, FunctionMeta[] metadata, int start) {
+    }
+
+    /**
+     * The loop of {@link #archLoop(int)} (locals: 0 = i, 1 = s).
+     */
+    public static Velox veloxLoop(int n) {
+        int[] code = {
+                iconst, 0, store, 0, // 0: i = 0
+                iconst, 0, store, 1, // 4: s = 0
+                load, 0, iconst, n, icmpl, branchf, 31, // 8: while (i < n)
+                load, 1, load, 0, iadd, store, 1, // 15: s = s + i
+                load, 0, iconst, 1, iadd, store, 0, // 22: i = i + 1
+                branch, 8, // 29
+                exit // 31
+        };
+        return new Velox(code, new FunctionMeta[] { new FunctionMeta("main", 0, 2, 0) }, 0);
+    }
+
+    /**
+     * The recursive fibonacci function, fib(n) = (n < 2) ? n : fib(n - 1) + fib(n - 2).
+     */
+    public static Velox veloxFib(int n) {
+        int[] code = {
+                load, 0, iconst, 2, icmpl, branchf, 10, // 0: if (n < 2)
+                load, 0, ret, // 7: return n
+                load, 0, iconst, 1, isub, invoke, 1, // 10: fib(n - 1)
+                load, 0, iconst, 2, isub, invoke, 1, // 17: fib(n - 2)
+                iadd, ret, // 24
+                iconst, n, invoke, 1, pop, exit // 26: main
+        };
+        return new Velox(code,
+                new FunctionMeta[] { new FunctionMeta("main", 0, 0, 26), new FunctionMeta("fib", 1, 0, 0) }, 26);
+    }
+
+    /**
+     * The print loop of {@link #archPrint(int)} (local 0 = i).
+     */
+    public static Velox veloxPrint(int n) {
+        int[] code = {
+                iconst, 0, store, 0, // 0: i = 0
+                load, 0, iconst, n, icmpl, branchf, 24, // 4: while (i < n)
+                load, 0, print, jumpnext, // 11: println(i)
+                load, 0, iconst, 1, iadd, store, 0, // 15: i = i + 1
+                branch, 4, // 22
+                exit // 24
+        };
+        return new Velox(code, new FunctionMeta[] { new FunctionMeta("main", 0, 1, 0) }, 0);
+    }
+
+    /**
+     * A loop pushing 64-bit constants with iconst8 and fconst (locals: 0 = i,
+     * 1 = s, 2 = x).
+     */
+    public static Velox veloxConstants(int n) {
+        int[] code = concat(
+                new int[] { iconst, 0, store, 0 }, // 0: i = 0
+                new int[] { load, 0, iconst, n, icmpl, branchf, 62 }, // 4: while (i < n)
+                immediate(iconst8, 1L << 40), immediate(iconst8, (1L << 40) - 3), // 11: s = 2^40 - (2^40 - 3)
+                new int[] { isub, store, 1 },
+                immediate(fconst, Double.doubleToRawLongBits(1.5)), // 32: x = 1.5 + 2.5
+                immediate(fconst, Double.doubleToRawLongBits(2.5)),
+                new int[] { fadd, store, 2 },
+                new int[] { load, 0, iconst, 1, iadd, store, 0 }, // 53: i = i + 1
+                new int[] { branch, 4 }, // 60
+                new int[] { exit } // 62
+        );
+        return new Velox(code, new FunctionMeta[] { new FunctionMeta("main", 0, 3, 0) }, 0);
+    }
+
+    /**
+     * A straight-line program of (about) n words, for the loader benchmarks.
+     */
+    public static Velox veloxSynthetic(int n) {
+        int[] code = new int[n - n % 10 + 1];
+        for (int i = 0; i + 10 <= n; i += 10) {
+            int[] block = { iconst, i, store, 0, load, 0, iconst, 3, iadd, pop };
+            System.arraycopy(block, 0, code, i, block.length);
+        }
+        code[code.length - 1] = exit;
+        return new Velox(code, new FunctionMeta[] { new FunctionMeta("main", 0, 1, 0) }, 0);
+    }
+
+    /** An iconst8 or fconst with its 8 little-endian byte operands. */
+    private static int[] immediate(int opcode, long value) {
+        int[] words = new int[9];
+        words[0] = opcode;
+        for (int i = 0; i < 8; i++) {
+            words[i + 1] = (int) (value >>> (8 * i)) & 0xFF;
+        }
+        return words;
+    }
+
+    private static int[] concat(int[]... parts) {
+        int length = 0;
+        for (int[] part : parts) {
+            length += part.length;
+        }
+        int[] code = new int[length];
+        int position = 0;
+        for (int[] part : parts) {
+            System.arraycopy(part, 0, code, position, part.length);
+            position += part.length;
+        }
+        return code;
+    }
+
+    // FILES
+
+    /**
+     * Writes a .jvse program to a temporary file.
+     */
+    public static Path writeJvse(String program) throws IOException {
+        Path file = Files.createTempFile("jvs-bench", ".jvse");
+        Files.writeString(file, program);
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Writes a Velox program to a temporary .jvelox file.
+     */
+    public static Path writeJvelox(Velox program) throws IOException, VeloxVMError {
+        Path file = Files.createTempFile("jvs-bench", ".jvelox");
+        new VeloxWriter(file.toString(), program.code(), new String[0], 0, program.metadata(), program.start())
+                .write();
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    /**
+     * Replaces System.out by a stream discarding everything, so that the print
+     * benchmarks measure the VMs and not the terminal.
+     *
+     * @return The previous System.out (to be restored after the benchmark).
+     */
+    public static PrintStream silenceOutput() {
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        return out;
+    }
+}
@@ -0,0 +1,59 @@
+package com.jvs.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jvs.archvm.VarManager;
+
+/**
+ * Reading and writing every variable of a VarManager once, through the
+ * slots used by the interpreter and through the names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VarManagerBenchmark {
+    @Param({ "10", "100", "1000" })
+    public int variables;
+
+    private String[] names;
+    private VarManager vars;
+
+    @Setup
+    public void setup() {
+        names = new String[variables];
+        for (int i = 0; i < variables; i++) {
+            names[i] = "v" + i;
+        }
+        vars = new VarManager(names);
+        for (int slot = 0; slot < variables; slot++) {
+            vars.define(slot, VarManager.INT);
+        }
+    }
+
+    @Benchmark
+    public long slotGetSet() {
+        long sum = 0;
+        for (int slot = 0; slot < variables; slot++) {
+            long value = vars.getLong(slot) + 1;
+            vars.setLong(slot, value);
+            sum += value;
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public long nameGetSet() {
+        long sum = 0;
+        for (String name : names) {
+            long value = vars.getIntVar(name) + 1;
+            vars.setVar(name, value);
+            sum += value;
+        }
+        return sum;
+    }
+}
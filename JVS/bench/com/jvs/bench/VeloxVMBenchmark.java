@@ -0,0 +1,76 @@
+package com.jvs.bench;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import com.jvs.velox.VeloxVM;
+
+/**
+ * Running the Velox versions of the ArchVM benchmark programs (see
+ * {@link Programs}), on a fresh VM for every run, with and without
+ * superinstructions, stack caching and the JIT (which compiles again on every
+ * fresh VM, so its runs include the compilation).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VeloxVMBenchmark {
+    @Param({ "true", "false" })
+    public boolean fusion;
+
+    @Param({ "false", "true" })
+    public boolean stackCaching;
+
+    @Param({ "false", "true" })
+    public boolean jit;
+
+    private Programs.Velox loop, fib, print, constants;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        loop = Programs.veloxLoop(1_000_000);
+        fib = Programs.veloxFib(20);
+        print = Programs.veloxPrint(10_000);
+        constants = Programs.veloxConstants(1_000_000);
+        out = Programs.silenceOutput();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void loop() throws Exception {
+        run(loop);
+    }
+
+    @Benchmark
+    public void fib() throws Exception {
+        run(fib);
+    }
+
+    @Benchmark
+    public void print() throws Exception {
+        run(print);
+    }
+
+    @Benchmark
+    public void constants() throws Exception {
+        run(constants);
+    }
+
+    private void run(Programs.Velox program) throws Exception {
+        VeloxVM vm = new VeloxVM(program.code(), new String[0], 0, program.metadata());
+        vm.setFusion(fusion);
+        vm.setStackCaching(stackCaching);
+        vm.setJit(jit);
+        vm.exec(program.start());
+    }
+}
@@ -1,95 +1,237 @@
 package com.jvs.archvm;
 
 import com.jvs.bytecode.*;
+import com.jvs.io.OutputSink;
 
-import java.util.Map;
-import java.util.HashMap;
-import java.util.List;
-import java.util.ArrayList;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
+import java.util.Arrays;
 
 public class ArchVM {
-    private int line, callCount;
+    private static final int INITIAL_FRAMES = 16;
+
+    // How a SamplingProfiler reads the state of the VM from its own thread.
+    private static final VarHandle LINE, DEPTH, FRAME_METHODS;
+
+    static {
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            LINE = lookup.findVarHandle(ArchVM.class, "line", int.class);
+            DEPTH = lookup.findVarHandle(ArchVM.class, "depth", int.class);
+            FRAME_METHODS = lookup.findVarHandle(ArchVM.class, "frameMethods", int[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private int line;
+    private boolean threaded, compiled;
+    private Path classCache;
+    private String file;
     private VarManager main, temp;
     private VMInterpreter vmi;
     private Context context;
     private JVSEInstructions instructions;
-    private Map<String, Integer> returnLines;
-    private List<String> calls;
-    private String currentMethod, previousMethod;
+    private OutputSink output;
+    private SamplingProfiler profiler;
+
+    // The call stack: frame i holds the method id of a call and the line to
+    // return to. Frame 0 is <main>, depth is the index of the current frame.
+    // depth is written with release semantics after the frame, for a profiler.
+    private int[] frameMethods;
+    private int[] returnLines;
+    private int depth;
 
     public ArchVM(String file) {
+        this(file, Context.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a VM for a .jvse file.
+     *
+     * @param file          The .jvse file to run.
+     * @param traceCapacity The number of most recent calls and returns kept for
+     *                      PRINTSTACK and error reports (0 disables the trace).
+     */
+    public ArchVM(String file, int traceCapacity) {
         line = 0;
-        callCount = 0;
 
-        main = new VarManager();
-        temp = new VarManager();
-        vmi = new VMInterpreter(main, temp);
-        context = new Context(file);
+        this.file = file;
         instructions = JVSELoader.load(file);
+        main = new VarManager(instructions.getMainSymbols());
+        temp = new VarManager(instructions.getTempSymbols());
+        vmi = new VMInterpreter(main, temp);
+        output = new OutputSink();
+        vmi.setOutput(output);
+        context = new Context(file, instructions.getMethodNames(), traceCapacity);
+
+        frameMethods = new int[INITIAL_FRAMES];
+        returnLines = new int[INITIAL_FRAMES];
+        depth = 0;
+        frameMethods[0] = Context.MAIN_METHOD;
+        context.addCall(Context.MAIN_METHOD, line + 1);
+    }
 
-        returnLines = new HashMap<>();
-        calls = new ArrayList<>();
-        calls.add("<main>");
-        currentMethod = "<main>";
-        previousMethod = "<VM_INTERNAL>";
-        context.addCall(currentMethod, line + 1);
+    /**
+     * Selects the execution engine. The default engine switches over the opcode
+     * of every instruction; the threaded engine binds every line to a
+     * {@link Handler} once and then just calls the handler of the current line.
+     *
+     * @param threaded True to use the threaded engine.
+     */
+    public void setThreaded(boolean threaded) {
+        this.threaded = threaded;
+    }
+
+    /**
+     * Selects whether the program is compiled ahead of time to a JVM class which
+     * is run instead of interpreting the program (see {@link JVSECompiler}). A
+     * program which cannot be compiled is interpreted.
+     *
+     * @param compiled True to run the program compiled.
+     */
+    public void setCompiled(boolean compiled) {
+        this.compiled = compiled;
+    }
+
+    /**
+     * Sets the directory where compiled programs are cached between runs, so a
+     * program is only compiled again when its source changes.
+     *
+     * @param classCache The directory, or null to compile on every run.
+     */
+    public void setClassCache(Path classCache) {
+        this.classCache = classCache;
+    }
+
+    /**
+     * Sets where the program prints (System.out, as set when the VM is created,
+     * by default). The output is flushed when the program ends and before an
+     * error is reported.
+     *
+     * @param output The output.
+     */
+    public void setOutput(OutputSink output) {
+        this.output = output;
+        vmi.setOutput(output);
+    }
+
+    OutputSink getOutput() {
+        return output;
+    }
+
+    /**
+     * Sets a profiler sampling the runs of the program (none by default).
+     *
+     * @param profiler The profiler, or null to stop profiling.
+     */
+    public void setProfiler(SamplingProfiler profiler) {
+        this.profiler = profiler;
     }
 
     public void start() {
-        for (line = 1; line <= instructions.getInstructionCount(); line++) {
+        if (profiler != null) {
+            profiler.start(this);
+        }
+        try {
+            if (compiled && startCompiled()) {
+                return;
+            }
+            if (threaded) {
+                startThreaded();
+                return;
+            }
+            startSwitch();
+        } finally {
+            if (profiler != null) {
+                profiler.stop();
+            }
+            output.flush();
+        }
+    }
+
+    private void startSwitch() {
+        Instruction[] code = instructions.getInstructions();
+        int count = instructions.getInstructionCount();
+        for (line = 1; line <= count; line++) {
             int prevLine = line;
-            interpret(instructions.getInstruction(line));
-            // If a jump occurred, adjust for the for-loop increment
+            interpret(code[line]);
+            // If a jump occurred, adjust for the for-loop increment. A jump to
+            // its own line is not seen, and goes on to the next line (the other
+            // engines do the same).
             if (line != prevLine) {
                 line--; // Compensate for the for-loop's increment
             }
         }
     }
 
+    private void startThreaded() {
+        Handler[] handlers = Handler.bind(instructions, vmi);
+        int count = instructions.getInstructionCount();
+        line = 1;
+        while (line <= count) {
+            line = handlers[line].exec(this);
+        }
+    }
+
+    private boolean startCompiled() {
+        CompiledProgram program;
+        try {
+            program = JVSECompiler.load(file, instructions, classCache);
+        } catch (IllegalStateException e) {
+            System.err.println("Cannot compile " + file + " (" + e.getMessage() + "), interpreting it.");
+            return false;
+        }
+        program.run(this);
+        return true;
+    }
+
     private void interpret(Instruction instruction) {
         Opcode o = instruction.getOpcode();
-        String args = instruction.getArgs();
+        Operand[] a = instruction.getOperands();
 
         switch (o) {
-            case PUT -> vmi.put(args);
-            case SET -> vmi.set(args);
-            case CAST -> vmi.cast(args);
-            case IADD -> vmi.iadd(args);
-            case FADD -> vmi.fadd(args);
-            case ISUB -> vmi.isub(args);
-            case FSUB -> vmi.fsub(args);
-            case IMUL -> vmi.imult(args);
-            case FMUL -> vmi.fmult(args);
-            case IDIV -> vmi.idiv(args);
-            case FDIV -> vmi.fdiv(args);
-            case IMOD -> vmi.imod(args);
-            case FMOD -> vmi.fmod(args);
-            case IPOW -> vmi.ipow(args);
-            case FPOW -> vmi.fpow(args);
-            case INCR -> vmi.incr(args);
-            case DECR -> vmi.decr(args);
+            case PUT -> vmi.put(a[0], a[1], (a.length > 2) ? a[2] : null);
+            case SET -> vmi.set(a[0], a[1]);
+            case CAST -> vmi.cast(a[0], a[1], a[2], a[3]);
+            case IADD -> vmi.iadd(a[0], a[1], a[2]);
+            case FADD -> vmi.fadd(a[0], a[1], a[2]);
+            case ISUB -> vmi.isub(a[0], a[1], a[2]);
+            case FSUB -> vmi.fsub(a[0], a[1], a[2]);
+            case IMUL -> vmi.imult(a[0], a[1], a[2]);
+            case FMUL -> vmi.fmult(a[0], a[1], a[2]);
+            case IDIV -> vmi.idiv(a[0], a[1], a[2]);
+            case FDIV -> vmi.fdiv(a[0], a[1], a[2]);
+            case IMOD -> vmi.imod(a[0], a[1], a[2]);
+            case FMOD -> vmi.fmod(a[0], a[1], a[2]);
+            case IPOW -> vmi.ipow(a[0], a[1], a[2]);
+            case FPOW -> vmi.fpow(a[0], a[1], a[2]);
+            case INCR -> vmi.incr(a[0]);
+            case DECR -> vmi.decr(a[0]);
             case CLRTLIST -> vmi.clrtlist();
             case CLRMAINL -> vmi.clrmainl();
-            case CMPGT -> vmi.cmpgt(args);
-            case CMPGTE -> vmi.cmpgte(args);
-            case CMPLT -> vmi.cmplt(args);
-            case CMPLTE -> vmi.cmplte(args);
-            case CMPE -> vmi.cmpe(args);
-            case CMPNE -> vmi.cmpne(args);
-            case AND -> vmi.and(args);
-            case OR -> vmi.or(args);
-            case XOR -> vmi.xor(args);
-            case NOT -> vmi.not(args);
-            case EQ -> vmi.eq(args);
-            case NEQ -> vmi.neq(args);
-            case ASSERT -> line = vmi.azzert(args);
-            case GOTO -> line = vmi.gotu(args);
-            case CALL -> registerCall(args, instructions.getMethodIndex(args));
-            case PRINT -> vmi.print(args);
+            case CMPGT -> vmi.cmpgt(a[0], a[1], a[2]);
+            case CMPGTE -> vmi.cmpgte(a[0], a[1], a[2]);
+            case CMPLT -> vmi.cmplt(a[0], a[1], a[2]);
+            case CMPLTE -> vmi.cmplte(a[0], a[1], a[2]);
+            case CMPE -> vmi.cmpe(a[0], a[1], a[2]);
+            case CMPNE -> vmi.cmpne(a[0], a[1], a[2]);
+            case AND -> vmi.and(a[0], a[1], a[2]);
+            case OR -> vmi.or(a[0], a[1], a[2]);
+            case XOR -> vmi.xor(a[0], a[1], a[2]);
+            case NOT -> vmi.not(a[0], a[1]);
+            case EQ -> vmi.eq(a[0], a[1], a[2]);
+            case NEQ -> vmi.neq(a[0], a[1], a[2]);
+            case ASSERT -> line = vmi.azzert(a[0], a[1], a[2]);
+            case GOTO -> line = vmi.gotu(a[0]);
+            case CALL -> line = registerCall(a[0].getSlot(), line + 1);
+            case PRINT -> vmi.print(a);
             case PRINT_TIME -> vmi.printTime();
             case PRINT_STACK -> printStack();
-            case RETURN -> returnToLine();
-            case NATIVE -> vmi.handleNative(args);
+            case RETURN -> line = returnToLine();
+            case NATIVE -> vmi.handleNative(instruction.getArgs());
+            case INCOMPLETE -> vmi.incomplete(a);
             default -> doNothing();
         }
     }
@@ -98,26 +240,65 @@ public class ArchVM {
         return;
     }
 
-    private void registerCall(String name, int newLine) {
-        int returnLine = line + 1;
-        line = newLine;
-        previousMethod = currentMethod;
-        calls.add(name);
-        callCount++;
-        context.addCall(name, newLine);
-        currentMethod = calls.get(callCount);
-        returnLines.put(name, returnLine);
+    /**
+     * Pushes a frame for a method call.
+     *
+     * @param methodId   The id of the method called.
+     * @param returnLine The line to return to.
+     * @return The line to continue at (the declaration of the method).
+     */
+    int registerCall(int methodId, int returnLine) {
+        int newLine = instructions.getMethodLine(methodId);
+        int next = depth + 1;
+        if (next == frameMethods.length) {
+            frameMethods = Arrays.copyOf(frameMethods, next * 2);
+            returnLines = Arrays.copyOf(returnLines, next * 2);
+        }
+        frameMethods[next] = methodId;
+        returnLines[next] = returnLine;
+        DEPTH.setRelease(this, next);
+        context.addCall(methodId, newLine);
+        return newLine;
+    }
+
+    /**
+     * Pops the frame of the current method.
+     *
+     * @return The line to continue at (past the end of the program if there is
+     *         no method to return from).
+     */
+    int returnToLine() {
+        if (depth == 0) {
+            VMError.logvm(output, "Return outside of a method.");
+            printStack();
+            return instructions.getInstructionCount() + 1; // Stop the program.
+        }
+        int returnLine = returnLines[depth];
+        DEPTH.setRelease(this, depth - 1);
+        context.addReturn(frameMethods[depth], returnLine);
+        return returnLine;
+    }
+
+    String[] getMethodNames() {
+        return instructions.getMethodNames();
+    }
+
+    // The state a SamplingProfiler reads: depth first, which makes the frames
+    // below it visible, then the line, which the engines write with plain stores.
+
+    int sampleDepth() {
+        return (int) DEPTH.getAcquire(this);
+    }
+
+    int[] sampleFrames() {
+        return (int[]) FRAME_METHODS.getAcquire(this);
     }
 
-    private void returnToLine() {
-        String temp = currentMethod;
-        currentMethod = previousMethod;
-        previousMethod = temp;
-        context.addReturn(currentMethod, returnLines.get(calls.get(callCount)));
-        line = returnLines.get(calls.get(callCount));
+    int sampleLine() {
+        return (int) LINE.getOpaque(this);
     }
 
-    private void printStack() {
-        System.out.println(context);
+    void printStack() {
+        output.println(context.toString());
     }
 }
@@ -0,0 +1,89 @@
+package com.jvs.archvm;
+
+import java.util.Date;
+
+import com.jvs.io.OutputSink;
+
+/**
+ * A .jvse program compiled to a JVM class by the {@link JVSECompiler}.
+ * <p>
+ * The generated class keeps the variables of the program in the locals of its
+ * {@link #run()} method and calls the methods of this class for everything
+ * which is not plain computation: output, errors, and the calls and returns
+ * which ArchVM records in its call stack and {@link Context}.
+ */
+public abstract class CompiledProgram {
+    private ArchVM vm;
+    private OutputSink output;
+
+    protected CompiledProgram() {
+    }
+
+    /**
+     * Runs the program.
+     *
+     * @param vm The VM whose call stack the program uses.
+     */
+    final void run(ArchVM vm) {
+        this.vm = vm;
+        this.output = vm.getOutput();
+        run();
+    }
+
+    /**
+     * Runs the compiled code of the program.
+     */
+    protected abstract void run();
+
+    /**
+     * Pushes a frame for a method call (see {@link ArchVM#registerCall}).
+     *
+     * @param methodId   The id of the method called.
+     * @param returnLine The line to return to.
+     * @return The line of the declaration of the method.
+     */
+    protected final int call(int methodId, int returnLine) {
+        return vm.registerCall(methodId, returnLine);
+    }
+
+    /**
+     * Pops the frame of the current method (see {@link ArchVM#returnToLine}).
+     *
+     * @return The line to continue at.
+     */
+    protected final int ret() {
+        return vm.returnToLine();
+    }
+
+    protected final void printStack() {
+        vm.printStack();
+    }
+
+    protected final void printTime() {
+        output.println(new Date().toString());
+    }
+
+    protected final void print(String value) {
+        output.print(value);
+    }
+
+    protected final void print(long value) {
+        output.print(value);
+    }
+
+    protected final void print(double value) {
+        output.print(value);
+    }
+
+    protected final void print(char value) {
+        output.print(value);
+    }
+
+    protected final void print(boolean value) {
+        output.print(value);
+    }
+
+    protected final void error(String message) {
+        VMError.logvm(output, message);
+    }
+}
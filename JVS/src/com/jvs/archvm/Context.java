@@ -2,100 +2,106 @@ package com.jvs.archvm;
 
 /**
  * The Context class is used to keep track of method calls.
- * It stores a string representation of the calls made, with the most recent
- * call listed last.
+ * <p>
+ * Calls and returns are recorded as primitive entries (method id and line) in
+ * a ring buffer of fixed capacity, so recording costs no allocation and only
+ * the most recent entries are kept. The entries are formatted into text only
+ * when the context is printed, with the most recent call listed last.
  */
 public class Context {
     /**
-     * A string that stores the method calls.
+     * The number of entries kept if no capacity is given.
      */
-    private String calls;
+    public static final int DEFAULT_CAPACITY = 64;
 
     /**
-     * A boolean variable to check if the call is the first one or not.
+     * The method id used for the entry point of the program.
      */
-    private boolean isFirst;
+    public static final int MAIN_METHOD = -1;
+
+    private String fileName;
+    private String[] methodNames;
+
+    private int capacity;
+    private int[] methods;
+    private int[] lines;
+    private boolean[] returns;
+    private int next;
+    private long total;
 
     /**
-     * Constructs a new Context object and initializes the calls string.
-     * It initializes the calls string.
+     * Constructs a new Context object for a program read from <STDIO>.
      */
     public Context() {
-        isFirst = true;
-        calls = "File: <STDIO>\n" +
-                "Method calls (Most recent call last):";
+        this(null);
     }
 
     /**
-     * Constructs a new Context object and initializes the calls string
-     * with the file name specified.
+     * Constructs a new Context object with the file name specified.
      *
      * @param fileName The name of the file. (<STDIO> used if null or empty.)
      */
     public Context(String fileName) {
-        isFirst = true;
-        fileName = ((fileName == null || fileName == "") ? "<STDIO>" : fileName);
-        calls = "File: " + fileName + '\n' +
-                "Method calls (Most recent call last):";
+        this(fileName, new String[0], DEFAULT_CAPACITY);
     }
 
     /**
-     * Constructs a new Context object and initializes the calls string
-     * with the method name specified.
+     * Constructs a new Context object with the file name, the method names and
+     * the number of entries to keep specified.
      *
-     * @param methodName The name of the starting method. (main() used if null or
-     *                   empty..)
-     * @param line       The line number of method.
+     * @param fileName    The name of the file. (<STDIO> used if null or empty.)
+     * @param methodNames The method names, indexed by method id.
+     * @param capacity    The number of most recent calls and returns to keep (0
+     *                    disables recording).
      */
-    public Context(String methodName, int line) {
-        this();
-        addCall(methodName, line);
-        isFirst = false;
+    public Context(String fileName, String[] methodNames, int capacity) {
+        this.fileName = ((fileName == null || fileName.isEmpty()) ? "<STDIO>" : fileName);
+        this.methodNames = methodNames;
+        this.capacity = Math.max(0, capacity);
+        methods = new int[this.capacity];
+        lines = new int[this.capacity];
+        returns = new boolean[this.capacity];
+        next = 0;
+        total = 0;
     }
 
     /**
-     * Constructs a new Context object and initiates the calls string
-     * with the file name & method name specified.
+     * Records a method call.
      *
-     * @param fileName   The name of the file. (<STDIO> used if null or empty.)
-     * @param methodName The name of the starting method. (main() used if null or
-     *                   empty.)
-     * @param line       The line number of method.
+     * @param methodId The id of the method called ({@link #MAIN_METHOD} for the
+     *                 entry point).
+     * @param line     The line number of the method.
      */
-    public Context(String fileName, String methodName, int line) {
-        this(fileName);
-        addCall(methodName, line);
-        isFirst = false;
+    public void addCall(int methodId, int line) {
+        add(methodId, line, false);
     }
 
     /**
-     * Adds a method call to the calls string.
+     * Records a return to a method.
      *
-     * @param call The name of the method call to add.
-     * @param line The line number where the method call occurred.
+     * @param methodId The id of the method returned to.
+     * @param line     The line number returned to.
      */
-    public void addCall(String call, int line) {
-        calls += ((isFirst) ? '\n' : ",\n");
-        calls += "    Method call: " + call + ", Line: " + line + "";
+    public void addReturn(int methodId, int line) {
+        add(methodId, line, true);
     }
 
     /**
-     * Clears the calls string, resetting it to its initial state.
+     * Clears the recorded calls, resetting the context to its initial state.
      */
     public void clearCalls() {
-        calls = "Method calls (Most recent call last):\n" +
-                "    File: <STDIO>, Line: 1";
+        next = 0;
+        total = 0;
     }
 
     /**
-     * Adds a return method call to the calls string.
+     * Returns the number of calls and returns recorded so far (including the
+     * ones no longer kept).
      *
-     * @param call The name of the method call to add.
-     * @param line The line number where the method call occurred.
+     * @return The number of recorded entries.
      */
-    public void addReturn(String call, int line) {
-        calls += ((isFirst) ? '\n' : ",\n");
-        calls += "    Returned to method: " + call + ", Line: " + line + "";
+    public long getTotal() {
+        return total;
     }
 
     /**
@@ -105,6 +111,36 @@ public class Context {
      */
     @Override
     public String toString() {
-        return calls;
+        StringBuilder sb = new StringBuilder();
+        sb.append("File: ").append(fileName).append('\n');
+        sb.append("Method calls (Most recent call last):");
+
+        int size = (int) Math.min(total, capacity);
+        if (total > size) {
+            sb.append("\n    ... ").append(total - size).append(" earlier entries not kept");
+        }
+        int first = (total > capacity) ? next : 0;
+        for (int i = 0; i < size; i++) {
+            int index = (first + i) % capacity;
+            sb.append('\n');
+            sb.append((returns[index]) ? "    Returned to method: " : "    Method call: ");
+            sb.append(getMethodName(methods[index])).append(", Line: ").append(lines[index]);
+        }
+        return sb.toString();
+    }
+
+    private void add(int methodId, int line, boolean isReturn) {
+        if (capacity == 0) {
+            return;
+        }
+        methods[next] = methodId;
+        lines[next] = line;
+        returns[next] = isReturn;
+        next = (next + 1 == capacity) ? 0 : next + 1;
+        total++;
+    }
+
+    private String getMethodName(int methodId) {
+        return (methodId == MAIN_METHOD) ? "<main>" : methodNames[methodId];
     }
-}
\ No newline at end of file
+}
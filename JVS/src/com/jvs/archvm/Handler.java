@@ -0,0 +1,685 @@
+package com.jvs.archvm;
+
+import com.jvs.bytecode.Instruction;
+import com.jvs.bytecode.Operand;
+
+/**
+ * A Handler is an ArchVM instruction bound to the code which executes it.
+ * <p>
+ * The threaded engine of ArchVM (see {@link ArchVM#setThreaded(boolean)})
+ * binds every line of a program once to an object of the handler class of its
+ * opcode, with the operands captured as fields. Running a line is then a single
+ * call to {@link #exec(ArchVM)}, which returns the next line to run. As every
+ * handler class calls exactly one VMInterpreter method, each of these calls has
+ * a single target and can be inlined by the JIT.
+ */
+abstract class Handler {
+    protected final int next;
+
+    protected Handler(int line) {
+        next = line + 1;
+    }
+
+    /**
+     * Returns the line a jump to a target continues at. A jump to its own line
+     * goes on to the next line, as in the switch engine, which only sees a jump
+     * when the line changes.
+     *
+     * @param target The line jumped to.
+     * @return The next line to run.
+     */
+    protected final int jump(int target) {
+        return (target == next - 1) ? next : target;
+    }
+
+    /**
+     * Executes the instruction.
+     *
+     * @param vm The VM running the instruction (used by calls and returns).
+     * @return The next line to run.
+     */
+    abstract int exec(ArchVM vm);
+
+    /**
+     * Binds every line of a program to its handler.
+     *
+     * @param instructions The program.
+     * @param vmi          The interpreter holding the variables of the program.
+     * @return The handlers, indexed by line number (index 0 is unused).
+     */
+    static Handler[] bind(JVSEInstructions instructions, VMInterpreter vmi) {
+        Handler[] handlers = new Handler[instructions.getInstructionCount() + 1];
+        for (int line = 1; line < handlers.length; line++) {
+            handlers[line] = bind(instructions.getInstruction(line), line, vmi);
+        }
+        return handlers;
+    }
+
+    private static Handler bind(Instruction instruction, int line, VMInterpreter vmi) {
+        Operand[] a = instruction.getOperands();
+        return switch (instruction.getOpcode()) {
+            case PUT -> new Put(line, vmi, a[0], a[1], (a.length > 2) ? a[2] : null);
+            case SET -> new Set(line, vmi, a[0], a[1]);
+            case CAST -> new Cast(line, vmi, a[0], a[1], a[2], a[3]);
+            case IADD -> new IAdd(line, vmi, a[0], a[1], a[2]);
+            case FADD -> new FAdd(line, vmi, a[0], a[1], a[2]);
+            case ISUB -> new ISub(line, vmi, a[0], a[1], a[2]);
+            case FSUB -> new FSub(line, vmi, a[0], a[1], a[2]);
+            case IMUL -> new IMul(line, vmi, a[0], a[1], a[2]);
+            case FMUL -> new FMul(line, vmi, a[0], a[1], a[2]);
+            case IDIV -> new IDiv(line, vmi, a[0], a[1], a[2]);
+            case FDIV -> new FDiv(line, vmi, a[0], a[1], a[2]);
+            case IMOD -> new IMod(line, vmi, a[0], a[1], a[2]);
+            case FMOD -> new FMod(line, vmi, a[0], a[1], a[2]);
+            case IPOW -> new IPow(line, vmi, a[0], a[1], a[2]);
+            case FPOW -> new FPow(line, vmi, a[0], a[1], a[2]);
+            case INCR -> new Incr(line, vmi, a[0]);
+            case DECR -> new Decr(line, vmi, a[0]);
+            case CLRTLIST -> new ClrTList(line, vmi);
+            case CLRMAINL -> new ClrMainL(line, vmi);
+            case CMPGT -> new CmpGt(line, vmi, a[0], a[1], a[2]);
+            case CMPGTE -> new CmpGte(line, vmi, a[0], a[1], a[2]);
+            case CMPLT -> new CmpLt(line, vmi, a[0], a[1], a[2]);
+            case CMPLTE -> new CmpLte(line, vmi, a[0], a[1], a[2]);
+            case CMPE -> new CmpE(line, vmi, a[0], a[1], a[2]);
+            case CMPNE -> new CmpNe(line, vmi, a[0], a[1], a[2]);
+            case AND -> new And(line, vmi, a[0], a[1], a[2]);
+            case OR -> new Or(line, vmi, a[0], a[1], a[2]);
+            case XOR -> new Xor(line, vmi, a[0], a[1], a[2]);
+            case EQ -> new Eq(line, vmi, a[0], a[1], a[2]);
+            case NEQ -> new Neq(line, vmi, a[0], a[1], a[2]);
+            case NOT -> new Not(line, vmi, a[0], a[1]);
+            case ASSERT -> new Assert(line, vmi, a[0], a[1], a[2]);
+            case GOTO -> new Goto(line, (int) a[0].getIntValue());
+            case CALL -> new Call(line, a[0].getSlot());
+            case RETURN -> new Return(line);
+            case PRINT -> new Print(line, vmi, a);
+            case PRINT_TIME -> new PrintTime(line, vmi);
+            case PRINT_STACK -> new PrintStack(line);
+            case NATIVE -> new Native(line, vmi, instruction.getArgs());
+            case INCOMPLETE -> new Incomplete(line, vmi, instruction.getOperands());
+            default -> new Nop(line);
+        };
+    }
+
+    /**
+     * Base class of the instructions with two values and a target.
+     */
+    private abstract static class Binary extends Handler {
+        protected final VMInterpreter vmi;
+        protected final Operand v1, v2, target;
+
+        Binary(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line);
+            this.vmi = vmi;
+            this.v1 = v1;
+            this.v2 = v2;
+            this.target = target;
+        }
+    }
+
+    private static final class Put extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand type, name, value;
+
+        Put(int line, VMInterpreter vmi, Operand type, Operand name, Operand value) {
+            super(line);
+            this.vmi = vmi;
+            this.type = type;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.put(type, name, value);
+            return next;
+        }
+    }
+
+    private static final class Set extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand name, value;
+
+        Set(int line, VMInterpreter vmi, Operand name, Operand value) {
+            super(line);
+            this.vmi = vmi;
+            this.name = name;
+            this.value = value;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.set(name, value);
+            return next;
+        }
+    }
+
+    private static final class Cast extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand type1, type2, name, target;
+
+        Cast(int line, VMInterpreter vmi, Operand type1, Operand type2, Operand name, Operand target) {
+            super(line);
+            this.vmi = vmi;
+            this.type1 = type1;
+            this.type2 = type2;
+            this.name = name;
+            this.target = target;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cast(type1, type2, name, target);
+            return next;
+        }
+    }
+
+    private static final class IAdd extends Binary {
+        IAdd(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.iadd(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class FAdd extends Binary {
+        FAdd(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.fadd(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class ISub extends Binary {
+        ISub(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.isub(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class FSub extends Binary {
+        FSub(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.fsub(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class IMul extends Binary {
+        IMul(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.imult(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class FMul extends Binary {
+        FMul(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.fmult(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class IDiv extends Binary {
+        IDiv(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.idiv(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class FDiv extends Binary {
+        FDiv(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.fdiv(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class IMod extends Binary {
+        IMod(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.imod(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class FMod extends Binary {
+        FMod(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.fmod(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class IPow extends Binary {
+        IPow(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.ipow(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class FPow extends Binary {
+        FPow(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.fpow(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class Incr extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand v;
+
+        Incr(int line, VMInterpreter vmi, Operand v) {
+            super(line);
+            this.vmi = vmi;
+            this.v = v;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.incr(v);
+            return next;
+        }
+    }
+
+    private static final class Decr extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand v;
+
+        Decr(int line, VMInterpreter vmi, Operand v) {
+            super(line);
+            this.vmi = vmi;
+            this.v = v;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.decr(v);
+            return next;
+        }
+    }
+
+    private static final class ClrTList extends Handler {
+        private final VMInterpreter vmi;
+
+        ClrTList(int line, VMInterpreter vmi) {
+            super(line);
+            this.vmi = vmi;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.clrtlist();
+            return next;
+        }
+    }
+
+    private static final class ClrMainL extends Handler {
+        private final VMInterpreter vmi;
+
+        ClrMainL(int line, VMInterpreter vmi) {
+            super(line);
+            this.vmi = vmi;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.clrmainl();
+            return next;
+        }
+    }
+
+    private static final class CmpGt extends Binary {
+        CmpGt(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cmpgt(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class CmpGte extends Binary {
+        CmpGte(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cmpgte(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class CmpLt extends Binary {
+        CmpLt(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cmplt(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class CmpLte extends Binary {
+        CmpLte(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cmplte(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class CmpE extends Binary {
+        CmpE(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cmpe(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class CmpNe extends Binary {
+        CmpNe(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.cmpne(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class And extends Binary {
+        And(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.and(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class Or extends Binary {
+        Or(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.or(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class Xor extends Binary {
+        Xor(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.xor(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class Eq extends Binary {
+        Eq(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.eq(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class Neq extends Binary {
+        Neq(int line, VMInterpreter vmi, Operand v1, Operand v2, Operand target) {
+            super(line, vmi, v1, v2, target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.neq(v1, v2, target);
+            return next;
+        }
+    }
+
+    private static final class Not extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand v1, target;
+
+        Not(int line, VMInterpreter vmi, Operand v1, Operand target) {
+            super(line);
+            this.vmi = vmi;
+            this.v1 = v1;
+            this.target = target;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.not(v1, target);
+            return next;
+        }
+    }
+
+    private static final class Assert extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand condition, trueLine, falseLine;
+
+        Assert(int line, VMInterpreter vmi, Operand condition, Operand trueLine, Operand falseLine) {
+            super(line);
+            this.vmi = vmi;
+            this.condition = condition;
+            this.trueLine = trueLine;
+            this.falseLine = falseLine;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            return jump(vmi.azzert(condition, trueLine, falseLine));
+        }
+    }
+
+    private static final class Goto extends Handler {
+        private final int target;
+
+        Goto(int line, int target) {
+            super(line);
+            this.target = jump(target);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            return target;
+        }
+    }
+
+    private static final class Call extends Handler {
+        private final int methodId;
+
+        Call(int line, int methodId) {
+            super(line);
+            this.methodId = methodId;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            return vm.registerCall(methodId, next);
+        }
+    }
+
+    private static final class Return extends Handler {
+        Return(int line) {
+            super(line);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            return jump(vm.returnToLine());
+        }
+    }
+
+    private static final class Print extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand[] parts;
+
+        Print(int line, VMInterpreter vmi, Operand[] parts) {
+            super(line);
+            this.vmi = vmi;
+            this.parts = parts;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.print(parts);
+            return next;
+        }
+    }
+
+    private static final class PrintTime extends Handler {
+        private final VMInterpreter vmi;
+
+        PrintTime(int line, VMInterpreter vmi) {
+            super(line);
+            this.vmi = vmi;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.printTime();
+            return next;
+        }
+    }
+
+    private static final class PrintStack extends Handler {
+        PrintStack(int line) {
+            super(line);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vm.printStack();
+            return next;
+        }
+    }
+
+    private static final class Incomplete extends Handler {
+        private final VMInterpreter vmi;
+        private final Operand[] values;
+
+        Incomplete(int line, VMInterpreter vmi, Operand[] values) {
+            super(line);
+            this.vmi = vmi;
+            this.values = values;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.incomplete(values);
+            return next;
+        }
+    }
+
+    private static final class Native extends Handler {
+        private final VMInterpreter vmi;
+        private final String args;
+
+        Native(int line, VMInterpreter vmi, String args) {
+            super(line);
+            this.vmi = vmi;
+            this.args = args;
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            vmi.handleNative(args);
+            return next;
+        }
+    }
+
+    /**
+     * Handler of the lines which do nothing (empty lines, method declarations and
+     * markers).
+     */
+    private static final class Nop extends Handler {
+        Nop(int line) {
+            super(line);
+        }
+
+        @Override
+        int exec(ArchVM vm) {
+            return next;
+        }
+    }
+}
@@ -0,0 +1,979 @@
+package com.jvs.archvm;
+
+import static com.jvs.jit.MethodWriter.*;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntConsumer;
+
+import com.jvs.bytecode.Instruction;
+import com.jvs.bytecode.Opcode;
+import com.jvs.bytecode.Operand;
+import com.jvs.jit.ClassWriter;
+import com.jvs.jit.MethodWriter;
+
+/**
+ * Compiles a .jvse program ahead of time to a JVM class (a
+ * {@link CompiledProgram}), which ArchVM runs instead of interpreting the
+ * program (see {@link ArchVM#setCompiled(boolean)}).
+ * <p>
+ * The whole program becomes the single method {@code run()}. Every variable
+ * becomes a JVM local holding its type code, plus one typed local (long,
+ * double or int) for each type the variable can ever hold: the types given to
+ * a main variable by its put instructions, and the types of the values written
+ * to a temporary variable. Reading or writing a variable tests its type code
+ * only against these types, so that the compiled code keeps the dynamic typing
+ * and the error messages of {@link VMInterpreter} without looking anything up.
+ * Jumps and calls become gotos to the labels of their lines; a return jumps to
+ * a lookupswitch over the lines following the calls. The call stack is still
+ * kept by ArchVM, so PRINTSTACK and errors show the same context.
+ * <p>
+ * The compiled classes can be cached in a directory. The name of a class, and
+ * of its file, holds a hash of the source and of {@link #VERSION}, so a changed
+ * source or another version of the compiler looks for another file. A file is
+ * written to a temporary file first and then renamed, so runs sharing the
+ * cache never load a partially written class.
+ */
+final class JVSECompiler {
+    /** The version of the generated code, to be increased whenever it changes. */
+    static final int VERSION = 8;
+
+    private static final String SUPER = "com/jvs/archvm/CompiledProgram";
+    private static final String CLASS_PREFIX = "JVSEProgram_";
+
+    // The local holding the line a return continues at ("this" is local 0).
+    private static final int LINE = 1;
+    private static final int MAX_STACK = 8;
+
+    private static final int NUMBERS = bit(VarManager.INT) | bit(VarManager.FLOAT) | bit(VarManager.CHAR);
+    private static final int ALL_TYPES = NUMBERS | bit(VarManager.BOOLEAN);
+
+    /** The locals of a variable. */
+    private static final class Variable {
+        int types; // The types the variable can hold, as bits (1 << type code).
+        int tag = -1; // The local holding the type code.
+        int defined = -1; // The local holding the types put since the last clear (main only).
+        final int[] values = new int[VarManager.BOOLEAN + 1]; // The local of each type.
+
+        boolean can(int type) {
+            return (types & bit(type)) != 0;
+        }
+    }
+
+    private final JVSEInstructions instructions;
+    private final Variable[] main, temp;
+    private MethodWriter m;
+    private Label[] lines;
+    private Label dispatch;
+    private int locals = LINE + 1;
+
+    private JVSECompiler(JVSEInstructions instructions) {
+        this.instructions = instructions;
+        main = variables(instructions.getMainSymbols().length);
+        temp = variables(instructions.getTempSymbols().length);
+    }
+
+    private static Variable[] variables(int count) {
+        Variable[] variables = new Variable[count];
+        for (int i = 0; i < count; i++) {
+            variables[i] = new Variable();
+        }
+        return variables;
+    }
+
+    private static int bit(int type) {
+        return 1 << type;
+    }
+
+    /**
+     * Returns a program compiled to a class, from the cache if it holds a class
+     * compiled from the same source.
+     *
+     * @param file         The .jvse file of the program.
+     * @param instructions The program, as loaded from the file.
+     * @param cache        The directory of the cached classes (null for none).
+     * @return A new instance of the compiled class.
+     * @throws IllegalStateException If the program cannot be compiled.
+     */
+    static CompiledProgram load(String file, JVSEInstructions instructions, Path cache) {
+        String name = CLASS_PREFIX + hash(file);
+        Path cached = null;
+        if (cache != null) {
+            cached = cache.resolve(name + ".class");
+            if (Files.isRegularFile(cached)) {
+                try {
+                    return instantiate(name, Files.readAllBytes(cached));
+                } catch (IOException | LinkageError e) {
+                    // Damaged, compile it again.
+                }
+            }
+        }
+
+        byte[] bytes = new JVSECompiler(instructions).compile(name);
+        if (cached != null) {
+            try {
+                Files.createDirectories(cache);
+                write(cached, bytes);
+            } catch (IOException e) {
+                System.err.println("Cannot cache the compiled class of " + file + ": " + e.getMessage());
+            }
+        }
+        return instantiate(name, bytes);
+    }
+
+    /**
+     * Writes a file through a temporary file next to it, renamed to the file
+     * once complete.
+     */
+    private static void write(Path target, byte[] bytes) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + "."
+                + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+        try {
+            Files.write(temp, bytes, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static String hash(String file) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(Files.readAllBytes(Path.of(file)));
+            digest.update((byte) VERSION);
+            StringBuilder hex = new StringBuilder();
+            byte[] bytes = digest.digest();
+            for (int i = 0; i < 16; i++) {
+                hex.append(String.format("%02x", bytes[i]));
+            }
+            return hex.toString();
+        } catch (IOException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Cannot read " + file, e);
+        }
+    }
+
+    private static final class Loader extends ClassLoader {
+        Loader() {
+            super(CompiledProgram.class.getClassLoader());
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static CompiledProgram instantiate(String name, byte[] bytes) {
+        Class<?> type = new Loader().define(name, bytes);
+        try {
+            return (CompiledProgram) type.getDeclaredConstructor().newInstance();
+        } catch (InvocationTargetException | InstantiationException | IllegalAccessException
+                | NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // COMPILATION
+
+    /**
+     * Compiles the program.
+     *
+     * @param name The name of the class.
+     * @return The class file.
+     * @throws IllegalStateException If the program uses an instruction which is
+     *                               not compiled or is too large for a method.
+     */
+    private byte[] compile(String name) {
+        Instruction[] code = instructions.getInstructions();
+        int count = instructions.getInstructionCount();
+        for (int line = 1; line <= count; line++) {
+            analyse(code[line]);
+        }
+
+        ClassWriter cw = new ClassWriter(name, SUPER);
+        MethodWriter init = cw.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+        init.local(ALOAD, 0);
+        init.invoke(INVOKESPECIAL, SUPER, "<init>", "()V");
+        init.op(RETURN);
+        init.setMaxs(1, 1);
+
+        m = cw.addMethod(ClassWriter.ACC_PROTECTED, "run", "()V");
+        allocate(main);
+        allocate(temp);
+
+        lines = new Label[count + 2];
+        for (int line = 1; line <= count + 1; line++) {
+            lines[line] = m.newLabel();
+        }
+        dispatch = m.newLabel();
+        TreeSet<Integer> returnLines = new TreeSet<>();
+        returnLines.add(count + 1); // A return outside of a method stops the program.
+        for (int line = 1; line <= count; line++) {
+            m.place(lines[line]);
+            if (code[line].getOpcode() == Opcode.CALL) {
+                returnLines.add(line + 1);
+            }
+            emit(code[line], line);
+        }
+        m.place(lines[count + 1]);
+        m.op(RETURN);
+
+        m.place(dispatch);
+        m.local(ILOAD, LINE);
+        int[] keys = returnLines.stream().mapToInt(Integer::intValue).toArray();
+        Label[] targets = new Label[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            targets[i] = lines[keys[i]];
+        }
+        m.lookupswitch(lines[count + 1], keys, targets);
+        m.setMaxs(MAX_STACK, locals);
+        return cw.toByteArray();
+    }
+
+    /**
+     * Collects the types the variables of an instruction can hold.
+     */
+    private void analyse(Instruction instruction) {
+        Operand[] a = instruction.getOperands();
+        for (Operand operand : a) {
+            if (operand.getKind() != Operand.MAIN && operand.getMainSlot() >= 0) {
+                // Only the interpreter looks such a name up in both lists.
+                throw new IllegalStateException("the main variable " + operand.getText() + " is not compiled");
+            }
+        }
+        switch (instruction.getOpcode()) {
+            case PUT -> {
+                if (a[0].getTypeCode() != VarManager.UNDEFINED) {
+                    main[a[1].getSlot()].types |= bit(a[0].getTypeCode());
+                }
+            }
+            case IADD, ISUB, IMUL, IDIV, IMOD, IPOW -> written(a[2], VarManager.INT);
+            case FADD, FSUB, FMUL, FDIV, FMOD, FPOW -> written(a[2], VarManager.FLOAT);
+            case CMPGT, CMPGTE, CMPLT, CMPLTE, CMPE, CMPNE, AND, OR, XOR, EQ, NEQ ->
+                written(a[2], VarManager.BOOLEAN);
+            case NOT -> written(a[1], VarManager.BOOLEAN);
+            case NATIVE -> throw new IllegalStateException("native calls are not compiled");
+            default -> {
+            }
+        }
+    }
+
+    private void written(Operand target, int type) {
+        if (target.isTemp()) {
+            temp[target.getSlot()].types |= bit(type);
+        }
+    }
+
+    private static boolean isCompatible(int type1, int type2) {
+        return type1 >= 1 && type1 <= 3 && type2 >= 1 && type2 <= 3;
+    }
+
+    /**
+     * Gives the variables their locals and initializes them (the verifier needs
+     * every local to be set before it is read).
+     */
+    private void allocate(Variable[] variables) {
+        for (Variable v : variables) {
+            if (v.types == 0) {
+                continue; // Never defined, reading it always fails.
+            }
+            v.tag = locals++;
+            m.iconst(VarManager.UNDEFINED);
+            m.local(ISTORE, v.tag);
+            if (variables == main) {
+                v.defined = locals++;
+                m.iconst(0);
+                m.local(ISTORE, v.defined);
+            }
+            for (int type = VarManager.INT; type <= VarManager.BOOLEAN; type++) {
+                if (v.can(type)) {
+                    v.values[type] = locals;
+                    locals += (type == VarManager.CHAR || type == VarManager.BOOLEAN) ? 1 : 2;
+                    zero(type);
+                    store(v, type);
+                }
+            }
+        }
+    }
+
+    private void emit(Instruction instruction, int line) {
+        Operand[] a = instruction.getOperands();
+        switch (instruction.getOpcode()) {
+            case PUT -> put(a[0], a[1], (a.length > 2) ? a[2] : null);
+            case SET -> set(a[0], a[1]);
+            case CAST -> cast(a[0], a[1], a[2], a[3]);
+            case IADD -> intOp(a, LADD);
+            case ISUB -> intOp(a, LSUB);
+            case IMUL -> intOp(a, LMUL);
+            case IDIV -> intOp(a, LDIV);
+            case IMOD -> intOp(a, LREM);
+            case IPOW -> {
+                readInt(a[0]);
+                ifInt(a[1], () -> {
+                    m.op(L2D);
+                    loadInt(a[1]);
+                    m.op(L2D);
+                    m.invoke(INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+                    m.op(D2L);
+                });
+                writeInt(a[2], a[0]);
+            }
+            case FADD -> floatOp(a, DADD);
+            case FSUB -> floatOp(a, DSUB);
+            case FMUL -> floatOp(a, DMUL);
+            case FDIV -> floatOp(a, DDIV);
+            case FMOD -> floatOp(a, DREM);
+            case FPOW -> {
+                readFloat(a[0]);
+                ifFloat(a[1], () -> {
+                    loadFloat(a[1]);
+                    m.invoke(INVOKESTATIC, "java/lang/Math", "pow", "(DD)D");
+                });
+                writeFloat(a[2], a[0]);
+            }
+            case INCR -> step(a[0], true);
+            case DECR -> step(a[0], false);
+            case CLRTLIST -> clear(temp);
+            case CLRMAINL -> clear(main);
+            // NaN compares false with dcmpl for > and with dcmpg for <, as in Java.
+            case CMPGT -> compare(a, DCMPL, IFGT);
+            case CMPGTE -> compare(a, DCMPL, IFGE);
+            case CMPLT -> compare(a, DCMPG, IFLT);
+            case CMPLTE -> compare(a, DCMPG, IFLE);
+            case CMPE -> compare(a, DCMPL, IFEQ);
+            case CMPNE -> compare(a, DCMPL, IFNE);
+            // Both operands are always read, so both report their errors.
+            case AND -> logic(a, IAND);
+            case OR -> logic(a, IOR);
+            case XOR, NEQ -> logic(a, IXOR);
+            case EQ -> {
+                readBoolean(a[0]);
+                readBoolean(a[1]);
+                m.op(IXOR);
+                m.iconst(1);
+                m.op(IXOR);
+                writeBoolean(a[2], false);
+            }
+            case NOT -> {
+                readBoolean(a[0]);
+                m.iconst(1);
+                m.op(IXOR);
+                writeBoolean(a[1], false);
+            }
+            case ASSERT -> {
+                readBoolean(a[0]);
+                m.jump(IFEQ, jump((int) a[2].getIntValue(), line));
+                m.jump(GOTO, jump((int) a[1].getIntValue(), line));
+            }
+            case GOTO -> m.jump(GOTO, jump((int) a[0].getIntValue(), line));
+            case CALL -> {
+                int id = a[0].getSlot();
+                m.local(ALOAD, 0);
+                m.iconst(id);
+                m.iconst(line + 1);
+                m.invoke(INVOKEVIRTUAL, SUPER, "call", "(II)I");
+                m.op(POP);
+                m.jump(GOTO, lines[instructions.getMethodLine(id)]);
+            }
+            case RETURN -> {
+                m.local(ALOAD, 0);
+                m.invoke(INVOKEVIRTUAL, SUPER, "ret", "()I");
+                m.local(ISTORE, LINE);
+                if (line > 1 && instructions.getInstruction(line - 1).getOpcode() == Opcode.CALL) {
+                    // Returning to this very line goes on to the next one.
+                    m.local(ILOAD, LINE);
+                    m.iconst(line);
+                    m.jump(IF_ICMPEQ, lines[line + 1]);
+                }
+                m.jump(GOTO, dispatch);
+            }
+            case PRINT -> print(a);
+            case PRINT_TIME -> {
+                m.local(ALOAD, 0);
+                m.invoke(INVOKEVIRTUAL, SUPER, "printTime", "()V");
+            }
+            case PRINT_STACK -> {
+                m.local(ALOAD, 0);
+                m.invoke(INVOKEVIRTUAL, SUPER, "printStack", "()V");
+            }
+            case INCOMPLETE -> {
+                // Reads the arguments it has, then fails as reading the missing ones did.
+                for (Operand operand : a) {
+                    readBoolean(operand);
+                    m.op(POP);
+                }
+                m.type(NEW, "java/util/NoSuchElementException");
+                m.op(DUP);
+                m.invoke(INVOKESPECIAL, "java/util/NoSuchElementException", "<init>", "()V");
+                m.op(ATHROW);
+            }
+            default -> {
+                // FUNCDEC, EMPTYLINE and EOF do nothing.
+            }
+        }
+    }
+
+    // INSTRUCTIONS
+
+    private void put(Operand type, Operand name, Operand value) {
+        int typeCode = type.getTypeCode();
+        if (typeCode == VarManager.UNDEFINED) {
+            error("Invalid type: " + type.getText());
+            return;
+        }
+        if (value != null && !parses(typeCode, value)) {
+            return;
+        }
+        if (value != null && typeCode == VarManager.CHAR && value.getText().isEmpty()) {
+            // Fails as taking the first character of the empty value did.
+            m.sconst("");
+            m.iconst(0);
+            m.invoke(INVOKEVIRTUAL, "java/lang/String", "charAt", "(I)C");
+            m.op(POP);
+            return;
+        }
+
+        // A type the variable was already defined with since the last clear keeps
+        // its value (see VarManager.define).
+        Variable v = main[name.getSlot()];
+        Label defined = m.newLabel();
+        m.local(ILOAD, v.defined);
+        m.iconst(bit(typeCode));
+        m.op(IAND);
+        m.jump(IFNE, defined);
+        m.local(ILOAD, v.defined);
+        m.iconst(bit(typeCode));
+        m.op(IOR);
+        m.local(ISTORE, v.defined);
+        if (value != null) {
+            constant(typeCode, value);
+        } else {
+            zero(typeCode);
+        }
+        store(v, typeCode);
+        m.place(defined);
+        m.iconst(typeCode);
+        m.local(ISTORE, v.tag);
+    }
+
+    private void set(Operand name, Operand value) {
+        Variable v = mainVariable(name);
+        switchType(v, ALL_TYPES, type -> {
+            if (parses(type, value)) {
+                constant(type, value);
+                store(v, type);
+            }
+        }, () -> error("Variable not found: " + name.getText()));
+    }
+
+    /**
+     * Tells whether put and set can store a value as a variable of a type. For
+     * an int or a float which they cannot, emits the parse which then failed.
+     */
+    private boolean parses(int type, Operand value) {
+        if (type == VarManager.INT && !(value.isInt() && value.getIntValue() == (int) value.getIntValue())) {
+            m.sconst(value.getText());
+            m.invoke(INVOKESTATIC, "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I");
+            m.op(POP);
+            return false;
+        }
+        if (type == VarManager.FLOAT && !value.isFloat()) {
+            m.sconst(value.getText());
+            m.invoke(INVOKESTATIC, "java/lang/Float", "parseFloat", "(Ljava/lang/String;)F");
+            m.op(POP);
+            return false;
+        }
+        return true;
+    }
+
+    /** Pushes a value as put and set store it (a float rounded to a Java float). */
+    private void constant(int type, Operand value) {
+        switch (type) {
+            case VarManager.INT -> m.lconst(value.getIntValue());
+            case VarManager.FLOAT -> m.dconst(value.getSingleValue());
+            case VarManager.CHAR -> m.iconst(value.getCharValue());
+            default -> m.iconst(value.getBoolValue() ? 1 : 0);
+        }
+    }
+
+    private void cast(Operand type1, Operand type2, Operand name, Operand target) {
+        Variable v = variable(name);
+        Variable t = mainVariable(target);
+        if (!isCompatible(type1.getTypeCode(), type2.getTypeCode()) || v == null || v.types == 0 || t == null
+                || t.types == 0) {
+            return; // Nothing is done, as when either variable is undefined.
+        }
+        int to = type2.getTypeCode();
+        Label done = m.newLabel();
+        m.local(ILOAD, v.tag);
+        m.jump(IFEQ, done);
+        m.local(ILOAD, t.tag);
+        m.jump(IFEQ, done);
+        // Wherever the source is, it is read from the main list, as a variable of
+        // the type cast to.
+        String notFound = "Variable " + name.getText() + " not found or invalid type";
+        if (name.isTemp()) {
+            error(notFound);
+            zero(to);
+        } else {
+            switchType(v, bit(to), type -> load(v, type), () -> {
+                error(notFound);
+                zero(to);
+            });
+        }
+        setVar(t, to, () -> m.op((to == VarManager.CHAR) ? POP : POP2));
+        m.place(done);
+    }
+
+    /**
+     * Returns the label a jump goes to: the target, or the next line for a jump
+     * to its own line (see {@link Handler#jump(int)}).
+     */
+    private Label jump(int target, int line) {
+        return lines[(target == line) ? line + 1 : target];
+    }
+
+    /**
+     * Compiles an int operation: the first operand is the result, to which the
+     * operation applies the second one only if it is found.
+     */
+    private void intOp(Operand[] a, int opcode) {
+        readInt(a[0]);
+        ifInt(a[1], () -> {
+            loadInt(a[1]);
+            m.op(opcode);
+        });
+        writeInt(a[2], a[0]);
+    }
+
+    private void floatOp(Operand[] a, int opcode) {
+        readFloat(a[0]);
+        ifFloat(a[1], () -> {
+            loadFloat(a[1]);
+            m.op(opcode);
+        });
+        writeFloat(a[2], a[0]);
+    }
+
+    private void step(Operand operand, boolean up) {
+        Variable v = mainVariable(operand);
+        switchType(v, NUMBERS, type -> {
+            load(v, type);
+            switch (type) {
+                case VarManager.INT -> {
+                    m.lconst(1);
+                    m.op(up ? LADD : LSUB);
+                    store(v, type);
+                }
+                case VarManager.FLOAT -> {
+                    m.dconst(1.0);
+                    m.op(up ? DADD : DSUB);
+                    store(v, type);
+                }
+                default -> {
+                    // The sum is an int, which a char variable does not take.
+                    m.iconst(up ? 1 : -1);
+                    m.op(IADD);
+                    mismatch("java/lang/Integer", "I", VarManager.CHAR);
+                }
+            }
+        }, () -> {
+        });
+    }
+
+    private void clear(Variable[] variables) {
+        for (Variable v : variables) {
+            if (v.tag >= 0) {
+                m.iconst(VarManager.UNDEFINED);
+                m.local(ISTORE, v.tag);
+            }
+            if (v.defined >= 0) {
+                m.iconst(0);
+                m.local(ISTORE, v.defined);
+            }
+        }
+    }
+
+    private void compare(Operand[] a, int compare, int branch) {
+        readNumber(a[0]);
+        readNumber(a[1]);
+        m.op(compare);
+        bool(branch);
+        writeBoolean(a[2], true);
+    }
+
+    /** Turns the condition of a branch on the int on the stack into 1 or 0. */
+    private void bool(int branch) {
+        Label isTrue = m.newLabel();
+        Label done = m.newLabel();
+        m.jump(branch, isTrue);
+        m.iconst(0);
+        m.jump(GOTO, done);
+        m.place(isTrue);
+        m.iconst(1);
+        m.place(done);
+    }
+
+    private void logic(Operand[] a, int opcode) {
+        readBoolean(a[0]);
+        readBoolean(a[1]);
+        m.op(opcode);
+        writeBoolean(a[2], false);
+    }
+
+    private void print(Operand[] parts) {
+        for (Operand part : parts) {
+            if (part.getKind() == Operand.STRING) {
+                m.local(ALOAD, 0);
+                m.sconst(part.getText());
+                m.invoke(INVOKEVIRTUAL, SUPER, "print", "(Ljava/lang/String;)V");
+                continue;
+            }
+            Variable v = variable(part);
+            switchType(v, ALL_TYPES, type -> {
+                m.local(ALOAD, 0);
+                load(v, type);
+                String descriptor = switch (type) {
+                    case VarManager.INT -> "(J)V";
+                    case VarManager.FLOAT -> "(D)V";
+                    case VarManager.CHAR -> "(C)V";
+                    default -> "(Z)V";
+                };
+                m.invoke(INVOKEVIRTUAL, SUPER, "print", descriptor);
+            }, () -> error("Invalid arguments."));
+        }
+    }
+
+    // READS (leaving the value on the stack)
+
+    private void readInt(Operand operand) {
+        if (operand.isInt()) {
+            loadInt(operand);
+            return;
+        }
+        Variable v = variable(operand);
+        switchType(v, bit(VarManager.INT), type -> load(v, type), () -> {
+            error("Variable not found: " + operand.getText());
+            m.lconst(0);
+        });
+    }
+
+    /**
+     * Emits code run only if an operand is an int, which else reports it as not
+     * found.
+     */
+    private void ifInt(Operand operand, Runnable found) {
+        if (operand.isInt()) {
+            found.run();
+            return;
+        }
+        Variable v = variable(operand);
+        switchType(v, bit(VarManager.INT), type -> found.run(),
+                () -> error("Variable not found: " + operand.getText()));
+    }
+
+    /** Loads an operand known to be an int (see {@link #ifInt}). */
+    private void loadInt(Operand operand) {
+        if (!operand.isInt()) {
+            load(variable(operand), VarManager.INT);
+        } else if (operand.getIntValue() == (int) operand.getIntValue()) {
+            m.lconst(operand.getIntValue());
+        } else {
+            // Fails as the interpreter, which parses int literals as Java ints.
+            m.sconst(operand.getText());
+            m.invoke(INVOKESTATIC, "java/lang/Integer", "parseInt", "(Ljava/lang/String;)I");
+            m.op(I2L);
+        }
+    }
+
+    private void readFloat(Operand operand) {
+        if (operand.isFloat()) {
+            m.dconst(operand.getFloatValue());
+            return;
+        }
+        Variable v = variable(operand);
+        switchType(v, bit(VarManager.FLOAT), type -> load(v, type), () -> {
+            error("Variable not found: " + operand.getText());
+            m.dconst(0);
+        });
+    }
+
+    private void ifFloat(Operand operand, Runnable found) {
+        if (operand.isFloat()) {
+            found.run();
+            return;
+        }
+        Variable v = variable(operand);
+        switchType(v, bit(VarManager.FLOAT), type -> found.run(),
+                () -> error("Variable not found: " + operand.getText()));
+    }
+
+    private void loadFloat(Operand operand) {
+        if (operand.isFloat()) {
+            m.dconst(operand.getFloatValue());
+        } else {
+            load(variable(operand), VarManager.FLOAT);
+        }
+    }
+
+    private void readNumber(Operand operand) {
+        if (operand.isFloat()) {
+            m.dconst(operand.getFloatValue());
+            return;
+        }
+        Variable v = variable(operand);
+        switchType(v, NUMBERS, type -> {
+            load(v, type);
+            if (type == VarManager.INT) {
+                m.op(L2D);
+            } else if (type == VarManager.CHAR) {
+                m.op(I2D);
+            }
+        }, () -> {
+            errorByType(v, NUMBERS, "Invalid type for comparison (Only int, float and char allowed).",
+                    "Invalid value for comparison.");
+            m.dconst(0);
+        });
+    }
+
+    private void readBoolean(Operand operand) {
+        if (operand.isBoolean()) {
+            m.iconst(operand.getBoolValue() ? 1 : 0);
+            return;
+        }
+        Variable v = variable(operand);
+        switchType(v, bit(VarManager.BOOLEAN), type -> load(v, type), () -> {
+            errorByType(v, bit(VarManager.BOOLEAN),
+                    "Variable " + operand.getText() + " not found or invalid type", "Invalid value.");
+            m.iconst(0);
+        });
+    }
+
+    // WRITES (taking the value from the stack)
+
+    /**
+     * Writes the int result of an operation: to an undefined temporary variable,
+     * or to a main variable (see {@link #setVar}).
+     *
+     * @param target The variable.
+     * @param first  The first operand, named by the error of an undefined target.
+     */
+    private void writeInt(Operand target, Operand first) {
+        writeNumber(target, VarManager.INT, first);
+    }
+
+    private void writeFloat(Operand target, Operand first) {
+        writeNumber(target, VarManager.FLOAT, first);
+    }
+
+    private void writeNumber(Operand target, int type, Operand first) {
+        if (target.isTemp()) {
+            Variable v = temp[target.getSlot()];
+            Label store = m.newLabel();
+            Label done = m.newLabel();
+            m.local(ILOAD, v.tag);
+            m.jump(IFEQ, store);
+            m.op(POP2);
+            error("Invalid type for variable " + target.getText());
+            m.jump(GOTO, done);
+            m.place(store);
+            store(v, type);
+            m.iconst(type);
+            m.local(ISTORE, v.tag);
+            m.place(done);
+            return;
+        }
+        setVar(mainVariable(target), type, () -> {
+            m.op(POP2);
+            error("Variable not found: " + first.getText());
+        });
+    }
+
+    /**
+     * Writes a boolean to a main variable, or else to a temporary one, which is
+     * defined if it is not.
+     *
+     * @param target The variable.
+     * @param report Whether to report a target which is neither.
+     */
+    private void writeBoolean(Operand target, boolean report) {
+        if (target.isTemp()) {
+            Variable v = temp[target.getSlot()];
+            setVar(v, VarManager.BOOLEAN, () -> {
+                store(v, VarManager.BOOLEAN);
+                m.iconst(VarManager.BOOLEAN);
+                m.local(ISTORE, v.tag);
+            });
+            return;
+        }
+        setVar(mainVariable(target), VarManager.BOOLEAN, () -> {
+            m.op(POP);
+            if (report) {
+                error("Target variable not found.");
+            }
+        });
+    }
+
+    /**
+     * Writes a value to a variable as {@link VarManager#setVar(int, Object)}
+     * does: an int or a float is converted for an int or float variable, and a
+     * char or a boolean only goes to a variable of its type. Any other write
+     * fails with the same ClassCastException.
+     *
+     * @param v         The variable (null if the operand is a literal).
+     * @param type      The type of the value.
+     * @param undefined Emits the code for an undefined variable.
+     */
+    private void setVar(Variable v, int type, Runnable undefined) {
+        boolean number = type == VarManager.INT || type == VarManager.FLOAT;
+        switchType(v, ALL_TYPES, to -> {
+            if (to == type) {
+                store(v, to);
+            } else if (number && to == VarManager.INT) {
+                m.op(D2L);
+                store(v, to);
+            } else if (number && to == VarManager.FLOAT) {
+                m.op(L2D);
+                store(v, to);
+            } else {
+                switch (type) {
+                    case VarManager.INT -> mismatch("java/lang/Long", "J", to);
+                    case VarManager.FLOAT -> mismatch("java/lang/Double", "D", to);
+                    case VarManager.CHAR -> mismatch("java/lang/Character", "C", to);
+                    default -> mismatch("java/lang/Boolean", "Z", to);
+                }
+            }
+        }, undefined);
+    }
+
+    /**
+     * Boxes the value on the stack and casts it to the class a variable of a
+     * type takes, which throws the ClassCastException of the interpreter.
+     */
+    private void mismatch(String box, String primitive, int type) {
+        m.invoke(INVOKESTATIC, box, "valueOf", "(" + primitive + ")L" + box + ";");
+        m.type(CHECKCAST, switch (type) {
+            case VarManager.INT, VarManager.FLOAT -> "java/lang/Number";
+            case VarManager.CHAR -> "java/lang/Character";
+            default -> "java/lang/Boolean";
+        });
+        m.op(POP);
+    }
+
+    // VARIABLES
+
+    /**
+     * Returns the variable of an operand.
+     *
+     * @return The variable, or null for a literal (which reads as undefined).
+     */
+    private Variable variable(Operand operand) {
+        if (!operand.isVariable()) {
+            return null;
+        }
+        return (operand.isTemp()) ? temp[operand.getSlot()] : main[operand.getSlot()];
+    }
+
+    /**
+     * Returns the main variable of an operand, for the instructions which only
+     * look names up in the main list.
+     *
+     * @return The variable, or null for a temporary variable or a literal.
+     */
+    private Variable mainVariable(Operand operand) {
+        return (operand.getKind() == Operand.MAIN) ? main[operand.getSlot()] : null;
+    }
+
+    /**
+     * Emits a switch over the type a variable holds at run time, with a case for
+     * each of the given types the variable can hold.
+     *
+     * @param v         The variable (null if the operand is a literal).
+     * @param types     The types with a case, as bits.
+     * @param onType    Emits the case of a type.
+     * @param otherwise Emits the code for all other types, and for undefined.
+     */
+    private void switchType(Variable v, int types, IntConsumer onType, Runnable otherwise) {
+        Label done = m.newLabel();
+        for (int type = VarManager.INT; v != null && type <= VarManager.BOOLEAN; type++) {
+            if (v.can(type) && (types & bit(type)) != 0) {
+                Label next = m.newLabel();
+                m.local(ILOAD, v.tag);
+                m.iconst(type);
+                m.jump(IF_ICMPNE, next);
+                onType.accept(type);
+                m.jump(GOTO, done);
+                m.place(next);
+            }
+        }
+        otherwise.run();
+        m.place(done);
+    }
+
+    /**
+     * Emits the error of the otherwise case of {@link #switchType}, which tells
+     * an undefined variable apart from one holding a type without a case.
+     */
+    private void errorByType(Variable v, int types, String wrongType, String undefined) {
+        if (v == null || (v.types & ~types) == 0) {
+            error(undefined);
+            return;
+        }
+        Label isUndefined = m.newLabel();
+        Label done = m.newLabel();
+        m.local(ILOAD, v.tag);
+        m.jump(IFEQ, isUndefined);
+        error(wrongType);
+        m.jump(GOTO, done);
+        m.place(isUndefined);
+        error(undefined);
+        m.place(done);
+    }
+
+    private void load(Variable v, int type) {
+        m.local(switch (type) {
+            case VarManager.INT -> LLOAD;
+            case VarManager.FLOAT -> DLOAD;
+            default -> ILOAD;
+        }, v.values[type]);
+    }
+
+    private void store(Variable v, int type) {
+        m.local(switch (type) {
+            case VarManager.INT -> LSTORE;
+            case VarManager.FLOAT -> DSTORE;
+            default -> ISTORE;
+        }, v.values[type]);
+    }
+
+    private void zero(int type) {
+        switch (type) {
+            case VarManager.INT -> m.lconst(0);
+            case VarManager.FLOAT -> m.dconst(0);
+            default -> m.iconst(0);
+        }
+    }
+
+    private void error(String message) {
+        m.local(ALOAD, 0);
+        m.sconst(message);
+        m.invoke(INVOKEVIRTUAL, SUPER, "error", "(Ljava/lang/String;)V");
+    }
+}
@@ -8,24 +8,42 @@ import com.jvs.bytecode.*;
  * The JVSEInstructions class manages a collection of instructions and methods.
  * It provides methods to retrieve instructions and method indices, as well as
  * counts of instructions and methods.
+ * <p>
+ * The instructions are kept in a dense array indexed by their (1-based) line
+ * number, and every method has an integer id (in the order of declaration)
+ * which CALL instructions are resolved to when the program is loaded.
  */
 public class JVSEInstructions {
-    private Map<Integer, Instruction> instructions;
+    private Instruction[] instructions;
     private Map<String, Integer> methods;
+    private String[] methodNames;
+    private int[] methodLines;
+    private String[] mainSymbols, tempSymbols;
     private int instructionCount, methodCount;
 
     /**
-     * Constructs a new JVSEInstructions object with the specified instructions and
-     * methods.
+     * Constructs a new JVSEInstructions object with the specified instructions,
+     * methods and the variable names resolved by the loader.
      *
-     * @param instructions A map of instruction indices to Instruction objects.
-     * @param methods      A map of method names to their corresponding indices.
+     * @param instructions The instructions, indexed by line number (index 0 is
+     *                     unused).
+     * @param methods      A map of method names to their ids.
+     * @param methodNames  The method names, indexed by id.
+     * @param methodLines  The lines at which the methods are declared, indexed by
+     *                     id.
+     * @param mainSymbols  The names of the main variables, indexed by slot.
+     * @param tempSymbols  The names of the temporary variables, indexed by slot.
      */
-    public JVSEInstructions(Map<Integer, Instruction> instructions, Map<String, Integer> methods) {
+    public JVSEInstructions(Instruction[] instructions, Map<String, Integer> methods, String[] methodNames,
+            int[] methodLines, String[] mainSymbols, String[] tempSymbols) {
         this.instructions = instructions;
         this.methods = methods;
-        instructionCount = instructions.size();
-        methodCount = methods.size();
+        this.methodNames = methodNames;
+        this.methodLines = methodLines;
+        this.mainSymbols = mainSymbols;
+        this.tempSymbols = tempSymbols;
+        instructionCount = instructions.length - 1;
+        methodCount = methodNames.length;
     }
 
     /**
@@ -35,7 +53,16 @@ public class JVSEInstructions {
      * @return The Instruction object at the specified index.
      */
     public Instruction getInstruction(int index) {
-        return instructions.get(index);
+        return instructions[index];
+    }
+
+    /**
+     * Returns the instruction array, indexed by line number (index 0 is unused).
+     *
+     * @return The instructions.
+     */
+    public Instruction[] getInstructions() {
+        return instructions;
     }
 
     /**
@@ -45,7 +72,65 @@ public class JVSEInstructions {
      * @return The index of the specified method name.
      */
     public int getMethodIndex(String methodName) {
-        return methods.get(methodName);
+        return methodLines[methods.get(methodName)];
+    }
+
+    /**
+     * Retrieves the id of the specified method name.
+     *
+     * @param methodName The name of the method.
+     * @return The id of the method, or -1 if there is no such method.
+     */
+    public int getMethodId(String methodName) {
+        Integer id = methods.get(methodName);
+        return (id == null) ? -1 : id;
+    }
+
+    /**
+     * Returns the name of a method.
+     *
+     * @param id The id of the method.
+     * @return The name of the method.
+     */
+    public String getMethodName(int id) {
+        return methodNames[id];
+    }
+
+    /**
+     * Returns the method names, indexed by id.
+     *
+     * @return The method names.
+     */
+    public String[] getMethodNames() {
+        return methodNames;
+    }
+
+    /**
+     * Returns the line at which a method is declared.
+     *
+     * @param id The id of the method.
+     * @return The line of the method declaration.
+     */
+    public int getMethodLine(int id) {
+        return methodLines[id];
+    }
+
+    /**
+     * Returns the names of the main variables, indexed by their slot.
+     *
+     * @return The main variable names.
+     */
+    public String[] getMainSymbols() {
+        return mainSymbols;
+    }
+
+    /**
+     * Returns the names of the temporary variables, indexed by their slot.
+     *
+     * @return The temporary variable names.
+     */
+    public String[] getTempSymbols() {
+        return tempSymbols;
     }
 
     /**
@@ -68,13 +153,13 @@ public class JVSEInstructions {
 
     @Override
     public String toString() {
-        String toString = "";
-        toString += "Instructions:\n[\n";
+        StringBuilder toString = new StringBuilder();
+        toString.append("Instructions:\n[\n");
         for (int i = 1; i <= getInstructionCount(); i++) {
-            toString += "\t" + i + ":" + getInstruction(i) + "\n";
+            toString.append("\t").append(i).append(":").append(getInstruction(i)).append("\n");
         }
-        toString += "]";
+        toString.append("]");
 
-        return toString;
+        return toString.toString();
     }
-}
\ No newline at end of file
+}
@@ -1,16 +1,29 @@
 package com.jvs.archvm;
 
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.HashSet;
 import java.util.Scanner;
+import java.util.StringTokenizer;
 import java.io.File;
 import java.io.FileNotFoundException;
 
 import com.jvs.bytecode.Instruction;
+import com.jvs.bytecode.Opcode;
+import com.jvs.bytecode.Operand;
 
 /**
  * The JVSELoader class provides a method to load instructions and methods from
  * a file.
+ * <p>
+ * Every loaded instruction is decoded once into its operands (see
+ * {@link Operand}) so that the interpreter never parses argument strings while
+ * running. The variables used by the operands are then resolved to fixed
+ * slots of the main and temporary VarManager.
  */
 public class JVSELoader {
     /**
@@ -21,9 +34,10 @@ public class JVSELoader {
      *         methods.
      */
     public static JVSEInstructions load(String filePath) {
-        Map<Integer, Instruction> instructions = new HashMap<>();
-        Map<String, Integer> methods = new HashMap<>();
+        List<Instruction> instructions = new ArrayList<>();
+        Map<String, Integer> methods = new LinkedHashMap<>();
         int lineCount = 1;
+        instructions.add(new Instruction(Instruction.EMPTYLINE)); // Line numbers start at 1.
         try {
             File file = new File(filePath);
             Scanner sc = new Scanner(file);
@@ -31,23 +45,23 @@ public class JVSELoader {
                 String line = sc.nextLine().trim();
                 if (line.startsWith("FUNCDEC") || line.startsWith("funcdec")) {
                     methods.put(line.substring(8), lineCount);
-                    instructions.put(lineCount, new Instruction(line, false));
+                    instructions.add(new Instruction(line, false));
                 } else if (line.equals("CLRMAINL") || line.equals("clrmainl")) {
-                    instructions.put(lineCount, new Instruction("clrmainl", true));
+                    instructions.add(new Instruction("clrmainl", true));
                 } else if (line.equals("CLRTLIST") || line.equals("clrtlist")) {
-                    instructions.put(lineCount, new Instruction("clrtlist", true));
+                    instructions.add(new Instruction("clrtlist", true));
                 } else if (line.equalsIgnoreCase("eof")) {
-                    instructions.put(lineCount, new Instruction("eof", true));
+                    instructions.add(new Instruction("eof", true));
                 } else if (line.equals("")) {
-                    instructions.put(lineCount, new Instruction(Instruction.EMPTYLINE));
+                    instructions.add(new Instruction(Instruction.EMPTYLINE));
                 } else if (line.equals("PRINTSTACK") || line.equals("printStack")) {
-                    instructions.put(lineCount, new Instruction(Instruction.PRINT_STACK));
+                    instructions.add(new Instruction(Instruction.PRINT_STACK));
                 } else if (line.equals("PRINTTIME") || line.equals("printTime")) {
-                    instructions.put(lineCount, new Instruction(Instruction.PRINT_TIME));
+                    instructions.add(new Instruction(Instruction.PRINT_TIME));
                 } else if (line.equals("RETURN") || line.equals("return")) {
-                    instructions.put(lineCount, new Instruction(Instruction.RETURN));
+                    instructions.add(new Instruction(Instruction.RETURN));
                 } else {
-                    instructions.put(lineCount, new Instruction(line, false));
+                    instructions.add(decode(new Instruction(line, false)));
                 }
                 lineCount++;
             }
@@ -55,6 +69,323 @@ public class JVSELoader {
         } catch (FileNotFoundException e) {
             System.out.println("File not found");
         }
-        return new JVSEInstructions(instructions, methods);
+
+        // Give the methods ids in the order of their declaration.
+        String[] methodNames = methods.keySet().toArray(new String[0]);
+        int[] methodLines = new int[methodNames.length];
+        for (int id = 0; id < methodNames.length; id++) {
+            methodLines[id] = methods.get(methodNames[id]);
+            methods.put(methodNames[id], id);
+        }
+
+        Instruction[] code = instructions.toArray(new Instruction[0]);
+        Map<String, Integer> mainSymbols = new LinkedHashMap<>();
+        Map<String, Integer> tempSymbols = new LinkedHashMap<>();
+        Set<String> otherMainNames = new HashSet<>();
+        for (int line = 1; line < code.length; line++) {
+            code[line] = link(code[line], methods, code.length - 1, filePath, line);
+            collectMainNames(code[line], otherMainNames);
+        }
+        for (int line = 1; line < code.length; line++) {
+            resolve(code[line], mainSymbols, tempSymbols, otherMainNames);
+        }
+        return new JVSEInstructions(code, methods, methodNames, methodLines,
+                mainSymbols.keySet().toArray(new String[0]), tempSymbols.keySet().toArray(new String[0]));
+    }
+
+    /**
+     * Resolves the method called by a CALL instruction to its id (stored as the
+     * slot of its operand) and checks that jump targets are inside the program.
+     * Invalid instructions are reported and replaced by an empty line.
+     *
+     * @param instruction The instruction.
+     * @param methods     A map of method names to their ids.
+     * @param lastLine    The last line of the program.
+     * @param file        The file being loaded (for error messages).
+     * @param line        The line of the instruction (for error messages).
+     * @return The linked instruction.
+     */
+    private static Instruction link(Instruction instruction, Map<String, Integer> methods, int lastLine,
+            String file, int line) {
+        Operand[] operands = instruction.getOperands();
+        String error = null;
+        switch (instruction.getOpcode()) {
+            case CALL -> {
+                Integer id = methods.get(operands[0].getText());
+                if (id == null) {
+                    error = "Method not found: " + operands[0].getText();
+                } else {
+                    operands[0].setSlot(id);
+                }
+            }
+            case GOTO -> error = checkTarget(operands[0], lastLine);
+            case ASSERT -> {
+                error = checkTarget(operands[1], lastLine);
+                error = (error == null) ? checkTarget(operands[2], lastLine) : error;
+            }
+            default -> {
+            }
+        }
+        if (error != null) {
+            String source = instruction.toString();
+            VMError.log(file, line, error, source, 0, source.length() - 1);
+            return new Instruction(Instruction.EMPTYLINE);
+        }
+        return instruction;
+    }
+
+    private static String checkTarget(Operand target, int lastLine) {
+        if (!target.isInt() || target.getIntValue() < 1 || target.getIntValue() > lastLine + 1) {
+            return "Invalid jump target: " + target.getText();
+        }
+        return null;
+    }
+
+    /**
+     * Collects the names other than main variable names which an instruction
+     * defines as main variables: the name of a put, and the temporary target of
+     * a cast (which adds a main variable of that name).
+     *
+     * @param instruction The instruction.
+     * @param names       The names found so far.
+     */
+    private static void collectMainNames(Instruction instruction, Set<String> names) {
+        Operand[] operands = instruction.getOperands();
+        switch (instruction.getOpcode()) {
+            case PUT -> {
+                if (operands[1].getKind() != Operand.MAIN) {
+                    names.add(operands[1].getText());
+                }
+            }
+            case CAST -> {
+                if (operands[3].isTemp()) {
+                    names.add(operands[3].getText());
+                }
+            }
+            default -> {
+            }
+        }
+    }
+
+    /**
+     * Gives every variable used by the operands of an instruction a slot.
+     * Variables starting with '$' get a slot of the temporary VarManager, all
+     * others a slot of the main VarManager. Temporary variables and literals
+     * which are also defined as main variables get a second slot, of the main
+     * VarManager.
+     *
+     * @param instruction    The instruction.
+     * @param mainSymbols    The slots of the main variables found so far.
+     * @param tempSymbols    The slots of the temporary variables found so far.
+     * @param otherMainNames The other names defined as main variables.
+     */
+    private static void resolve(Instruction instruction, Map<String, Integer> mainSymbols,
+            Map<String, Integer> tempSymbols, Set<String> otherMainNames) {
+        Operand[] operands = instruction.getOperands();
+        int first = 0;
+        int last = operands.length;
+        switch (instruction.getOpcode()) {
+            case PUT -> first = 1; // put type, name[, value]
+            case CAST -> first = 2; // cast type1, type2, name, target
+            case ASSERT -> last = 1; // assert value, true_line, false_line
+            case CALL, GOTO -> first = last; // No variables (CALL is linked to a method id).
+            default -> {
+            }
+        }
+        for (int i = first; i < last; i++) {
+            Operand operand = operands[i];
+            if (operand.getKind() == Operand.MAIN) {
+                operand.setSlot(slot(mainSymbols, operand.getText()));
+            } else if (operand.getKind() != Operand.STRING) {
+                if (operand.isTemp()) {
+                    operand.setSlot(slot(tempSymbols, operand.getText()));
+                }
+                if (otherMainNames.contains(operand.getText())) {
+                    operand.setMainSlot(slot(mainSymbols, operand.getText()));
+                }
+            }
+        }
+    }
+
+    private static int slot(Map<String, Integer> symbols, String name) {
+        Integer slot = symbols.get(name);
+        if (slot == null) {
+            slot = symbols.size();
+            symbols.put(name, slot);
+        }
+        return slot;
+    }
+
+    /**
+     * Decodes the arguments of an instruction into operands.
+     * <p>
+     * Instructions with too few arguments are replaced by a marker which fails
+     * when it runs, with the NoSuchElementException reading their arguments
+     * threw when they were parsed while running (see {@link #incomplete}). A put
+     * with more than three arguments reads an empty value, as it did.
+     *
+     * @param instruction The instruction to decode.
+     * @return The decoded instruction.
+     */
+    private static Instruction decode(Instruction instruction) {
+        Opcode op = instruction.getOpcode();
+        Operand[] operands = switch (op) {
+            case PRINT -> splitPrintArgs(instruction.getArgs());
+            case CALL -> new Operand[] { Operand.of(instruction.getArgs().trim()) };
+            case INCR, DECR, GOTO -> new Operand[] { Operand.of(instruction.getArgs().trim()) };
+            case NATIVE, FUNCDEC, EOF, EMPTYLINE -> null;
+            default -> tokenize(instruction.getArgs());
+        };
+        if (operands == null) {
+            return instruction;
+        }
+
+        if (operands.length < getRequiredOperands(op)) {
+            return incomplete(op, operands);
+        }
+        if (op == Opcode.PUT && operands.length > 3) {
+            operands = new Operand[] { operands[0], operands[1], Operand.of("") };
+        }
+        instruction.setOperands(operands);
+        return instruction;
+    }
+
+    /**
+     * Returns the marker of an instruction with too few arguments. Its operands
+     * are the values the instruction read as booleans before it reached the
+     * missing argument: the logical instructions and assert read their values one
+     * by one, all other instructions read all their arguments first.
+     *
+     * @param op       The opcode of the instruction.
+     * @param operands The arguments it has.
+     * @return The marker.
+     */
+    private static Instruction incomplete(Opcode op, Operand[] operands) {
+        Instruction marker = new Instruction(Instruction.INCOMPLETE);
+        switch (op) {
+            case AND, OR, XOR, EQ, NEQ, NOT -> marker.setOperands(operands);
+            case ASSERT -> marker.setOperands(Arrays.copyOf(operands, Math.min(operands.length, 1)));
+            default -> {
+            }
+        }
+        return marker;
+    }
+
+    /**
+     * Returns the minimum number of operands an opcode needs.
+     *
+     * @param op The opcode.
+     * @return The number of operands.
+     */
+    private static int getRequiredOperands(Opcode op) {
+        return switch (op) {
+            case CAST -> 4;
+            case IADD, FADD, ISUB, FSUB, IMUL, FMUL, IDIV, FDIV, IMOD, FMOD, IPOW, FPOW,
+                    CMPGT, CMPGTE, CMPLT, CMPLTE, CMPE, CMPNE, AND, OR, XOR, EQ, NEQ, ASSERT ->
+                3;
+            case PUT, SET, NOT -> 2;
+            case INCR, DECR, GOTO, CALL -> 1;
+            default -> 0;
+        };
+    }
+
+    private static Operand[] tokenize(String args) {
+        StringTokenizer st = new StringTokenizer(args, ", ");
+        Operand[] operands = new Operand[st.countTokens()];
+        for (int i = 0; i < operands.length; i++) {
+            operands[i] = Operand.of(st.nextToken());
+        }
+        return operands;
+    }
+
+    /**
+     * Splits the arguments of a 'print' instruction at the commas which are not
+     * part of a string literal.
+     *
+     * @param args The arguments of the print instruction.
+     * @return The operands to be printed.
+     */
+    private static Operand[] splitPrintArgs(String args) {
+        List<String> parts = new ArrayList<>();
+        boolean inQuotes = false;
+        StringBuilder current = new StringBuilder();
+        for (int i = 0; i < args.length(); i++) {
+            char c = args.charAt(i);
+            if (c == '\"') {
+                inQuotes = !inQuotes;
+                current.append(c);
+            } else if (c == ',' && !inQuotes) {
+                parts.add(current.toString().trim());
+                current.setLength(0);
+            } else {
+                current.append(c);
+            }
+        }
+        if (current.length() > 0) {
+            parts.add(current.toString().trim());
+        }
+
+        Operand[] operands = new Operand[parts.size()];
+        for (int i = 0; i < operands.length; i++) {
+            String part = parts.get(i);
+            if (part.length() > 1 && part.startsWith("\"") && part.endsWith("\"")) {
+                // Remove quotes and interpret escape sequences
+                operands[i] = Operand.ofString(unescapeJavaString(part.substring(1, part.length() - 1)));
+            } else {
+                operands[i] = Operand.of(part);
+            }
+        }
+        return operands;
+    }
+
+    // Helper method to interpret escape sequences in string literals
+    private static String unescapeJavaString(String str) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < str.length(); i++) {
+            char ch = str.charAt(i);
+            if (ch == '\\' && i + 1 < str.length()) {
+                char next = str.charAt(i + 1);
+                switch (next) {
+                    case 'b':
+                        sb.append('\b');
+                        i++;
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        i++;
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        i++;
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        i++;
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        i++;
+                        break;
+                    case '\"':
+                        sb.append('\"');
+                        i++;
+                        break;
+                    case '\'':
+                        sb.append('\'');
+                        i++;
+                        break;
+                    case '\\':
+                        sb.append('\\');
+                        i++;
+                        break;
+                    default:
+                        sb.append(ch);
+                        break;
+                }
+            } else {
+                sb.append(ch);
+            }
+        }
+        return sb.toString();
     }
-}
\ No newline at end of file
+}
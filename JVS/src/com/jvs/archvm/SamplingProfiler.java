@@ -0,0 +1,210 @@
+package com.jvs.archvm;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A sampling profiler for ArchVM programs (see {@link ArchVM#setProfiler}).
+ * <p>
+ * While the program runs, a daemon thread wakes up at a fixed interval and
+ * reads the call stack and the current line of the VM. The VM does nothing for
+ * it but publish its call depth when it calls or returns, so the program runs
+ * at full speed: the cost of a sample is on the sampling thread. A sample may
+ * mix the state before and after a call or return which happens while it is
+ * taken.
+ * <p>
+ * The samples are counted in a tree of call stacks kept in int and long
+ * arrays, so taking a sample does not allocate. Every stack is made of the
+ * methods called from &lt;main&gt; and ends with the current line, as
+ * "method:line" (compiled programs do not keep their line up to date, so
+ * their stacks end with the method). {@link #writeCollapsed(Appendable)}
+ * writes the counts in the collapsed format of flame graph tools.
+ */
+public final class SamplingProfiler {
+    public static final long DEFAULT_INTERVAL = 1_000_000; // 1 ms
+
+    private static final int ROOT = 0;
+    private static final int NO_LINE = 0;
+
+    private final long interval;
+
+    // The tree: the parent, method and line of every node and the samples ending at it.
+    private int[] parents = new int[256];
+    private int[] methods = new int[256];
+    private int[] lines = new int[256];
+    private long[] counts = new long[256];
+    private int size = 1;
+
+    // Open addressing table from (parent, method, line) to the child node, 0 for a free slot.
+    private int[] children = new int[512];
+
+    private int[] stack = new int[64]; // The methods of the sample being taken.
+    private long samples;
+
+    private String[] methodNames;
+    private volatile boolean running;
+    private Thread thread;
+
+    /** Creates a profiler sampling every millisecond. */
+    public SamplingProfiler() {
+        this(DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Creates a profiler.
+     *
+     * @param interval The time between two samples, in nanoseconds.
+     */
+    public SamplingProfiler(long interval) {
+        this.interval = interval;
+    }
+
+    /**
+     * Starts sampling a VM.
+     *
+     * @param vm The VM, which runs on the calling thread.
+     */
+    void start(ArchVM vm) {
+        if (thread != null) {
+            throw new IllegalStateException("The profiler is already sampling a VM.");
+        }
+        methodNames = vm.getMethodNames();
+        running = true;
+        thread = new Thread(() -> {
+            while (running) {
+                LockSupport.parkNanos(interval);
+                if (running) {
+                    sample(vm);
+                }
+            }
+        }, "ArchVM sampler");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stops sampling and waits for the sampling thread to end. */
+    void stop() {
+        running = false;
+        LockSupport.unpark(thread);
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        thread = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sample(ArchVM vm) {
+        int depth = vm.sampleDepth();
+        int[] frames = vm.sampleFrames();
+        int line = vm.sampleLine();
+        depth = Math.min(depth, frames.length - 1);
+        if (depth >= stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(2 * stack.length, depth + 1));
+        }
+        System.arraycopy(frames, 0, stack, 0, depth + 1);
+
+        int node = ROOT;
+        for (int i = 0; i <= depth; i++) {
+            node = child(node, stack[i], NO_LINE);
+        }
+        if (line > 0) {
+            node = child(node, stack[depth], line);
+        }
+        counts[node]++;
+        samples++;
+    }
+
+    /** Returns the child of a node for a method and line, adding it if needed. */
+    private int child(int parent, int method, int line) {
+        int mask = children.length - 1;
+        int slot = hash(parent, method, line) & mask;
+        while (children[slot] != 0) {
+            int node = children[slot];
+            if (parents[node] == parent && methods[node] == method && lines[node] == line) {
+                return node;
+            }
+            slot = (slot + 1) & mask;
+        }
+        if (size == parents.length) {
+            parents = Arrays.copyOf(parents, 2 * size);
+            methods = Arrays.copyOf(methods, 2 * size);
+            lines = Arrays.copyOf(lines, 2 * size);
+            counts = Arrays.copyOf(counts, 2 * size);
+        }
+        int node = size++;
+        parents[node] = parent;
+        methods[node] = method;
+        lines[node] = line;
+        children[slot] = node;
+        if (2 * size > children.length) {
+            rehash();
+        }
+        return node;
+    }
+
+    private void rehash() {
+        children = new int[2 * children.length];
+        int mask = children.length - 1;
+        for (int node = 1; node < size; node++) {
+            int slot = hash(parents[node], methods[node], lines[node]) & mask;
+            while (children[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            children[slot] = node;
+        }
+    }
+
+    private static int hash(int parent, int method, int line) {
+        int h = parent * 0x9E3779B1 + method * 0x85EBCA77 + line * 0xC2B2AE3D;
+        return h ^ (h >>> 15);
+    }
+
+    /** Returns the number of samples taken. */
+    public long getSampleCount() {
+        return samples;
+    }
+
+    /**
+     * Writes the samples as collapsed stacks, one line per stack with its frames
+     * from &lt;main&gt; separated by semicolons and the number of samples, like
+     * "&lt;main&gt;;fib;fib;fib:12 42". Call it once the program has ended.
+     *
+     * @param out Where to write.
+     * @throws IOException If the output cannot be written.
+     */
+    public void writeCollapsed(Appendable out) throws IOException {
+        List<String> stacks = new ArrayList<>();
+        for (int node = 1; node < size; node++) {
+            if (counts[node] > 0) {
+                stacks.add(frames(node) + " " + counts[node]);
+            }
+        }
+        stacks.sort(null);
+        for (String stack : stacks) {
+            out.append(stack).append('\n');
+        }
+    }
+
+    private String frames(int node) {
+        String frames = frame(node);
+        for (int parent = parents[node]; parent != ROOT; parent = parents[parent]) {
+            frames = frame(parent) + ";" + frames;
+        }
+        return frames;
+    }
+
+    private String frame(int node) {
+        String name = (methods[node] == Context.MAIN_METHOD) ? "<main>" : methodNames[methods[node]];
+        return (lines[node] == NO_LINE) ? name : name + ":" + lines[node];
+    }
+}
@@ -1,5 +1,7 @@
 package com.jvs.archvm;
 
+import com.jvs.io.OutputSink;
+
 public class VMError {
     public static void log(String file, int line, String message, String stmt, int pos, int end) {
 
@@ -24,7 +26,17 @@ public class VMError {
         System.out.println(e4 + '\n');
     }
 
-    public static void logvm(String msg) {
+    /**
+     * Prints an error of a running program, after what it has printed.
+     *
+     * @param output The output of the program, flushed first (null if there is
+     *               none).
+     * @param msg    The message.
+     */
+    public static void logvm(OutputSink output, String msg) {
+        if (output != null) {
+            output.flush();
+        }
         String s = "\n\n|Error occurred in VM while interpreting file - " + msg;
         System.out.println(s);
     }
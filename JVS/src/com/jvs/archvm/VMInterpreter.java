@@ -1,11 +1,12 @@
 package com.jvs.archvm;
 
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
-import java.util.StringTokenizer;
+import java.util.NoSuchElementException;
 import java.lang.reflect.Method;
 
+import com.jvs.bytecode.Operand;
+import com.jvs.io.OutputSink;
+
 /**
  * Interprets the instructions of the JVS Virtual Machine (ArchVM).
  * <p>
@@ -30,9 +31,12 @@ import java.lang.reflect.Method;
  * Inconvenience caused is regretted.
  * ================================================================
  * <p>
+ * The methods work on operands which have been decoded by the JVSELoader, so
+ * no argument string is parsed while a program runs.
  */
 public class VMInterpreter {
     private VarManager main, temp;
+    private OutputSink output;
 
     /**
      * Constructs a VMInterpreter object.
@@ -47,6 +51,20 @@ public class VMInterpreter {
     public VMInterpreter(VarManager main, VarManager temp) {
         this.main = main;
         this.temp = temp;
+        setOutput(new OutputSink());
+    }
+
+    /**
+     * Sets where print and printTime write (System.out, as set when the
+     * interpreter is created, by default). It is flushed before an error is
+     * printed, here and in the variables.
+     *
+     * @param output The output.
+     */
+    public void setOutput(OutputSink output) {
+        this.output = output;
+        main.setOutput(output);
+        temp.setOutput(output);
     }
 
     /**
@@ -76,26 +94,50 @@ public class VMInterpreter {
      * <p>
      * The 'put' function adds a variable into the main VarManager object.
      * <p>
+     * A 'put' instruction has the following format: put type, name[, value]
+     * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void put(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        int count = st.countTokens();
-        String type = st.nextToken();
-        String name = st.nextToken();
-        String value = ((count == 3) ? st.nextToken() : "");
-        if (count == 2) {
-            main.addEmpty(type, name);
+     * @param type  The type of the variable.
+     * @param name  The name of the variable.
+     * @param value The initial value (null if the variable is added empty).
+     */
+    public void put(Operand type, Operand name, Operand value) {
+        int slot = name.getMainSlot();
+        if (value == null) {
+            if (type.getTypeCode() == VarManager.UNDEFINED) {
+                VMError.logvm(output, "Invalid type: " + type.getText());
+            } else {
+                main.define(slot, type.getTypeCode());
+            }
             return;
         }
 
-        switch (type) {
-            case "int" -> main.addVar(name, Integer.parseInt(value));
-            case "float" -> main.addVar(name, Float.parseFloat(value));
-            case "char" -> main.addVar(name, value.charAt(0));
-            case "boolean" -> main.addVar(name, Boolean.parseBoolean(value));
-            default -> VMError.logvm("Invalid type: " + type);
+        // The value is read before the variable is defined (see VarManager.define).
+        switch (type.getTypeCode()) {
+            case VarManager.INT -> {
+                long v = intValue(value);
+                if (main.define(slot, VarManager.INT)) {
+                    main.setLong(slot, v);
+                }
+            }
+            case VarManager.FLOAT -> {
+                double v = singleValue(value);
+                if (main.define(slot, VarManager.FLOAT)) {
+                    main.setDouble(slot, v);
+                }
+            }
+            case VarManager.CHAR -> {
+                char v = value.getText().charAt(0); // Throws for the empty value.
+                if (main.define(slot, VarManager.CHAR)) {
+                    main.setChar(slot, v);
+                }
+            }
+            case VarManager.BOOLEAN -> {
+                if (main.define(slot, VarManager.BOOLEAN)) {
+                    main.setBoolean(slot, value.getBoolValue());
+                }
+            }
+            default -> VMError.logvm(output, "Invalid type: " + type.getText());
         }
     }
 
@@ -104,24 +146,20 @@ public class VMInterpreter {
      * <p>
      * The 'set' function sets a new value for an existing main variable.
      * <p>
+     * A 'set' instruction has the following format: set name, value
+     * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void set(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name = st.nextToken();
-        String value = st.nextToken();
-
-        if (main.contains(name)) {
-            switch (main.getTypeCode(name)) {
-                case 2 -> main.setVar(name, Float.parseFloat(value));
-                case 1 -> main.setVar(name, Integer.parseInt(value));
-                case 3 -> main.setVar(name, value.charAt(0));
-                case 4 -> main.setVar(name, Boolean.parseBoolean(value));
-                default -> VMError.logvm("Invalid type: " + value);
-            }
-        } else {
-            VMError.logvm("Variable not found: " + name);
+     * @param name  The name of the variable.
+     * @param value The new value.
+     */
+    public void set(Operand name, Operand value) {
+        int slot = name.getMainSlot();
+        switch (main.getTypeCode(slot)) {
+            case VarManager.INT -> main.setLong(slot, intValue(value));
+            case VarManager.FLOAT -> main.setDouble(slot, singleValue(value));
+            case VarManager.CHAR -> main.setChar(slot, value.getCharValue());
+            case VarManager.BOOLEAN -> main.setBoolean(slot, value.getBoolValue());
+            default -> VMError.logvm(output, "Variable not found: " + name.getText());
         }
     }
 
@@ -134,53 +172,29 @@ public class VMInterpreter {
      * target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cast(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String type1 = st.nextToken();
-        String type2 = st.nextToken();
-        String name = st.nextToken();
-        String target = st.nextToken();
-
-        if (isCompatible(type1, type2)) {
-            if (main.contains(name)) {
-                if (main.contains(target)) {
-                    switch (type2) {
-                        case "int" -> main.setVar(target, main.getIntVar(name));
-                        case "float" -> main.setVar(target, main.getFloatVar(name));
-                        case "char" -> main.setVar(target, main.getCharVar(name));
-                        case "boolean" -> main.setVar(target, main.getBoolVar(name));
-                    }
-                } else if (temp.contains(target)) {
-                    main.addEmpty(type2, target);
-                    switch (type2) {
-                        case "int" -> main.setVar(target, temp.getIntVar(name));
-                        case "float" -> main.setVar(target, temp.getFloatVar(name));
-                        case "char" -> main.setVar(target, temp.getCharVar(name));
-                        case "boolean" -> main.setVar(target, temp.getBoolVar(name));
-                    }
-                }
-            } else if (temp.contains(name)) {
-                if (main.contains(target)) {
-                    switch (type2) {
-                        case "int" -> main.setVar(target, main.getIntVar(name));
-                        case "float" -> main.setVar(target, main.getFloatVar(name));
-                        case "char" -> main.setVar(target, main.getCharVar(name));
-                        case "boolean" -> main.setVar(target, main.getBoolVar(name));
-                    }
-                } else if (temp.contains(target)) {
-                    main.addEmpty(type2, target);
-                    switch (type2) {
-                        case "int" -> main.setVar(target, temp.getIntVar(name));
-                        case "float" -> main.setVar(target, temp.getFloatVar(name));
-                        case "char" -> main.setVar(target, temp.getCharVar(name));
-                        case "boolean" -> main.setVar(target, temp.getBoolVar(name));
-                    }
-                }
-            }
+     * @param type1  The type of the source variable.
+     * @param type2  The type to cast to.
+     * @param name   The source variable.
+     * @param target The variable to store the result in.
+     */
+    public void cast(Operand type1, Operand type2, Operand name, Operand target) {
+        if (!isCompatible(type1.getTypeCode(), type2.getTypeCode())
+                || (main.getTypeCode(name.getMainSlot()) == VarManager.UNDEFINED
+                        && temp.getTypeCode(tempSlot(name)) == VarManager.UNDEFINED)) {
+            return;
         }
 
+        // Wherever the source is, it is read from the list of the target, as a
+        // variable of the type cast to.
+        int typeCode = type2.getTypeCode();
+        int slot = target.getMainSlot();
+        if (main.getTypeCode(slot) != VarManager.UNDEFINED) {
+            main.setVar(slot, castValue(main, name.getMainSlot(), name, typeCode));
+        } else if (temp.getTypeCode(tempSlot(target)) != VarManager.UNDEFINED) {
+            // The value goes to a new main variable named after the temporary target.
+            main.define(slot, typeCode);
+            main.setVar(slot, castValue(temp, tempSlot(name), name, typeCode));
+        }
     }
 
     /**
@@ -196,61 +210,16 @@ public class VMInterpreter {
      * An 'iadd' instruction has the following format: iadd v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void iadd(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        long result = 0;
-
-        if (isInt(name1)) {
-            result += Integer.parseInt(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 1) {
-                result += temp.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 1) {
-                result += main.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isInt(name2)) {
-            result += Integer.parseInt(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 1) {
-                result += temp.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 1) {
-                result += main.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("int", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void iadd(Operand v1, Operand v2, Operand target) {
+        long result = readInt(v1);
+        if (hasInt(v2)) {
+            result += readInt(v2);
         }
+        writeInt(target, result, v1);
     }
 
     /**
@@ -261,61 +230,16 @@ public class VMInterpreter {
      * A 'fadd' instruction has the following format: fadd v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void fadd(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        double result = 0.0;
-
-        if (isFloat(name1)) {
-            result += Double.parseDouble(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 2) {
-                result += temp.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 2) {
-                result += main.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isFloat(name2)) {
-            result += Double.parseDouble(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 2) {
-                result += temp.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 2) {
-                result += main.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("float", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void fadd(Operand v1, Operand v2, Operand target) {
+        double result = readFloat(v1);
+        if (hasFloat(v2)) {
+            result += readFloat(v2);
         }
+        writeFloat(target, result, v1);
     }
 
     /**
@@ -331,61 +255,16 @@ public class VMInterpreter {
      * An 'isub' instruction has the following format: isub v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void isub(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        long result = 0;
-
-        if (isInt(name1)) {
-            result += Integer.parseInt(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 1) {
-                result += temp.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 1) {
-                result += main.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isInt(name2)) {
-            result -= Integer.parseInt(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 1) {
-                result -= temp.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 1) {
-                result -= main.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("int", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void isub(Operand v1, Operand v2, Operand target) {
+        long result = readInt(v1);
+        if (hasInt(v2)) {
+            result -= readInt(v2);
         }
+        writeInt(target, result, v1);
     }
 
     /**
@@ -397,61 +276,16 @@ public class VMInterpreter {
      * A 'fsub' instruction has the following format: fsub v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void fsub(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        double result = 0.0;
-
-        if (isFloat(name1)) {
-            result += Double.parseDouble(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 2) {
-                result += temp.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 2) {
-                result += main.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isFloat(name2)) {
-            result -= Double.parseDouble(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 2) {
-                result -= temp.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 2) {
-                result -= main.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("float", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void fsub(Operand v1, Operand v2, Operand target) {
+        double result = readFloat(v1);
+        if (hasFloat(v2)) {
+            result -= readFloat(v2);
         }
+        writeFloat(target, result, v1);
     }
 
     /**
@@ -468,61 +302,16 @@ public class VMInterpreter {
      * An 'imult' instruction has the following format: imult v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void imult(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        long result = 0;
-
-        if (isInt(name1)) {
-            result += Integer.parseInt(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 1) {
-                result += temp.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 1) {
-                result += main.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isInt(name2)) {
-            result *= Integer.parseInt(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 1) {
-                result *= temp.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 1) {
-                result *= main.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("int", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void imult(Operand v1, Operand v2, Operand target) {
+        long result = readInt(v1);
+        if (hasInt(v2)) {
+            result *= readInt(v2);
         }
+        writeInt(target, result, v1);
     }
 
     /**
@@ -533,63 +322,17 @@ public class VMInterpreter {
      * <p>
      * A 'fmult' instruction has the following format: fmult v1, v2, target
      * <p>
-     * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void fmult(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        double result = 0.0;
-
-        if (isFloat(name1)) {
-            result += Double.parseDouble(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 2) {
-                result += temp.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 2) {
-                result += main.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isFloat(name2)) {
-            result *= Double.parseDouble(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 2) {
-                result *= temp.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 2) {
-                result *= main.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("float", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void fmult(Operand v1, Operand v2, Operand target) {
+        double result = readFloat(v1);
+        if (hasFloat(v2)) {
+            result *= readFloat(v2);
         }
+        writeFloat(target, result, v1);
     }
 
     /**
@@ -605,61 +348,16 @@ public class VMInterpreter {
      * An 'idiv' instruction has the following format: idiv v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void idiv(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        long result = 0;
-
-        if (isInt(name1)) {
-            result += Integer.parseInt(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 1) {
-                result += temp.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 1) {
-                result += main.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isInt(name2)) {
-            result /= Integer.parseInt(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 1) {
-                result /= temp.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 1) {
-                result /= main.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("int", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void idiv(Operand v1, Operand v2, Operand target) {
+        long result = readInt(v1);
+        if (hasInt(v2)) {
+            result /= readInt(v2);
         }
+        writeInt(target, result, v1);
     }
 
     /**
@@ -671,61 +369,16 @@ public class VMInterpreter {
      * A 'fdiv' instruction has the following format: fdiv v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void fdiv(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        double result = 0.0;
-
-        if (isFloat(name1)) {
-            result += Double.parseDouble(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 2) {
-                result += temp.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 2) {
-                result += main.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isFloat(name2)) {
-            result /= Double.parseDouble(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 2) {
-                result /= temp.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 2) {
-                result /= main.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("float", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void fdiv(Operand v1, Operand v2, Operand target) {
+        double result = readFloat(v1);
+        if (hasFloat(v2)) {
+            result /= readFloat(v2);
         }
+        writeFloat(target, result, v1);
     }
 
     /**
@@ -735,132 +388,43 @@ public class VMInterpreter {
     /**
      * Interprets the 'imod' function in the ArchVM Bytecode.
      * <p>
-     * The 'imod' function performs modulus operation on two integers and stores the
-     * value in another variable.
+     * The 'imod' function finds the remainder of two integers and stores the value
+     * in another variable.
      * <p>
      * An 'imod' instruction has the following format: imod v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void imod(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        long result = 0;
-
-        if (isInt(name1)) {
-            result += Integer.parseInt(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 1) {
-                result += temp.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 1) {
-                result += main.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isInt(name2)) {
-            result %= Integer.parseInt(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 1) {
-                result %= temp.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 1) {
-                result %= main.getIntVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("int", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void imod(Operand v1, Operand v2, Operand target) {
+        long result = readInt(v1);
+        if (hasInt(v2)) {
+            result %= readInt(v2);
         }
+        writeInt(target, result, v1);
     }
 
     /**
      * Interprets the 'fmod' function in the ArchVM Bytecode.
      * <p>
-     * The 'fmod' function adds two floats and stores the value in another variable.
+     * The 'fmod' function finds the remainder of two floats and stores the value in
+     * another variable.
      * <p>
      * A 'fmod' instruction has the following format: fmod v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void fmod(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        double result = 0.0;
-
-        if (isFloat(name1)) {
-            result += Double.parseDouble(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 2) {
-                result += temp.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 2) {
-                result += main.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isFloat(name2)) {
-            result %= Double.parseDouble(name2);
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 2) {
-                result %= temp.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 2) {
-                result %= main.getFloatVar(name2);
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("float", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void fmod(Operand v1, Operand v2, Operand target) {
+        double result = readFloat(v1);
+        if (hasFloat(v2)) {
+            result %= readFloat(v2);
         }
+        writeFloat(target, result, v1);
     }
 
     /**
@@ -876,61 +440,16 @@ public class VMInterpreter {
      * An 'ipow' instruction has the following format: ipow v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void ipow(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        long result = 0;
-
-        if (isInt(name1)) {
-            result += Integer.parseInt(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 1) {
-                result += temp.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 1) {
-                result += main.getIntVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isInt(name2)) {
-            result = (long) Math.pow(result, Integer.parseInt(name2));
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 1) {
-                result = (long) Math.pow(result, temp.getIntVar(name2));
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 1) {
-                result = (long) Math.pow(result, main.getIntVar(name2));
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("int", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void ipow(Operand v1, Operand v2, Operand target) {
+        long result = readInt(v1);
+        if (hasInt(v2)) {
+            result = (long) Math.pow(result, readInt(v2));
         }
+        writeInt(target, result, v1);
     }
 
     /**
@@ -942,61 +461,16 @@ public class VMInterpreter {
      * An 'fpow' instruction has the following format: fpow v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void fpow(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        String name1 = st.nextToken();
-        String name2 = st.nextToken();
-        String name3 = st.nextToken();
-        double result = 0.0;
-
-        if (isFloat(name1)) {
-            result += Double.parseDouble(name1);
-        } else if (name1.startsWith("$")) {
-            if (temp.contains(name1) && temp.getTypeCode(name1) == 2) {
-                result += temp.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        } else {
-            if (main.contains(name1) && main.getTypeCode(name1) == 2) {
-                result += main.getFloatVar(name1);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
-        }
-
-        if (isFloat(name2)) {
-            result = Math.pow(result, Double.parseDouble(name2));
-        } else if (name2.startsWith("$")) {
-            if (temp.contains(name2) && temp.getTypeCode(name2) == 2) {
-                result = Math.pow(result, temp.getFloatVar(name2));
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        } else {
-            if (main.contains(name2) && main.getTypeCode(name2) == 2) {
-                result = Math.pow(result, main.getFloatVar(name2));
-            } else {
-                VMError.logvm("Variable not found: " + name2);
-            }
-        }
-
-        if (name3.startsWith("$")) {
-            if (temp.contains(name3)) {
-                temp.addVar(name3, result);
-            } else {
-                temp.addEmpty("float", name3);
-                temp.setVar(name3, result);
-            }
-        } else {
-            if (main.contains(name3)) {
-                main.setVar(name3, result);
-            } else {
-                VMError.logvm("Variable not found: " + name1);
-            }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void fpow(Operand v1, Operand v2, Operand target) {
+        double result = readFloat(v1);
+        if (hasFloat(v2)) {
+            result = Math.pow(result, readFloat(v2));
         }
+        writeFloat(target, result, v1);
     }
 
     /**
@@ -1011,40 +485,24 @@ public class VMInterpreter {
      * An 'incr' instruction has the following format: incr v
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void incr(String args) {
-        if (main.contains(args)) {
-            if (main.getTypeCode(args) == 1) {
-                main.setVar(args, (main.getIntVar(args) + 1));
-            } else if (main.getTypeCode(args) == 2) {
-                main.setVar(args, (main.getFloatVar(args) + 1.0));
-            } else if (main.getTypeCode(args) == 3) {
-                main.setVar(args, (main.getCharVar(args) + 1));
-            }
-        }
+     * @param v The variable to increment.
+     */
+    public void incr(Operand v) {
+        step(v.getMainSlot(), 1);
     }
 
     /**
      * Interprets the 'decr' function in the ArchVM Bytecode.
      * <p>
-     * The 'decr' function increments a int/float variable by one.
+     * The 'decr' function decrements a int/float variable by one.
      * <p>
      * An 'decr' instruction has the following format: decr v
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void decr(String args) {
-        if (main.contains(args)) {
-            if (main.getTypeCode(args) == 1) {
-                main.setVar(args, (main.getIntVar(args) - 1));
-            } else if (main.getTypeCode(args) == 2) {
-                main.setVar(args, (main.getFloatVar(args) - 1.0));
-            } else if (main.getTypeCode(args) == 3) {
-                main.setVar(args, (main.getCharVar(args) - 1));
-            }
-        }
+     * @param v The variable to decrement.
+     */
+    public void decr(Operand v) {
+        step(v.getMainSlot(), -1);
     }
 
     /**
@@ -1060,133 +518,29 @@ public class VMInterpreter {
      * A 'cmpgt' instruction has the following format: cmpgt v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cmpgt(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        double a = 0.0, b = 0.0;
-        String v1 = st.nextToken(), v2 = st.nextToken(), target = st.nextToken();
-
-        if (isInt(v1) || isFloat(v1)) {
-            a += Double.valueOf(v1);
-        } else if (main.contains(v1)) {
-            a += switch (main.getTypeCode(v1)) {
-                case 1 -> main.getIntVar(v1);
-                case 2 -> main.getFloatVar(v1);
-                case 3 -> main.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v1)) {
-            a += switch (temp.getTypeCode(v1)) {
-                case 1 -> temp.getIntVar(v1);
-                case 2 -> temp.getFloatVar(v1);
-                case 3 -> temp.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (isInt(v2) || isFloat(v2)) {
-            b += Double.valueOf(v2);
-        } else if (main.contains(v2)) {
-            b += switch (main.getTypeCode(v2)) {
-                case 1 -> main.getIntVar(v2);
-                case 2 -> main.getFloatVar(v2);
-                case 3 -> main.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v2)) {
-            b += switch (temp.getTypeCode(v2)) {
-                case 1 -> temp.getIntVar(v2);
-                case 2 -> temp.getFloatVar(v2);
-                case 3 -> temp.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (main.contains(target)) {
-            main.setVar(target, (a > b));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (a > b));
-            } else {
-                temp.addVar(target, (a > b));
-            }
-        } else {
-            VMError.logvm("Target variable not found.");
-        }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void cmpgt(Operand v1, Operand v2, Operand target) {
+        compared(target, readNumber(v1) > readNumber(v2));
     }
 
     /**
      * Interprets the 'cmpgte' function in the ArchVM Bytecode.
      * <p>
-     * The 'cmpgte' function checks if v1 >= v2 and stores a boolean value in
-     * another variable.
+     * The 'cmpgte' function checks if v1 >= v2 and stores a boolean value in another
+     * variable.
      * <p>
      * A 'cmpgte' instruction has the following format: cmpgte v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cmpgte(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        double a = 0.0, b = 0.0;
-        String v1 = st.nextToken(), v2 = st.nextToken(), target = st.nextToken();
-
-        if (isInt(v1) || isFloat(v1)) {
-            a += Double.valueOf(v1);
-        } else if (main.contains(v1)) {
-            a += switch (main.getTypeCode(v1)) {
-                case 1 -> main.getIntVar(v1);
-                case 2 -> main.getFloatVar(v1);
-                case 3 -> main.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v1)) {
-            a += switch (temp.getTypeCode(v1)) {
-                case 1 -> temp.getIntVar(v1);
-                case 2 -> temp.getFloatVar(v1);
-                case 3 -> temp.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (isInt(v2) || isFloat(v2)) {
-            b += Double.valueOf(v2);
-        } else if (main.contains(v2)) {
-            b += switch (main.getTypeCode(v2)) {
-                case 1 -> main.getIntVar(v2);
-                case 2 -> main.getFloatVar(v2);
-                case 3 -> main.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v2)) {
-            b += switch (temp.getTypeCode(v2)) {
-                case 1 -> temp.getIntVar(v2);
-                case 2 -> temp.getFloatVar(v2);
-                case 3 -> temp.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (main.contains(target)) {
-            main.setVar(target, (a >= b));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (a >= b));
-            } else {
-                temp.addVar(target, (a >= b));
-            }
-        } else {
-            VMError.logvm("Target variable not found.");
-        }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void cmpgte(Operand v1, Operand v2, Operand target) {
+        compared(target, readNumber(v1) >= readNumber(v2));
     }
 
     /**
@@ -1198,132 +552,29 @@ public class VMInterpreter {
      * A 'cmplt' instruction has the following format: cmplt v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cmplt(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        double a = 0.0, b = 0.0;
-        String v1 = st.nextToken(), v2 = st.nextToken(), target = st.nextToken();
-
-        if (isInt(v1) || isFloat(v1)) {
-            a += Double.valueOf(v1);
-        } else if (main.contains(v1)) {
-            a += switch (main.getTypeCode(v1)) {
-                case 1 -> main.getIntVar(v1);
-                case 2 -> main.getFloatVar(v1);
-                case 3 -> main.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v1)) {
-            a += switch (temp.getTypeCode(v1)) {
-                case 1 -> temp.getIntVar(v1);
-                case 2 -> temp.getFloatVar(v1);
-                case 3 -> temp.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (isInt(v2) || isFloat(v2)) {
-            b += Double.valueOf(v2);
-        } else if (main.contains(v2)) {
-            b += switch (main.getTypeCode(v2)) {
-                case 1 -> main.getIntVar(v2);
-                case 2 -> main.getFloatVar(v2);
-                case 3 -> main.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v2)) {
-            b += switch (temp.getTypeCode(v2)) {
-                case 1 -> temp.getIntVar(v2);
-                case 2 -> temp.getFloatVar(v2);
-                case 3 -> temp.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (main.contains(target)) {
-            main.setVar(target, (a < b));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (a < b));
-            } else {
-                temp.addVar(target, (a < b));
-            }
-        } else {
-            VMError.logvm("Target variable not found.");
-        }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void cmplt(Operand v1, Operand v2, Operand target) {
+        compared(target, readNumber(v1) < readNumber(v2));
     }
 
     /**
      * Interprets the 'cmplte' function in the ArchVM Bytecode.
      * <p>
-     * The 'cmplte' function checks if v1 <= v2 and stores a boolean value in
-     * another variable.
+     * The 'cmplte' function checks if v1 <= v2 and stores a boolean value in another
+     * variable.
      * <p>
      * A 'cmplte' instruction has the following format: cmplte v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cmplte(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        double a = 0.0, b = 0.0;
-        String v1 = st.nextToken(), v2 = st.nextToken(), target = st.nextToken();
-        if (isInt(v1) || isFloat(v1)) {
-            a += Double.valueOf(v1);
-        } else if (main.contains(v1)) {
-            a += switch (main.getTypeCode(v1)) {
-                case 1 -> main.getIntVar(v1);
-                case 2 -> main.getFloatVar(v1);
-                case 3 -> main.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v1)) {
-            a += switch (temp.getTypeCode(v1)) {
-                case 1 -> temp.getIntVar(v1);
-                case 2 -> temp.getFloatVar(v1);
-                case 3 -> temp.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (isInt(v2) || isFloat(v2)) {
-            b += Double.valueOf(v2);
-        } else if (main.contains(v2)) {
-            b += switch (main.getTypeCode(v2)) {
-                case 1 -> main.getIntVar(v2);
-                case 2 -> main.getFloatVar(v2);
-                case 3 -> main.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v2)) {
-            b += switch (temp.getTypeCode(v2)) {
-                case 1 -> temp.getIntVar(v2);
-                case 2 -> temp.getFloatVar(v2);
-                case 3 -> temp.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (main.contains(target)) {
-            main.setVar(target, (a <= b));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (a <= b));
-            } else {
-                temp.addVar(target, (a <= b));
-            }
-        } else {
-            VMError.logvm("Target variable not found.");
-        }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void cmplte(Operand v1, Operand v2, Operand target) {
+        compared(target, readNumber(v1) <= readNumber(v2));
     }
 
     /**
@@ -1335,64 +586,12 @@ public class VMInterpreter {
      * A 'cmpe' instruction has the following format: cmpe v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cmpe(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        double a = 0.0, b = 0.0;
-        String v1 = st.nextToken(), v2 = st.nextToken(), target = st.nextToken();
-
-        if (isInt(v1) || isFloat(v1)) {
-            a += Double.valueOf(v1);
-        } else if (main.contains(v1)) {
-            a += switch (main.getTypeCode(v1)) {
-                case 1 -> main.getIntVar(v1);
-                case 2 -> main.getFloatVar(v1);
-                case 3 -> main.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v1)) {
-            a += switch (temp.getTypeCode(v1)) {
-                case 1 -> temp.getIntVar(v1);
-                case 2 -> temp.getFloatVar(v1);
-                case 3 -> temp.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (isInt(v2) || isFloat(v2)) {
-            b += Double.valueOf(v2);
-        } else if (main.contains(v2)) {
-            b += switch (main.getTypeCode(v2)) {
-                case 1 -> main.getIntVar(v2);
-                case 2 -> main.getFloatVar(v2);
-                case 3 -> main.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v2)) {
-            b += switch (temp.getTypeCode(v2)) {
-                case 1 -> temp.getIntVar(v2);
-                case 2 -> temp.getFloatVar(v2);
-                case 3 -> temp.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (main.contains(target)) {
-            main.setVar(target, (a == b));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (a == b));
-            } else {
-                temp.addVar(target, (a == b));
-            }
-        } else {
-            VMError.logvm("Target variable not found.");
-        }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void cmpe(Operand v1, Operand v2, Operand target) {
+        compared(target, readNumber(v1) == readNumber(v2));
     }
 
     /**
@@ -1404,64 +603,12 @@ public class VMInterpreter {
      * A 'cmpne' instruction has the following format: cmpne v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void cmpne(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        double a = 0.0, b = 0.0;
-        String v1 = st.nextToken(), v2 = st.nextToken(), target = st.nextToken();
-
-        if (isInt(v1) || isFloat(v1)) {
-            a += Double.valueOf(v1);
-        } else if (main.contains(v1)) {
-            a += switch (main.getTypeCode(v1)) {
-                case 1 -> main.getIntVar(v1);
-                case 2 -> main.getFloatVar(v1);
-                case 3 -> main.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v1)) {
-            a += switch (temp.getTypeCode(v1)) {
-                case 1 -> temp.getIntVar(v1);
-                case 2 -> temp.getFloatVar(v1);
-                case 3 -> temp.getCharVar(v1);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (isInt(v2) || isFloat(v2)) {
-            b += Double.valueOf(v2);
-        } else if (main.contains(v2)) {
-            b += switch (main.getTypeCode(v2)) {
-                case 1 -> main.getIntVar(v2);
-                case 2 -> main.getFloatVar(v2);
-                case 3 -> main.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else if (temp.contains(v2)) {
-            b += switch (temp.getTypeCode(v2)) {
-                case 1 -> temp.getIntVar(v2);
-                case 2 -> temp.getFloatVar(v2);
-                case 3 -> temp.getCharVar(v2);
-                default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
-            };
-        } else {
-            VMError.logvm("Invalid value for comparison.");
-        }
-
-        if (main.contains(target)) {
-            main.setVar(target, (a != b));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (a != b));
-            } else {
-                temp.addVar(target, (a != b));
-            }
-        } else {
-            VMError.logvm("Target variable not found.");
-        }
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
+     */
+    public void cmpne(Operand v1, Operand v2, Operand target) {
+        compared(target, readNumber(v1) != readNumber(v2));
     }
 
     /**
@@ -1476,26 +623,14 @@ public class VMInterpreter {
      * A 'and' instruction has the following format: and v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
      */
-    public void and(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean a = searchAndGetBoolean(st.nextToken());
-        boolean b = searchAndGetBoolean(st.nextToken());
-
-        boolean c = a && b;
-
-        String target = st.nextToken();
-
-        if (main.contains(target)) {
-            main.setVar(target, c);
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, c);
-            } else {
-                temp.addVar(target, c);
-            }
-        }
+    public void and(Operand v1, Operand v2, Operand target) {
+        boolean a = readBoolean(v1);
+        boolean b = readBoolean(v2);
+        writeBoolean(target, a && b);
     }
 
     /**
@@ -1506,56 +641,32 @@ public class VMInterpreter {
      * A 'or' instruction has the following format: or v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
      */
-    public void or(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean a = searchAndGetBoolean(st.nextToken());
-        boolean b = searchAndGetBoolean(st.nextToken());
-
-        boolean c = a || b;
-
-        String target = st.nextToken();
-
-        if (main.contains(target)) {
-            main.setVar(target, c);
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, c);
-            } else {
-                temp.addVar(target, c);
-            }
-        }
+    public void or(Operand v1, Operand v2, Operand target) {
+        boolean a = readBoolean(v1);
+        boolean b = readBoolean(v2);
+        writeBoolean(target, a || b);
     }
 
     /**
      * Interprets the 'xor' function in the ArchVM Bytecode.
      * <p>
-     * The 'xor' function stores the value of v1 && v2 in target.
+     * The 'xor' function stores the value of v1 ^ v2 in target.
      * <p>
      * A 'xor' instruction has the following format: xor v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
      */
-    public void xor(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean a = searchAndGetBoolean(st.nextToken());
-        boolean b = searchAndGetBoolean(st.nextToken());
-
-        boolean c = a ^ b;
-
-        String target = st.nextToken();
-
-        if (main.contains(target)) {
-            main.setVar(target, c);
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, c);
-            } else {
-                temp.addVar(target, c);
-            }
-        }
+    public void xor(Operand v1, Operand v2, Operand target) {
+        boolean a = readBoolean(v1);
+        boolean b = readBoolean(v2);
+        writeBoolean(target, a ^ b);
     }
 
     /**
@@ -1563,26 +674,14 @@ public class VMInterpreter {
      * <p>
      * The 'not' function stores the value of !v1 in target.
      * <p>
-     * A 'not' instruction has the following format: not v1, v2, target
+     * A 'not' instruction has the following format: not v1, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
+     * @param v1     The value.
+     * @param target The variable to store the result in.
      */
-    public void not(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean a = searchAndGetBoolean(st.nextToken());
-
-        String target = st.nextToken();
-
-        if (main.contains(target)) {
-            main.setVar(target, (!a));
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, (!a));
-            } else {
-                temp.addVar(target, (!a));
-            }
-        }
+    public void not(Operand v1, Operand target) {
+        writeBoolean(target, !readBoolean(v1));
     }
 
     /**
@@ -1593,26 +692,14 @@ public class VMInterpreter {
      * A 'eq' instruction has the following format: eq v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
      */
-    public void eq(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean a = searchAndGetBoolean(st.nextToken());
-        boolean b = searchAndGetBoolean(st.nextToken());
-
-        boolean c = a == b;
-
-        String target = st.nextToken();
-
-        if (main.contains(target)) {
-            main.setVar(target, c);
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, c);
-            } else {
-                temp.addVar(target, c);
-            }
-        }
+    public void eq(Operand v1, Operand v2, Operand target) {
+        boolean a = readBoolean(v1);
+        boolean b = readBoolean(v2);
+        writeBoolean(target, a == b);
     }
 
     /**
@@ -1623,26 +710,14 @@ public class VMInterpreter {
      * A 'neq' instruction has the following format: neq v1, v2, target
      * <p>
      *
-     * @param args Contains the arguments of the instruction.
+     * @param v1     The first value.
+     * @param v2     The second value.
+     * @param target The variable to store the result in.
      */
-    public void neq(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean a = searchAndGetBoolean(st.nextToken());
-        boolean b = searchAndGetBoolean(st.nextToken());
-
-        boolean c = a != b;
-
-        String target = st.nextToken();
-
-        if (main.contains(target)) {
-            main.setVar(target, c);
-        } else if (target.startsWith("$")) {
-            if (temp.contains(target)) {
-                temp.setVar(target, c);
-            } else {
-                temp.addVar(target, c);
-            }
-        }
+    public void neq(Operand v1, Operand v2, Operand target) {
+        boolean a = readBoolean(v1);
+        boolean b = readBoolean(v2);
+        writeBoolean(target, a != b);
     }
 
     /**
@@ -1660,14 +735,13 @@ public class VMInterpreter {
      * <p>
      * This method has been named azzert as assert is a keyword in Java.
      *
-     * @param args Contains the arguments of the instruction.
+     * @param condition The condition to check.
+     * @param trueLine  The line to jump to if the condition is true.
+     * @param falseLine The line to jump to if the condition is false.
      * @return The line number to be jumped to.
      */
-    public int azzert(String args) {
-        StringTokenizer st = new StringTokenizer(args, ", ");
-        boolean b = searchAndGetBoolean(st.nextToken());
-        int x = Integer.valueOf(st.nextToken()), y = Integer.valueOf(st.nextToken());
-        return (b) ? x : y;
+    public int azzert(Operand condition, Operand trueLine, Operand falseLine) {
+        return (int) ((readBoolean(condition)) ? trueLine.getIntValue() : falseLine.getIntValue());
     }
 
     /**
@@ -1679,11 +753,11 @@ public class VMInterpreter {
      * <p>
      * This method has been named gotu as goto is a reserved word in Java.
      *
-     * @param args Contains the arguments of the instruction.
+     * @param line The line to jump to.
      * @return The line number to be jumped to.
      */
-    public int gotu(String args) {
-        return Integer.valueOf(args);
+    public int gotu(Operand line) {
+        return (int) line.getIntValue();
     }
 
     /**
@@ -1692,61 +766,48 @@ public class VMInterpreter {
      * A 'print' function has the following format: print
      * args_separated_by_comma_and_space (", ")
      *
-     * @param args Contains the arguments of the instruction.
-     */
-    public void print(String args) {
-        List<String> parts = new ArrayList<>();
-        boolean inQuotes = false;
-        StringBuilder current = new StringBuilder();
-        for (int i = 0; i < args.length(); i++) {
-            char c = args.charAt(i);
-            if (c == '\"') {
-                inQuotes = !inQuotes;
-                current.append(c);
-            } else if (c == ',' && !inQuotes) {
-                parts.add(current.toString().trim());
-                current.setLength(0);
+     * @param parts The string literals and variables to be printed.
+     */
+    public void print(Operand[] parts) {
+        for (Operand part : parts) {
+            if (part.getKind() == Operand.STRING) {
+                output.print(part.getText());
+            } else if (main.getTypeCode(part.getMainSlot()) != VarManager.UNDEFINED) {
+                print(main, part.getMainSlot());
+            } else if (temp.getTypeCode(tempSlot(part)) != VarManager.UNDEFINED) {
+                print(temp, tempSlot(part));
             } else {
-                current.append(c);
+                VMError.logvm(output, "Invalid arguments.");
             }
         }
-        if (current.length() > 0) {
-            parts.add(current.toString().trim());
+    }
+
+    private void print(VarManager vm, int slot) {
+        switch (vm.getTypeCode(slot)) {
+            case VarManager.INT -> output.print(vm.getLong(slot));
+            case VarManager.FLOAT -> output.print(vm.getDouble(slot));
+            case VarManager.CHAR -> output.print(vm.getChar(slot));
+            default -> output.print(vm.getBoolean(slot));
         }
+    }
 
-        for (String part : parts) {
-            if (part.startsWith("\"") && part.endsWith("\"")) {
-                // Remove quotes and interpret escape sequences
-                String literal = part.substring(1, part.length() - 1);
-                System.out.print(unescapeJavaString(literal));
-            } else if (main.contains(part)) {
-                if (main.getTypeCode(part) == 1) {
-                    System.out.print(main.getIntVar(part));
-                } else if (main.getTypeCode(part) == 2) {
-                    System.out.print(main.getFloatVar(part));
-                } else if (main.getTypeCode(part) == 3) {
-                    System.out.print(main.getCharVar(part));
-                } else if (main.getTypeCode(part) == 4) {
-                    System.out.print(main.getBoolVar(part));
-                }
-            } else if (temp.contains(part)) {
-                if (temp.getTypeCode(part) == 1) {
-                    System.out.print(temp.getIntVar(part));
-                } else if (temp.getTypeCode(part) == 2) {
-                    System.out.print(temp.getFloatVar(part));
-                } else if (temp.getTypeCode(part) == 3) {
-                    System.out.print(temp.getCharVar(part));
-                } else if (temp.getTypeCode(part) == 4) {
-                    System.out.print(temp.getBoolVar(part));
-                }
-            } else {
-                VMError.logvm("Invalid arguments.");
-            }
+    /**
+     * Runs an instruction which has too few arguments (see JVSELoader). It reads
+     * the values it has as booleans, as the logical instructions and assert read
+     * their values before reaching the missing one, then fails as reading the
+     * missing argument did.
+     *
+     * @param values The values read before the missing argument.
+     */
+    public void incomplete(Operand[] values) {
+        for (Operand value : values) {
+            readBoolean(value);
         }
+        throw new NoSuchElementException();
     }
 
     public void printTime() {
-        System.out.println(new Date().toString());
+        output.println(new Date().toString());
     }
 
     public void handleNative(String args) {
@@ -1785,7 +846,8 @@ public class VMInterpreter {
             // Lookup method with exact signature
             Method method = clazz.getMethod(methodName, paramTypes);
 
-            // Invoke static method with args
+            // Invoke static method with args, after what the program has printed
+            output.flush();
             Object ret = method.invoke(null, argValues);
 
             if (method.getReturnType() != void.class && resultVar != null && !resultVar.isEmpty()) {
@@ -1884,155 +946,326 @@ public class VMInterpreter {
 
     /**
      * Helper methods.
+     * <p>
+     * Variables are looked up by name as they were in the lists: the
+     * instructions working on numbers look up names starting with '$' in the
+     * temporary list and all others in the main list, the other instructions
+     * look up every name in the main list first.
      */
 
+    private static int tempSlot(Operand v) {
+        return (v.isTemp()) ? v.getSlot() : -1;
+    }
+
     /**
-     * Checks if the string is a valid JVS integer.
+     * Reads an int operand (an int literal or an int variable).
      *
-     * @param s The string to be checked.
-     * @return True if the string is a valid JVS integer, false otherwise.
+     * @param v The operand.
+     * @return The value, or 0 if the operand is not an int.
      */
-    private boolean isInt(String s) {
-        try {
-            Long.parseLong(s);
+    private long readInt(Operand v) {
+        if (v.isInt()) {
+            return intValue(v);
+        }
+        VarManager vm = (v.isTemp()) ? temp : main;
+        int slot = (v.isTemp()) ? v.getSlot() : v.getMainSlot();
+        if (vm.getTypeCode(slot) == VarManager.INT) {
+            return vm.getLong(slot);
+        }
+        VMError.logvm(output, "Variable not found: " + v.getText());
+        return 0L;
+    }
+
+    /**
+     * Checks if an operand is an int, reporting it if it is not. The second value
+     * of an int instruction is only used if it is an int.
+     */
+    private boolean hasInt(Operand v) {
+        if (v.isInt()) {
             return true;
-        } catch (NumberFormatException e) {
-            return false;
         }
+        VarManager vm = (v.isTemp()) ? temp : main;
+        if (vm.getTypeCode((v.isTemp()) ? v.getSlot() : v.getMainSlot()) == VarManager.INT) {
+            return true;
+        }
+        VMError.logvm(output, "Variable not found: " + v.getText());
+        return false;
     }
 
     /**
-     * Checks if the string is a valid JVS float.
+     * Reads a float operand (a number literal or a float variable).
      *
-     * @param s The string to be checked.
-     * @return True if the string is a valid JVS float, false otherwise.
+     * @param v The operand.
+     * @return The value, or 0 if the operand is not a float.
      */
-    private boolean isFloat(String s) {
-        try {
-            Double.parseDouble(s);
+    private double readFloat(Operand v) {
+        if (v.isFloat()) {
+            return v.getFloatValue();
+        }
+        VarManager vm = (v.isTemp()) ? temp : main;
+        int slot = (v.isTemp()) ? v.getSlot() : v.getMainSlot();
+        if (vm.getTypeCode(slot) == VarManager.FLOAT) {
+            return vm.getDouble(slot);
+        }
+        VMError.logvm(output, "Variable not found: " + v.getText());
+        return 0.0;
+    }
+
+    /**
+     * Checks if an operand is a float, reporting it if it is not (see
+     * {@link #hasInt(Operand)}).
+     */
+    private boolean hasFloat(Operand v) {
+        if (v.isFloat()) {
+            return true;
+        }
+        VarManager vm = (v.isTemp()) ? temp : main;
+        if (vm.getTypeCode((v.isTemp()) ? v.getSlot() : v.getMainSlot()) == VarManager.FLOAT) {
             return true;
-        } catch (NumberFormatException e) {
-            return false;
         }
+        VMError.logvm(output, "Variable not found: " + v.getText());
+        return false;
     }
 
     /**
-     * Checks if the two types are compatible for casting.
-     * <p>
-     * The types are compatible if they are either int, float, char or boolean.
+     * Reads an operand of a comparison (a number literal or an int, float or char
+     * variable) as a double.
      *
-     * @param type1 The first type.
-     * @param type2 The second type.
-     * @return True if they are compatible,otherwise false.
+     * @param v The operand.
+     * @return The value, or 0 if the operand is not a number.
      */
-    private boolean isCompatible(String type1, String type2) {
-        return isIn(type1, new String[] { "int", "float", "char" })
-                && isIn(type2, new String[] { "int", "float", "char" });
+    private double readNumber(Operand v) {
+        if (v.isFloat()) {
+            return v.getFloatValue();
+        }
+        if (main.getTypeCode(v.getMainSlot()) != VarManager.UNDEFINED) {
+            return readNumber(main, v.getMainSlot());
+        }
+        if (temp.getTypeCode(tempSlot(v)) != VarManager.UNDEFINED) {
+            return readNumber(temp, tempSlot(v));
+        }
+        return getDefaultError("Invalid value for comparison.");
+    }
+
+    private double readNumber(VarManager vm, int slot) {
+        return switch (vm.getTypeCode(slot)) {
+            case VarManager.INT -> vm.getLong(slot);
+            case VarManager.FLOAT -> vm.getDouble(slot);
+            case VarManager.CHAR -> vm.getChar(slot);
+            default -> getDefaultError("Invalid type for comparison (Only int, float and char allowed).");
+        };
     }
 
     /**
-     * Checks if a String is in an array of Strings.
+     * Reads a boolean operand (true, false or a boolean variable).
      *
-     * @param a    The string to be checked.
-     * @param args The array of strings.
-     * @return True if the string is in the array, otherwise false.
-     */
-    private boolean isIn(String a, String args[]) {
-        for (String s : args) {
-            if (a.equals(s)) {
-                return true;
-            }
+     * @param v The operand.
+     * @return The value, or false if the operand is not a boolean.
+     */
+    private boolean readBoolean(Operand v) {
+        if (v.isBoolean()) {
+            return v.getBoolValue();
+        }
+        if (main.getTypeCode(v.getMainSlot()) != VarManager.UNDEFINED) {
+            return readBoolean(main, v.getMainSlot(), v);
+        }
+        if (temp.getTypeCode(tempSlot(v)) != VarManager.UNDEFINED) {
+            return readBoolean(temp, tempSlot(v), v);
+        }
+        VMError.logvm(output, "Invalid value.");
+        return false;
+    }
+
+    private boolean readBoolean(VarManager vm, int slot, Operand v) {
+        if (vm.getTypeCode(slot) == VarManager.BOOLEAN) {
+            return vm.getBoolean(slot);
         }
+        VMError.logvm(output, "Variable " + v.getText() + " not found or invalid type");
         return false;
     }
 
     /**
-     * This method logs a VM Error with the message specified by the message
-     * parameter and
-     * returns a default value.
-     * <p>
+     * Reads the source of a cast as a variable of the type cast to.
      *
-     * @param msg
-     * @return The default value (0).
+     * @return The value, boxed, or the default value of the type if the source is
+     *         not a variable of the type.
      */
-    private int getDefaultError(String msg) {
-        VMError.logvm(msg);
-        return 0;
+    private Object castValue(VarManager vm, int slot, Operand name, int typeCode) {
+        boolean found = vm.getTypeCode(slot) == typeCode;
+        if (!found) {
+            VMError.logvm(output, "Variable " + name.getText() + " not found or invalid type");
+        }
+        switch (typeCode) {
+            case VarManager.INT:
+                return (found) ? vm.getLong(slot) : 0L;
+            case VarManager.FLOAT:
+                return (found) ? vm.getDouble(slot) : 0.0;
+            default:
+                return (found) ? vm.getChar(slot) : '\0';
+        }
     }
 
     /**
-     * This method is a helper method used by methods associated with logical
-     * operations to get
-     * <p>
-     * the required boolean values.
+     * The following methods store results. A temporary target is only written if
+     * it is new, or by a boolean if it is a boolean; a main target keeps its type.
+     * A value the target cannot hold throws the ClassCastException of
+     * {@link VarManager#setVar(int, Object)}.
+     */
+
+    /**
+     * Stores the result of an int instruction.
      *
-     * @param value The value or name of variable containing a boolean variable.
-     * @return The boolean value.
+     * @param target The target.
+     * @param value  The result.
+     * @param first  The first value of the instruction, named if the target is not
+     *               found.
      */
-    private boolean searchAndGetBoolean(String value) {
-        if (value.equals("true")) {
-            return true;
-        } else if (value.equals("false")) {
+    private void writeInt(Operand target, long value, Operand first) {
+        if (target.isTemp()) {
+            int slot = target.getSlot();
+            if (temp.getTypeCode(slot) != VarManager.UNDEFINED) {
+                VMError.logvm(output, "Invalid type for variable " + target.getText());
+                return;
+            }
+            temp.define(slot, VarManager.INT);
+            temp.setLong(slot, value);
+            return;
+        }
+        int slot = target.getMainSlot();
+        switch (main.getTypeCode(slot)) {
+            case VarManager.INT -> main.setLong(slot, value);
+            case VarManager.FLOAT -> main.setDouble(slot, value);
+            case VarManager.UNDEFINED -> VMError.logvm(output, "Variable not found: " + first.getText());
+            default -> main.setVar(slot, value);
+        }
+    }
+
+    /**
+     * Stores the result of a float instruction (see
+     * {@link #writeInt(Operand, long, Operand)}).
+     */
+    private void writeFloat(Operand target, double value, Operand first) {
+        if (target.isTemp()) {
+            int slot = target.getSlot();
+            if (temp.getTypeCode(slot) != VarManager.UNDEFINED) {
+                VMError.logvm(output, "Invalid type for variable " + target.getText());
+                return;
+            }
+            temp.define(slot, VarManager.FLOAT);
+            temp.setDouble(slot, value);
+            return;
+        }
+        int slot = target.getMainSlot();
+        switch (main.getTypeCode(slot)) {
+            case VarManager.INT -> main.setLong(slot, (long) value);
+            case VarManager.FLOAT -> main.setDouble(slot, value);
+            case VarManager.UNDEFINED -> VMError.logvm(output, "Variable not found: " + first.getText());
+            default -> main.setVar(slot, value);
+        }
+    }
+
+    /**
+     * Stores the result of a logical instruction. A target which is neither a
+     * main variable nor a temporary one is not written.
+     *
+     * @param target The target.
+     * @param value  The result.
+     * @return False if the target was not written.
+     */
+    private boolean writeBoolean(Operand target, boolean value) {
+        int slot = target.getMainSlot();
+        if (main.getTypeCode(slot) != VarManager.UNDEFINED) {
+            writeBoolean(main, slot, value);
+        } else if (target.isTemp()) {
+            slot = target.getSlot();
+            if (temp.getTypeCode(slot) == VarManager.UNDEFINED) {
+                temp.define(slot, VarManager.BOOLEAN);
+            }
+            writeBoolean(temp, slot, value);
+        } else {
             return false;
-        } else if (main.contains(value)) {
-            return main.getBoolVar(value);
-        } else if (temp.contains(value)) {
-            return temp.getBoolVar(value);
+        }
+        return true;
+    }
+
+    private void writeBoolean(VarManager vm, int slot, boolean value) {
+        if (vm.getTypeCode(slot) == VarManager.BOOLEAN) {
+            vm.setBoolean(slot, value);
         } else {
-            VMError.logvm("Invalid value.");
+            vm.setVar(slot, value);
         }
+    }
 
-        return false;
+    /**
+     * Stores the result of a comparison (see {@link #writeBoolean(Operand, boolean)}),
+     * reporting a target which is not written.
+     */
+    private void compared(Operand target, boolean value) {
+        if (!writeBoolean(target, value)) {
+            VMError.logvm(output, "Target variable not found.");
+        }
     }
 
-    // Helper method to interpret escape sequences in string literals
-    private String unescapeJavaString(String str) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < str.length(); i++) {
-            char ch = str.charAt(i);
-            if (ch == '\\' && i + 1 < str.length()) {
-                char next = str.charAt(i + 1);
-                switch (next) {
-                    case 'b':
-                        sb.append('\b');
-                        i++;
-                        break;
-                    case 't':
-                        sb.append('\t');
-                        i++;
-                        break;
-                    case 'n':
-                        sb.append('\n');
-                        i++;
-                        break;
-                    case 'f':
-                        sb.append('\f');
-                        i++;
-                        break;
-                    case 'r':
-                        sb.append('\r');
-                        i++;
-                        break;
-                    case '\"':
-                        sb.append('\"');
-                        i++;
-                        break;
-                    case '\'':
-                        sb.append('\'');
-                        i++;
-                        break;
-                    case '\\':
-                        sb.append('\\');
-                        i++;
-                        break;
-                    default:
-                        sb.append(ch);
-                        break;
-                }
-            } else {
-                sb.append(ch);
-            }
+    /**
+     * Returns the value of an int literal. A value which is not an int fails as it
+     * did when it was parsed with Integer.parseInt.
+     */
+    private static long intValue(Operand value) {
+        long v = value.getIntValue();
+        if (!value.isInt() || v != (int) v) {
+            return Integer.parseInt(value.getText()); // Throws a NumberFormatException.
         }
-        return sb.toString();
+        return v;
+    }
+
+    /**
+     * Returns the value of a float literal as put and set store it, rounded to a
+     * Java float. A value which is not a number fails as it did when it was parsed
+     * with Float.parseFloat.
+     */
+    private static double singleValue(Operand value) {
+        if (!value.isFloat()) {
+            return Float.parseFloat(value.getText()); // Throws a NumberFormatException.
+        }
+        return value.getSingleValue();
+    }
+
+    /**
+     * Adds a step (1 or -1) to an int, float or char main variable.
+     */
+    private void step(int slot, int step) {
+        switch (main.getTypeCode(slot)) {
+            case VarManager.INT -> main.setLong(slot, main.getLong(slot) + step);
+            case VarManager.FLOAT -> main.setDouble(slot, main.getDouble(slot) + step);
+            // The sum is an int, which a char variable does not take.
+            case VarManager.CHAR -> main.setVar(slot, main.getChar(slot) + step);
+        }
+    }
+
+    /**
+     * Checks if the two types are compatible for casting.
+     * <p>
+     * The types are compatible if they are either int, float or char.
+     *
+     * @param type1 The type code of the first type.
+     * @param type2 The type code of the second type.
+     * @return True if they are compatible,otherwise false.
+     */
+    private boolean isCompatible(int type1, int type2) {
+        return type1 >= 1 && type1 <= 3 && type2 >= 1 && type2 <= 3;
+    }
+
+    /**
+     * This method logs a VM Error with the message specified by the message
+     * parameter and
+     * returns a default value.
+     * <p>
+     *
+     * @param msg
+     * @return The default value (0).
+     */
+    private int getDefaultError(String msg) {
+        VMError.logvm(output, msg);
+        return 0;
     }
-}
\ No newline at end of file
+}
@@ -2,58 +2,254 @@ package com.jvs.archvm;
 
 import java.util.*;
 
+import com.jvs.io.OutputSink;
+
 /**
  * VarManager manages variables of types int, float, char, and boolean.
- * It stores variable names and values separately by type and provides
- * efficient add, set, get, and clear operations.
+ * <p>
+ * Every variable name is given a fixed integer slot. The slots of the
+ * variables used by a program are resolved when the program is loaded (see
+ * {@link #VarManager(String[])}), so the interpreter reads and writes the
+ * variables through the slot-based methods ({@link #getLong(int)},
+ * {@link #setDouble(int, double)}, ...) without any name lookup. The
+ * name-based methods are kept for callers that only know the name.
+ * <p>
+ * A slot keeps one value of each type, like the per-type lists of values this
+ * class used to keep. Redefining a variable with a type it already had since
+ * the last clear therefore brings back the value it had with that type (see
+ * {@link #define(int, int)}).
  */
 public class VarManager {
 
-    private static final int INITIAL_CAPACITY = 4;
+    public static final int UNDEFINED = 0;
+    public static final int INT = 1;
+    public static final int FLOAT = 2;
+    public static final int CHAR = 3;
+    public static final int BOOLEAN = 4;
 
-    private Map<String, Type> variableMap;
+    private static final int INITIAL_CAPACITY = 4;
 
-    private List<String> intVarNames;
-    private List<String> floatVarNames;
-    private List<String> charVarNames;
-    private List<String> boolVarNames;
+    private Map<String, Integer> slots;
+    private String[] names;
 
+    private byte[] types;
+    private byte[] defined; // The types each slot was defined with since the last clear, as bits.
     private long[] intValues;
     private double[] floatValues;
     private char[] charValues;
     private boolean[] boolValues;
 
-    private int intCount;
-    private int floatCount;
-    private int charCount;
-    private int boolCount;
-
-    private enum Type {
-        INT, FLOAT, CHAR, BOOLEAN
-    }
+    private int slotCount;
+    private OutputSink output; // Flushed before an error is printed (see VMError.logvm).
 
     /**
      * Creates a new VarManager with initial capacity.
      */
     public VarManager() {
-        variableMap = new HashMap<>();
-
-        intVarNames = new ArrayList<>();
-        floatVarNames = new ArrayList<>();
-        charVarNames = new ArrayList<>();
-        boolVarNames = new ArrayList<>();
-
-        intValues = new long[INITIAL_CAPACITY];
-        floatValues = new double[INITIAL_CAPACITY];
-        charValues = new char[INITIAL_CAPACITY];
-        boolValues = new boolean[INITIAL_CAPACITY];
-
-        intCount = 0;
-        floatCount = 0;
-        charCount = 0;
-        boolCount = 0;
+        this(new String[0]);
     }
 
+    /**
+     * Creates a new VarManager with the given variable names already resolved
+     * to the slots 0 to symbols.length - 1 (in the given order). The variables are
+     * not defined until they are added.
+     *
+     * @param symbols The variable names.
+     */
+    public VarManager(String[] symbols) {
+        int capacity = Math.max(INITIAL_CAPACITY, symbols.length);
+        slots = new HashMap<>();
+        names = new String[capacity];
+
+        types = new byte[capacity];
+        defined = new byte[capacity];
+        intValues = new long[capacity];
+        floatValues = new double[capacity];
+        charValues = new char[capacity];
+        boolValues = new boolean[capacity];
+
+        slotCount = 0;
+        for (String symbol : symbols) {
+            resolve(symbol);
+        }
+    }
+
+    /**
+     * Sets the output of the program the variables belong to, flushed before an
+     * error is printed (none by default).
+     *
+     * @param output The output.
+     */
+    void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    /**
+     * Returns the slot of a variable name, giving it a new slot if it has none.
+     *
+     * @param name Variable name.
+     * @return The slot of the variable.
+     */
+    public int resolve(String name) {
+        Integer slot = slots.get(name);
+        if (slot != null) {
+            return slot;
+        }
+        if (slotCount == types.length) {
+            expand();
+        }
+        names[slotCount] = name;
+        slots.put(name, slotCount);
+        return slotCount++;
+    }
+
+    /**
+     * Returns the slot of a variable name.
+     *
+     * @param name Variable name.
+     * @return The slot, or -1 if the name has no slot.
+     */
+    public int getSlot(String name) {
+        Integer slot = slots.get(name);
+        return (slot == null) ? -1 : slot;
+    }
+
+    /**
+     * Returns the name of the variable in a slot.
+     *
+     * @param slot The slot.
+     * @return The variable name.
+     */
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Returns the number of slots in use.
+     *
+     * @return The number of slots.
+     */
+    public int getSlotCount() {
+        return slotCount;
+    }
+
+    // SLOT-BASED METHODS
+
+    /**
+     * Returns the type code of the variable in a slot (see {@link #getTypeCode(String)}).
+     *
+     * @param slot The slot (a negative slot is never defined).
+     * @return The type code, or {@link #UNDEFINED} if the variable is not defined.
+     */
+    public int getTypeCode(int slot) {
+        return (slot < 0) ? UNDEFINED : types[slot];
+    }
+
+    /**
+     * Defines the variable in a slot with a type. The variable gets the default
+     * value of the type, unless it was already defined with that type since the
+     * last clear: it then gets back the value it had with the type.
+     *
+     * @param slot     The slot.
+     * @param typeCode The type code of the variable.
+     * @return True if the variable got the default value, false if it got back
+     *         its old value.
+     */
+    public boolean define(int slot, int typeCode) {
+        types[slot] = (byte) typeCode;
+        int bit = 1 << typeCode;
+        if ((defined[slot] & bit) != 0) {
+            return false;
+        }
+        defined[slot] |= bit;
+        switch (typeCode) {
+            case INT -> intValues[slot] = 0L;
+            case FLOAT -> floatValues[slot] = 0.0;
+            case CHAR -> charValues[slot] = '\0';
+            case BOOLEAN -> boolValues[slot] = false;
+        }
+        return true;
+    }
+
+    public long getLong(int slot) {
+        return intValues[slot];
+    }
+
+    public double getDouble(int slot) {
+        return floatValues[slot];
+    }
+
+    public char getChar(int slot) {
+        return charValues[slot];
+    }
+
+    public boolean getBoolean(int slot) {
+        return boolValues[slot];
+    }
+
+    /**
+     * Stores an int value in a slot. The variable becomes an int variable.
+     *
+     * @param slot  The slot.
+     * @param value The value.
+     */
+    public void setLong(int slot, long value) {
+        types[slot] = INT;
+        intValues[slot] = value;
+    }
+
+    /**
+     * Stores a float value in a slot. The variable becomes a float variable.
+     *
+     * @param slot  The slot.
+     * @param value The value.
+     */
+    public void setDouble(int slot, double value) {
+        types[slot] = FLOAT;
+        floatValues[slot] = value;
+    }
+
+    /**
+     * Stores a char value in a slot. The variable becomes a char variable.
+     *
+     * @param slot  The slot.
+     * @param value The value.
+     */
+    public void setChar(int slot, char value) {
+        types[slot] = CHAR;
+        charValues[slot] = value;
+    }
+
+    /**
+     * Stores a boolean value in a slot. The variable becomes a boolean variable.
+     *
+     * @param slot  The slot.
+     * @param value The value.
+     */
+    public void setBoolean(int slot, boolean value) {
+        types[slot] = BOOLEAN;
+        boolValues[slot] = value;
+    }
+
+    /**
+     * Stores a boxed value in the defined variable of a slot, converted to the
+     * type of the variable. A value of another type (or which is not a number,
+     * for an int or a float variable) throws a ClassCastException.
+     *
+     * @param slot  The slot.
+     * @param value The value.
+     */
+    public void setVar(int slot, Object value) {
+        switch (types[slot]) {
+            case INT -> intValues[slot] = ((Number) value).longValue();
+            case FLOAT -> floatValues[slot] = ((Number) value).doubleValue();
+            case CHAR -> charValues[slot] = (Character) value;
+            case BOOLEAN -> boolValues[slot] = (Boolean) value;
+        }
+    }
+
+    // NAME-BASED METHODS
+
     /**
      * Adds a variable of a given type with default value.
      *
@@ -62,11 +258,11 @@ public class VarManager {
      */
     public void addEmpty(String type, String name) {
         switch (type) {
-            case "int" -> addIntVar(name, 0L);
-            case "float" -> addFloatVar(name, 0.0);
-            case "char" -> addCharVar(name, '\0');
-            case "boolean" -> addBoolVar(name, false);
-            default -> VMError.logvm("Invalid type: " + type);
+            case "int" -> define(resolve(name), INT);
+            case "float" -> define(resolve(name), FLOAT);
+            case "char" -> define(resolve(name), CHAR);
+            case "boolean" -> define(resolve(name), BOOLEAN);
+            default -> VMError.logvm(output, "Invalid type: " + type);
         }
     }
 
@@ -80,15 +276,15 @@ public class VarManager {
      */
     public <T> void addVar(String name, T value) {
         if (value instanceof Integer) {
-            addIntVar(name, ((Integer) value).longValue());
+            add(name, INT, ((Integer) value).longValue());
         } else if (value instanceof Float) {
-            addFloatVar(name, ((Float) value).doubleValue());
+            add(name, FLOAT, ((Float) value).doubleValue());
         } else if (value instanceof Character) {
-            addCharVar(name, (Character) value);
+            add(name, CHAR, value);
         } else if (value instanceof Boolean) {
-            addBoolVar(name, (Boolean) value);
+            add(name, BOOLEAN, value);
         } else {
-            VMError.logvm("Invalid type for variable " + name);
+            VMError.logvm(output, "Invalid type for variable " + name);
         }
     }
 
@@ -100,23 +296,12 @@ public class VarManager {
      * @param <T>   Value type.
      */
     public <T> void setVar(String name, T value) {
-        if (!variableMap.containsKey(name)) {
-            VMError.logvm("Variable " + name + " not found");
+        int slot = getSlot(name);
+        if (getTypeCode(slot) == UNDEFINED) {
+            VMError.logvm(output, "Variable " + name + " not found");
             return;
         }
-        Type type = variableMap.get(name);
-        int index = getIndex(name, type);
-        if (index == -1) {
-            VMError.logvm("Variable " + name + " not found in storage");
-            return;
-        }
-
-        switch (type) {
-            case INT -> intValues[index] = ((Number) value).longValue();
-            case FLOAT -> floatValues[index] = ((Number) value).doubleValue();
-            case CHAR -> charValues[index] = (Character) value;
-            case BOOLEAN -> boolValues[index] = (Boolean) value;
-        }
+        setVar(slot, value);
     }
 
     /**
@@ -132,17 +317,7 @@ public class VarManager {
      * @return int representing the variable type code
      */
     public int getTypeCode(String name) {
-        Type type = variableMap.get(name);
-        if (type == null) {
-            return 0;
-        }
-
-        return switch (type) {
-            case INT -> 1;
-            case FLOAT -> 2;
-            case CHAR -> 3;
-            case BOOLEAN -> 4;
-        };
+        return getTypeCode(getSlot(name));
     }
 
     /**
@@ -152,10 +327,11 @@ public class VarManager {
      * @return Variable value or 0 if not found or wrong type.
      */
     public long getIntVar(String name) {
-        if (variableMap.containsKey(name) && variableMap.get(name) == Type.INT) {
-            return intValues[getIndex(name, Type.INT)];
+        int slot = getSlot(name);
+        if (getTypeCode(slot) == INT) {
+            return intValues[slot];
         }
-        VMError.logvm("Variable " + name + " not found or invalid type");
+        VMError.logvm(output, "Variable " + name + " not found or invalid type");
         return 0L;
     }
 
@@ -166,10 +342,11 @@ public class VarManager {
      * @return Variable value or 0.0 if not found or wrong type.
      */
     public double getFloatVar(String name) {
-        if (variableMap.containsKey(name) && variableMap.get(name) == Type.FLOAT) {
-            return floatValues[getIndex(name, Type.FLOAT)];
+        int slot = getSlot(name);
+        if (getTypeCode(slot) == FLOAT) {
+            return floatValues[slot];
         }
-        VMError.logvm("Variable " + name + " not found or invalid type");
+        VMError.logvm(output, "Variable " + name + " not found or invalid type");
         return 0.0;
     }
 
@@ -180,10 +357,11 @@ public class VarManager {
      * @return Variable value or '\0' if not found or wrong type.
      */
     public char getCharVar(String name) {
-        if (variableMap.containsKey(name) && variableMap.get(name) == Type.CHAR) {
-            return charValues[getIndex(name, Type.CHAR)];
+        int slot = getSlot(name);
+        if (getTypeCode(slot) == CHAR) {
+            return charValues[slot];
         }
-        VMError.logvm("Variable " + name + " not found or invalid type");
+        VMError.logvm(output, "Variable " + name + " not found or invalid type");
         return '\0';
     }
 
@@ -194,10 +372,11 @@ public class VarManager {
      * @return Variable value or false if not found or wrong type.
      */
     public boolean getBoolVar(String name) {
-        if (variableMap.containsKey(name) && variableMap.get(name) == Type.BOOLEAN) {
-            return boolValues[getIndex(name, Type.BOOLEAN)];
+        int slot = getSlot(name);
+        if (getTypeCode(slot) == BOOLEAN) {
+            return boolValues[slot];
         }
-        VMError.logvm("Variable " + name + " not found or invalid type");
+        VMError.logvm(output, "Variable " + name + " not found or invalid type");
         return false;
     }
 
@@ -208,105 +387,35 @@ public class VarManager {
      * @return true if variable exists, false otherwise.
      */
     public boolean contains(String name) {
-        return variableMap.containsKey(name);
+        return getTypeCode(name) != UNDEFINED;
     }
 
     /**
-     * Clears all variables and resets VarManager to initial empty state.
+     * Clears all variables. The slots of the variable names are kept, so that
+     * resolved slots stay valid.
      */
     public void clear() {
-        variableMap.clear();
-        intVarNames.clear();
-        floatVarNames.clear();
-        charVarNames.clear();
-        boolVarNames.clear();
-
-        intValues = new long[INITIAL_CAPACITY];
-        floatValues = new double[INITIAL_CAPACITY];
-        charValues = new char[INITIAL_CAPACITY];
-        boolValues = new boolean[INITIAL_CAPACITY];
-
-        intCount = 0;
-        floatCount = 0;
-        charCount = 0;
-        boolCount = 0;
+        Arrays.fill(types, 0, slotCount, (byte) UNDEFINED);
+        Arrays.fill(defined, 0, slotCount, (byte) 0);
     }
 
     // PRIVATE METHODS
 
-    private int getIndex(String name, Type type) {
-        List<String> namesList = switch (type) {
-            case INT -> intVarNames;
-            case FLOAT -> floatVarNames;
-            case CHAR -> charVarNames;
-            case BOOLEAN -> boolVarNames;
-        };
-
-        for (int i = 0; i < namesList.size(); i++) {
-            if (namesList.get(i).equals(name)) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    private void addIntVar(String name, long value) {
-        if (intCount == intValues.length) {
-            expandIntArray();
-        }
-        intVarNames.add(name);
-        intValues[intCount] = value;
-        intCount++;
-        variableMap.put(name, Type.INT);
-    }
-
-    private void addFloatVar(String name, double value) {
-        if (floatCount == floatValues.length) {
-            expandFloatArray();
-        }
-        floatVarNames.add(name);
-        floatValues[floatCount] = value;
-        floatCount++;
-        variableMap.put(name, Type.FLOAT);
-    }
-
-    private void addCharVar(String name, char value) {
-        if (charCount == charValues.length) {
-            expandCharArray();
-        }
-        charVarNames.add(name);
-        charValues[charCount] = value;
-        charCount++;
-        variableMap.put(name, Type.CHAR);
-    }
-
-    private void addBoolVar(String name, boolean value) {
-        if (boolCount == boolValues.length) {
-            expandBoolArray();
+    private void add(String name, int typeCode, Object value) {
+        int slot = resolve(name);
+        if (define(slot, typeCode)) {
+            setVar(slot, value);
         }
-        boolVarNames.add(name);
-        boolValues[boolCount] = value;
-        boolCount++;
-        variableMap.put(name, Type.BOOLEAN);
     }
 
-    private void expandIntArray() {
-        int newSize = intValues.length + 4;
+    private void expand() {
+        int newSize = types.length * 2;
+        names = Arrays.copyOf(names, newSize);
+        types = Arrays.copyOf(types, newSize);
+        defined = Arrays.copyOf(defined, newSize);
         intValues = Arrays.copyOf(intValues, newSize);
-    }
-
-    private void expandFloatArray() {
-        int newSize = floatValues.length + 4;
         floatValues = Arrays.copyOf(floatValues, newSize);
-    }
-
-    private void expandCharArray() {
-        int newSize = charValues.length + 4;
         charValues = Arrays.copyOf(charValues, newSize);
-    }
-
-    private void expandBoolArray() {
-        int newSize = boolValues.length + 4;
         boolValues = Arrays.copyOf(boolValues, newSize);
     }
 }
@@ -3,12 +3,16 @@ package com.jvs.bytecode;
 public class Instruction {
     private Opcode op;
     private String args;
+    private Operand[] operands;
     public static final int EMPTYLINE = 0; // Used to mark empty lines in the source code.
     public static final int RETURN = 1; // Used to mark return instructions in the source code.
     public static final int PRINT_STACK = 2; // Used to mark the end of the file in the source code.
     public static final int PRINT_TIME = 3; // Used to mark the end of the file in the source code.
+    public static final int INCOMPLETE = 4; // Used to mark instructions with too few arguments.
+    private static final Operand[] NO_OPERANDS = {};
 
     public Instruction(int id) {
+        operands = NO_OPERANDS;
         if (id == EMPTYLINE) {
             op = Opcode.EMPTYLINE;
             args = "";
@@ -21,6 +25,9 @@ public class Instruction {
         } else if (id == PRINT_TIME) {
             op = Opcode.PRINT_TIME;
             args = "";
+        } else if (id == INCOMPLETE) {
+            op = Opcode.INCOMPLETE;
+            args = "";
         } else {
             throw new IllegalArgumentException("Invalid instruction ID: " + id);
         }
@@ -28,6 +35,7 @@ public class Instruction {
 
     public Instruction(String instruction, boolean isWithoutArgs) {
         instruction = instruction.trim();
+        operands = NO_OPERANDS;
         if (isWithoutArgs) {
             op = Opcode.getOpcodeFor(instruction);
             args = "";
@@ -45,6 +53,23 @@ public class Instruction {
         return args;
     }
 
+    /**
+     * Returns the pre-parsed operands of the instruction (set by the loader).
+     *
+     * @return The operands, never null.
+     */
+    public Operand[] getOperands() {
+        return operands;
+    }
+
+    public Operand getOperand(int index) {
+        return operands[index];
+    }
+
+    public void setOperands(Operand[] operands) {
+        this.operands = operands;
+    }
+
     @Override
     public String toString() {
         return op + " " + args;
@@ -25,6 +25,7 @@ public enum Opcode {
     // but are used to mark the start of a function.
     FUNCDEC,
     EMPTYLINE, // Used to mark empty lines in the source code.
+    INCOMPLETE, // Used to mark instructions with too few arguments, which fail when run.
     NATIVE,
     EOF;
 
@@ -0,0 +1,200 @@
+package com.jvs.bytecode;
+
+/**
+ * An Operand is a single pre-parsed argument of an ArchVM instruction.
+ * <p>
+ * Operands are created once when a .jvse file is loaded, so that the
+ * interpreter never has to split or parse argument strings while running.
+ * Every operand keeps its kind (literal, string, main variable or temporary
+ * variable) together with all the values its text can be read as. Variables
+ * also get the slot they are stored in, which is resolved by the loader.
+ * <p>
+ * Instructions look names up by their text, so a temporary variable or a
+ * literal can also name a main variable (put and cast can define main variables
+ * with any name). Such operands get a second slot, in the main VarManager.
+ */
+public class Operand {
+    public static final int LITERAL = 0; // A numeric or boolean literal.
+    public static final int STRING = 1; // A quoted string literal (only used by print).
+    public static final int MAIN = 2; // A variable of the main variable list.
+    public static final int TEMP = 3; // A temporary ($) variable.
+
+    private String text;
+    private int kind;
+    private int typeCode;
+    private int slot;
+    private int mainSlot;
+    private boolean isInt, isFloat, isBoolean;
+    private long intValue;
+    private double floatValue;
+    private double singleValue;
+    private boolean boolValue;
+    private char charValue;
+
+    private Operand(String text, int kind) {
+        this.text = text;
+        this.kind = kind;
+        this.slot = -1;
+        this.mainSlot = -1;
+        this.charValue = (text.isEmpty()) ? '\0' : text.charAt(0);
+        this.boolValue = Boolean.parseBoolean(text);
+        this.typeCode = switch (text) {
+            case "int" -> 1;
+            case "float" -> 2;
+            case "char" -> 3;
+            case "boolean" -> 4;
+            default -> 0;
+        };
+    }
+
+    /**
+     * Parses a single argument token.
+     *
+     * @param token The token as written in the .jvse file.
+     * @return The parsed operand.
+     */
+    public static Operand of(String token) {
+        Operand op;
+        try {
+            long value = Long.parseLong(token);
+            op = new Operand(token, LITERAL);
+            op.isInt = true;
+            op.isFloat = true;
+            op.intValue = value;
+            op.floatValue = value;
+            op.singleValue = Float.parseFloat(token);
+            return op;
+        } catch (NumberFormatException e) {
+            // Not an integer, try the other forms.
+        }
+        try {
+            double value = Double.parseDouble(token);
+            op = new Operand(token, LITERAL);
+            op.isFloat = true;
+            op.floatValue = value;
+            op.singleValue = Float.parseFloat(token);
+            return op;
+        } catch (NumberFormatException e) {
+            // Not a number either.
+        }
+        if (token.equals("true") || token.equals("false")) {
+            op = new Operand(token, LITERAL);
+            op.isBoolean = true;
+            return op;
+        }
+        return new Operand(token, (token.startsWith("$")) ? TEMP : MAIN);
+    }
+
+    /**
+     * Creates a string literal operand.
+     *
+     * @param value The (already unescaped) content of the literal.
+     * @return The string operand.
+     */
+    public static Operand ofString(String value) {
+        return new Operand(value, STRING);
+    }
+
+    /**
+     * Returns the text of the operand (the variable name for variables, the
+     * unescaped content for strings).
+     *
+     * @return The text of the operand.
+     */
+    public String getText() {
+        return text;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    public boolean isVariable() {
+        return kind == MAIN || kind == TEMP;
+    }
+
+    public boolean isTemp() {
+        return kind == TEMP;
+    }
+
+    /**
+     * Returns the slot of a variable operand in its VarManager.
+     *
+     * @return The slot, or -1 if the operand is not a resolved variable.
+     */
+    public int getSlot() {
+        return slot;
+    }
+
+    public void setSlot(int slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Returns the slot of the main variable named by the operand: the slot of a
+     * main variable operand, or the second slot of any other operand.
+     *
+     * @return The slot, or -1 if no main variable can have the name.
+     */
+    public int getMainSlot() {
+        return (kind == MAIN) ? slot : mainSlot;
+    }
+
+    public void setMainSlot(int mainSlot) {
+        this.mainSlot = mainSlot;
+    }
+
+    /**
+     * Returns the type code of the operand if its text is a type name.
+     * Type codes follow VarManager: 1 = int, 2 = float, 3 = char, 4 = boolean and
+     * 0 if the text is not a type name.
+     *
+     * @return The type code.
+     */
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public boolean isInt() {
+        return isInt;
+    }
+
+    public boolean isFloat() {
+        return isFloat;
+    }
+
+    public boolean isBoolean() {
+        return isBoolean;
+    }
+
+    public long getIntValue() {
+        return intValue;
+    }
+
+    public double getFloatValue() {
+        return floatValue;
+    }
+
+    /**
+     * Returns the value of a float literal rounded to a Java float, as put and
+     * set store float values.
+     *
+     * @return The value.
+     */
+    public double getSingleValue() {
+        return singleValue;
+    }
+
+    public boolean getBoolValue() {
+        return boolValue;
+    }
+
+    public char getCharValue() {
+        return charValue;
+    }
+
+    @Override
+    public String toString() {
+        return (kind == STRING) ? '"' + text + '"' : text;
+    }
+}
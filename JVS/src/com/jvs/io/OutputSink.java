@@ -0,0 +1,208 @@
+package com.jvs.io;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The buffered output of a VM.
+ * <p>
+ * Every print to System.out takes the lock of the stream and may flush it. A
+ * sink instead collects the text in a char buffer, and encodes and writes it
+ * to its channel only when the buffer is full or on {@link #flush()}, which
+ * the VMs call when a run ends (and VeloxVM on its flush opcode). A program
+ * printing many small values thus makes one write per buffer.
+ * <p>
+ * Anything else printing to the same stream, like error messages, traces and
+ * native methods, must flush the sink first to keep the output in order.
+ */
+public final class OutputSink implements Flushable {
+    public static final int DEFAULT_CAPACITY = 8192;
+
+    // Enough room for any long, so numbers are written without a bounds check per digit.
+    private static final int MIN_CAPACITY = 32;
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final Flushable target;
+    private final CharsetEncoder encoder;
+    private final CharBuffer chars;
+    private final ByteBuffer bytes;
+    private boolean written; // Whether bytes were written since the last flush.
+
+    /**
+     * Creates a sink writing to System.out (the stream set when the sink is
+     * created), in the encoding of the standard output.
+     */
+    public OutputSink() {
+        this(System.out, stdoutCharset(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a sink writing to a stream, which is flushed after each write.
+     *
+     * @param out      The stream.
+     * @param charset  The encoding of the text.
+     * @param capacity The number of chars buffered.
+     */
+    public OutputSink(OutputStream out, Charset charset, int capacity) {
+        this(Channels.newChannel(out), out, charset, capacity);
+    }
+
+    /**
+     * Creates a sink writing to a channel, like a FileChannel.
+     *
+     * @param channel  The channel.
+     * @param charset  The encoding of the text.
+     * @param capacity The number of chars buffered.
+     */
+    public OutputSink(WritableByteChannel channel, Charset charset, int capacity) {
+        this(channel, null, charset, capacity);
+    }
+
+    private OutputSink(WritableByteChannel channel, Flushable target, Charset charset, int capacity) {
+        this.channel = channel;
+        this.target = target;
+        encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars = CharBuffer.allocate(Math.max(capacity, MIN_CAPACITY));
+        bytes = ByteBuffer.allocate((int) Math.ceil(chars.capacity() * (double) encoder.maxBytesPerChar()));
+    }
+
+    public void print(String s) {
+        int length = s.length();
+        int start = 0;
+        while (start < length) {
+            if (!chars.hasRemaining()) {
+                drain();
+            }
+            int end = start + Math.min(chars.remaining(), length - start);
+            chars.put(s, start, end);
+            start = end;
+        }
+    }
+
+    public void print(char[] s, int offset, int length) {
+        int end = offset + length;
+        while (offset < end) {
+            if (!chars.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(chars.remaining(), end - offset);
+            chars.put(s, offset, n);
+            offset += n;
+        }
+    }
+
+    public void print(char c) {
+        if (!chars.hasRemaining()) {
+            drain();
+        }
+        chars.put(c);
+    }
+
+    public void print(long value) {
+        if (value == Long.MIN_VALUE) {
+            print(Long.toString(value));
+            return;
+        }
+        if (chars.remaining() < 20) {
+            drain();
+        }
+        if (value < 0) {
+            chars.put('-');
+            value = -value;
+        }
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        int end = chars.position() + digits;
+        for (int i = end - 1; i >= end - digits; i--) {
+            chars.put(i, (char) ('0' + value % 10));
+            value /= 10;
+        }
+        chars.position(end);
+    }
+
+    public void print(double value) {
+        print(Double.toString(value));
+    }
+
+    public void print(boolean value) {
+        print(value ? "true" : "false");
+    }
+
+    public void println() {
+        print(LINE_SEPARATOR);
+    }
+
+    public void println(String s) {
+        print(s);
+        print(LINE_SEPARATOR);
+    }
+
+    /**
+     * Writes the buffered text to the channel.
+     *
+     * @throws UncheckedIOException If the channel cannot be written.
+     */
+    @Override
+    public void flush() {
+        if (chars.position() == 0 && !written) {
+            return; // Nothing printed since the last flush, as in most runs of an embedded VM.
+        }
+        drain();
+        written = false;
+        try {
+            if (target != null) {
+                target.flush();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Encodes the buffered chars and writes them. */
+    private void drain() {
+        chars.flip();
+        try {
+            CoderResult result;
+            do {
+                result = encoder.encode(chars, bytes, false);
+                bytes.flip();
+                written |= bytes.hasRemaining();
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+                bytes.clear();
+            } while (result.isOverflow());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            chars.compact(); // Keeps the high surrogate of a pair split by the end of the buffer.
+        }
+    }
+
+    private static Charset stdoutCharset() {
+        String name = System.getProperty("stdout.encoding", System.getProperty("sun.stdout.encoding"));
+        try {
+            if (name != null) {
+                return Charset.forName(name);
+            }
+        } catch (IllegalArgumentException e) {
+            // Fall back to the default charset, like System.out.
+        }
+        return Charset.defaultCharset();
+    }
+}
@@ -0,0 +1,214 @@
+package com.jvs.jit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A minimal writer of JVM class files, used by the compilers of both VMs to
+ * turn their programs into JVM bytecode.
+ * <p>
+ * The classes are written with version 49 (Java 5), the last version which
+ * does not need StackMapTable frames, so the compilers can emit branches
+ * freely and leave the checking to the type-inferencing verifier. Only what
+ * the compilers need is supported: constants, fields and methods with code.
+ */
+public class ClassWriter {
+    public static final int ACC_PUBLIC = 0x0001;
+    public static final int ACC_PRIVATE = 0x0002;
+    public static final int ACC_PROTECTED = 0x0004;
+    public static final int ACC_STATIC = 0x0008;
+    public static final int ACC_FINAL = 0x0010;
+    public static final int ACC_SUPER = 0x0020;
+
+    private static final int VERSION = 49;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> constants = new HashMap<>();
+    private int poolCount = 1;
+
+    private final int thisClass, superClass;
+    private final int[] interfaces;
+    private final List<byte[]> fields = new ArrayList<>();
+    private final List<MethodWriter> methods = new ArrayList<>();
+
+    /**
+     * Creates a public final class.
+     *
+     * @param name       The internal name of the class (e.g. "com/jvs/Foo").
+     * @param superName  The internal name of the super class.
+     * @param interfaces The internal names of the implemented interfaces.
+     */
+    public ClassWriter(String name, String superName, String... interfaces) {
+        thisClass = classRef(name);
+        superClass = classRef(superName);
+        this.interfaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++) {
+            this.interfaces[i] = classRef(interfaces[i]);
+        }
+    }
+
+    // CONSTANT POOL
+
+    public int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, 1, out -> out.writeUTF(value));
+    }
+
+    public int integer(int value) {
+        return constant("I" + value, CONSTANT_INTEGER, 1, out -> out.writeInt(value));
+    }
+
+    public int longConstant(long value) {
+        return constant("J" + value, CONSTANT_LONG, 2, out -> out.writeLong(value));
+    }
+
+    public int doubleConstant(double value) {
+        return constant("D" + Double.doubleToRawLongBits(value), CONSTANT_DOUBLE, 2,
+                out -> out.writeDouble(value));
+    }
+
+    public int string(String value) {
+        int utf8 = utf8(value);
+        return constant("S" + value, CONSTANT_STRING, 1, out -> out.writeShort(utf8));
+    }
+
+    public int classRef(String name) {
+        int utf8 = utf8(name);
+        return constant("C" + name, CONSTANT_CLASS, 1, out -> out.writeShort(utf8));
+    }
+
+    public int fieldRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_FIELDREF, owner, name, descriptor);
+    }
+
+    public int methodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_METHODREF, owner, name, descriptor);
+    }
+
+    public int interfaceMethodRef(String owner, String name, String descriptor) {
+        return memberRef(CONSTANT_INTERFACE_METHODREF, owner, name, descriptor);
+    }
+
+    private int memberRef(int tag, String owner, String name, String descriptor) {
+        int classIndex = classRef(owner);
+        int nameIndex = utf8(name);
+        int descriptorIndex = utf8(descriptor);
+        int nameAndType = constant("N" + name + ' ' + descriptor, CONSTANT_NAME_AND_TYPE, 1, out -> {
+            out.writeShort(nameIndex);
+            out.writeShort(descriptorIndex);
+        });
+        return constant(tag + owner + '.' + name + ' ' + descriptor, tag, 1, out -> {
+            out.writeShort(classIndex);
+            out.writeShort(nameAndType);
+        });
+    }
+
+    private interface Content {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private int constant(String key, int tag, int size, Content content) {
+        Integer index = constants.get(key);
+        if (index != null) {
+            return index;
+        }
+        try {
+            pool.writeByte(tag);
+            content.write(pool);
+        } catch (IOException e) {
+            throw new IllegalStateException(e); // Cannot happen with a byte array.
+        }
+        index = poolCount;
+        poolCount += size; // Longs and doubles take two entries.
+        if (poolCount > 0xFFFF) {
+            throw new IllegalStateException("Constant pool too large");
+        }
+        constants.put(key, index);
+        return index;
+    }
+
+    // MEMBERS
+
+    public void addField(int access, String name, String descriptor) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0); // No attributes.
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    /**
+     * Adds a method. Its code is emitted through the returned writer.
+     *
+     * @param access     The access flags.
+     * @param name       The name of the method.
+     * @param descriptor The descriptor of the method (e.g. "(JJ)J").
+     * @return The writer of the code of the method.
+     */
+    public MethodWriter addMethod(int access, String name, String descriptor) {
+        MethodWriter method = new MethodWriter(this, access, utf8(name), utf8(descriptor));
+        methods.add(method);
+        return method;
+    }
+
+    /**
+     * Returns the class file.
+     *
+     * @return The bytes of the class file.
+     * @throws IllegalStateException If a method is too large or has a branch out
+     *                               of range.
+     */
+    public byte[] toByteArray() {
+        int codeAttribute = utf8("Code");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(interfaces.length);
+            for (int i : interfaces) {
+                out.writeShort(i);
+            }
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (MethodWriter method : methods) {
+                method.write(out, codeAttribute);
+            }
+            out.writeShort(0); // No class attributes.
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,385 @@
+package com.jvs.jit;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes the code of one method of a {@link ClassWriter}.
+ * <p>
+ * Branches go to {@link Label}s which may be placed after the branch; their
+ * offsets are patched when the class is written. The maximum stack size and
+ * number of locals are given by the compiler, which knows them from its own
+ * analysis of the program.
+ */
+public class MethodWriter {
+    // The JVM opcodes used by the compilers.
+    public static final int ACONST_NULL = 0x01;
+    public static final int ICONST_0 = 0x03;
+    public static final int LCONST_0 = 0x09;
+    public static final int LCONST_1 = 0x0A;
+    public static final int DCONST_0 = 0x0E;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+    public static final int LDC2_W = 0x14;
+    public static final int ILOAD = 0x15;
+    public static final int LLOAD = 0x16;
+    public static final int DLOAD = 0x18;
+    public static final int ALOAD = 0x19;
+    public static final int LALOAD = 0x2F;
+    public static final int ISTORE = 0x36;
+    public static final int LSTORE = 0x37;
+    public static final int DSTORE = 0x39;
+    public static final int ASTORE = 0x3A;
+    public static final int LASTORE = 0x50;
+    public static final int POP = 0x57;
+    public static final int POP2 = 0x58;
+    public static final int DUP = 0x59;
+    public static final int DUP_X1 = 0x5A;
+    public static final int DUP2 = 0x5C;
+    public static final int DUP2_X1 = 0x5D;
+    public static final int DUP2_X2 = 0x5E;
+    public static final int IADD = 0x60;
+    public static final int LADD = 0x61;
+    public static final int DADD = 0x63;
+    public static final int LSUB = 0x65;
+    public static final int DSUB = 0x67;
+    public static final int LMUL = 0x69;
+    public static final int DMUL = 0x6B;
+    public static final int LDIV = 0x6D;
+    public static final int DDIV = 0x6F;
+    public static final int LREM = 0x71;
+    public static final int DREM = 0x73;
+    public static final int IAND = 0x7E;
+    public static final int LAND = 0x7F;
+    public static final int IOR = 0x80;
+    public static final int IXOR = 0x82;
+    public static final int LXOR = 0x83;
+    public static final int I2L = 0x85;
+    public static final int I2D = 0x87;
+    public static final int L2I = 0x88;
+    public static final int L2D = 0x8A;
+    public static final int D2L = 0x8F;
+    public static final int I2C = 0x92;
+    public static final int LCMP = 0x94;
+    public static final int DCMPL = 0x97;
+    public static final int DCMPG = 0x98;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9A;
+    public static final int IFLT = 0x9B;
+    public static final int IFGE = 0x9C;
+    public static final int IFGT = 0x9D;
+    public static final int IFLE = 0x9E;
+    public static final int IF_ICMPEQ = 0x9F;
+    public static final int IF_ICMPNE = 0xA0;
+    public static final int IF_ICMPLT = 0xA1;
+    public static final int IF_ICMPGE = 0xA2;
+    public static final int IF_ICMPGT = 0xA3;
+    public static final int IF_ICMPLE = 0xA4;
+    public static final int GOTO = 0xA7;
+    public static final int TABLESWITCH = 0xAA;
+    public static final int LOOKUPSWITCH = 0xAB;
+    public static final int IRETURN = 0xAC;
+    public static final int LRETURN = 0xAD;
+    public static final int ARETURN = 0xB0;
+    public static final int RETURN = 0xB1;
+    public static final int GETSTATIC = 0xB2;
+    public static final int PUTSTATIC = 0xB3;
+    public static final int GETFIELD = 0xB4;
+    public static final int PUTFIELD = 0xB5;
+    public static final int INVOKEVIRTUAL = 0xB6;
+    public static final int INVOKESPECIAL = 0xB7;
+    public static final int INVOKESTATIC = 0xB8;
+    public static final int INVOKEINTERFACE = 0xB9;
+    public static final int NEW = 0xBB;
+    public static final int NEWARRAY = 0xBC;
+    public static final int ATHROW = 0xBF;
+    public static final int CHECKCAST = 0xC0;
+    public static final int IFNULL = 0xC6;
+    public static final int IFNONNULL = 0xC7;
+
+    public static final int T_LONG = 11;
+
+    private static final int MAX_CODE_LENGTH = 0xFFFF;
+
+    /** A position in the code, which branches can refer to before it is placed. */
+    public static class Label {
+        private int position = -1;
+    }
+
+    private static class Fixup {
+        final Label label;
+        final int opcodePosition, offsetPosition;
+        final boolean wide;
+
+        Fixup(Label label, int opcodePosition, int offsetPosition, boolean wide) {
+            this.label = label;
+            this.opcodePosition = opcodePosition;
+            this.offsetPosition = offsetPosition;
+            this.wide = wide;
+        }
+    }
+
+    private final ClassWriter owner;
+    private final int access, name, descriptor;
+    private byte[] code = new byte[256];
+    private int length;
+    private final List<Fixup> fixups = new ArrayList<>();
+    private int maxStack, maxLocals;
+
+    MethodWriter(ClassWriter owner, int access, int name, int descriptor) {
+        this.owner = owner;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+    }
+
+    public void setMaxs(int maxStack, int maxLocals) {
+        this.maxStack = maxStack;
+        this.maxLocals = maxLocals;
+    }
+
+    /**
+     * Returns the number of bytes of code written so far.
+     *
+     * @return The length of the code.
+     */
+    public int length() {
+        return length;
+    }
+
+    // PLAIN INSTRUCTIONS
+
+    public void op(int opcode) {
+        u1(opcode);
+    }
+
+    public void op(int opcode, int u1) {
+        u1(opcode);
+        u1(u1);
+    }
+
+    /** Emits an instruction with a constant pool index (or other u2) operand. */
+    public void op2(int opcode, int u2) {
+        u1(opcode);
+        u2(u2);
+    }
+
+    /**
+     * Emits a load or store of a local, with a wide prefix when the index does
+     * not fit in a byte.
+     */
+    public void local(int opcode, int index) {
+        if (index > 0xFF) {
+            u1(0xC4); // wide
+            u1(opcode);
+            u2(index);
+        } else {
+            u1(opcode);
+            u1(index);
+        }
+    }
+
+    public void iconst(int value) {
+        if (value >= -1 && value <= 5) {
+            u1(ICONST_0 + value);
+        } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(BIPUSH, value & 0xFF);
+        } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op2(SIPUSH, value & 0xFFFF);
+        } else {
+            ldc(owner.integer(value));
+        }
+    }
+
+    public void lconst(long value) {
+        if (value == 0 || value == 1) {
+            u1(LCONST_0 + (int) value);
+        } else {
+            op2(LDC2_W, owner.longConstant(value));
+        }
+    }
+
+    public void dconst(double value) {
+        if (Double.doubleToRawLongBits(value) == 0) {
+            u1(DCONST_0);
+        } else {
+            op2(LDC2_W, owner.doubleConstant(value));
+        }
+    }
+
+    public void sconst(String value) {
+        ldc(owner.string(value));
+    }
+
+    private void ldc(int index) {
+        if (index > 0xFF) {
+            op2(LDC_W, index);
+        } else {
+            op(LDC, index);
+        }
+    }
+
+    public void field(int opcode, String owner, String name, String descriptor) {
+        op2(opcode, this.owner.fieldRef(owner, name, descriptor));
+    }
+
+    public void invoke(int opcode, String owner, String name, String descriptor) {
+        if (opcode == INVOKEINTERFACE) {
+            op2(opcode, this.owner.interfaceMethodRef(owner, name, descriptor));
+            u1(argumentSlots(descriptor) + 1);
+            u1(0);
+        } else {
+            op2(opcode, this.owner.methodRef(owner, name, descriptor));
+        }
+    }
+
+    public void type(int opcode, String type) {
+        op2(opcode, owner.classRef(type));
+    }
+
+    // BRANCHES
+
+    public Label newLabel() {
+        return new Label();
+    }
+
+    public void place(Label label) {
+        if (label.position >= 0) {
+            throw new IllegalStateException("Label placed twice");
+        }
+        label.position = length;
+    }
+
+    public void jump(int opcode, Label label) {
+        fixups.add(new Fixup(label, length, length + 1, false));
+        u1(opcode);
+        u2(0);
+    }
+
+    /**
+     * Emits a tableswitch over the keys {@code low..low + targets.length - 1}.
+     */
+    public void tableswitch(int low, Label fallback, Label... targets) {
+        int opcodePosition = length;
+        u1(TABLESWITCH);
+        while (length % 4 != 0) {
+            u1(0);
+        }
+        fixups.add(new Fixup(fallback, opcodePosition, length, true));
+        u4(0);
+        u4(low);
+        u4(low + targets.length - 1);
+        for (Label target : targets) {
+            fixups.add(new Fixup(target, opcodePosition, length, true));
+            u4(0);
+        }
+    }
+
+    /**
+     * Emits a lookupswitch.
+     *
+     * @param fallback The target for the keys not listed.
+     * @param keys     The keys, in increasing order.
+     * @param targets  The targets of the keys.
+     */
+    public void lookupswitch(Label fallback, int[] keys, Label[] targets) {
+        int opcodePosition = length;
+        u1(LOOKUPSWITCH);
+        while (length % 4 != 0) {
+            u1(0);
+        }
+        fixups.add(new Fixup(fallback, opcodePosition, length, true));
+        u4(0);
+        u4(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            u4(keys[i]);
+            fixups.add(new Fixup(targets[i], opcodePosition, length, true));
+            u4(0);
+        }
+    }
+
+    // OUTPUT
+
+    void write(DataOutputStream out, int codeAttribute) throws IOException {
+        if (length > MAX_CODE_LENGTH) {
+            throw new IllegalStateException("Method too large (" + length + " bytes)");
+        }
+        for (Fixup fixup : fixups) {
+            if (fixup.label.position < 0) {
+                throw new IllegalStateException("Label never placed");
+            }
+            int offset = fixup.label.position - fixup.opcodePosition;
+            if (fixup.wide) {
+                put4(fixup.offsetPosition, offset);
+            } else if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Branch offset out of range (" + offset + ")");
+            } else {
+                code[fixup.offsetPosition] = (byte) (offset >> 8);
+                code[fixup.offsetPosition + 1] = (byte) offset;
+            }
+        }
+        fixups.clear();
+
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeAttribute);
+        out.writeInt(12 + length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(length);
+        out.write(code, 0, length);
+        out.writeShort(0); // No exception handlers.
+        out.writeShort(0); // No attributes.
+    }
+
+    private void u1(int value) {
+        if (length == code.length) {
+            code = Arrays.copyOf(code, code.length * 2);
+        }
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        u1(value >> 8);
+        u1(value);
+    }
+
+    private void u4(int value) {
+        u2(value >> 16);
+        u2(value);
+    }
+
+    private void put4(int position, int value) {
+        code[position] = (byte) (value >> 24);
+        code[position + 1] = (byte) (value >> 16);
+        code[position + 2] = (byte) (value >> 8);
+        code[position + 3] = (byte) value;
+    }
+
+    /** Counts the argument slots of a method descriptor (longs and doubles take two). */
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        for (int i = 1; descriptor.charAt(i) != ')'; i++) {
+            char c = descriptor.charAt(i);
+            if (c == 'J' || c == 'D') {
+                slots += 2;
+                continue;
+            }
+            slots++;
+            while (c == '[') {
+                c = descriptor.charAt(++i);
+            }
+            if (c == 'L') {
+                i = descriptor.indexOf(';', i);
+            }
+        }
+        return slots;
+    }
+}
@@ -0,0 +1,22 @@
+package com.jvs.velox;
+
+/**
+ * A Velox function compiled to JVM bytecode by the {@link VeloxJit}. The
+ * implementations are hidden classes generated at run time.
+ */
+interface CompiledFunction {
+    /**
+     * Runs the function.
+     *
+     * @param vm     The VM the function runs in (for output, globals and calls
+     *               to interpreted functions).
+     * @param values The operand stack holding the arguments, or the frame stack
+     *               holding all locals when the function is entered in the
+     *               middle of a loop.
+     * @param base   The index of the first argument or local in values.
+     * @return The result of the function (0 if it has none).
+     * @throws VeloxVMError If an interpreted function called by the compiled
+     *                      code or a string instruction fails.
+     */
+    long invoke(VeloxVM vm, long[] values, int base) throws VeloxVMError;
+}
@@ -5,6 +5,8 @@ public class FunctionMeta {
     private int nArgs;
     private int nLocals;
     private int address;
+    private int maxStack; // Set by the StackAnalyzer.
+    private int numResults;
 
     public FunctionMeta(String name, int nArgs, int nLocals, int address) {
         this.name = name;
@@ -29,6 +31,27 @@ public class FunctionMeta {
         return address;
     }
 
+    /**
+     * Returns the largest number of values the function has on the operand stack
+     * at once (computed by the {@link StackAnalyzer}).
+     */
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    /**
+     * Returns the number of values the function leaves on the operand stack when
+     * it returns (computed by the {@link StackAnalyzer}, 0 if it never returns).
+     */
+    public int getNumberOfResults() {
+        return numResults;
+    }
+
+    void setStackInfo(int maxStack, int numResults) {
+        this.maxStack = maxStack;
+        this.numResults = numResults;
+    }
+
     @Override
     public String toString() {
         return "{Name: " + name + ", Number of Arguments: " + nArgs + ", Number of Locals: " + nLocals + ", Address: "
@@ -0,0 +1,135 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+
+/**
+ * A peephole pass rewriting common instruction sequences into
+ * superinstructions, so that they cost one dispatch instead of three or four.
+ * <p>
+ * Only the first word of a sequence is replaced (by the opcode of the
+ * superinstruction); all other words are kept. The superinstruction reads its
+ * operands from their original positions and continues after the sequence,
+ * while a branch into the middle of a sequence still finds the original
+ * instructions there. So no code moves and no branch target changes.
+ * <p>
+ * The 64-bit constant of an iconst8 or fconst is spread over 8 words of one
+ * byte each. When no branch or function starts inside an instruction, the
+ * pass also packs the constant into the first two of these words (low and
+ * high 32 bits) and marks the instruction as iconst8_q or fconst_q, which read
+ * two words instead of assembling eight bytes.
+ */
+public class Fuser {
+    // The patterns: the opcodes of the sequence, then the superinstruction.
+    // Longer patterns come first as they start like the shorter ones.
+    private static final short[][] PATTERNS = {
+            { load, load, iadd, store, iadd_lls },
+            { load, load, isub, store, isub_lls },
+            { load, iconst, iadd, store, iinc },
+            { load, iconst, icmpe, branchf, if_icmpe_lc_f },
+            { load, iconst, icmpl, branchf, if_icmpl_lc_f },
+            { load, iconst, icmple, branchf, if_icmple_lc_f },
+            { load, iconst, icmpg, branchf, if_icmpg_lc_f },
+            { load, iconst, icmpge, branchf, if_icmpge_lc_f },
+            { load, iconst, icmpne, branchf, if_icmpne_lc_f },
+            { load, iconst, iadd, iadd_lc },
+            { iconst, load, iadd, iadd_cl },
+            { load, iconst, isub, isub_lc }
+    };
+
+    private Fuser() {
+    }
+
+    /**
+     * Fuses the instruction sequences of a program.
+     *
+     * @param code     The code of the program (left unchanged).
+     * @param metadata The functions of the program.
+     * @return A copy of the code with the superinstructions.
+     */
+    public static int[] fuse(int[] code, FunctionMeta[] metadata) {
+        int[] fused = code.clone();
+        boolean aligned = isAligned(code, metadata);
+        int ip = 0;
+        while (ip < code.length) {
+            int opcode = code[ip];
+            if (opcode < 0 || opcode >= Opcode.count()) {
+                break; // Not code the StackAnalyzer accepted, leave the rest alone.
+            }
+            int length = 1 + Opcode.get(opcode).getNumOperands();
+            if (aligned && (opcode == iconst8 || opcode == fconst)) {
+                long value = Utilities.wordsToLong(code, ip + 1);
+                fused[ip] = (opcode == iconst8) ? iconst8_q : fconst_q;
+                fused[ip + 1] = (int) value;
+                fused[ip + 2] = (int) (value >>> 32);
+            }
+            for (short[] pattern : PATTERNS) {
+                int patternLength = match(code, ip, pattern);
+                if (patternLength > 0) {
+                    fused[ip] = pattern[pattern.length - 1];
+                    length = patternLength;
+                    break;
+                }
+            }
+            ip += length;
+        }
+        return fused;
+    }
+
+    /**
+     * Returns whether all branch targets and function addresses are the start of
+     * an instruction, decoding the code from its first word. Then no instruction
+     * ever runs from the middle of another one: every path starts at a function
+     * and goes on to the next instruction or to the target of a branch.
+     */
+    private static boolean isAligned(int[] code, FunctionMeta[] metadata) {
+        boolean[] starts = new boolean[code.length + 1];
+        int ip = 0;
+        while (ip < code.length) {
+            int opcode = code[ip];
+            if (opcode < 0 || opcode >= Opcode.count()) {
+                return false;
+            }
+            starts[ip] = true;
+            ip += 1 + Opcode.get(opcode).getNumOperands();
+        }
+        if (ip > code.length) {
+            return false; // The last instruction misses operands.
+        }
+        starts[code.length] = true;
+        for (ip = 0; ip < code.length; ip++) {
+            if (starts[ip] && (code[ip] == branch || code[ip] == brancht || code[ip] == branchf)
+                    && (code[ip + 1] < 0 || code[ip + 1] > code.length || !starts[code[ip + 1]])) {
+                return false;
+            }
+        }
+        for (FunctionMeta function : metadata) {
+            int address = function.getAddress();
+            if (address < 0 || address > code.length || !starts[address]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of words of the sequence matching a pattern at ip, or 0
+     * if it does not match.
+     */
+    private static int match(int[] code, int ip, short[] pattern) {
+        int start = ip;
+        for (int i = 0; i < pattern.length - 1; i++) {
+            if (ip >= code.length || code[ip] != pattern[i]) {
+                return 0;
+            }
+            ip += 1 + Opcode.get(pattern[i]).getNumOperands();
+        }
+        if (ip > code.length) {
+            return 0;
+        }
+        // iinc adds to the local it loads.
+        if (pattern[pattern.length - 1] == iinc && code[start + 1] != code[start + 6]) {
+            return 0;
+        }
+        return ip - start;
+    }
+}
@@ -35,53 +35,176 @@ public class Opcode {
     public static final short iconst8 = 31;
     public static final short dup = 32;
 
+    // Floats are doubles stored as their raw bits (Double.doubleToRawLongBits)
+    // in the same long slots as all other values.
+    public static final short fconst = 33;
+    public static final short fadd = 34;
+    public static final short fsub = 35;
+    public static final short fmul = 36;
+    public static final short fdiv = 37;
+    public static final short fmod = 38;
+    public static final short fcmpe = 39;
+    public static final short fcmpl = 40;
+    public static final short fcmple = 41;
+    public static final short fcmpg = 42;
+    public static final short fcmpge = 43;
+    public static final short fcmpne = 44;
+    public static final short i2f = 45;
+    public static final short f2i = 46;
+    public static final short fprint = 47;
+
+    // Strings are references into the StringTable of the VM: the index of a pool
+    // entry, or of a string made by sconcat.
+    public static final short sconst = 48;
+    public static final short sprint = 49;
+    public static final short sconcat = 50;
+    public static final short slen = 51;
+    public static final short scharat = 52;
+    public static final short scmp = 53;
+
+    // Writes what the program has printed (see OutputSink).
+    public static final short flush = 54;
+
+    // The types of the values an instruction pushes (for the Tracer).
+    public static final byte TYPE_INT = 0;
+    public static final byte TYPE_FLOAT = 1;
+    public static final byte TYPE_STRING = 2;
+
+    // Superinstructions (see Fuser). They only exist in memory, after the code
+    // is loaded, and are never written to .jvelox files.
+    public static final short FIRST_FUSED = 128;
+    public static final short iadd_lls = 128; // load a; load b; iadd; store c
+    public static final short isub_lls = 129; // load a; load b; isub; store c
+    public static final short iinc = 130; // load a; iconst n; iadd; store a
+    public static final short iadd_lc = 131; // load a; iconst n; iadd
+    public static final short iadd_cl = 132; // iconst n; load a; iadd
+    public static final short isub_lc = 133; // load a; iconst n; isub
+    public static final short if_icmpe_lc_f = 134; // load a; iconst n; icmpe; branchf L
+    public static final short if_icmpl_lc_f = 135; // load a; iconst n; icmpl; branchf L
+    public static final short if_icmple_lc_f = 136; // load a; iconst n; icmple; branchf L
+    public static final short if_icmpg_lc_f = 137; // load a; iconst n; icmpg; branchf L
+    public static final short if_icmpge_lc_f = 138; // load a; iconst n; icmpge; branchf L
+    public static final short if_icmpne_lc_f = 139; // load a; iconst n; icmpne; branchf L
+    public static final short iconst8_q = 140; // iconst8 with its constant packed in two words
+    public static final short fconst_q = 141; // fconst with its constant packed in two words
+
+    // Name, number of operands, values popped, values pushed (and the type of
+    // the value pushed, for the Tracer). The stack effect of
+    // printstr, invoke, ret and exit depends on their operands or on the called
+    // function and is worked out by the StackAnalyzer.
     private static Instruction instructions[] = {
-            new Instruction("exit", 0),
-            new Instruction("iconst", 1),
-            new Instruction("store", 1),
-            new Instruction("load", 1),
-            new Instruction("iadd", 0),
-            new Instruction("isub", 0),
-            new Instruction("imul", 0),
-            new Instruction("idiv", 0),
-            new Instruction("imod", 0),
-            new Instruction("print", 0),
-            new Instruction("printstr", 1),
-            new Instruction("icmpe", 0),
-            new Instruction("icmpl", 0),
-            new Instruction("icmple", 0),
-            new Instruction("icmpg", 0),
-            new Instruction("icmpge", 0),
-            new Instruction("icmpne", 0),
-            new Instruction("branch", 1),
-            new Instruction("brancht", 1),
-            new Instruction("branchf", 1),
-            new Instruction("invoke", 1),
-            new Instruction("ret", 0),
-            new Instruction("pop", 0),
-            new Instruction("gstore", 1),
-            new Instruction("gload", 1),
-            new Instruction("printsp", 1),
-            new Instruction("jumpnext", 0),
-            new Instruction("and", 0),
-            new Instruction("or", 0),
-            new Instruction("not", 0),
-            new Instruction("xor", 0),
-            new Instruction("iconst8", 8),
-            new Instruction("dup", 0)
+            new Instruction("exit", 0, 0, 0),
+            new Instruction("iconst", 1, 0, 1),
+            new Instruction("store", 1, 1, 0),
+            new Instruction("load", 1, 0, 1),
+            new Instruction("iadd", 0, 2, 1),
+            new Instruction("isub", 0, 2, 1),
+            new Instruction("imul", 0, 2, 1),
+            new Instruction("idiv", 0, 2, 1),
+            new Instruction("imod", 0, 2, 1),
+            new Instruction("print", 0, 1, 0),
+            new Instruction("printstr", 1, 0, 0),
+            new Instruction("icmpe", 0, 2, 1),
+            new Instruction("icmpl", 0, 2, 1),
+            new Instruction("icmple", 0, 2, 1),
+            new Instruction("icmpg", 0, 2, 1),
+            new Instruction("icmpge", 0, 2, 1),
+            new Instruction("icmpne", 0, 2, 1),
+            new Instruction("branch", 1, 0, 0),
+            new Instruction("brancht", 1, 1, 0),
+            new Instruction("branchf", 1, 1, 0),
+            new Instruction("invoke", 1, 0, 0),
+            new Instruction("ret", 0, 0, 0),
+            new Instruction("pop", 0, 1, 0),
+            new Instruction("gstore", 1, 1, 0),
+            new Instruction("gload", 1, 0, 1),
+            new Instruction("printsp", 1, 0, 0),
+            new Instruction("jumpnext", 0, 0, 0),
+            new Instruction("and", 0, 2, 1),
+            new Instruction("or", 0, 2, 1),
+            new Instruction("not", 0, 1, 1),
+            new Instruction("xor", 0, 2, 1),
+            new Instruction("iconst8", 8, 0, 1),
+            new Instruction("dup", 0, 1, 2),
+            new Instruction("fconst", 8, 0, 1, TYPE_FLOAT),
+            new Instruction("fadd", 0, 2, 1, TYPE_FLOAT),
+            new Instruction("fsub", 0, 2, 1, TYPE_FLOAT),
+            new Instruction("fmul", 0, 2, 1, TYPE_FLOAT),
+            new Instruction("fdiv", 0, 2, 1, TYPE_FLOAT),
+            new Instruction("fmod", 0, 2, 1, TYPE_FLOAT),
+            new Instruction("fcmpe", 0, 2, 1),
+            new Instruction("fcmpl", 0, 2, 1),
+            new Instruction("fcmple", 0, 2, 1),
+            new Instruction("fcmpg", 0, 2, 1),
+            new Instruction("fcmpge", 0, 2, 1),
+            new Instruction("fcmpne", 0, 2, 1),
+            new Instruction("i2f", 0, 1, 1, TYPE_FLOAT),
+            new Instruction("f2i", 0, 1, 1),
+            new Instruction("fprint", 0, 1, 0),
+            new Instruction("sconst", 1, 0, 1, TYPE_STRING),
+            new Instruction("sprint", 0, 1, 0),
+            new Instruction("sconcat", 0, 2, 1, TYPE_STRING),
+            new Instruction("slen", 0, 1, 1),
+            new Instruction("scharat", 0, 2, 1),
+            new Instruction("scmp", 0, 2, 1),
+            new Instruction("flush", 0, 0, 0)
+    };
+
+    // A superinstruction keeps the words of the sequence it replaces, so its
+    // operands are all the words after its opcode (see Fuser).
+    private static Instruction fused[] = {
+            new Instruction("iadd_lls", 6, 0, 0),
+            new Instruction("isub_lls", 6, 0, 0),
+            new Instruction("iinc", 6, 0, 0),
+            new Instruction("iadd_lc", 4, 0, 1),
+            new Instruction("iadd_cl", 4, 0, 1),
+            new Instruction("isub_lc", 4, 0, 1),
+            new Instruction("if_icmpe_lc_f", 6, 0, 0),
+            new Instruction("if_icmpl_lc_f", 6, 0, 0),
+            new Instruction("if_icmple_lc_f", 6, 0, 0),
+            new Instruction("if_icmpg_lc_f", 6, 0, 0),
+            new Instruction("if_icmpge_lc_f", 6, 0, 0),
+            new Instruction("if_icmpne_lc_f", 6, 0, 0),
+            new Instruction("iconst8_q", 8, 0, 1),
+            new Instruction("fconst_q", 8, 0, 1, TYPE_FLOAT)
     };
 
     public static Instruction get(int opcode) {
-        return instructions[opcode];
+        return (opcode >= FIRST_FUSED) ? fused[opcode - FIRST_FUSED] : instructions[opcode];
+    }
+
+    /**
+     * Returns the number of opcodes which can appear in .jvelox files (the
+     * superinstructions are not counted).
+     */
+    public static int count() {
+        return instructions.length;
+    }
+
+    /**
+     * Returns the largest opcode plus one, superinstructions included, for tables
+     * indexed by opcode.
+     */
+    public static int limit() {
+        return FIRST_FUSED + fused.length;
     }
 
     public static class Instruction {
         private String name;
         private int numOperands;
+        private int pops, pushes;
+        private byte type;
+
+        public Instruction(String name, int numOperands, int pops, int pushes) {
+            this(name, numOperands, pops, pushes, TYPE_INT);
+        }
 
-        public Instruction(String name, int numOperands) {
+        public Instruction(String name, int numOperands, int pops, int pushes, byte type) {
             this.name = name;
             this.numOperands = numOperands;
+            this.pops = pops;
+            this.pushes = pushes;
+            this.type = type;
         }
 
         public String getName() {
@@ -91,5 +214,23 @@ public class Opcode {
         public int getNumOperands() {
             return numOperands;
         }
+
+        public int getPops() {
+            return pops;
+        }
+
+        public int getPushes() {
+            return pushes;
+        }
+
+        /**
+         * Returns the type of the value the instruction pushes:
+         * {@link Opcode#TYPE_INT}, {@link Opcode#TYPE_FLOAT} (the raw bits of a
+         * double) or {@link Opcode#TYPE_STRING} (a string reference). load, gload,
+         * dup and invoke push values of any type.
+         */
+        public byte getType() {
+            return type;
+        }
     }
 }
@@ -0,0 +1,216 @@
+package com.jvs.velox;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Formatter;
+import java.util.List;
+
+/**
+ * What a profiled VeloxVM ran (see {@link VeloxVM#setProfiling(boolean)}): the
+ * number of times each opcode was dispatched, and for each function the number
+ * of invocations and the time spent in it.
+ * <p>
+ * The counters are arrays indexed by opcode and by function index. The time of
+ * a function is measured with System.nanoTime when it is invoked and when it
+ * returns: the inclusive time counts the functions it calls (once for a
+ * recursive function, from its outermost invocation), the exclusive time does
+ * not. Superinstructions are counted as themselves, so the opcode counts show
+ * what the fused code really ran.
+ */
+public final class Profile {
+    private final FunctionMeta[] metadata;
+    private final long[] dispatches = new long[Opcode.limit()];
+    private final long[] invocations;
+    private final long[] inclusiveTime;
+    private final long[] exclusiveTime;
+    private final int[] active; // The invocations of each function on the call stack.
+
+    // The call stack: the function, its start time and the time spent in its callees.
+    private int[] functions = new int[64];
+    private long[] starts = new long[64];
+    private long[] callees = new long[64];
+    private int depth;
+
+    private long runStart;
+    private long runTime;
+
+    Profile(FunctionMeta[] metadata) {
+        this.metadata = metadata;
+        invocations = new long[metadata.length];
+        inclusiveTime = new long[metadata.length];
+        exclusiveTime = new long[metadata.length];
+        active = new int[metadata.length];
+    }
+
+    /** Starts a run in a function. */
+    void start(int function) {
+        runStart = System.nanoTime();
+        enter(function);
+    }
+
+    /** Ends a run, leaving the functions which did not return. */
+    void stop() {
+        while (depth > 0) {
+            leave();
+        }
+        runTime += System.nanoTime() - runStart;
+    }
+
+    void dispatched(int opcode) {
+        dispatches[opcode]++;
+    }
+
+    void enter(int function) {
+        if (depth == functions.length) {
+            functions = Arrays.copyOf(functions, 2 * depth);
+            starts = Arrays.copyOf(starts, 2 * depth);
+            callees = Arrays.copyOf(callees, 2 * depth);
+        }
+        functions[depth] = function;
+        callees[depth] = 0;
+        starts[depth++] = System.nanoTime();
+        invocations[function]++;
+        active[function]++;
+    }
+
+    void leave() {
+        if (depth == 0) {
+            return;
+        }
+        long time = System.nanoTime() - starts[--depth];
+        int function = functions[depth];
+        exclusiveTime[function] += time - callees[depth];
+        if (--active[function] == 0) {
+            inclusiveTime[function] += time;
+        }
+        if (depth > 0) {
+            callees[depth - 1] += time;
+        }
+    }
+
+    public long getDispatches(int opcode) {
+        return dispatches[opcode];
+    }
+
+    public long getInvocations(int function) {
+        return invocations[function];
+    }
+
+    /** Returns the time spent in a function and its callees, in nanoseconds. */
+    public long getInclusiveTime(int function) {
+        return inclusiveTime[function];
+    }
+
+    /** Returns the time spent in a function without its callees, in nanoseconds. */
+    public long getExclusiveTime(int function) {
+        return exclusiveTime[function];
+    }
+
+    /** Returns the time of the profiled runs, in nanoseconds. */
+    public long getRunTime() {
+        return runTime;
+    }
+
+    /**
+     * Prints the opcodes by number of dispatches and the functions by exclusive
+     * time, leaving out those that never ran.
+     *
+     * @param out Where to print.
+     */
+    public void printTable(PrintStream out) {
+        out.print(formatTable());
+    }
+
+    /**
+     * Returns the table {@link #printTable(PrintStream)} prints.
+     *
+     * @return The table, one line per opcode and per function.
+     */
+    public String formatTable() {
+        long total = 0;
+        for (long count : dispatches) {
+            total += count;
+        }
+        Formatter out = new Formatter();
+        out.format("%-16s%16s%9s%n", "Opcode", "Dispatches", "%");
+        for (int opcode : opcodesByDispatches()) {
+            out.format("%-16s%16d%9.2f%n", Opcode.get(opcode).getName(), dispatches[opcode],
+                    100.0 * dispatches[opcode] / total);
+        }
+        out.format("%-16s%16d%n", "total", total);
+        out.format("%n");
+        out.format("%-16s%16s%16s%16s%n", "Function", "Invocations", "Inclusive ms", "Exclusive ms");
+        for (int function : functionsByTime()) {
+            out.format("%-16s%16d%16.3f%16.3f%n", metadata[function].getName(), invocations[function],
+                    inclusiveTime[function] / 1e6, exclusiveTime[function] / 1e6);
+        }
+        out.format("%-16s%16s%16.3f%n", "run", "", runTime / 1e6);
+        return out.toString();
+    }
+
+    /**
+     * Returns the profile as JSON, in the order of {@link #printTable(PrintStream)}:
+     * {@code {"runTimeNanos": n, "opcodes": [{"name": .., "dispatches": n}, ..],
+     * "functions": [{"name": .., "invocations": n, "inclusiveNanos": n,
+     * "exclusiveNanos": n}, ..]}}.
+     *
+     * @return The profile.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"runTimeNanos\": ").append(runTime).append(", \"opcodes\": [");
+        String separator = "";
+        for (int opcode : opcodesByDispatches()) {
+            json.append(separator).append("{\"name\": \"").append(Opcode.get(opcode).getName())
+                    .append("\", \"dispatches\": ").append(dispatches[opcode]).append('}');
+            separator = ", ";
+        }
+        json.append("], \"functions\": [");
+        separator = "";
+        for (int function : functionsByTime()) {
+            json.append(separator).append("{\"name\": \"").append(escape(metadata[function].getName()))
+                    .append("\", \"invocations\": ").append(invocations[function])
+                    .append(", \"inclusiveNanos\": ").append(inclusiveTime[function])
+                    .append(", \"exclusiveNanos\": ").append(exclusiveTime[function]).append('}');
+            separator = ", ";
+        }
+        return json.append("]}").toString();
+    }
+
+    private List<Integer> opcodesByDispatches() {
+        List<Integer> opcodes = new ArrayList<>();
+        for (int opcode = 0; opcode < dispatches.length; opcode++) {
+            if (dispatches[opcode] > 0) {
+                opcodes.add(opcode);
+            }
+        }
+        opcodes.sort(Comparator.comparingLong((Integer opcode) -> dispatches[opcode]).reversed());
+        return opcodes;
+    }
+
+    private List<Integer> functionsByTime() {
+        List<Integer> functions = new ArrayList<>();
+        for (int function = 0; function < metadata.length; function++) {
+            if (invocations[function] > 0) {
+                functions.add(function);
+            }
+        }
+        functions.sort(Comparator.comparingLong((Integer function) -> exclusiveTime[function]).reversed());
+        return functions;
+    }
+
+    private static String escape(String s) {
+        StringBuilder escaped = new StringBuilder();
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                escaped.append('\\').append(c);
+            } else if (c < ' ') {
+                escaped.append(String.format("\\u%04x", (int) c));
+            } else {
+                escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+}
@@ -0,0 +1,170 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+
+import java.util.Arrays;
+
+/**
+ * Computes the operand stack usage of every function of a program, the way
+ * the JVM verifier does: the stack depth is followed along every path from the
+ * entry of the function, and must be the same whenever two paths meet.
+ * <p>
+ * The analysis proves that no instruction pops more values than its function
+ * pushed and gives every function its maximum stack depth and number of
+ * results (see {@link FunctionMeta#getMaxStack()}), so the VM only has to
+ * check that the stack has room for the maximum depth when a function is
+ * invoked, instead of checking every push and pop.
+ * <p>
+ * The number of results of a function is the stack depth at its ret. As
+ * recursive functions invoke themselves, the results are found by repeating
+ * the analysis until it no longer changes: paths through an invoke of a
+ * function whose results are not known yet are not followed.
+ */
+public class StackAnalyzer {
+    private static final int UNKNOWN = -1;
+
+    private int[] code;
+    private FunctionMeta[] metadata;
+    private int[] results;
+    private int[] depths;
+    private int[] worklist;
+
+    private StackAnalyzer(int[] code, FunctionMeta[] metadata) {
+        this.code = code;
+        this.metadata = metadata;
+        results = new int[metadata.length];
+        Arrays.fill(results, UNKNOWN);
+        depths = new int[code.length + 1];
+        worklist = new int[code.length + 1];
+    }
+
+    /**
+     * Analyses all functions of a program and stores their stack usage in their
+     * metadata.
+     *
+     * @param code     The code of the program.
+     * @param metadata The functions of the program.
+     * @throws VeloxVMError If the stack of a function can underflow, has
+     *                      different depths where paths meet, or if the code is
+     *                      malformed.
+     */
+    public static void analyze(int[] code, FunctionMeta[] metadata) throws VeloxVMError {
+        StackAnalyzer analyzer = new StackAnalyzer(code, metadata);
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int f = 0; f < metadata.length; f++) {
+                if (analyzer.results[f] == UNKNOWN) {
+                    analyzer.results[f] = analyzer.analyze(f)[1];
+                    changed |= analyzer.results[f] != UNKNOWN;
+                }
+            }
+        }
+
+        for (int f = 0; f < metadata.length; f++) {
+            int[] usage = analyzer.analyze(f);
+            metadata[f].setStackInfo(usage[0], Math.max(usage[1], 0));
+        }
+    }
+
+    /**
+     * Follows the stack depth through a function.
+     *
+     * @return The maximum depth and the depth at ret (UNKNOWN if no ret was
+     *         reached).
+     */
+    private int[] analyze(int f) throws VeloxVMError {
+        FunctionMeta function = metadata[f];
+        int nLocals = function.getNumberOfArgs() + function.getNumberOfLocals();
+        Arrays.fill(depths, UNKNOWN);
+        int maxDepth = 0;
+        int returnDepth = UNKNOWN;
+
+        int pending = 0;
+        pending = enqueue(f, function.getAddress(), 0, pending);
+        while (pending > 0) {
+            int ip = worklist[--pending];
+            int depth = depths[ip];
+            if (ip == code.length) {
+                continue; // Running off the end of the code stops the VM like exit.
+            }
+
+            int opcode = code[ip];
+            if (opcode < 0 || opcode >= Opcode.count()) {
+                throw error(f, ip, "Invalid opcode " + opcode);
+            }
+            Opcode.Instruction instruction = Opcode.get(opcode);
+            int next = ip + 1 + instruction.getNumOperands();
+            if (next > code.length) {
+                throw error(f, ip, "Missing operands of " + instruction.getName());
+            }
+
+            int pops = instruction.getPops();
+            int pushes = instruction.getPushes();
+            switch (opcode) {
+                case printstr -> pops = code[ip + 1];
+                case invoke -> {
+                    int callee = code[ip + 1];
+                    if (callee < 0 || callee >= metadata.length) {
+                        throw error(f, ip, "Invalid function " + callee);
+                    }
+                    pops = metadata[callee].getNumberOfArgs();
+                    pushes = results[callee];
+                }
+                case store, load -> {
+                    if (code[ip + 1] < 0 || code[ip + 1] >= nLocals) {
+                        throw error(f, ip, "Invalid local " + code[ip + 1]);
+                    }
+                }
+                default -> {
+                }
+            }
+            if (depth < pops) {
+                throw error(f, ip, "Stack underflow (" + instruction.getName() + " pops " + pops + " of "
+                        + depth + " values)");
+            }
+            if (pushes == UNKNOWN) {
+                continue; // The callee has no known results yet, see analyze(int[], FunctionMeta[]).
+            }
+            depth = depth - pops + pushes;
+            maxDepth = Math.max(maxDepth, depth);
+
+            switch (opcode) {
+                case exit -> {
+                }
+                case ret -> {
+                    if (returnDepth != UNKNOWN && returnDepth != depth) {
+                        throw error(f, ip, "Returns " + depth + " values, but " + returnDepth + " elsewhere");
+                    }
+                    returnDepth = depth;
+                }
+                case branch -> pending = enqueue(f, code[ip + 1], depth, pending);
+                case brancht, branchf -> {
+                    pending = enqueue(f, code[ip + 1], depth, pending);
+                    pending = enqueue(f, next, depth, pending);
+                }
+                default -> pending = enqueue(f, next, depth, pending);
+            }
+        }
+        return new int[] { maxDepth, returnDepth };
+    }
+
+    private int enqueue(int f, int ip, int depth, int pending) throws VeloxVMError {
+        if (ip < 0 || ip > code.length) {
+            throw error(f, ip, "Jump out of the code");
+        }
+        if (depths[ip] == UNKNOWN) {
+            depths[ip] = depth;
+            worklist[pending++] = ip;
+        } else if (depths[ip] != depth) {
+            throw error(f, ip, "Inconsistent stack depth (" + depths[ip] + " and " + depth + ")");
+        }
+        return pending;
+    }
+
+    private VeloxVMError error(int f, int ip, String message) {
+        return new VeloxVMError(String.format("%s at %04d in function \"%s\"", message, ip, metadata[f].getName()),
+                null);
+    }
+}
@@ -0,0 +1,154 @@
+package com.jvs.velox;
+
+import java.util.Arrays;
+
+/**
+ * The strings a VeloxVM program works on, referenced from the long slots by
+ * their index in this table.
+ * <p>
+ * The table starts with the pool, so the reference of a pool entry is its
+ * index and sconst needs no lookup. The strings made while the program runs
+ * (by sconcat) go to the slots after it, the heap, and are not interned: two
+ * equal strings made at run time may have different references (scmp compares
+ * the strings, not the references). The strings are plain Java strings, which
+ * keep Latin-1 text in one byte per char.
+ * <p>
+ * The heap is collected by the VM when it is full (see {@link #isFull()}): the
+ * slots that may hold a reference are passed to {@link #mark(long[], int)} and
+ * {@link #sweep()} frees the heap strings none of them referenced. As slots are
+ * not typed, any value which is the index of a heap string keeps it. The next
+ * collection is due once the heap has twice as many strings as survived, so a
+ * loop making strings it drops keeps a small heap. At most maxStrings heap
+ * strings can be in use at once.
+ */
+final class StringTable {
+    static final int DEFAULT_MAX_STRINGS = 1 << 22;
+    private static final int MIN_COLLECTION_THRESHOLD = 1024;
+
+    private String[] strings;
+    private final int poolLength;
+    private int size; // The pool and the heap slots used so far, free or not.
+    private int[] free = new int[16]; // The free heap slots.
+    private int freeCount;
+    private int threshold = MIN_COLLECTION_THRESHOLD; // Heap size from which a full table is collected.
+    private int maxStrings = DEFAULT_MAX_STRINGS;
+    private long[] marks = new long[0]; // One bit per heap slot, set by mark.
+
+    StringTable(String[] pool, int poolLength) {
+        strings = Arrays.copyOf(pool, Math.max(poolLength, 16));
+        this.poolLength = poolLength;
+        size = poolLength;
+    }
+
+    void setMaxStrings(int maxStrings) {
+        this.maxStrings = maxStrings;
+    }
+
+    /** Drops the strings made at run time, keeping the pool. */
+    void reset() {
+        if (size > poolLength) {
+            Arrays.fill(strings, poolLength, size, null);
+            size = poolLength;
+        }
+        freeCount = 0;
+        threshold = MIN_COLLECTION_THRESHOLD;
+    }
+
+    /**
+     * Returns the string of a reference.
+     *
+     * @param reference The reference.
+     * @return The string.
+     * @throws VeloxVMError If the value is not a string reference.
+     */
+    String get(long reference) throws VeloxVMError {
+        if (reference < 0 || reference >= size || strings[(int) reference] == null) {
+            throw new VeloxVMError("Invalid string reference: " + reference, null);
+        }
+        return strings[(int) reference];
+    }
+
+    /**
+     * Adds a string made at run time to the heap, in a free slot if there is
+     * one.
+     *
+     * @param string The string.
+     * @return The reference.
+     * @throws VeloxVMError If maxStrings heap strings are in use.
+     */
+    long add(String string) throws VeloxVMError {
+        int reference;
+        if (freeCount > 0) {
+            reference = free[--freeCount];
+        } else {
+            if (size - poolLength >= maxStrings) {
+                throw new VeloxVMError("String table full: " + maxStrings + " strings made at run time are in use",
+                        null);
+            }
+            if (size == strings.length) {
+                strings = Arrays.copyOf(strings, 2 * size);
+            }
+            reference = size++;
+        }
+        strings[reference] = string;
+        return reference;
+    }
+
+    /** Returns whether the heap has no free slot left and is due for collection. */
+    boolean isFull() {
+        return freeCount == 0 && size - poolLength >= Math.min(threshold, maxStrings);
+    }
+
+    /**
+     * Marks the heap strings referenced by the first values of an array, to be
+     * kept by the next {@link #sweep()}.
+     *
+     * @param values The values.
+     * @param length The number of values to look at.
+     */
+    void mark(long[] values, int length) {
+        int heapSize = size - poolLength;
+        ensureMarks(heapSize);
+        for (int i = 0; i < length; i++) {
+            long slot = values[i] - poolLength;
+            if (slot >= 0 && slot < heapSize) {
+                marks[(int) (slot >>> 6)] |= 1L << slot;
+            }
+        }
+    }
+
+    /** Frees the heap strings which were not marked since the last sweep. */
+    void sweep() {
+        int heapSize = size - poolLength;
+        ensureMarks(heapSize);
+        if (free.length < heapSize) {
+            free = new int[heapSize];
+        }
+        freeCount = 0;
+        // The slots at the end are pushed first, so that the ones at the start are reused first.
+        for (int slot = heapSize - 1; slot >= 0; slot--) {
+            int reference = poolLength + slot;
+            if ((marks[slot >>> 6] & (1L << slot)) == 0 || strings[reference] == null) {
+                strings[reference] = null;
+                free[freeCount++] = reference;
+            }
+        }
+        Arrays.fill(marks, 0L);
+        long survivors = heapSize - freeCount;
+        threshold = (int) Math.min(Integer.MAX_VALUE, Math.max(MIN_COLLECTION_THRESHOLD, 2 * survivors));
+    }
+
+    private void ensureMarks(int heapSize) {
+        if ((long) marks.length << 6 < heapSize) {
+            marks = new long[(heapSize + 63) >>> 6];
+        }
+    }
+
+    /**
+     * Returns the string of a value if it is a reference, or null (for the
+     * Tracer, which cannot be sure a slot it typed as a string holds one).
+     */
+    String find(long reference) {
+        return (reference >= 0 && reference < size) ? strings[(int) reference] : null;
+    }
+}
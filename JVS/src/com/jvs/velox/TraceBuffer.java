@@ -0,0 +1,118 @@
+package com.jvs.velox;
+
+/**
+ * The last instructions a traced VeloxVM ran, for a trace printed when the run
+ * ends (see {@link VeloxVM#trace(boolean, boolean, boolean)}).
+ * <p>
+ * Every entry is the address, opcode and stack pointer of an instruction and
+ * the top words of the stack (with their types) after it, kept in arrays
+ * allocated once. When the buffer is full the oldest entries are overwritten,
+ * so a long run keeps the end of its trace in a fixed amount of memory and no
+ * entry allocates. The entries are only formatted when the trace is printed
+ * (see {@link Tracer#printTrace(java.io.PrintStream)}).
+ */
+final class TraceBuffer {
+    private final int capacity;
+    private final int words; // The number of stack words kept per entry.
+    private final int[] ips;
+    private final int[] opcodes;
+    private final int[] sps;
+    private final long[] stackWords;
+    private final byte[] stackTypes;
+    private long count; // The number of entries ever recorded.
+
+    /**
+     * Creates a buffer.
+     *
+     * @param capacity The number of entries kept (at least 1).
+     * @param words    The number of stack words kept per entry.
+     * @throws IllegalArgumentException If the buffer cannot be allocated with
+     *                                  these sizes.
+     */
+    TraceBuffer(int capacity, int words) {
+        if (capacity < 1 || words < 0) {
+            throw new IllegalArgumentException("Invalid trace buffer: " + capacity + " entries of " + words
+                    + " stack words");
+        }
+        int length;
+        try {
+            length = Math.multiplyExact(capacity, words);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("Trace buffer too large: " + capacity + " entries of " + words
+                    + " stack words", e);
+        }
+        this.capacity = capacity;
+        this.words = words;
+        ips = new int[capacity];
+        opcodes = new int[capacity];
+        sps = new int[capacity];
+        stackWords = new long[length];
+        stackTypes = new byte[length];
+    }
+
+    /**
+     * Records an instruction which has just run.
+     *
+     * @param ip     The address of the instruction.
+     * @param opcode The opcode the VM ran.
+     * @param sp     The stack pointer after the instruction.
+     * @param stack  The operand stack.
+     * @param types  The types of the stack slots.
+     */
+    void record(int ip, int opcode, int sp, long[] stack, byte[] types) {
+        int entry = (int) (count++ % capacity);
+        ips[entry] = ip;
+        opcodes[entry] = opcode;
+        sps[entry] = sp;
+        int n = Math.min(words, sp + 1);
+        System.arraycopy(stack, sp + 1 - n, stackWords, entry * words, n);
+        System.arraycopy(types, sp + 1 - n, stackTypes, entry * words, n);
+    }
+
+    /** Returns the number of instructions recorded, kept or not. */
+    long count() {
+        return count;
+    }
+
+    /** Returns the number of entries kept. */
+    int size() {
+        return (int) Math.min(count, capacity);
+    }
+
+    /** Returns the number of stack words kept per entry. */
+    int words() {
+        return words;
+    }
+
+    // The accessors below take the index of a kept entry, from 0 for the oldest.
+
+    int ip(int i) {
+        return ips[slot(i)];
+    }
+
+    int opcode(int i) {
+        return opcodes[slot(i)];
+    }
+
+    int sp(int i) {
+        return sps[slot(i)];
+    }
+
+    /**
+     * Returns a stack word of an entry.
+     *
+     * @param i     The entry.
+     * @param depth The word, from 0 for the top of the stack.
+     */
+    long word(int i, int depth) {
+        return stackWords[slot(i) * words + Math.min(words, sp(i) + 1) - 1 - depth];
+    }
+
+    byte type(int i, int depth) {
+        return stackTypes[slot(i) * words + Math.min(words, sp(i) + 1) - 1 - depth];
+    }
+
+    private int slot(int i) {
+        return (int) ((count - size() + i) % capacity);
+    }
+}
@@ -1,13 +1,36 @@
 package com.jvs.velox;
 
-import java.util.ArrayList;
-import java.util.List;
+import static com.jvs.velox.Opcode.*;
 
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Disassembles the instructions a traced VeloxVM runs.
+ * <p>
+ * Stack slots, locals and globals only hold longs: floats are stored as
+ * their raw bits and strings as references into the {@link StringTable}. To
+ * show every value with its type, the tracer follows the type of each slot:
+ * after each instruction, the slot it pushed takes the type the instruction
+ * pushes (see {@link Opcode.Instruction#getType()}), and the slots load, store,
+ * dup, gload, gstore and invoke move take the type of the slot they copy.
+ * <p>
+ * A trace printed as the VM runs is disassembled instruction by instruction. A
+ * trace printed when the run ends is recorded in a {@link TraceBuffer} and only
+ * disassembled when it is printed.
+ */
 public class Tracer {
     private int[] instructions;
     private long[] stack;
     private FunctionMeta[] metadata;
     private boolean printStack;
+    private StringTable strings;
+    private TraceBuffer buffer;
+
+    // The types of the slots of the stack, the frame stack and the globals.
+    private byte[] stackTypes = new byte[64];
+    private byte[] frameTypes = new byte[64];
+    private byte[] globalTypes = new byte[64];
 
     public Tracer(int[] instructions, long[] stack, FunctionMeta[] metadata, boolean printStack) {
         this.instructions = instructions;
@@ -16,7 +39,89 @@ public class Tracer {
         this.printStack = printStack;
     }
 
-    public String disassemble(int ip, int opcode, int sp) {
+    public void setStack(long[] stack) {
+        this.stack = stack;
+    }
+
+    void setStrings(StringTable strings) {
+        this.strings = strings;
+    }
+
+    void setBuffer(TraceBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Disassembles an instruction which has just run.
+     *
+     * @param ip     The address of the instruction.
+     * @param opcode The opcode the VM ran (a superinstruction if it was fused).
+     * @param sp     The stack pointer after the instruction.
+     * @param lp     The start of the locals of the current frame after the
+     *               instruction.
+     * @return The instruction, followed by the stack if it is printed.
+     */
+    public String disassemble(int ip, int opcode, int sp, int lp) {
+        followTypes(ip, opcode, sp, lp);
+        return String.format("%-45s%s", instruction(ip, opcode), ((printStack) ? getStackString(sp) : ""));
+    }
+
+    public void disassembleAndPrint(int ip, int opcode, int sp, int lp) {
+        System.out.println(disassemble(ip, opcode, sp, lp));
+    }
+
+    /**
+     * Records an instruction which has just run in the trace buffer, to be
+     * printed by {@link #printTrace(PrintStream)}.
+     *
+     * @param ip     The address of the instruction.
+     * @param opcode The opcode the VM ran.
+     * @param sp     The stack pointer after the instruction.
+     * @param lp     The start of the locals of the current frame after the
+     *               instruction.
+     */
+    void record(int ip, int opcode, int sp, int lp) {
+        followTypes(ip, opcode, sp, lp);
+        buffer.record(ip, opcode, sp, stack, stackTypes);
+    }
+
+    /**
+     * Prints the instructions kept in the trace buffer, oldest first.
+     *
+     * @param out Where to print.
+     */
+    void printTrace(PrintStream out) {
+        int size = buffer.size();
+        if (buffer.count() > size) {
+            out.println("... (" + (buffer.count() - size) + " earlier instructions)");
+        }
+        for (int i = 0; i < size; i++) {
+            String instruction = instruction(buffer.ip(i), buffer.opcode(i));
+            out.println(String.format("%-45s%s", instruction, ((printStack) ? recordedStack(i) : "")));
+        }
+    }
+
+    public String getStackString(int sp) {
+        StringBuilder s = new StringBuilder("[");
+        for (int i = 0; i <= sp; i++) {
+            s.append((i == 0) ? "" : ", ").append(format(stack[i], stackTypes[i]));
+        }
+        return s.append(']').toString();
+    }
+
+    /** Returns the stack words of an entry of the buffer, like getStackString. */
+    private String recordedStack(int entry) {
+        int depth = buffer.sp(entry) + 1;
+        int kept = Math.min(depth, buffer.words());
+        StringBuilder s = new StringBuilder((kept < depth) ? "[..., " : "[");
+        for (int i = kept - 1; i >= 0; i--) {
+            s.append(format(buffer.word(entry, i), buffer.type(entry, i))).append((i == 0) ? "" : ", ");
+        }
+        return s.append(']').toString();
+    }
+
+    /** Returns an instruction and its operands. */
+    private String instruction(int ip, int opcode) {
         String name = Opcode.get(opcode).getName();
         int numOperands = Opcode.get(opcode).getNumOperands();
         String instruction = String.format("%04d: %-10s", ip, name);
@@ -32,24 +137,94 @@ public class Tracer {
             instruction += ", ";
             instruction += instructions[ip + 2];
         } else if (numOperands == 8) {
-            byte[] bytes = new byte[8];
-            for (int i = 0; i < 8; i++) {
-                bytes[i] = (byte) instructions[ip + 1 + i];
-            }
-            instruction += Utilities.bytesToLong(bytes);
+            instruction += constant(instructions, ip);
         }
-        return String.format("%-45s%s", instruction,((printStack)? getStackString(sp):""));
+        return instruction;
     }
 
-    public void disassembleAndPrint(int ip, int opcode, int sp) {
-        System.out.println(disassemble(ip, opcode, sp));
+    /**
+     * Formats the value of a global with its type.
+     *
+     * @param index The index of the global.
+     * @param value The value of the global.
+     * @return The value, as a float or a string if the global holds one.
+     */
+    public String formatGlobal(int index, long value) {
+        return format(value, (index < globalTypes.length) ? globalTypes[index] : TYPE_INT);
     }
 
-    public String getStackString(int sp) {
-        List<Long> stackString = new ArrayList<>();
-        for (int i = 0; i <= sp; i++) {
-            stackString.add(stack[i]);
+    /**
+     * Returns the constant of an iconst8 or fconst (or of their packed forms, see
+     * {@link Fuser}), as a long or a double.
+     *
+     * @param code The code.
+     * @param ip   The address of the instruction.
+     * @return The constant.
+     */
+    static String constant(int[] code, int ip) {
+        long value = (code[ip] == iconst8_q || code[ip] == fconst_q)
+                ? (code[ip + 1] & 0xFFFFFFFFL) | ((long) code[ip + 2] << 32)
+                : Utilities.wordsToLong(code, ip + 1);
+        return (code[ip] == fconst || code[ip] == fconst_q) ? String.valueOf(Double.longBitsToDouble(value))
+                : String.valueOf(value);
+    }
+
+    private String format(long value, byte type) {
+        if (type == TYPE_FLOAT) {
+            return String.valueOf(Double.longBitsToDouble(value));
+        } else if (type == TYPE_STRING && strings != null && strings.find(value) != null) {
+            return '"' + Utilities.getPrintString(strings.find(value)) + '"';
+        }
+        return String.valueOf(value);
+    }
+
+    /** Updates the types of the slots an instruction has written. */
+    private void followTypes(int ip, int opcode, int sp, int lp) {
+        stackTypes = ensure(stackTypes, sp + 2);
+        switch (opcode) {
+            case load -> {
+                frameTypes = ensure(frameTypes, lp + instructions[ip + 1] + 1);
+                stackTypes[sp] = frameTypes[lp + instructions[ip + 1]];
+            }
+            case store -> {
+                frameTypes = ensure(frameTypes, lp + instructions[ip + 1] + 1);
+                frameTypes[lp + instructions[ip + 1]] = stackTypes[sp + 1];
+            }
+            case iadd_lls, isub_lls -> {
+                frameTypes = ensure(frameTypes, lp + instructions[ip + 6] + 1);
+                frameTypes[lp + instructions[ip + 6]] = TYPE_INT;
+            }
+            case gload -> {
+                globalTypes = ensure(globalTypes, instructions[ip + 1] + 1);
+                stackTypes[sp] = globalTypes[instructions[ip + 1]];
+            }
+            case gstore -> {
+                globalTypes = ensure(globalTypes, instructions[ip + 1] + 1);
+                globalTypes[instructions[ip + 1]] = stackTypes[sp + 1];
+            }
+            case dup -> stackTypes[sp] = stackTypes[sp - 1];
+            case invoke -> {
+                // The arguments moved from the stack to the locals of the new frame.
+                FunctionMeta function = metadata[instructions[ip + 1]];
+                int nArgs = function.getNumberOfArgs();
+                int nLocals = nArgs + function.getNumberOfLocals();
+                frameTypes = ensure(frameTypes, lp + nLocals);
+                stackTypes = ensure(stackTypes, sp + nArgs + 1);
+                System.arraycopy(stackTypes, sp + 1, frameTypes, lp, nArgs);
+                Arrays.fill(frameTypes, lp + nArgs, lp + nLocals, TYPE_INT);
+            }
+            case ret -> {
+                // The results stay where they were pushed.
+            }
+            default -> {
+                if (Opcode.get(opcode).getPushes() > 0) {
+                    stackTypes[sp] = Opcode.get(opcode).getType();
+                }
+            }
         }
-        return stackString.toString();
+    }
+
+    private static byte[] ensure(byte[] types, int length) {
+        return (length <= types.length) ? types : Arrays.copyOf(types, Math.max(2 * types.length, length));
     }
 }
@@ -22,6 +22,21 @@ public class Utilities {
         return value;
     }
 
+    /**
+     * Decode a signed 64-bit integer (Java long) from the 8 little-endian byte
+     * words following an iconst8 or fconst, without copying them to a byte array.
+     */
+    public static long wordsToLong(int[] words, int offset) {
+        return (words[offset] & 0xFFL)
+                | (words[offset + 1] & 0xFFL) << 8
+                | (words[offset + 2] & 0xFFL) << 16
+                | (words[offset + 3] & 0xFFL) << 24
+                | (words[offset + 4] & 0xFFL) << 32
+                | (words[offset + 5] & 0xFFL) << 40
+                | (words[offset + 6] & 0xFFL) << 48
+                | (words[offset + 7] & 0xFFL) << 56;
+    }
+
     public static String getPrintString(String s) {
         return (((s.endsWith("\n")) ? (s.substring(0, (s.length() - 1)) + "\\n") : s));
     }
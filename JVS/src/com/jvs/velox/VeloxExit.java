@@ -0,0 +1,16 @@
+package com.jvs.velox;
+
+/**
+ * Thrown by compiled code (see {@link VeloxJit}) when the program reaches an
+ * exit, to unwind the JVM frames of the compiled functions back to the
+ * interpreter, which then stops. It never leaves the VM.
+ */
+final class VeloxExit extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    static final VeloxExit INSTANCE = new VeloxExit();
+
+    private VeloxExit() {
+        super(null, null, false, false);
+    }
+}
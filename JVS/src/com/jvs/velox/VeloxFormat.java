@@ -0,0 +1,56 @@
+package com.jvs.velox;
+
+/**
+ * The layout of .jvelox files.
+ * <p>
+ * Version 1 (read only) stores every field, including every code word, as a
+ * single byte:
+ *
+ * <pre>
+ * magic[4] functions(u8) {nameLength(u8) name[] nArgs(u8) nLocals(u8) address(u8)}*
+ *          poolLength(u8) {length(u8) chars[]}* start(u8) code(u8)*
+ * </pre>
+ *
+ * Version 2 is a container of sections. All numbers are 32-bit big-endian
+ * ints, strings are UTF-8 and every section starts at a multiple of 4:
+ *
+ * <pre>
+ * header:    magic[4] 0(u8) version(u8) sectionCount(u16) start(i32)
+ * sections:  {id(i32) offset(i32) length(i32)}*    (offsets from the start of the file)
+ * FUNCTIONS: count {nameLength name[] nArgs nLocals address}*
+ * POOL:      count {length bytes[]}*
+ * CODE:      word*
+ * </pre>
+ *
+ * The 0 after the magic is where version 1 stores the number of functions,
+ * and a runnable v1 module always has at least one (main), so the two
+ * versions can be told apart. Sections with unknown ids are skipped.
+ */
+public class VeloxFormat {
+    public static final byte[] MAGIC = { 74, 86, 76, 88 };
+
+    public static final int V1 = 1;
+    public static final int V2 = 2;
+    public static final int CURRENT_VERSION = V2;
+
+    // Section ids (v2).
+    public static final int FUNCTIONS = 1;
+    public static final int POOL = 2;
+    public static final int CODE = 3;
+
+    public static final int HEADER_SIZE = 12;
+    public static final int SECTION_ENTRY_SIZE = 12;
+
+    private VeloxFormat() {
+    }
+
+    /**
+     * Rounds a size up to the next multiple of 4, the alignment of v2 sections.
+     *
+     * @param size The size.
+     * @return The aligned size.
+     */
+    public static int align(int size) {
+        return (size + 3) & ~3;
+    }
+}
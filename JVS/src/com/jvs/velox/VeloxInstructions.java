@@ -1,11 +1,15 @@
 package com.jvs.velox;
 
+import java.util.Arrays;
+
 public class VeloxInstructions {
     private int instructions[];
     private String pool[];
     private int poolLength;
     private FunctionMeta[] metadata;
     private int start;
+    private boolean verified;
+    private int[] code, fused; // What the VMs run, shared by the VMs of the module.
 
     public VeloxInstructions(int instructions[], String pool[], int poolLength, FunctionMeta metadata[], int start) {
         this.instructions = instructions;
@@ -35,6 +39,37 @@ public class VeloxInstructions {
         return start;
     }
 
+    /**
+     * Returns whether the module passed the {@link Verifier}, so VMs can run it
+     * without verifying it again.
+     */
+    public boolean isVerified() {
+        return verified;
+    }
+
+    void setVerified() {
+        verified = true;
+    }
+
+    /**
+     * Returns the code the VMs run: the instructions followed by an exit, so that
+     * running off the end stops the VM without a bounds check per instruction.
+     */
+    synchronized int[] code() {
+        if (code == null) {
+            code = Arrays.copyOf(instructions, instructions.length + 1);
+        }
+        return code;
+    }
+
+    /** Returns the code the VMs run with superinstructions (see {@link Fuser}). */
+    synchronized int[] fusedCode() {
+        if (fused == null) {
+            fused = Fuser.fuse(code(), metadata);
+        }
+        return fused;
+    }
+
     public void printContent() {
         System.out.println("============================================FILE CONTENT============================================");
         System.out.println("Function Metadata:");
@@ -80,11 +115,7 @@ public class VeloxInstructions {
                 instruction += ", ";
                 instruction += instructions[i + 2];
             } else if (numOperands == 8) {
-                byte[] bytes = new byte[8];
-                for (int j = 0; j < 8; j++) {
-                    bytes[i] = (byte) instructions[i + 1 + j];
-                }
-                instruction += Utilities.bytesToLong(bytes);
+                instruction += Tracer.constant(instructions, i);
             }
             System.out.println(instruction);
 
@@ -0,0 +1,626 @@
+package com.jvs.velox;
+
+import static com.jvs.jit.MethodWriter.*;
+import static com.jvs.velox.Opcode.*;
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.jvs.jit.ClassWriter;
+import com.jvs.jit.MethodWriter;
+
+/**
+ * Compiles hot Velox functions to JVM bytecode.
+ * <p>
+ * Every function has a counter of its interpreted invocations and backward
+ * branches. Once it reaches the threshold, the next invocation compiles the
+ * function into a hidden class and runs it from then on. A backward branch
+ * past the threshold compiles the rest of the running function instead, with
+ * an entry at the loop header that loads the locals from the frame stack (an
+ * on-stack replacement), so long loops in a function that is called only once,
+ * like main, are compiled too.
+ * <p>
+ * The translation is direct: the Velox operand stack becomes the JVM operand
+ * stack, the locals become JVM locals, and every function becomes a static
+ * method with one long parameter per argument. The functions it invokes are
+ * compiled into the same class and called with invokestatic, so the JVM can
+ * inline them; a callee that cannot be compiled is run by the interpreter.
+ * Output, globals and strings go through the VM. The code is compiled from the unfused
+ * instructions, as the JVM does its own fusion.
+ */
+final class VeloxJit {
+    static final int DEFAULT_THRESHOLD = 1000;
+
+    private static final String CLASS_NAME = "com/jvs/velox/VeloxCompiled";
+    private static final String VM = "com/jvs/velox/VeloxVM";
+    private static final String VM_DESCRIPTOR = "L" + VM + ";";
+    private static final String JIT = "com/jvs/velox/VeloxJit";
+
+    // The functions compiled into one class, the largest part of a class.
+    private static final int MAX_FUNCTIONS_PER_CLASS = 64;
+
+    private final int[] code;
+    private final FunctionMeta[] metadata;
+    private int threshold;
+
+    private final int[] counters;
+    private final CompiledFunction[] compiled;
+    private final boolean[] rejected;
+
+    // On-stack replacements of each function by loop header, and the loops that
+    // cannot be compiled (allocated at the first backward branch past the threshold).
+    private final CompiledFunction[][] osrEntries;
+    private final boolean[][] osrRejected;
+
+    VeloxJit(int[] code, FunctionMeta[] metadata, int threshold) {
+        this.code = code;
+        this.metadata = metadata;
+        this.threshold = threshold;
+        counters = new int[metadata.length];
+        compiled = new CompiledFunction[metadata.length];
+        rejected = new boolean[metadata.length];
+        osrEntries = new CompiledFunction[metadata.length][];
+        osrRejected = new boolean[metadata.length][];
+    }
+
+    void setThreshold(int threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Counts an invocation of a function.
+     *
+     * @param f The id of the invoked function.
+     * @return The compiled function, or null if it is interpreted.
+     */
+    CompiledFunction invoked(int f) {
+        CompiledFunction function = compiled[f];
+        if (function == null && !rejected[f] && ++counters[f] >= threshold) {
+            function = compile(f, -1);
+            compiled[f] = function;
+            rejected[f] = function == null;
+        }
+        return function;
+    }
+
+    /**
+     * Counts a backward branch of a function.
+     *
+     * @param f      The id of the running function.
+     * @param target The target of the branch, a loop header.
+     * @return The rest of the function compiled with an entry at the target, or
+     *         null if the function goes on in the interpreter.
+     */
+    CompiledFunction backEdge(int f, int target) {
+        if (++counters[f] < threshold) {
+            return null;
+        }
+        if (osrEntries[f] == null) {
+            osrEntries[f] = new CompiledFunction[code.length + 1];
+            osrRejected[f] = new boolean[code.length + 1];
+        }
+        // A loop header can be reached by several functions: each gets its own entry.
+        CompiledFunction function = osrEntries[f][target];
+        if (function == null && !osrRejected[f][target]) {
+            function = compile(f, target);
+            osrEntries[f][target] = function;
+            osrRejected[f][target] = function == null;
+        }
+        return function;
+    }
+
+    /**
+     * Returns whether a loop of a function was compiled for an on-stack
+     * replacement.
+     *
+     * @param f      The id of the function.
+     * @param target The loop header.
+     */
+    boolean isCompiledLoop(int f, int target) {
+        return osrEntries[f] != null && osrEntries[f][target] != null;
+    }
+
+    // RUNTIME SUPPORT (called by the compiled code)
+
+    static long and(long a, long b) {
+        return (a == 1 && b == 1) ? 1 : 0;
+    }
+
+    static long or(long a, long b) {
+        return (a == 1 || b == 1) ? 1 : 0;
+    }
+
+    static long not(long a) {
+        return (a == 1) ? 0 : 1;
+    }
+
+    static long xor(long a, long b) {
+        return (a == 1 && b == 0) || (a == 0 && b == 1) ? 1 : 0;
+    }
+
+    static long fadd(long a, long b) {
+        return doubleToRawLongBits(longBitsToDouble(a) + longBitsToDouble(b));
+    }
+
+    static long fsub(long a, long b) {
+        return doubleToRawLongBits(longBitsToDouble(a) - longBitsToDouble(b));
+    }
+
+    static long fmul(long a, long b) {
+        return doubleToRawLongBits(longBitsToDouble(a) * longBitsToDouble(b));
+    }
+
+    static long fdiv(long a, long b) {
+        return doubleToRawLongBits(longBitsToDouble(a) / longBitsToDouble(b));
+    }
+
+    static long fmod(long a, long b) {
+        return doubleToRawLongBits(longBitsToDouble(a) % longBitsToDouble(b));
+    }
+
+    static long fcmpe(long a, long b) {
+        return (longBitsToDouble(a) == longBitsToDouble(b)) ? 1 : 0;
+    }
+
+    static long fcmpl(long a, long b) {
+        return (longBitsToDouble(a) < longBitsToDouble(b)) ? 1 : 0;
+    }
+
+    static long fcmple(long a, long b) {
+        return (longBitsToDouble(a) <= longBitsToDouble(b)) ? 1 : 0;
+    }
+
+    static long fcmpg(long a, long b) {
+        return (longBitsToDouble(a) > longBitsToDouble(b)) ? 1 : 0;
+    }
+
+    static long fcmpge(long a, long b) {
+        return (longBitsToDouble(a) >= longBitsToDouble(b)) ? 1 : 0;
+    }
+
+    static long fcmpne(long a, long b) {
+        return (longBitsToDouble(a) != longBitsToDouble(b)) ? 1 : 0;
+    }
+
+    static long i2f(long a) {
+        return doubleToRawLongBits(a);
+    }
+
+    static long f2i(long a) {
+        return (long) longBitsToDouble(a);
+    }
+
+    // COMPILER
+
+    /** The reachable instructions of a function and their stack depths. */
+    private static final class Body {
+        final int function;
+        final int[] starts; // Sorted, code.length stands for running off the end.
+        final int[] depths;
+        final int maxDepth;
+
+        Body(int function, int[] starts, int[] depths, int maxDepth) {
+            this.function = function;
+            this.starts = starts;
+            this.depths = depths;
+            this.maxDepth = maxDepth;
+        }
+    }
+
+    /** Where the locals of a function are in the JVM locals of a method. */
+    private static final class Layout {
+        final int[] locals;
+        final int vm;
+        final int scratch;
+
+        Layout(int[] locals, int vm, int scratch) {
+            this.locals = locals;
+            this.vm = vm;
+            this.scratch = scratch;
+        }
+    }
+
+    /**
+     * Compiles a function and the functions it invokes into a hidden class.
+     *
+     * @param f     The id of the function.
+     * @param entry -1 to enter the function at its start, or the loop header to
+     *              enter it at (with the locals read from the frame stack).
+     * @return The compiled function, or null if it cannot be compiled.
+     */
+    private CompiledFunction compile(int f, int entry) {
+        Body main = scan(f);
+        if (main == null || (entry >= 0 && main.depths[entry] != 0)) {
+            return null;
+        }
+
+        // The class holds f and, breadth first, the functions it invokes.
+        Body[] bodies = new Body[metadata.length];
+        boolean[] scanned = new boolean[metadata.length];
+        List<Body> members = new ArrayList<>();
+        bodies[f] = main;
+        scanned[f] = true;
+        members.add(main);
+        for (int m = 0; m < members.size(); m++) {
+            for (int ip : members.get(m).starts) {
+                if (ip < code.length && code[ip] == invoke && !scanned[code[ip + 1]]
+                        && members.size() < MAX_FUNCTIONS_PER_CLASS) {
+                    int callee = code[ip + 1];
+                    scanned[callee] = true;
+                    bodies[callee] = scan(callee);
+                    if (bodies[callee] != null) {
+                        members.add(bodies[callee]);
+                    }
+                }
+            }
+        }
+
+        try {
+            ClassWriter cw = new ClassWriter(CLASS_NAME, "java/lang/Object", "com/jvs/velox/CompiledFunction");
+            MethodWriter init = cw.addMethod(ClassWriter.ACC_PUBLIC, "<init>", "()V");
+            init.local(ALOAD, 0);
+            init.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V");
+            init.op(RETURN);
+            init.setMaxs(1, 1);
+
+            writeEntry(cw, f, entry);
+            for (Body body : members) {
+                writeFunction(cw, body, bodies, -1);
+            }
+            if (entry >= 0) {
+                writeFunction(cw, main, bodies, entry);
+            }
+
+            MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(cw.toByteArray(), true);
+            return (CompiledFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) {
+            // The function is too large for a JVM method, or the JVM rejected
+            // code the StackAnalyzer never checked (e.g. after an invoke of a
+            // function which never returns). It stays interpreted.
+            return null;
+        }
+    }
+
+    /**
+     * Writes CompiledFunction.invoke, which reads the arguments (or the locals
+     * for an on-stack replacement) from the array and calls the static method of
+     * the function.
+     */
+    private void writeEntry(ClassWriter cw, int f, int entry) {
+        MethodWriter m = cw.addMethod(ClassWriter.ACC_PUBLIC, "invoke", "(" + VM_DESCRIPTOR + "[JI)J");
+        if (entry >= 0) {
+            m.local(ALOAD, 2);
+            m.local(ILOAD, 3);
+            m.local(ALOAD, 1);
+            m.invoke(INVOKESTATIC, CLASS_NAME, "osr", "([JI" + VM_DESCRIPTOR + ")J");
+            m.op(LRETURN);
+            m.setMaxs(3, 4);
+            return;
+        }
+        int nArgs = metadata[f].getNumberOfArgs();
+        for (int i = 0; i < nArgs; i++) {
+            m.local(ALOAD, 2);
+            m.local(ILOAD, 3);
+            m.iconst(i);
+            m.op(IADD);
+            m.op(LALOAD);
+        }
+        m.local(ALOAD, 1);
+        m.invoke(INVOKESTATIC, CLASS_NAME, "f" + f, descriptor(f));
+        m.op(LRETURN);
+        m.setMaxs(2 * nArgs + 3, 4);
+    }
+
+    /**
+     * Writes the static method of a function: "f" + id, or "osr" for the on-stack
+     * replacement entering it at a loop header.
+     */
+    private void writeFunction(ClassWriter cw, Body body, Body[] bodies, int entry) {
+        int f = body.function;
+        FunctionMeta function = metadata[f];
+        int nArgs = function.getNumberOfArgs();
+        int nLocals = nArgs + function.getNumberOfLocals();
+
+        MethodWriter m;
+        Layout layout;
+        int[] locals = new int[nLocals];
+        if (entry < 0) {
+            // (long arg0, ..., long argN, VeloxVM vm), then the other locals.
+            m = cw.addMethod(ClassWriter.ACC_STATIC, "f" + f, descriptor(f));
+            for (int i = 0; i < nLocals; i++) {
+                locals[i] = (i < nArgs) ? 2 * i : 2 * i + 1;
+            }
+            layout = new Layout(locals, 2 * nArgs, 2 * nLocals + 1);
+            for (int i = nArgs; i < nLocals; i++) {
+                m.lconst(0);
+                m.local(LSTORE, locals[i]);
+            }
+        } else {
+            // (long[] frames, int lp, VeloxVM vm), then all locals.
+            m = cw.addMethod(ClassWriter.ACC_STATIC, "osr", "([JI" + VM_DESCRIPTOR + ")J");
+            for (int i = 0; i < nLocals; i++) {
+                locals[i] = 3 + 2 * i;
+                m.local(ALOAD, 0);
+                m.local(ILOAD, 1);
+                m.iconst(i);
+                m.op(IADD);
+                m.op(LALOAD);
+                m.local(LSTORE, locals[i]);
+            }
+            layout = new Layout(locals, 2, 3 + 2 * nLocals);
+        }
+
+        Label[] labels = new Label[code.length + 1];
+        for (int ip : body.starts) {
+            labels[ip] = m.newLabel();
+        }
+        if (entry >= 0) {
+            m.jump(GOTO, labels[entry]);
+        }
+
+        int scratch = 0;
+        for (int ip : body.starts) {
+            m.place(labels[ip]);
+            int opcode = (ip < code.length) ? code[ip] : exit;
+            int operand = (ip + 1 < code.length) ? code[ip + 1] : 0;
+            switch (opcode) {
+                case exit -> {
+                    // The value on top of the stack is the result of the run.
+                    m.local(ALOAD, layout.vm);
+                    if (body.depths[ip] > 0) {
+                        m.invoke(INVOKESTATIC, VM, "compiledExit", "(J" + VM_DESCRIPTOR + ")V");
+                    } else {
+                        m.invoke(INVOKESTATIC, VM, "compiledExit", "(" + VM_DESCRIPTOR + ")V");
+                    }
+                    m.field(GETSTATIC, "com/jvs/velox/VeloxExit", "INSTANCE", "Lcom/jvs/velox/VeloxExit;");
+                    m.op(ATHROW);
+                }
+                case iconst -> m.lconst(operand);
+                case iconst8, fconst -> m.lconst(Utilities.wordsToLong(code, ip + 1));
+                case store -> m.local(LSTORE, layout.locals[operand]);
+                case load -> m.local(LLOAD, layout.locals[operand]);
+                case iadd -> m.op(LADD);
+                case isub -> m.op(LSUB);
+                case imul -> m.op(LMUL);
+                case idiv -> m.op(LDIV);
+                case imod -> m.op(LREM);
+                case icmpe -> compare(m, IFEQ);
+                case icmpl -> compare(m, IFLT);
+                case icmple -> compare(m, IFLE);
+                case icmpg -> compare(m, IFGT);
+                case icmpge -> compare(m, IFGE);
+                case icmpne -> compare(m, IFNE);
+                case branch -> m.jump(GOTO, labels[operand]);
+                case brancht, branchf -> {
+                    m.lconst((opcode == brancht) ? 1 : 0);
+                    m.op(LCMP);
+                    m.jump(IFEQ, labels[operand]);
+                }
+                case invoke -> scratch = Math.max(scratch, invoke(m, operand, bodies[operand] != null, layout));
+                case ret -> {
+                    if (function.getNumberOfResults() == 0) {
+                        m.lconst(0);
+                    }
+                    m.op(LRETURN);
+                }
+                case pop -> m.op(POP2);
+                case dup -> m.op(DUP2);
+                case gstore -> {
+                    m.iconst(operand);
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledStoreGlobal", "(JI" + VM_DESCRIPTOR + ")V");
+                }
+                case gload -> {
+                    m.iconst(operand);
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledLoadGlobal", "(I" + VM_DESCRIPTOR + ")J");
+                }
+                case print -> {
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledPrint", "(J" + VM_DESCRIPTOR + ")V");
+                }
+                case printstr -> {
+                    for (int i = 0; i < operand; i++) {
+                        m.local(ALOAD, layout.vm);
+                        m.invoke(INVOKESTATIC, VM, "compiledPrintChar", "(J" + VM_DESCRIPTOR + ")V");
+                    }
+                }
+                case printsp -> {
+                    m.iconst(operand);
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledPrintPool", "(I" + VM_DESCRIPTOR + ")V");
+                }
+                case jumpnext -> {
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledNewLine", "(" + VM_DESCRIPTOR + ")V");
+                }
+                case flush -> {
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledFlush", "(" + VM_DESCRIPTOR + ")V");
+                }
+                case and, or, xor, fadd, fsub, fmul, fdiv, fmod, fcmpe, fcmpl, fcmple, fcmpg, fcmpge, fcmpne ->
+                    m.invoke(INVOKESTATIC, JIT, Opcode.get(opcode).getName(), "(JJ)J");
+                case not, i2f, f2i -> m.invoke(INVOKESTATIC, JIT, Opcode.get(opcode).getName(), "(J)J");
+                case fprint -> {
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledPrintFloat", "(J" + VM_DESCRIPTOR + ")V");
+                }
+                case sconst -> m.lconst(operand);
+                case sprint -> {
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledPrintString", "(J" + VM_DESCRIPTOR + ")V");
+                }
+                case slen -> {
+                    m.local(ALOAD, layout.vm);
+                    m.invoke(INVOKESTATIC, VM, "compiledLength", "(J" + VM_DESCRIPTOR + ")J");
+                }
+                case sconcat, scharat, scmp -> {
+                    m.local(ALOAD, layout.vm);
+                    String name = (opcode == sconcat) ? "compiledConcat"
+                            : (opcode == scharat) ? "compiledCharAt" : "compiledCompare";
+                    m.invoke(INVOKESTATIC, VM, name, "(JJ" + VM_DESCRIPTOR + ")J");
+                }
+                default -> throw new IllegalStateException("Cannot compile opcode " + opcode);
+            }
+        }
+        // Every value takes two JVM slots; a few more are used by the calls to the VM.
+        m.setMaxs(2 * body.maxDepth + 8, layout.scratch + scratch);
+    }
+
+    /** Writes an icmp, which pushes 1 if the comparison of the two longs holds, else 0. */
+    private static void compare(MethodWriter m, int condition) {
+        Label holds = m.newLabel();
+        Label end = m.newLabel();
+        m.op(LCMP);
+        m.jump(condition, holds);
+        m.lconst(0);
+        m.jump(GOTO, end);
+        m.place(holds);
+        m.lconst(1);
+        m.place(end);
+    }
+
+    /**
+     * Writes an invoke: an invokestatic if the callee is compiled into the same
+     * class, else a call to the interpreter with the arguments in an array.
+     *
+     * @return The number of scratch locals used.
+     */
+    private int invoke(MethodWriter m, int callee, boolean inClass, Layout layout) {
+        FunctionMeta function = metadata[callee];
+        int nArgs = function.getNumberOfArgs();
+        int scratch = 0;
+        if (inClass) {
+            m.local(ALOAD, layout.vm);
+            m.invoke(INVOKESTATIC, CLASS_NAME, "f" + callee, descriptor(callee));
+        } else {
+            for (int i = nArgs - 1; i >= 0; i--) {
+                m.local(LSTORE, layout.scratch + 2 * i);
+            }
+            m.iconst(nArgs);
+            m.op(NEWARRAY, T_LONG);
+            for (int i = 0; i < nArgs; i++) {
+                m.op(DUP);
+                m.iconst(i);
+                m.local(LLOAD, layout.scratch + 2 * i);
+                m.op(LASTORE);
+            }
+            m.iconst(callee);
+            m.local(ALOAD, layout.vm);
+            m.invoke(INVOKESTATIC, VM, "compiledCall", "([JI" + VM_DESCRIPTOR + ")J");
+            scratch = 2 * nArgs;
+        }
+        if (function.getNumberOfResults() == 0) {
+            m.op(POP2);
+        }
+        return scratch;
+    }
+
+    private String descriptor(int f) {
+        return "(" + "J".repeat(metadata[f].getNumberOfArgs()) + VM_DESCRIPTOR + ")J";
+    }
+
+    /**
+     * Finds the instructions of a function which can be reached from its entry,
+     * following the stack depth like the {@link StackAnalyzer}.
+     *
+     * @return The body, or null if the function cannot be compiled.
+     */
+    private Body scan(int f) {
+        FunctionMeta function = metadata[f];
+        int nLocals = function.getNumberOfArgs() + function.getNumberOfLocals();
+        if (function.getNumberOfResults() > 1 || 2 * function.getNumberOfArgs() + 1 > 255
+                || 2 * nLocals + 512 > 0xFFFF) {
+            return null; // A JVM method returns one value and has up to 255 parameter slots and 64K locals.
+        }
+
+        int[] depths = new int[code.length + 1];
+        Arrays.fill(depths, -1);
+        int[] worklist = new int[code.length + 1];
+        int pending = 0;
+        int maxDepth = 0;
+        int count = 0;
+
+        depths[function.getAddress()] = 0;
+        worklist[pending++] = function.getAddress();
+        while (pending > 0) {
+            int ip = worklist[--pending];
+            int depth = depths[ip];
+            count++;
+            if (ip == code.length) {
+                continue;
+            }
+            // The StackAnalyzer checked the code, but not the paths after an invoke of
+            // a function which never returns.
+            int opcode = code[ip];
+            if (opcode < 0 || opcode >= Opcode.count()) {
+                return null;
+            }
+            Opcode.Instruction instruction = Opcode.get(opcode);
+            int next = ip + 1 + instruction.getNumOperands();
+            if (next > code.length) {
+                return null;
+            }
+            int pops = instruction.getPops();
+            int pushes = instruction.getPushes();
+            switch (opcode) {
+                case printstr -> pops = code[ip + 1];
+                case invoke -> {
+                    if (code[ip + 1] < 0 || code[ip + 1] >= metadata.length) {
+                        return null;
+                    }
+                    pops = metadata[code[ip + 1]].getNumberOfArgs();
+                    pushes = metadata[code[ip + 1]].getNumberOfResults();
+                }
+                case store, load -> {
+                    if (code[ip + 1] < 0 || code[ip + 1] >= nLocals) {
+                        return null;
+                    }
+                }
+                default -> {
+                }
+            }
+            if (depth < pops) {
+                return null;
+            }
+            depth = depth - pops + pushes;
+            maxDepth = Math.max(maxDepth, depth);
+
+            int[] successors = switch (opcode) {
+                case exit, ret -> new int[0];
+                case branch -> new int[] { code[ip + 1] };
+                case brancht, branchf -> new int[] { code[ip + 1], next };
+                default -> new int[] { next };
+            };
+            for (int successor : successors) {
+                if (successor < 0 || successor > code.length) {
+                    return null;
+                } else if (depths[successor] == -1) {
+                    depths[successor] = depth;
+                    worklist[pending++] = successor;
+                } else if (depths[successor] != depth) {
+                    return null;
+                }
+            }
+        }
+
+        int[] starts = new int[count];
+        int n = 0;
+        for (int ip = 0; ip <= code.length; ip++) {
+            if (depths[ip] != -1) {
+                // Jumps into the operands of another instruction are left to the interpreter.
+                if (n > 0 && starts[n - 1] + 1 + Opcode.get(code[starts[n - 1]]).getNumOperands() > ip) {
+                    return null;
+                }
+                starts[n++] = ip;
+            }
+        }
+        return new Body(f, starts, depths, maxDepth);
+    }
+}
@@ -1,7 +1,22 @@
 package com.jvs.velox;
 
-import java.io.FileInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 
+/**
+ * Loads .jvelox files of both versions (see {@link VeloxFormat}).
+ * <p>
+ * The file is memory-mapped and decoded straight from the mapped buffer: the
+ * strings are decoded from bulk reads and the code is copied (v2) or widened
+ * (v1) into the int array the VM runs, without a read call per byte.
+ */
 public class VeloxLoader {
     public static VeloxInstructions load(String fileName) throws VeloxVMError {
 
@@ -9,52 +24,155 @@ public class VeloxLoader {
             throw new VeloxVMError("Invalid file format. Only \".jvelox\" files allowed.", null);
         }
 
-        try (FileInputStream fis = new FileInputStream(fileName)) {
-            if (!(fis.read() == 74 && fis.read() == 86 && fis.read() == 76 && fis.read() == 88)) {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (Exception e) {
+            throw new VeloxVMError(e.getMessage(), e);
+        }
+
+        return load(buffer);
+    }
+
+    /**
+     * Decodes and verifies a .jvelox module (see {@link Verifier}).
+     *
+     * @param buffer The content of the file, positioned at its start.
+     * @return The decoded module.
+     * @throws VeloxVMError If the content is not a valid .jvelox module.
+     */
+    public static VeloxInstructions load(ByteBuffer buffer) throws VeloxVMError {
+        VeloxInstructions module;
+        try {
+            module = decode(buffer);
+        } catch (BufferUnderflowException e) {
+            throw new VeloxVMError("Invalid file content (unexpected end of file).", e);
+        }
+        Verifier.verify(module);
+        return module;
+    }
+
+    private static VeloxInstructions decode(ByteBuffer buffer) throws VeloxVMError {
+        int base = buffer.position();
+        for (byte b : VeloxFormat.MAGIC) {
+            if (!buffer.hasRemaining() || buffer.get() != b) {
                 throw new VeloxVMError("Invalid file content.", null);
             }
+        }
 
-            int instructions[];
-            String pool[];
-            int poolLength = 0;
-            FunctionMeta metadata[];
+        if (buffer.hasRemaining() && buffer.get(buffer.position()) == 0) {
+            buffer.get();
+            int version = unsigned(buffer);
+            if (version != VeloxFormat.V2) {
+                throw new VeloxVMError("Unsupported .jvelox version: " + version, null);
+            }
+            return loadV2(buffer, base);
+        }
+        return loadV1(buffer);
+    }
 
-            int numOfMethods = fis.read();
+    private static VeloxInstructions loadV1(ByteBuffer buffer) {
+        // v1 stores one byte per char, so the strings are ISO-8859-1.
+        int numOfMethods = unsigned(buffer);
+        FunctionMeta metadata[] = new FunctionMeta[numOfMethods];
+        for (int i = 0; i < numOfMethods; i++) {
+            String name = readString(buffer, unsigned(buffer), StandardCharsets.ISO_8859_1);
+            int nArgs = unsigned(buffer);
+            int nLocals = unsigned(buffer);
+            int address = unsigned(buffer);
+            metadata[i] = new FunctionMeta(name, nArgs, nLocals, address);
+        }
 
-            metadata = new FunctionMeta[numOfMethods];
-            for (int i = 0; i < numOfMethods; i++) {
-                int nameLength = fis.read();
-                String name = "";
-                for (int j = 0; j < nameLength; j++) {
-                    name += ((char) fis.read());
-                }
-                int nArgs = fis.read();
-                int nLocals = fis.read();
-                int address = fis.read();
-                metadata[i] = new FunctionMeta(name, nArgs, nLocals, address);
-            }
-            poolLength = fis.read();
-
-            pool = new String[poolLength];
-            for (int i = 0; i < poolLength; i++) {
-                int length = fis.read();
-                String s = "";
-                for (int j = 0; j < length; j++) {
-                    s += (char) fis.read();
+        int poolLength = unsigned(buffer);
+        String pool[] = new String[poolLength];
+        for (int i = 0; i < poolLength; i++) {
+            pool[i] = readString(buffer, unsigned(buffer), StandardCharsets.ISO_8859_1);
+        }
+
+        int start = unsigned(buffer);
+
+        // Every instruction word is stored as a single byte.
+        byte[] code = new byte[buffer.remaining()];
+        buffer.get(code);
+        int instructions[] = new int[code.length];
+        for (int i = 0; i < code.length; i++) {
+            instructions[i] = code[i] & 0xFF;
+        }
+
+        return new VeloxInstructions(instructions, pool, poolLength, metadata, start);
+    }
+
+    private static VeloxInstructions loadV2(ByteBuffer buffer, int base) throws VeloxVMError {
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        int sectionCount = buffer.getShort() & 0xFFFF;
+        int start = buffer.getInt();
+
+        ByteBuffer functions = null, pool = null, code = null;
+        for (int i = 0; i < sectionCount; i++) {
+            int id = buffer.getInt();
+            ByteBuffer section = slice(buffer, base, buffer.getInt(), buffer.getInt());
+            switch (id) {
+                case VeloxFormat.FUNCTIONS -> functions = section;
+                case VeloxFormat.POOL -> pool = section;
+                case VeloxFormat.CODE -> code = section;
+                default -> {
+                    // Unknown section (written by a newer writer), skipped.
                 }
-                pool[i] = s;
             }
+        }
+        if (functions == null || pool == null || code == null) {
+            throw new VeloxVMError("Invalid file content (missing section).", null);
+        }
 
-            int start = fis.read();
+        FunctionMeta metadata[] = new FunctionMeta[count(functions)];
+        for (int i = 0; i < metadata.length; i++) {
+            String name = readString(functions, count(functions), StandardCharsets.UTF_8);
+            int nArgs = functions.getInt();
+            int nLocals = functions.getInt();
+            int address = functions.getInt();
+            metadata[i] = new FunctionMeta(name, nArgs, nLocals, address);
+        }
 
-            instructions = new int[fis.available()];
-            for (int i = 0; i < instructions.length; i++) {
-                instructions[i] = fis.read();
-            }
+        String strings[] = new String[count(pool)];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(pool, count(pool), StandardCharsets.UTF_8);
+        }
 
-            return new VeloxInstructions(instructions, pool, poolLength, metadata, start);
-        } catch (Exception e) {
-            throw new VeloxVMError(e.getMessage(), e);
+        if (code.remaining() % 4 != 0) {
+            throw new VeloxVMError("Invalid file content (code section is not made of words).", null);
         }
+        int instructions[] = new int[code.remaining() / 4];
+        code.asIntBuffer().get(instructions);
+
+        return new VeloxInstructions(instructions, strings, strings.length, metadata, start);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int base, int offset, int length) throws VeloxVMError {
+        if (offset < 0 || length < 0 || base + offset > buffer.limit() - length) {
+            throw new VeloxVMError("Invalid file content (section out of bounds).", null);
+        }
+        return buffer.slice(base + offset, length).order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Reads a count or length of a v2 section, which can never be more than the
+     * bytes left in the section.
+     */
+    private static int count(ByteBuffer section) throws VeloxVMError {
+        int count = section.getInt();
+        if (count < 0 || count > section.remaining()) {
+            throw new VeloxVMError("Invalid file content (bad length " + count + ").", null);
+        }
+        return count;
+    }
+
+    private static int unsigned(ByteBuffer buffer) {
+        return buffer.get() & 0xFF;
+    }
+
+    private static String readString(ByteBuffer buffer, int length, Charset charset) {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, charset);
     }
 }
@@ -1,82 +1,468 @@
 package com.jvs.velox;
 
 import static com.jvs.velox.Opcode.*;
+import static java.lang.Double.doubleToRawLongBits;
+import static java.lang.Double.longBitsToDouble;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
+import com.jvs.io.OutputSink;
+
+/**
+ * VeloxVM runs Velox code on an operand stack of longs.
+ * <p>
+ * The code is verified when it is loaded or when the VM is created (see
+ * {@link Verifier}), so the instructions themselves never check the operand
+ * stack, their operands or the end of the code: a function cannot
+ * pop more than it pushed, and invoke makes room for the maximum depth of the
+ * called function before entering it. The stack grows as needed up to
+ * {@link #setMaxStackSize(int)} values.
+ * <p>
+ * The call frames live in one contiguous array of longs. Every frame is a
+ * header (return ip, function id and the start of the caller's locals)
+ * followed by the locals of the function, so invoke and ret only copy the
+ * arguments and move the frame pointers instead of allocating a frame.
+ * <p>
+ * Unless disabled with {@link #setFusion(boolean)}, common instruction
+ * sequences are run as superinstructions (see {@link Fuser}). A run can also
+ * use a stack-caching interpreter instead (see {@link #setStackCaching(boolean)}).
+ * <p>
+ * With {@link #setJit(boolean)}, hot functions are compiled to JVM bytecode
+ * (see {@link VeloxJit}). Compiled code calls back into the interpreter for the
+ * functions that stay interpreted, which then runs until the frame it pushed
+ * returns.
+ * <p>
+ * Strings are references into a {@link StringTable} holding the pool and the
+ * strings the program makes, so string values take one slot like any other.
+ * The strings the program made and no longer references are freed when the
+ * table fills up.
+ * <p>
+ * The program prints to an {@link OutputSink}, which is flushed when a run
+ * ends, on the flush opcode, and when its buffer is full.
+ * <p>
+ * Traced runs (see {@link #trace(boolean, boolean, boolean)}) use their own
+ * copy of the interpreter loop, so the loop of the other runs has no trace
+ * code at all.
+ */
 public class VeloxVM {
     private static final int DEFAULT_STACK_SIZE = 1024;
-    private static final int DEFAULT_MEMORY_SIZE = 1024;
+    private static final int DEFAULT_MAX_STACK_SIZE = 1 << 20;
+    static final int MEMORY_SIZE = 1024; // The number of globals.
+    private static final int DEFAULT_FRAME_STACK_SIZE = 1024;
+    private static final int DEFAULT_MAX_FRAME_STACK_SIZE = 1 << 22;
+    private static final int DEFAULT_TRACE_BUFFER_SIZE = 1 << 14;
+    private static final int DEFAULT_TRACE_STACK_WORDS = 8;
+    private static final int MAX_TRACE_BUFFER_SIZE = 1 << 24;
+    private static final int MAX_TRACE_STACK_WORDS = 256;
+    private static final long[] NO_ARGUMENTS = {};
+
+    // Layout of the frame header, relative to the start of the locals.
+    private static final int FRAME_RETURN_IP = -3;
+    private static final int FRAME_FUNCTION = -2;
+    private static final int FRAME_CALLER = -1;
+    private static final int FRAME_HEADER_SIZE = 3;
 
     private int ip, ip2, sp, globalLength, poolLength;
+    private int maxStackSize;
+    private int lp, frameTop, maxFrameStackSize; // Start of the current locals, first free frame slot.
 
     private int[] instructions;
+    private int[] unfused, fused;
+    private int end; // The exit after the code (see VeloxInstructions.code), where every run stops.
+    private final VeloxInstructions module;
+    private final int start;
+    private boolean fusion;
+    private boolean stackCaching;
+    private boolean jitEnabled;
+    private int jitThreshold;
+    private VeloxJit compiler;
+    private VeloxJit jit; // The compiler, while a run uses it.
+    private int returnFrameTop; // Where a nested interpreter run stops, see compiledCall.
+    private int exitValues = -1; // Left on the stack by an exit in compiled code (0 or 1), see compiledExit.
+    private long exitTop;
 
     private long[] stack;
     private long[] global;
     private String[] pool;
+    private StringTable strings;
+
+    private OutputSink output;
 
     private boolean trace;
     private boolean traceLater;
     private boolean cursorAtLineStart;
 
-    private List<String> disassembledInstructions;
+    private int traceBufferSize;
+    private int traceStackWords;
 
     private Tracer tracer;
-    private Context ctx;
+    private Profile profile;
+    private long[] frames;
     private FunctionMeta[] metadata;
 
     private long executionTime;
 
-    public VeloxVM(VeloxInstructions vi) {
-        this(vi.getInstructions(), vi.getPool(), vi.getPoolLength(), vi.getMetadata());
-    }
+    /**
+     * Creates a VM for a module, verifying it unless it was verified when it was
+     * loaded. The VMs of a module share its code, so more VMs for a module (see
+     * {@link VeloxVMPool}) only cost their stacks and globals.
+     *
+     * @param vi The module.
+     * @throws VeloxVMError If the module is malformed.
+     */
+    public VeloxVM(VeloxInstructions vi) throws VeloxVMError {
+        if (!vi.isVerified()) {
+            Verifier.verify(vi);
+        }
+        module = vi;
+        start = vi.getStartIP();
 
-    public VeloxVM(int[] instructions, String[] pool, int poolLength, FunctionMeta[] metadata) {
         sp = -1;
         globalLength = -1;
-        this.poolLength = poolLength;
+        this.poolLength = vi.getPoolLength();
 
-        this.instructions = instructions;
+        this.end = vi.getInstructions().length;
+        this.instructions = vi.code();
+        this.unfused = this.instructions;
+        this.fusion = true;
+        this.jitThreshold = VeloxJit.DEFAULT_THRESHOLD;
+        this.returnFrameTop = -1;
 
         stack = new long[DEFAULT_STACK_SIZE];
-        global = new long[DEFAULT_MEMORY_SIZE];
+        maxStackSize = DEFAULT_MAX_STACK_SIZE;
+        frames = new long[DEFAULT_FRAME_STACK_SIZE];
+        maxFrameStackSize = DEFAULT_MAX_FRAME_STACK_SIZE;
+        global = new long[MEMORY_SIZE];
 
-        this.pool = pool;
+        this.pool = vi.getPool();
+        this.strings = new StringTable(pool, poolLength);
+        this.output = new OutputSink();
 
         this.trace = false;
         this.traceLater = false;
         this.cursorAtLineStart = true;
-        disassembledInstructions = new ArrayList<>();
-        this.metadata = metadata;
+        traceBufferSize = DEFAULT_TRACE_BUFFER_SIZE;
+        traceStackWords = DEFAULT_TRACE_STACK_WORDS;
+        this.metadata = vi.getMetadata();
         this.executionTime = 0;
     }
 
+    /**
+     * Creates a VM for some code, which is verified first. The program starts in
+     * function 0.
+     *
+     * @throws VeloxVMError If the code is malformed.
+     */
+    public VeloxVM(int[] instructions, String[] pool, int poolLength, FunctionMeta[] metadata)
+            throws VeloxVMError {
+        this(new VeloxInstructions(instructions, pool, poolLength, metadata,
+                (metadata.length > 0) ? metadata[0].getAddress() : 0));
+    }
+
     public long getExecutionTime() {
         return executionTime;
     }
 
+    /**
+     * Sets the number of values the operand stack can grow to before a Stack
+     * Overflow Error is raised (1M values by default).
+     *
+     * @param maxStackSize The maximum number of values on the stack.
+     */
+    public void setMaxStackSize(int maxStackSize) {
+        this.maxStackSize = maxStackSize;
+    }
+
+    /**
+     * Sets the number of longs the frame stack (frame headers and locals of all
+     * active calls) can grow to before a Stack Overflow Error is raised (4M by
+     * default).
+     *
+     * @param maxFrameStackSize The maximum size of the frame stack.
+     */
+    public void setMaxFrameStackSize(int maxFrameStackSize) {
+        this.maxFrameStackSize = maxFrameStackSize;
+    }
+
+    /**
+     * Sets the number of strings made at run time (by sconcat) which can be in
+     * use at once before a String table full error is raised (4M by default).
+     * The strings no slot references any more are freed when the table fills up,
+     * except while compiled code runs: a compiled loop making strings keeps them
+     * until it returns to the interpreter.
+     *
+     * @param maxStrings The maximum number of strings made at run time.
+     */
+    public void setMaxStrings(int maxStrings) {
+        strings.setMaxStrings(maxStrings);
+    }
+
+    /**
+     * Sets whether common instruction sequences are run as superinstructions (on
+     * by default).
+     *
+     * @param fusion Whether to fuse instruction sequences.
+     */
+    public void setFusion(boolean fusion) {
+        this.fusion = fusion;
+    }
+
+    /**
+     * Sets whether the next runs use the stack-caching interpreter, which keeps
+     * the top of the operand stack in a local variable (off by default). Traced
+     * runs always use the plain interpreter, as the tracer prints the stack
+     * array.
+     *
+     * @param stackCaching Whether to cache the top of the stack.
+     */
+    public void setStackCaching(boolean stackCaching) {
+        this.stackCaching = stackCaching;
+    }
+
+    /**
+     * Sets whether hot functions are compiled to JVM bytecode (off by default).
+     * Runs with the JIT use the plain interpreter for the code that is not
+     * compiled, and traced runs never compile.
+     *
+     * @param jit Whether to compile hot functions.
+     */
+    public void setJit(boolean jit) {
+        this.jitEnabled = jit;
+    }
+
+    /**
+     * Sets the number of interpreted invocations and backward branches after
+     * which a function is compiled (1000 by default).
+     *
+     * @param jitThreshold The compile threshold.
+     */
+    public void setJitThreshold(int jitThreshold) {
+        this.jitThreshold = jitThreshold;
+        if (compiler != null) {
+            compiler.setThreshold(jitThreshold);
+        }
+    }
+
+    /** Returns the compiler, or null before a run with the JIT. */
+    VeloxJit getJit() {
+        return compiler;
+    }
+
+    /**
+     * Sets where the program prints (System.out, as set when the VM is created,
+     * by default).
+     *
+     * @param output The output.
+     */
+    public void setOutput(OutputSink output) {
+        this.output = output;
+    }
+
+    /**
+     * Sets the number of instructions a trace printed when the run ends keeps
+     * (the last 16K by default). Takes effect on the next call to
+     * {@link #trace(boolean, boolean, boolean)}.
+     *
+     * @param traceBufferSize The number of instructions kept, from 1 to 16M.
+     * @throws IllegalArgumentException If the size is out of range.
+     */
+    public void setTraceBufferSize(int traceBufferSize) {
+        if (traceBufferSize < 1 || traceBufferSize > MAX_TRACE_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Invalid trace buffer size: " + traceBufferSize
+                    + " (from 1 to " + MAX_TRACE_BUFFER_SIZE + ")");
+        }
+        this.traceBufferSize = traceBufferSize;
+    }
+
+    /**
+     * Sets the number of values on top of the stack a trace printed when the run
+     * ends keeps for each instruction (8 by default). Takes effect on the next
+     * call to {@link #trace(boolean, boolean, boolean)}.
+     *
+     * @param traceStackWords The number of stack values kept, from 1 to 256.
+     * @throws IllegalArgumentException If the number is out of range.
+     */
+    public void setTraceStackWords(int traceStackWords) {
+        if (traceStackWords < 1 || traceStackWords > MAX_TRACE_STACK_WORDS) {
+            throw new IllegalArgumentException("Invalid number of trace stack words: " + traceStackWords
+                    + " (from 1 to " + MAX_TRACE_STACK_WORDS + ")");
+        }
+        this.traceStackWords = traceStackWords;
+    }
+
+    /**
+     * Sets whether the next runs are profiled (off by default). A profiled run
+     * counts the instructions it dispatches and the invocations of and time spent
+     * in each function, which {@link #printProfile()} prints. Like traced runs,
+     * profiled runs use a copy of the interpreter loop and never compile.
+     *
+     * @param profiling Whether to profile. Turning it on starts a new profile.
+     */
+    public void setProfiling(boolean profiling) {
+        this.profile = (profiling) ? new Profile(metadata) : null;
+    }
+
+    /**
+     * Returns the profile of the runs since profiling was turned on, or null if
+     * it is off.
+     *
+     * @return The profile, for instance to save it with {@link Profile#toJson()}.
+     */
+    public Profile getProfile() {
+        return profile;
+    }
+
+    /**
+     * Prints the profile of the runs since profiling was turned on as a table
+     * (see {@link Profile#formatTable()}) to the output of the program, and
+     * flushes it. Does nothing if profiling is off.
+     */
+    public void printProfile() {
+        if (profile == null) {
+            return;
+        }
+        output.println();
+        output.println(
+                "=================================================PROFILE==================================================");
+        output.print(profile.formatTable());
+        output.println(
+                "==========================================================================================================");
+        output.flush();
+    }
+
+    /**
+     * Traces the next runs, which then use a copy of the interpreter loop calling
+     * the tracer, so untraced runs pay nothing for it.
+     *
+     * @param trace      Whether to trace.
+     * @param traceLater Whether the trace is printed when the run ends instead of
+     *                   as it runs. It then holds the last instructions only (see
+     *                   {@link #setTraceBufferSize(int)}).
+     * @param printStack Whether every instruction is followed by the stack (only
+     *                   its top values if the trace is printed later).
+     */
     public void trace(boolean trace, boolean traceLater, boolean printStack) {
         tracer = new Tracer(instructions, stack, metadata, printStack);
+        tracer.setStrings(strings);
         this.trace = trace;
         this.traceLater = traceLater;
         if (traceLater) {
-            this.disassembledInstructions = new ArrayList<>();
+            tracer.setBuffer(new TraceBuffer(traceBufferSize, (printStack) ? traceStackWords : 0));
         }
     }
 
     public void exec(int startIP) throws VeloxVMError {
+        exec(startIP, NO_ARGUMENTS);
+    }
+
+    /**
+     * Runs the module from its start function, like a call passing arguments,
+     * and returns its result. The operand stack is emptied first, but the
+     * globals and strings of earlier runs are kept until {@link #reset()}.
+     *
+     * @param args The arguments, which the function finds in its first locals.
+     * @return The value the function returned, or the value on top of the stack
+     *         if the program stopped at an exit (0 if the stack is empty). A
+     *         string it references may be freed by the next run, unless a
+     *         global or an argument of that run keeps it.
+     * @throws VeloxVMError If the number of arguments is wrong or the program
+     *                      fails.
+     */
+    public long run(long... args) throws VeloxVMError {
+        FunctionMeta main = metadata[function(start)];
+        if (args.length != main.getNumberOfArgs()) {
+            throw new VeloxVMError("\"" + main.getName() + "\" takes " + main.getNumberOfArgs()
+                    + " arguments, not " + args.length, null);
+        }
+        sp = -1;
+        exec(start, args);
+        return (sp >= 0) ? stack[sp] : 0;
+    }
+
+    /**
+     * Clears what the runs so far left behind (the globals, the operand stack and
+     * the strings they made), so that the next run starts like the first one. The
+     * settings, the compiled functions and the profile are kept.
+     */
+    public void reset() {
+        Arrays.fill(global, 0L);
+        globalLength = -1;
+        sp = -1;
+        returnFrameTop = -1;
+        strings.reset();
+        cursorAtLineStart = true;
+    }
+
+    private void exec(int startIP, long[] args) throws VeloxVMError {
+        if (fusion && fused == null) {
+            fused = module.fusedCode();
+        }
+        instructions = (fusion) ? fused : unfused;
+        returnFrameTop = -1; // Left set if an earlier run failed in a nested run.
+        int main = function(startIP);
+        // Simulate a call to main(), which returns to the exit after the code.
+        ip = end;
+        lp = 0;
+        frameTop = 0;
+        pushFrame(main, metadata[main]);
+        Arrays.fill(frames, lp, lp + metadata[main].getNumberOfArgs(), 0L);
+        System.arraycopy(args, 0, frames, lp, args.length);
         ip = startIP;
         ip2 = ip;
-        ctx = new Context(null, 0, metadata[0]); // simulate a call to main()
-        cpu();
+        ensureStack(sp + metadata[main].getMaxStack(), metadata[main]);
+        boolean observed = trace || profile != null;
+        if (jitEnabled && !observed && compiler == null) {
+            compiler = new VeloxJit(unfused, metadata, jitThreshold);
+        }
+        jit = (jitEnabled && !observed) ? compiler : null;
+        if (profile != null) {
+            profile.start(main);
+        }
+        try {
+            if (stackCaching && !observed && jit == null) {
+                cpuCached();
+            } else {
+                cpu();
+            }
+        } finally {
+            output.flush();
+            if (profile != null) {
+                profile.stop();
+            }
+        }
+    }
+
+    /**
+     * Returns the function starting at an address, as the verifier only checked
+     * the code of each function from its address.
+     */
+    private int function(int address) throws VeloxVMError {
+        for (int i = 0; i < metadata.length; i++) {
+            if (metadata[i].getAddress() == address) {
+                return i;
+            }
+        }
+        throw new VeloxVMError(String.format("Invalid start address %04d (not the address of a function)", address),
+                null);
     }
 
     public void cpu() throws VeloxVMError {
         long before = System.currentTimeMillis();
+        if (trace || profile != null) {
+            interpretObserved();
+        } else {
+            interpret();
+        }
+        tracePrint();
+
+        // Measure the execution time.
+        long after = System.currentTimeMillis();
+        executionTime = after - before;
+    }
+
+    private void interpret() throws VeloxVMError {
         int opcode = instructions[ip];
-        while (ip < instructions.length && opcode != exit) {
+        while (opcode != exit) {
             opcode = instructions[ip];
             ip2 = ip;
             ip++;
@@ -85,165 +471,132 @@ public class VeloxVM {
                 case exit -> {
                 }
                 case iconst -> {
-                    try {
-                        int value = instructions[ip++];
-                        stack[++sp] = value;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Overflow Error", e);
-                    }
+                    int value = instructions[ip++];
+                    stack[++sp] = value;
                 }
                 case store -> {
                     long value = stack[sp--];
                     int index = instructions[ip++];
-                    ctx.locals[index] = value;
+                    frames[lp + index] = value;
                 }
                 case load -> {
                     int index = instructions[ip++];
-                    stack[++sp] = ctx.locals[index];
+                    stack[++sp] = frames[lp + index];
                 }
                 case iadd -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a + b);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a + b);
                 }
                 case isub -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a - b);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a - b);
                 }
                 case imul -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a * b);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a * b);
                 }
                 case idiv -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a / b);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a / b);
                 }
                 case imod -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a % b);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a % b);
                 }
                 case print -> {
-                    try {
-                        long value = stack[sp--];
-                        System.out.print(value);
-                        cursorAtLineStart = false;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long value = stack[sp--];
+                    output.print(value);
+                    cursorAtLineStart = false;
                 }
                 case printstr -> {
                     int elements = instructions[ip++];
                     for (int i = 0; i < elements; i++) {
-                        System.out.print(((char) stack[sp--]));
+                        output.print((char) stack[sp--]);
                     }
                     cursorAtLineStart = false;
                 }
                 case icmpe -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = ((a == b) ? 1 : 0);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a == b) ? 1 : 0);
                 }
                 case icmpl -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = ((a < b) ? 1 : 0);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a < b) ? 1 : 0);
                 }
                 case icmple -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = ((a <= b) ? 1 : 0);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a <= b) ? 1 : 0);
                 }
                 case icmpg -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = ((a > b) ? 1 : 0);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a > b) ? 1 : 0);
                 }
                 case icmpge -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = ((a >= b) ? 1 : 0);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a >= b) ? 1 : 0);
                 }
                 case icmpne -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = ((a != b) ? 1 : 0);
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a != b) ? 1 : 0);
                 }
                 case branch -> {
                     int line = instructions[ip++];
                     ip = line;
+                    if (line <= ip2 && jit != null) {
+                        backEdge(line);
+                    }
                 }
                 case brancht -> {
                     int line = instructions[ip++];
                     ip = ((stack[sp--] == 1) ? line : ip);
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(line);
+                    }
                 }
                 case branchf -> {
                     int line = instructions[ip++];
                     ip = ((stack[sp--] == 0) ? line : ip);
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(line);
+                    }
                 }
                 case invoke -> {
                     // expects all args on stack
                     int funcIndex = instructions[ip++]; // index of target function
-                    int nArgs = metadata[funcIndex].getNumberOfArgs(); // how many args got pushed
-                    ctx = new Context(ctx, ip, metadata[funcIndex]);
-                    // copy args into new context
-                    int firstArg = sp - nArgs + 1;
-                    for (int i = 0; i < nArgs; i++) {
-                        ctx.locals[i] = stack[firstArg + i];
+                    FunctionMeta function = metadata[funcIndex];
+                    CompiledFunction compiledFunction = (jit != null) ? jit.invoked(funcIndex) : null;
+                    if (compiledFunction != null) {
+                        invokeCompiled(compiledFunction, function);
+                    } else {
+                        int nArgs = function.getNumberOfArgs(); // how many args got pushed
+                        pushFrame(funcIndex, function);
+                        // copy args into the new frame
+                        sp -= nArgs;
+                        System.arraycopy(stack, sp + 1, frames, lp, nArgs);
+                        ip = function.getAddress();
+                        if (sp + function.getMaxStack() >= stack.length) {
+                            ensureStack(sp + function.getMaxStack(), function);
+                        }
                     }
-                    sp -= nArgs;
-                    ip = metadata[funcIndex].getAddress();
                 }
                 case ret -> {
-                    ip = ctx.getReturnIP();
-                    ctx = ctx.getInvokingContext();
+                    ip = (int) frames[lp + FRAME_RETURN_IP];
+                    frameTop = lp - FRAME_HEADER_SIZE;
+                    lp = (int) frames[lp + FRAME_CALLER];
+                    if (frameTop == returnFrameTop) {
+                        ip = end; // Back to the compiled code, see compiledCall.
+                    }
                 }
                 case pop -> sp--;
                 case gstore -> {
@@ -258,98 +611,1052 @@ public class VeloxVM {
                 }
                 case printsp -> {
                     int index = instructions[ip++];
-                    System.out.print(pool[index]);
+                    output.print(pool[index]);
                     cursorAtLineStart = false;
-
                 }
                 case jumpnext -> {
-                    System.out.println();
+                    output.println();
                     cursorAtLineStart = true;
                 }
                 case and -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a == 1 && b == 1) ? 1 : 0;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1 && b == 1) ? 1 : 0;
                 }
                 case or -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a == 1 || b == 1) ? 1 : 0;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1 || b == 1) ? 1 : 0;
                 }
                 case not -> {
-                    try {
-                        long a = stack[sp--];
-                        stack[++sp] = (a == 1) ? 0 : 1;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
-                    }
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1) ? 0 : 1;
                 }
                 case xor -> {
-                    try {
-                        long b = stack[sp--];
-                        long a = stack[sp--];
-                        stack[++sp] = (a == 1 && b == 0) || (a == 0 && b == 1) ? 1 : 0;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1 && b == 0) || (a == 0 && b == 1) ? 1 : 0;
+                }
+                case iconst8, fconst -> {
+                    stack[++sp] = Utilities.wordsToLong(instructions, ip);
+                    ip += 8;
+                }
+                case iconst8_q, fconst_q -> {
+                    stack[++sp] = (instructions[ip] & 0xFFFFFFFFL) | ((long) instructions[ip + 1] << 32);
+                    ip += 8;
+                }
+                case dup -> {
+                    long a = stack[sp];
+                    stack[++sp] = a;
+                }
+                case fadd -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a + b);
+                }
+                case fsub -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a - b);
+                }
+                case fmul -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a * b);
+                }
+                case fdiv -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a / b);
+                }
+                case fmod -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a % b);
+                }
+                case fcmpe -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a == b) ? 1 : 0);
+                }
+                case fcmpl -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a < b) ? 1 : 0);
+                }
+                case fcmple -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a <= b) ? 1 : 0);
+                }
+                case fcmpg -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a > b) ? 1 : 0);
+                }
+                case fcmpge -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a >= b) ? 1 : 0);
+                }
+                case fcmpne -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a != b) ? 1 : 0);
+                }
+                case i2f -> stack[sp] = doubleToRawLongBits(stack[sp]);
+                case f2i -> stack[sp] = (long) longBitsToDouble(stack[sp]);
+                case fprint -> {
+                    double value = longBitsToDouble(stack[sp--]);
+                    output.print(value);
+                    cursorAtLineStart = false;
+                }
+                case sconst -> stack[++sp] = instructions[ip++];
+                case sprint -> {
+                    output.print(strings.get(stack[sp--]));
+                    cursorAtLineStart = false;
+                }
+                case sconcat -> {
+                    String b = strings.get(stack[sp--]);
+                    String a = strings.get(stack[sp--]);
+                    stack[++sp] = newString(a.concat(b));
+                }
+                case slen -> stack[sp] = strings.get(stack[sp]).length();
+                case scharat -> {
+                    long index = stack[sp--];
+                    stack[sp] = charAt(strings.get(stack[sp]), index);
+                }
+                case scmp -> {
+                    String b = strings.get(stack[sp--]);
+                    String a = strings.get(stack[sp--]);
+                    stack[++sp] = Integer.signum(a.compareTo(b));
+                }
+                case flush -> output.flush();
+                case iadd_lls -> {
+                    frames[lp + instructions[ip + 5]] = frames[lp + instructions[ip]]
+                            + frames[lp + instructions[ip + 2]];
+                    ip += 6;
+                }
+                case isub_lls -> {
+                    frames[lp + instructions[ip + 5]] = frames[lp + instructions[ip]]
+                            - frames[lp + instructions[ip + 2]];
+                    ip += 6;
+                }
+                case iinc -> {
+                    frames[lp + instructions[ip]] += instructions[ip + 2];
+                    ip += 6;
+                }
+                case iadd_lc -> {
+                    stack[++sp] = frames[lp + instructions[ip]] + instructions[ip + 2];
+                    ip += 4;
+                }
+                case iadd_cl -> {
+                    stack[++sp] = instructions[ip] + frames[lp + instructions[ip + 2]];
+                    ip += 4;
+                }
+                case isub_lc -> {
+                    stack[++sp] = frames[lp + instructions[ip]] - instructions[ip + 2];
+                    ip += 4;
+                }
+                case if_icmpe_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] == instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(ip);
                     }
                 }
-                case iconst8 -> {
-                    byte[] longBytes = new byte[8];
-                    for (int i = 0; i < 8; i++) {
-                        longBytes[i] = (byte) instructions[ip++];
+                case if_icmpl_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] < instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(ip);
                     }
-                    stack[++sp] = Utilities.bytesToLong(longBytes);
+                }
+                case if_icmple_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] <= instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(ip);
+                    }
+                }
+                case if_icmpg_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] > instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(ip);
+                    }
+                }
+                case if_icmpge_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] >= instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(ip);
+                    }
+                }
+                case if_icmpne_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] != instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                    if (ip <= ip2 && jit != null) {
+                        backEdge(ip);
+                    }
+                }
+                default -> {
+                    ip += Opcode.get(opcode).getNumOperands();
+                }
+            }
+        }
+    }
+
+    /**
+     * The loop of {@link #interpret()} with a call to the tracer and the profiler
+     * after every instruction, used by traced and profiled runs so that the loop
+     * of the other runs does not even test whether they are. Traced and profiled
+     * runs never compile, so it has none of the JIT hooks.
+     * <p>
+     * Generated from interpret() by InterpreterLoops (in the tests): do not edit.
+     */
+    private void interpretObserved() throws VeloxVMError {
+        int opcode = instructions[ip];
+        while (opcode != exit) {
+            opcode = instructions[ip];
+            ip2 = ip;
+            ip++;
 
+            switch (opcode) {
+                case exit -> {
+                }
+                case iconst -> {
+                    int value = instructions[ip++];
+                    stack[++sp] = value;
+                }
+                case store -> {
+                    long value = stack[sp--];
+                    int index = instructions[ip++];
+                    frames[lp + index] = value;
+                }
+                case load -> {
+                    int index = instructions[ip++];
+                    stack[++sp] = frames[lp + index];
+                }
+                case iadd -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a + b);
+                }
+                case isub -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a - b);
+                }
+                case imul -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a * b);
+                }
+                case idiv -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a / b);
+                }
+                case imod -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a % b);
+                }
+                case print -> {
+                    long value = stack[sp--];
+                    output.print(value);
+                    cursorAtLineStart = false;
+                }
+                case printstr -> {
+                    int elements = instructions[ip++];
+                    for (int i = 0; i < elements; i++) {
+                        output.print((char) stack[sp--]);
+                    }
+                    cursorAtLineStart = false;
+                }
+                case icmpe -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a == b) ? 1 : 0);
+                }
+                case icmpl -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a < b) ? 1 : 0);
+                }
+                case icmple -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a <= b) ? 1 : 0);
+                }
+                case icmpg -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a > b) ? 1 : 0);
+                }
+                case icmpge -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a >= b) ? 1 : 0);
+                }
+                case icmpne -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = ((a != b) ? 1 : 0);
+                }
+                case branch -> {
+                    int line = instructions[ip++];
+                    ip = line;
+                }
+                case brancht -> {
+                    int line = instructions[ip++];
+                    ip = ((stack[sp--] == 1) ? line : ip);
+                }
+                case branchf -> {
+                    int line = instructions[ip++];
+                    ip = ((stack[sp--] == 0) ? line : ip);
+                }
+                case invoke -> {
+                    // expects all args on stack
+                    int funcIndex = instructions[ip++]; // index of target function
+                    FunctionMeta function = metadata[funcIndex];
+                    int nArgs = function.getNumberOfArgs(); // how many args got pushed
+                    pushFrame(funcIndex, function);
+                    // copy args into the new frame
+                    sp -= nArgs;
+                    System.arraycopy(stack, sp + 1, frames, lp, nArgs);
+                    ip = function.getAddress();
+                    if (sp + function.getMaxStack() >= stack.length) {
+                        ensureStack(sp + function.getMaxStack(), function);
+                    }
+                }
+                case ret -> {
+                    ip = (int) frames[lp + FRAME_RETURN_IP];
+                    frameTop = lp - FRAME_HEADER_SIZE;
+                    lp = (int) frames[lp + FRAME_CALLER];
+                }
+                case pop -> sp--;
+                case gstore -> {
+                    long value = stack[sp--];
+                    int index = instructions[ip++];
+                    global[index] = value;
+                    globalLength++;
+                }
+                case gload -> {
+                    int index = instructions[ip++];
+                    stack[++sp] = global[index];
+                }
+                case printsp -> {
+                    int index = instructions[ip++];
+                    output.print(pool[index]);
+                    cursorAtLineStart = false;
+                }
+                case jumpnext -> {
+                    output.println();
+                    cursorAtLineStart = true;
+                }
+                case and -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1 && b == 1) ? 1 : 0;
+                }
+                case or -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1 || b == 1) ? 1 : 0;
+                }
+                case not -> {
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1) ? 0 : 1;
+                }
+                case xor -> {
+                    long b = stack[sp--];
+                    long a = stack[sp--];
+                    stack[++sp] = (a == 1 && b == 0) || (a == 0 && b == 1) ? 1 : 0;
+                }
+                case iconst8, fconst -> {
+                    stack[++sp] = Utilities.wordsToLong(instructions, ip);
+                    ip += 8;
+                }
+                case iconst8_q, fconst_q -> {
+                    stack[++sp] = (instructions[ip] & 0xFFFFFFFFL) | ((long) instructions[ip + 1] << 32);
+                    ip += 8;
                 }
                 case dup -> {
-                    try {
-                        long a = stack[sp];
-                        stack[++sp] = a;
-                    } catch (ArrayIndexOutOfBoundsException e) {
-                        throw new VeloxVMError("Stack Underflow Error", e);
+                    long a = stack[sp];
+                    stack[++sp] = a;
+                }
+                case fadd -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a + b);
+                }
+                case fsub -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a - b);
+                }
+                case fmul -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a * b);
+                }
+                case fdiv -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a / b);
+                }
+                case fmod -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = doubleToRawLongBits(a % b);
+                }
+                case fcmpe -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a == b) ? 1 : 0);
+                }
+                case fcmpl -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a < b) ? 1 : 0);
+                }
+                case fcmple -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a <= b) ? 1 : 0);
+                }
+                case fcmpg -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a > b) ? 1 : 0);
+                }
+                case fcmpge -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a >= b) ? 1 : 0);
+                }
+                case fcmpne -> {
+                    double b = longBitsToDouble(stack[sp--]);
+                    double a = longBitsToDouble(stack[sp--]);
+                    stack[++sp] = ((a != b) ? 1 : 0);
+                }
+                case i2f -> stack[sp] = doubleToRawLongBits(stack[sp]);
+                case f2i -> stack[sp] = (long) longBitsToDouble(stack[sp]);
+                case fprint -> {
+                    double value = longBitsToDouble(stack[sp--]);
+                    output.print(value);
+                    cursorAtLineStart = false;
+                }
+                case sconst -> stack[++sp] = instructions[ip++];
+                case sprint -> {
+                    output.print(strings.get(stack[sp--]));
+                    cursorAtLineStart = false;
+                }
+                case sconcat -> {
+                    String b = strings.get(stack[sp--]);
+                    String a = strings.get(stack[sp--]);
+                    stack[++sp] = newString(a.concat(b));
+                }
+                case slen -> stack[sp] = strings.get(stack[sp]).length();
+                case scharat -> {
+                    long index = stack[sp--];
+                    stack[sp] = charAt(strings.get(stack[sp]), index);
+                }
+                case scmp -> {
+                    String b = strings.get(stack[sp--]);
+                    String a = strings.get(stack[sp--]);
+                    stack[++sp] = Integer.signum(a.compareTo(b));
+                }
+                case flush -> output.flush();
+                case iadd_lls -> {
+                    frames[lp + instructions[ip + 5]] = frames[lp + instructions[ip]]
+                            + frames[lp + instructions[ip + 2]];
+                    ip += 6;
+                }
+                case isub_lls -> {
+                    frames[lp + instructions[ip + 5]] = frames[lp + instructions[ip]]
+                            - frames[lp + instructions[ip + 2]];
+                    ip += 6;
+                }
+                case iinc -> {
+                    frames[lp + instructions[ip]] += instructions[ip + 2];
+                    ip += 6;
+                }
+                case iadd_lc -> {
+                    stack[++sp] = frames[lp + instructions[ip]] + instructions[ip + 2];
+                    ip += 4;
+                }
+                case iadd_cl -> {
+                    stack[++sp] = instructions[ip] + frames[lp + instructions[ip + 2]];
+                    ip += 4;
+                }
+                case isub_lc -> {
+                    stack[++sp] = frames[lp + instructions[ip]] - instructions[ip + 2];
+                    ip += 4;
+                }
+                case if_icmpe_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] == instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpl_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] < instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmple_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] <= instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpg_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] > instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpge_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] >= instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpne_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] != instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                default -> {
+                    ip += Opcode.get(opcode).getNumOperands();
+                }
+            }
+            observe(opcode);
+        }
+    }
+
+    /**
+     * The stack-caching variant of {@link #cpu()}: the value on top of the
+     * operand stack is kept in a local variable (tos) instead of the stack
+     * array, so a binary operation reads one array slot and writes none.
+     * <p>
+     * While it runs, the array holds the values below the top one shifted up by
+     * one slot (slot 0 is a scratch slot): for a depth of sp + 1 the values are
+     * stack[1..sp] and tos. This keeps sp the same as in cpu(), so the stack
+     * analysis and the stack growth work unchanged. The usual layout is
+     * restored when the run ends.
+     * <p>
+     * The cases which do not use the operand stack are generated from the ones
+     * of {@link #interpret()}, without the JIT hooks, by InterpreterLoops (in
+     * the tests): they are edited there.
+     */
+    private void cpuCached() throws VeloxVMError {
+        long before = System.currentTimeMillis();
+        long tos = 0;
+        if (sp >= 0) {
+            tos = stack[sp];
+            System.arraycopy(stack, 0, stack, 1, sp);
+        }
+        int opcode = instructions[ip];
+        while (opcode != exit) {
+            opcode = instructions[ip];
+            ip2 = ip;
+            ip++;
+
+            switch (opcode) {
+                case exit -> {
+                }
+                case iconst -> {
+                    stack[++sp] = tos;
+                    tos = instructions[ip++];
+                }
+                case store -> {
+                    frames[lp + instructions[ip++]] = tos;
+                    tos = stack[sp--];
+                }
+                case load -> {
+                    stack[++sp] = tos;
+                    tos = frames[lp + instructions[ip++]];
+                }
+                case iadd -> tos = stack[sp--] + tos;
+                case isub -> tos = stack[sp--] - tos;
+                case imul -> tos = stack[sp--] * tos;
+                case idiv -> tos = stack[sp--] / tos;
+                case imod -> tos = stack[sp--] % tos;
+                case print -> {
+                    output.print(tos);
+                    tos = stack[sp--];
+                    cursorAtLineStart = false;
+                }
+                case printstr -> {
+                    int elements = instructions[ip++];
+                    for (int i = 0; i < elements; i++) {
+                        output.print((char) tos);
+                        tos = stack[sp--];
+                    }
+                    cursorAtLineStart = false;
+                }
+                case icmpe -> tos = (stack[sp--] == tos) ? 1 : 0;
+                case icmpl -> tos = (stack[sp--] < tos) ? 1 : 0;
+                case icmple -> tos = (stack[sp--] <= tos) ? 1 : 0;
+                case icmpg -> tos = (stack[sp--] > tos) ? 1 : 0;
+                case icmpge -> tos = (stack[sp--] >= tos) ? 1 : 0;
+                case icmpne -> tos = (stack[sp--] != tos) ? 1 : 0;
+                case branch -> {
+                    int line = instructions[ip++];
+                    ip = line;
+                }
+                case brancht -> {
+                    int line = instructions[ip++];
+                    ip = ((tos == 1) ? line : ip);
+                    tos = stack[sp--];
+                }
+                case branchf -> {
+                    int line = instructions[ip++];
+                    ip = ((tos == 0) ? line : ip);
+                    tos = stack[sp--];
+                }
+                case invoke -> {
+                    int funcIndex = instructions[ip++];
+                    FunctionMeta function = metadata[funcIndex];
+                    int nArgs = function.getNumberOfArgs();
+                    pushFrame(funcIndex, function);
+                    // The last argument is tos, the others are in the array.
+                    if (nArgs > 0) {
+                        System.arraycopy(stack, sp - nArgs + 2, frames, lp, nArgs - 1);
+                        frames[lp + nArgs - 1] = tos;
+                        sp -= nArgs;
+                        tos = stack[sp + 1];
                     }
+                    ip = function.getAddress();
+                    if (sp + function.getMaxStack() >= stack.length) {
+                        ensureStack(sp + function.getMaxStack(), function);
+                    }
+                }
+                case ret -> {
+                    ip = (int) frames[lp + FRAME_RETURN_IP];
+                    frameTop = lp - FRAME_HEADER_SIZE;
+                    lp = (int) frames[lp + FRAME_CALLER];
+                }
+                case pop -> tos = stack[sp--];
+                case gstore -> {
+                    global[instructions[ip++]] = tos;
+                    tos = stack[sp--];
+                    globalLength++;
+                }
+                case gload -> {
+                    stack[++sp] = tos;
+                    tos = global[instructions[ip++]];
+                }
+                case printsp -> {
+                    int index = instructions[ip++];
+                    output.print(pool[index]);
+                    cursorAtLineStart = false;
+                }
+                case jumpnext -> {
+                    output.println();
+                    cursorAtLineStart = true;
+                }
+                case and -> tos = (stack[sp--] == 1 && tos == 1) ? 1 : 0;
+                case or -> tos = (stack[sp--] == 1 || tos == 1) ? 1 : 0;
+                case not -> tos = (tos == 1) ? 0 : 1;
+                case xor -> {
+                    long a = stack[sp--];
+                    tos = (a == 1 && tos == 0) || (a == 0 && tos == 1) ? 1 : 0;
+                }
+                case iconst8, fconst -> {
+                    stack[++sp] = tos;
+                    tos = Utilities.wordsToLong(instructions, ip);
+                    ip += 8;
+                }
+                case iconst8_q, fconst_q -> {
+                    stack[++sp] = tos;
+                    tos = (instructions[ip] & 0xFFFFFFFFL) | ((long) instructions[ip + 1] << 32);
+                    ip += 8;
+                }
+                case dup -> stack[++sp] = tos;
+                case fadd -> tos = doubleToRawLongBits(longBitsToDouble(stack[sp--]) + longBitsToDouble(tos));
+                case fsub -> tos = doubleToRawLongBits(longBitsToDouble(stack[sp--]) - longBitsToDouble(tos));
+                case fmul -> tos = doubleToRawLongBits(longBitsToDouble(stack[sp--]) * longBitsToDouble(tos));
+                case fdiv -> tos = doubleToRawLongBits(longBitsToDouble(stack[sp--]) / longBitsToDouble(tos));
+                case fmod -> tos = doubleToRawLongBits(longBitsToDouble(stack[sp--]) % longBitsToDouble(tos));
+                case fcmpe -> tos = (longBitsToDouble(stack[sp--]) == longBitsToDouble(tos)) ? 1 : 0;
+                case fcmpl -> tos = (longBitsToDouble(stack[sp--]) < longBitsToDouble(tos)) ? 1 : 0;
+                case fcmple -> tos = (longBitsToDouble(stack[sp--]) <= longBitsToDouble(tos)) ? 1 : 0;
+                case fcmpg -> tos = (longBitsToDouble(stack[sp--]) > longBitsToDouble(tos)) ? 1 : 0;
+                case fcmpge -> tos = (longBitsToDouble(stack[sp--]) >= longBitsToDouble(tos)) ? 1 : 0;
+                case fcmpne -> tos = (longBitsToDouble(stack[sp--]) != longBitsToDouble(tos)) ? 1 : 0;
+                case i2f -> tos = doubleToRawLongBits(tos);
+                case f2i -> tos = (long) longBitsToDouble(tos);
+                case fprint -> {
+                    output.print(longBitsToDouble(tos));
+                    tos = stack[sp--];
+                    cursorAtLineStart = false;
+                }
+                case sconst -> {
+                    stack[++sp] = tos;
+                    tos = instructions[ip++];
+                }
+                case sprint -> {
+                    output.print(strings.get(tos));
+                    tos = stack[sp--];
+                    cursorAtLineStart = false;
+                }
+                case sconcat -> {
+                    String b = strings.get(tos);
+                    tos = newString(strings.get(stack[sp--]).concat(b));
+                }
+                case slen -> tos = strings.get(tos).length();
+                case scharat -> tos = charAt(strings.get(stack[sp--]), tos);
+                case scmp -> {
+                    String b = strings.get(tos);
+                    tos = Integer.signum(strings.get(stack[sp--]).compareTo(b));
+                }
+                case flush -> output.flush();
+                case iadd_lls -> {
+                    frames[lp + instructions[ip + 5]] = frames[lp + instructions[ip]]
+                            + frames[lp + instructions[ip + 2]];
+                    ip += 6;
+                }
+                case isub_lls -> {
+                    frames[lp + instructions[ip + 5]] = frames[lp + instructions[ip]]
+                            - frames[lp + instructions[ip + 2]];
+                    ip += 6;
+                }
+                case iinc -> {
+                    frames[lp + instructions[ip]] += instructions[ip + 2];
+                    ip += 6;
+                }
+                case iadd_lc -> {
+                    stack[++sp] = tos;
+                    tos = frames[lp + instructions[ip]] + instructions[ip + 2];
+                    ip += 4;
+                }
+                case iadd_cl -> {
+                    stack[++sp] = tos;
+                    tos = instructions[ip] + frames[lp + instructions[ip + 2]];
+                    ip += 4;
+                }
+                case isub_lc -> {
+                    stack[++sp] = tos;
+                    tos = frames[lp + instructions[ip]] - instructions[ip + 2];
+                    ip += 4;
+                }
+                case if_icmpe_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] == instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpl_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] < instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmple_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] <= instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpg_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] > instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpge_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] >= instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
+                }
+                case if_icmpne_lc_f -> {
+                    ip = (frames[lp + instructions[ip]] != instructions[ip + 2]) ? ip + 6 : instructions[ip + 5];
                 }
                 default -> {
                     ip += Opcode.get(opcode).getNumOperands();
                 }
             }
-            tracing(opcode);
         }
-        tracePrint();
+
+        // Back to the usual layout: stack[0..sp].
+        if (sp >= 0) {
+            System.arraycopy(stack, 1, stack, 0, sp);
+            stack[sp] = tos;
+        }
 
         // Measure the execution time.
         long after = System.currentTimeMillis();
         executionTime = after - before;
     }
 
-    private void tracing(int opcode) {
-        if (trace && traceLater) {
-            disassembledInstructions.add(tracer.disassemble(ip2, opcode, sp));
-        } else if (trace) {
+    /**
+     * Runs a compiled function on the arguments on top of the operand stack and
+     * pushes its result.
+     */
+    private void invokeCompiled(CompiledFunction code, FunctionMeta function) throws VeloxVMError {
+        int nArgs = function.getNumberOfArgs();
+        long result;
+        try {
+            result = code.invoke(this, stack, sp - nArgs + 1);
+        } catch (VeloxExit e) {
+            exited(nArgs);
+            return;
+        } catch (StackOverflowError e) {
+            throw compiledOverflow(function);
+        }
+        sp -= nArgs;
+        if (function.getNumberOfResults() == 1) {
+            stack[++sp] = result;
+        }
+    }
+
+    /**
+     * Counts a backward branch of the current function. If the compiler has
+     * compiled the loop, the rest of the function runs compiled and returns as
+     * if it had run ret.
+     *
+     * @param target The target of the branch.
+     */
+    private void backEdge(int target) throws VeloxVMError {
+        int funcIndex = (int) frames[lp + FRAME_FUNCTION];
+        CompiledFunction code = jit.backEdge(funcIndex, target);
+        if (code == null) {
+            return;
+        }
+        FunctionMeta function = metadata[funcIndex];
+        long result;
+        try {
+            result = code.invoke(this, frames, lp);
+        } catch (VeloxExit e) {
+            exited(0);
+            return;
+        } catch (StackOverflowError e) {
+            throw compiledOverflow(function);
+        }
+        ip = (int) frames[lp + FRAME_RETURN_IP];
+        frameTop = lp - FRAME_HEADER_SIZE;
+        lp = (int) frames[lp + FRAME_CALLER];
+        if (frameTop == returnFrameTop) {
+            ip = end;
+        }
+        if (function.getNumberOfResults() == 1) {
+            stack[++sp] = result;
+        }
+    }
+
+    /**
+     * Stops the run after compiled code reached an exit. If the exit was in the
+     * compiled code (not in an interpreted function it called), the arguments it
+     * was entered with are popped and the value it had on top of its stack is
+     * pushed, so that run returns what it returns for an interpreted exit. (At an
+     * exit with an empty stack, the values compiled callers left below their
+     * calls are not seen: run returns the value below the arguments instead.)
+     *
+     * @param nArgs The number of arguments on the stack.
+     */
+    private void exited(int nArgs) {
+        ip = end;
+        if (exitValues >= 0) {
+            sp -= nArgs;
+            if (exitValues == 1) {
+                stack[++sp] = exitTop;
+            }
+            exitValues = -1;
+        }
+    }
+
+    /**
+     * Adds a string made by sconcat to the string table. If the table is full,
+     * the strings no slot of the operand stack, the frame stack or the globals
+     * references are freed first, unless compiled code is running below (a
+     * nested run, see compiledCall), as its references are out of sight, or a
+     * trace buffer may still print the strings.
+     */
+    private long newString(String string) throws VeloxVMError {
+        if (strings.isFull() && returnFrameTop == -1 && !traceLater) {
+            strings.mark(stack, sp + 1);
+            strings.mark(frames, frameTop);
+            strings.mark(global, global.length);
+            strings.sweep();
+        }
+        return strings.add(string);
+    }
+
+    /**
+     * Returns the char of a string at an index, for scharat.
+     *
+     * @throws VeloxVMError If the index is out of the string.
+     */
+    private static long charAt(String string, long index) throws VeloxVMError {
+        if (index < 0 || index >= string.length()) {
+            throw new VeloxVMError("String index out of range: " + index + " (length " + string.length() + ")",
+                    null);
+        }
+        return string.charAt((int) index);
+    }
+
+    private static VeloxVMError compiledOverflow(FunctionMeta function) {
+        return new VeloxVMError("Stack Overflow Error: too many nested calls in compiled code of \""
+                + function.getName() + "\"", null);
+    }
+
+    // CALLBACKS OF COMPILED CODE (see VeloxJit)
+
+    /**
+     * Runs an interpreted function for compiled code: the interpreter runs from
+     * the start of the function until the frame pushed for it returns.
+     *
+     * @throws VeloxExit If the program exits while the function runs.
+     */
+    static long compiledCall(long[] args, int funcIndex, VeloxVM vm) throws VeloxVMError {
+        FunctionMeta function = vm.metadata[funcIndex];
+        int returnIp = vm.ip;
+        int outerReturnFrameTop = vm.returnFrameTop;
+        int callerFrameTop = vm.frameTop;
+
+        vm.pushFrame(funcIndex, function);
+        System.arraycopy(args, 0, vm.frames, vm.lp, args.length);
+        vm.ensureStack(vm.sp + function.getMaxStack(), function);
+        vm.ip = function.getAddress();
+        vm.returnFrameTop = callerFrameTop;
+        try {
+            vm.interpret();
+        } finally {
+            vm.returnFrameTop = outerReturnFrameTop;
+        }
+        if (vm.frameTop != callerFrameTop) {
+            throw VeloxExit.INSTANCE; // Stopped at an exit, not at the ret of the function.
+        }
+        vm.ip = returnIp;
+        return (function.getNumberOfResults() == 1) ? vm.stack[vm.sp--] : 0;
+    }
+
+    /** Called before compiled code throws VeloxExit at an exit with an empty stack. */
+    static void compiledExit(VeloxVM vm) {
+        vm.exitValues = 0;
+    }
+
+    /** Called before compiled code throws VeloxExit at an exit, with its top value. */
+    static void compiledExit(long top, VeloxVM vm) {
+        vm.exitValues = 1;
+        vm.exitTop = top;
+    }
+
+    static void compiledPrint(long value, VeloxVM vm) {
+        vm.output.print(value);
+        vm.cursorAtLineStart = false;
+    }
+
+    static void compiledPrintFloat(long value, VeloxVM vm) {
+        vm.output.print(longBitsToDouble(value));
+        vm.cursorAtLineStart = false;
+    }
+
+    static void compiledPrintChar(long value, VeloxVM vm) {
+        vm.output.print((char) value);
+        vm.cursorAtLineStart = false;
+    }
+
+    static void compiledPrintPool(int index, VeloxVM vm) {
+        vm.output.print(vm.pool[index]);
+        vm.cursorAtLineStart = false;
+    }
+
+    static void compiledPrintString(long reference, VeloxVM vm) throws VeloxVMError {
+        vm.output.print(vm.strings.get(reference));
+        vm.cursorAtLineStart = false;
+    }
+
+    static long compiledConcat(long a, long b, VeloxVM vm) throws VeloxVMError {
+        // Not collected: the compiled code may hold references the VM cannot see.
+        return vm.strings.add(vm.strings.get(a).concat(vm.strings.get(b)));
+    }
+
+    static long compiledLength(long reference, VeloxVM vm) throws VeloxVMError {
+        return vm.strings.get(reference).length();
+    }
+
+    static long compiledCharAt(long reference, long index, VeloxVM vm) throws VeloxVMError {
+        return charAt(vm.strings.get(reference), index);
+    }
+
+    static long compiledCompare(long a, long b, VeloxVM vm) throws VeloxVMError {
+        return Integer.signum(vm.strings.get(a).compareTo(vm.strings.get(b)));
+    }
+
+    static void compiledNewLine(VeloxVM vm) {
+        vm.output.println();
+        vm.cursorAtLineStart = true;
+    }
+
+    static void compiledFlush(VeloxVM vm) {
+        vm.output.flush();
+    }
+
+    static void compiledStoreGlobal(long value, int index, VeloxVM vm) {
+        vm.global[index] = value;
+        vm.globalLength++;
+    }
+
+    static long compiledLoadGlobal(int index, VeloxVM vm) {
+        return vm.global[index];
+    }
+
+    /**
+     * Pushes a frame for a call and makes it the current frame. The frame keeps
+     * the current ip as return ip, and its locals are zeroed.
+     *
+     * @param funcIndex The id of the called function.
+     * @param function  The called function.
+     * @throws VeloxVMError If the frame stack would grow past its maximum size.
+     */
+    private void pushFrame(int funcIndex, FunctionMeta function) throws VeloxVMError {
+        int base = frameTop;
+        int newLp = base + FRAME_HEADER_SIZE;
+        int newTop = newLp + function.getNumberOfArgs() + function.getNumberOfLocals();
+        if (newTop > frames.length) {
+            if (newTop > maxFrameStackSize) {
+                throw new VeloxVMError("Stack Overflow Error: too many nested calls invoking \""
+                        + function.getName() + "\" (frame stack size " + maxFrameStackSize + ")", null);
+            }
+            frames = Arrays.copyOf(frames, (int) Math.min(maxFrameStackSize, Math.max(2L * frames.length, newTop)));
+        }
+        frames[newLp + FRAME_RETURN_IP] = ip;
+        frames[newLp + FRAME_FUNCTION] = funcIndex;
+        frames[newLp + FRAME_CALLER] = lp;
+        Arrays.fill(frames, newLp + function.getNumberOfArgs(), newTop, 0L);
+        lp = newLp;
+        frameTop = newTop;
+    }
+
+    /**
+     * Grows the operand stack so that it has a slot at the given index.
+     *
+     * @param top      The highest index the called function can use.
+     * @param function The called function (for the error message).
+     * @throws VeloxVMError If the stack would grow past the maximum stack size.
+     */
+    private void ensureStack(int top, FunctionMeta function) throws VeloxVMError {
+        if (top < stack.length) {
+            return;
+        }
+        if (top >= maxStackSize) {
+            throw new VeloxVMError("Stack Overflow Error: invoking \"" + function.getName() + "\" needs "
+                    + (top + 1) + " stack values, the maximum is " + maxStackSize, null);
+        }
+        long[] grown = new long[(int) Math.min(maxStackSize, Math.max(2L * stack.length, top + 1L))];
+        System.arraycopy(stack, 0, grown, 0, sp + 1);
+        stack = grown;
+        if (tracer != null) {
+            tracer.setStack(stack);
+        }
+    }
+
+    private void observe(int opcode) {
+        if (ip2 == end) {
+            return; // The exit after the code.
+        }
+        if (profile != null) {
+            profile.dispatched(opcode);
+            if (opcode == invoke) {
+                profile.enter((int) frames[lp + FRAME_FUNCTION]);
+            } else if (opcode == ret) {
+                profile.leave();
+            }
+        }
+        if (!trace) {
+            return;
+        }
+        if (traceLater) {
+            tracer.record(ip2, opcode, sp, lp);
+        } else {
+            output.flush(); // The tracer prints to System.out.
             if (!cursorAtLineStart) {
                 System.out.println();
                 cursorAtLineStart = true;
             }
-            tracer.disassembleAndPrint(ip2, opcode, sp);
+            tracer.disassembleAndPrint(ip2, opcode, sp, lp);
         }
     }
 
     private void tracePrint() {
+        if (trace) {
+            output.flush();
+        }
         if (trace && traceLater) {
             System.out.println();
             System.out.println(
                     "==================================================TRACE===================================================");
-            for (String s : disassembledInstructions) {
-                System.out.println(s);
-            }
+            tracer.printTrace(System.out);
             System.out.println(
                     "==========================================================================================================");
             if (globalLength != -1 || poolLength != 0) {
@@ -360,7 +1667,7 @@ public class VeloxVM {
                 System.out.println(
                         "==================================================GLOBAL==================================================");
                 for (int i = 0; i <= globalLength; i++) {
-                    System.out.printf("%04d: %d\n", i, global[i]);
+                    System.out.printf("%04d: %s\n", i, tracer.formatGlobal(i, global[i]));
                 }
                 System.out.println(
                         "==========================================================================================================");
@@ -382,7 +1689,7 @@ public class VeloxVM {
         if (trace && !traceLater && globalLength != -1) {
             System.out.println("\nMemory:");
             for (int i = 0; i <= globalLength; i++) {
-                System.out.printf("%04d: %d\n", i, global[i]);
+                System.out.printf("%04d: %s\n", i, tracer.formatGlobal(i, global[i]));
             }
         }
     }
@@ -0,0 +1,98 @@
+package com.jvs.velox;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * A pool of VMs running one module, for programs run over and over with
+ * different arguments.
+ * <p>
+ * The module is verified once, and its VMs share its code (see
+ * {@link VeloxVM#VeloxVM(VeloxInstructions)}). A VM is created the first time
+ * no idle one is left; a released VM is {@link VeloxVM#reset() reset} and kept
+ * for the next run, with its stacks, its string table and the functions its JIT
+ * compiled. The pool can be used by several threads, each VM by one at a time.
+ */
+public class VeloxVMPool {
+    private final VeloxInstructions module;
+    private final int capacity;
+    private final Consumer<VeloxVM> setup;
+    private final ArrayDeque<VeloxVM> idle = new ArrayDeque<>();
+
+    /**
+     * Creates a pool.
+     *
+     * @param module   The module.
+     * @param capacity The number of idle VMs kept.
+     * @throws VeloxVMError If the module is malformed.
+     */
+    public VeloxVMPool(VeloxInstructions module, int capacity) throws VeloxVMError {
+        this(module, capacity, vm -> {
+        });
+    }
+
+    /**
+     * Creates a pool.
+     *
+     * @param module   The module.
+     * @param capacity The number of idle VMs kept.
+     * @param setup    Sets up each new VM (for instance
+     *                 {@code vm -> vm.setJit(true)}).
+     * @throws VeloxVMError If the module is malformed.
+     */
+    public VeloxVMPool(VeloxInstructions module, int capacity, Consumer<VeloxVM> setup) throws VeloxVMError {
+        if (!module.isVerified()) {
+            Verifier.verify(module);
+        }
+        this.module = module;
+        this.capacity = capacity;
+        this.setup = setup;
+    }
+
+    /**
+     * Takes an idle VM, or creates one.
+     *
+     * @return The VM, to be given back with {@link #release(VeloxVM)}.
+     */
+    public VeloxVM acquire() throws VeloxVMError {
+        VeloxVM vm;
+        synchronized (idle) {
+            vm = idle.pollFirst();
+        }
+        if (vm == null) {
+            vm = new VeloxVM(module);
+            setup.accept(vm);
+        }
+        return vm;
+    }
+
+    /**
+     * Resets a VM and keeps it for the next run, unless the pool is full.
+     *
+     * @param vm The VM, taken from this pool.
+     */
+    public void release(VeloxVM vm) {
+        vm.reset();
+        synchronized (idle) {
+            if (idle.size() < capacity) {
+                idle.addFirst(vm); // The VM used last is the most likely to be in the cache.
+            }
+        }
+    }
+
+    /**
+     * Runs the module on an idle VM (see {@link VeloxVM#run(long...)}).
+     *
+     * @param args The arguments of the start function.
+     * @return The result of the run.
+     * @throws VeloxVMError If the program fails.
+     */
+    public long run(long... args) throws VeloxVMError {
+        VeloxVM vm = acquire();
+        try {
+            return vm.run(args);
+        } finally {
+            release(vm);
+        }
+    }
+}
@@ -1,9 +1,28 @@
 package com.jvs.velox;
 
-import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Writes .jvelox files in the current version of the format (see
+ * {@link VeloxFormat}).
+ * <p>
+ * The whole module is encoded into one buffer sized from its sections, which
+ * is written with a single channel write to a temporary file next to the
+ * target, forced to the disk and given the permissions of the target it
+ * replaces. The temporary file is then renamed to the target, so readers never
+ * see a partially written module.
+ */
 public class VeloxWriter {
-    private static final byte[] veloxMagic = { 74, 86, 76, 88 };
     private String fileName;
     private int instructions[];
     private String pool[];
@@ -22,40 +41,104 @@ public class VeloxWriter {
     }
 
     public void write() throws VeloxVMError {
+        ByteBuffer buffer = encode();
+        Path target = Path.of(fileName).toAbsolutePath();
+        Path temp = null;
         try {
-            FileOutputStream fos = new FileOutputStream(fileName);
-
-            fos.write(veloxMagic);
-            fos.write(metadata.length);
-            for (int i = 0; i < metadata.length; i++) {
-                int nameLength = metadata[i].getName().length();
-                fos.write(nameLength);
-                for (int j = 0; j < nameLength; j++) {
-                    fos.write((int) (metadata[i].getName().charAt(j)));
+            // Created like the target would be (with the permissions of the
+            // umask), not with the owner-only permissions of createTempFile.
+            temp = target.resolveSibling(target.getFileName() + "."
+                    + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
                 }
-                fos.write(metadata[i].getNumberOfArgs());
-                fos.write(metadata[i].getNumberOfLocals());
-                fos.write(metadata[i].getAddress());
+                channel.force(true); // On disk before the rename makes it the target.
             }
+            PosixFileAttributeView view = Files.getFileAttributeView(target, PosixFileAttributeView.class);
+            if (view != null && Files.exists(target)) {
+                Files.setPosixFilePermissions(temp, view.readAttributes().permissions());
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            deleteQuietly(temp);
+            throw new VeloxVMError(e.getMessage(), e);
+        }
+    }
 
-            fos.write(poolLength);
+    /**
+     * Encodes the module.
+     *
+     * @return The content of the .jvelox file, positioned at its start.
+     */
+    public ByteBuffer encode() {
+        byte[][] names = new byte[metadata.length][];
+        int functionsSize = 4;
+        for (int i = 0; i < metadata.length; i++) {
+            names[i] = metadata[i].getName().getBytes(StandardCharsets.UTF_8);
+            functionsSize += 16 + names[i].length;
+        }
+        byte[][] strings = new byte[poolLength][];
+        int poolSize = 4;
+        for (int i = 0; i < poolLength; i++) {
+            strings[i] = pool[i].getBytes(StandardCharsets.UTF_8);
+            poolSize += 4 + strings[i].length;
+        }
+        int codeSize = 4 * instructions.length;
 
-            for (int i = 0; i < pool.length; i++) {
-                fos.write(pool[i].length());
-                for (int j = 0; j < pool[i].length(); j++) {
-                    fos.write(pool[i].charAt(j));
-                }
-            }
+        int sections = 3;
+        int functionsOffset = VeloxFormat.HEADER_SIZE + sections * VeloxFormat.SECTION_ENTRY_SIZE;
+        int poolOffset = VeloxFormat.align(functionsOffset + functionsSize);
+        int codeOffset = VeloxFormat.align(poolOffset + poolSize);
 
-            fos.write(start);
+        // A new buffer is zeroed, so the padding between sections needs no writes.
+        ByteBuffer buffer = ByteBuffer.allocate(codeOffset + codeSize);
 
-            for (int i = 0; i < instructions.length; i++) {
-                fos.write(instructions[i]);
-            }
+        buffer.put(VeloxFormat.MAGIC);
+        buffer.put((byte) 0);
+        buffer.put((byte) VeloxFormat.CURRENT_VERSION);
+        buffer.putShort((short) sections);
+        buffer.putInt(start);
 
-            fos.close();
-        } catch (Exception e) {
-            throw new VeloxVMError(e.getMessage(), e);
+        buffer.putInt(VeloxFormat.FUNCTIONS).putInt(functionsOffset).putInt(functionsSize);
+        buffer.putInt(VeloxFormat.POOL).putInt(poolOffset).putInt(poolSize);
+        buffer.putInt(VeloxFormat.CODE).putInt(codeOffset).putInt(codeSize);
+
+        buffer.putInt(metadata.length);
+        for (int i = 0; i < metadata.length; i++) {
+            buffer.putInt(names[i].length);
+            buffer.put(names[i]);
+            buffer.putInt(metadata[i].getNumberOfArgs());
+            buffer.putInt(metadata[i].getNumberOfLocals());
+            buffer.putInt(metadata[i].getAddress());
+        }
+
+        buffer.position(poolOffset);
+        buffer.putInt(poolLength);
+        for (int i = 0; i < poolLength; i++) {
+            buffer.putInt(strings[i].length);
+            buffer.put(strings[i]);
+        }
+
+        buffer.position(codeOffset);
+        buffer.asIntBuffer().put(instructions);
+
+        return buffer.position(0);
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            // Nothing more can be done, the original error is reported.
         }
     }
 }
@@ -0,0 +1,123 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+
+/**
+ * Checks a Velox module before it runs, so that the VM can run its code
+ * without checking it.
+ * <p>
+ * The code is decoded from its first word, which gives the start of every
+ * instruction. Every function must start at one of them, and every branch must
+ * go to one (or to the end of the code, which stops the VM like exit), so no
+ * instruction ever runs from the middle of another one. The operands of
+ * invoke, gload, gstore, sconst, printsp and printstr must be in range, and
+ * the module must start at the address of a function.
+ * Finally the {@link StackAnalyzer} follows the stack depth through every
+ * function, which checks that the depths agree where paths meet and that
+ * load and store use the locals of their function.
+ * <p>
+ * {@link VeloxLoader} verifies every module it loads and marks it verified (see
+ * {@link VeloxInstructions#isVerified()}), so the VMs created for it do not
+ * verify it again.
+ */
+public class Verifier {
+    private Verifier() {
+    }
+
+    /**
+     * Verifies a module and marks it verified.
+     *
+     * @param module The module.
+     * @throws VeloxVMError If the module is malformed.
+     */
+    public static void verify(VeloxInstructions module) throws VeloxVMError {
+        int[] code = module.getInstructions();
+        FunctionMeta[] metadata = module.getMetadata();
+        verify(code, module.getPoolLength(), metadata);
+        int start = module.getStartIP();
+        for (FunctionMeta function : metadata) {
+            if (function.getAddress() == start) {
+                module.setVerified();
+                return;
+            }
+        }
+        throw new VeloxVMError(String.format("Invalid start address %04d (not the address of a function)", start),
+                null);
+    }
+
+    /**
+     * Verifies the code of a module.
+     *
+     * @param code       The code.
+     * @param poolLength The number of strings in the pool.
+     * @param metadata   The functions.
+     * @throws VeloxVMError If the code is malformed.
+     */
+    static void verify(int[] code, int poolLength, FunctionMeta[] metadata) throws VeloxVMError {
+        if (metadata.length == 0) {
+            throw new VeloxVMError("Invalid module (no functions)", null);
+        }
+
+        boolean[] starts = new boolean[code.length + 1];
+        int ip = 0;
+        while (ip < code.length) {
+            int opcode = code[ip];
+            if (opcode < 0 || opcode >= Opcode.count()) {
+                throw error(ip, "Invalid opcode " + opcode);
+            }
+            int next = ip + 1 + Opcode.get(opcode).getNumOperands();
+            if (next > code.length) {
+                throw error(ip, "Missing operands");
+            }
+            starts[ip] = true;
+            ip = next;
+        }
+        starts[code.length] = true;
+
+        for (ip = 0; ip < code.length; ip += 1 + Opcode.get(code[ip]).getNumOperands()) {
+            int operand = (ip + 1 < code.length) ? code[ip + 1] : 0;
+            switch (code[ip]) {
+                case branch, brancht, branchf -> {
+                    if (operand < 0 || operand > code.length || !starts[operand]) {
+                        throw error(ip, String.format("Branch to %04d, which does not start an instruction",
+                                operand));
+                    }
+                }
+                case invoke -> check(ip, operand, metadata.length, "function");
+                case gload, gstore -> check(ip, operand, VeloxVM.MEMORY_SIZE, "global");
+                case sconst, printsp -> check(ip, operand, poolLength, "pool string");
+                case printstr -> {
+                    if (operand < 0) {
+                        throw error(ip, "Invalid length " + operand);
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        for (FunctionMeta function : metadata) {
+            int address = function.getAddress();
+            if (address < 0 || address >= code.length || !starts[address]) {
+                throw new VeloxVMError(String.format("Invalid address %04d of function \"%s\"", address,
+                        function.getName()), null);
+            }
+            if (function.getNumberOfArgs() < 0 || function.getNumberOfLocals() < 0) {
+                throw new VeloxVMError("Invalid number of locals of function \"" + function.getName() + "\"",
+                        null);
+            }
+        }
+
+        StackAnalyzer.analyze(code, metadata);
+    }
+
+    private static void check(int ip, int index, int count, String kind) throws VeloxVMError {
+        if (index < 0 || index >= count) {
+            throw error(ip, "Invalid " + kind + " " + index);
+        }
+    }
+
+    private static VeloxVMError error(int ip, String message) {
+        return new VeloxVMError(String.format("%s at %04d", message, ip), null);
+    }
+}
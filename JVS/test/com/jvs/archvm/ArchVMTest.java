@@ -0,0 +1,62 @@
+package com.jvs.archvm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * The frame stack of ArchVM, on every engine: calls deeper than its initial
+ * size grow it and return to the right lines, and a return outside of a method
+ * stops the program with the call trace.
+ */
+class ArchVMTest {
+    private static final String ERROR = "\n\n|Error occurred in VM while interpreting file - ";
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void callsDeeperThanTheInitialFrames(Engine engine, @TempDir Path directory) throws IOException {
+        // down recurses 40 times (the frame stack starts with 16 frames), and
+        // every return goes on with the incr after its call.
+        String output = engine.run(directory, """
+                put int, n, 40
+                put int, r, 0
+                call down
+                print "r ", r, "\\n"
+                goto 13
+                funcdec down
+                cmpgt n, 0, $c
+                assert $c, 9, 12
+                decr n
+                call down
+                incr r
+                return
+                print "end\\n"
+                """);
+        assertEquals("r 40\nend\n", output);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void returnAtDepthZero(Engine engine, @TempDir Path directory) throws IOException {
+        String output = engine.run(directory, """
+                call f
+                print "back\\n"
+                return
+                print "not reached\\n"
+                funcdec f
+                return
+                """);
+        assertEquals("back\n"
+                + ERROR + "Return outside of a method.\n"
+                + "File: " + directory.resolve("program.jvse") + "\n"
+                + "Method calls (Most recent call last):\n"
+                + "    Method call: <main>, Line: 1\n"
+                + "    Method call: f, Line: 5\n"
+                + "    Returned to method: <main>, Line: 2\n", output);
+    }
+}
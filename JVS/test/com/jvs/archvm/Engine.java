@@ -0,0 +1,62 @@
+package com.jvs.archvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The engines of ArchVM, running .jvse programs for the tests.
+ */
+enum Engine {
+    SWITCH, THREADED, COMPILED;
+
+    /**
+     * Runs a program.
+     *
+     * @param file The .jvse file.
+     * @return What the program printed, errors included, with \n line endings.
+     */
+    String run(Path file) {
+        return run(file, (Path) null);
+    }
+
+    /**
+     * Runs a program, keeping the classes the compiled engine makes in a cache.
+     *
+     * @param file       The .jvse file.
+     * @param classCache The directory of the cached classes (null for none).
+     * @return What the program printed, errors included, with \n line endings.
+     */
+    String run(Path file, Path classCache) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        // Errors are printed to System.out.
+        System.setOut(new PrintStream(bytes, true, StandardCharsets.UTF_8));
+        try {
+            ArchVM vm = new ArchVM(file.toString());
+            vm.setThreaded(this == THREADED);
+            vm.setCompiled(this == COMPILED);
+            vm.setClassCache(classCache);
+            vm.start();
+        } finally {
+            System.setOut(out);
+        }
+        return bytes.toString(StandardCharsets.UTF_8).replace(System.lineSeparator(), "\n");
+    }
+
+    /**
+     * Writes a program to a file and runs it.
+     *
+     * @param directory The directory of the file.
+     * @param source    The program.
+     * @return What the program printed.
+     */
+    String run(Path directory, String source) throws IOException {
+        Path file = directory.resolve("program.jvse");
+        Files.writeString(file, source);
+        return run(file);
+    }
+}
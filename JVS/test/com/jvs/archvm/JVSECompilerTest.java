@@ -0,0 +1,121 @@
+package com.jvs.archvm;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Sample .jvse programs compiled to JVM classes print what the interpreters
+ * print, compiled on every run or loaded from the class cache.
+ */
+class JVSECompilerTest {
+    record Sample(String name, String source) {
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    static List<Sample> samples() {
+        return List.of(new Sample("loop", """
+                put int, i, 0
+                put int, s, 0
+                cmplt i, 1000, $c
+                assert $c, 5, 8
+                iadd s, i, s
+                incr i
+                goto 3
+                print "s = ", s, "\\n"
+                """), new Sample("fib", """
+                put int, n, 15
+                put int, r, 0
+                call fib
+                print "fib ", r, "\\n"
+                goto 18
+                funcdec fib
+                cmplt n, 2, $c
+                assert $c, 9, 11
+                iadd r, n, r
+                return
+                decr n
+                call fib
+                decr n
+                call fib
+                incr n
+                incr n
+                return
+                """), new Sample("types", """
+                put float, f, 2.5
+                put char, c, a
+                put boolean, b, true
+                put int, i, 0
+                fmul f, 4, f
+                fpow f, 2, $p
+                cast char, int, c, i
+                iadd i, 1, i
+                cast int, char, i, c
+                not b, b
+                cmpgte f, 10, $g
+                print f, " ", $p, " ", c, " ", b, " ", $g, "\\n"
+                imod 17, 5, $m
+                ipow 2, 10, $q
+                print $m, " ", $q, "\\n"
+                """), new Sample("errors", """
+                put int, a, 1
+                print "a ", a, "\\n"
+                iadd a, x, a
+                print "a ", a, "\\n"
+                clrmainl
+                print "a ", a, "\\n"
+                return
+                print "end\\n"
+                """));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("samples")
+    void sameOutputAsTheInterpreters(Sample sample, @TempDir Path directory) throws IOException {
+        Path file = directory.resolve(sample.name() + ".jvse");
+        Files.writeString(file, sample.source());
+        // The compiled engine interprets the programs it cannot compile: make sure it did not.
+        assertDoesNotThrow(() -> JVSECompiler.load(file.toString(), JVSELoader.load(file.toString()), null));
+
+        String compiled = Engine.COMPILED.run(file);
+        assertEquals(Engine.SWITCH.run(file), compiled);
+        assertEquals(Engine.THREADED.run(file), compiled);
+    }
+
+    @Test
+    void knownOutputs(@TempDir Path directory) throws IOException {
+        assertEquals("s = 499500\n", Engine.COMPILED.run(directory, samples().get(0).source()));
+        assertEquals("fib 610\n", Engine.COMPILED.run(directory, samples().get(1).source()));
+    }
+
+    @Test
+    void cachedClass(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("loop.jvse");
+        Files.writeString(file, samples().get(0).source());
+        Path cache = directory.resolve("cache");
+        for (int run = 0; run < 2; run++) {
+            assertEquals(Engine.SWITCH.run(file), Engine.COMPILED.run(file, cache));
+        }
+        // Named after the hash of the source, so a changed source gets another file.
+        Files.writeString(file, samples().get(1).source());
+        assertEquals(Engine.SWITCH.run(file), Engine.COMPILED.run(file, cache));
+        try (var classes = Files.list(cache)) {
+            List<String> names = classes.map(p -> p.getFileName().toString()).toList();
+            assertEquals(2, names.size(), names.toString());
+            assertTrue(names.stream().allMatch(n -> n.matches("JVSEProgram_[0-9a-f]{32}\\.class")), names.toString());
+        }
+    }
+}
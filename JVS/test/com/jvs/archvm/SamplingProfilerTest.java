@@ -0,0 +1,91 @@
+package com.jvs.archvm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.Timeout.ThreadMode;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.jvs.io.OutputSink;
+
+/**
+ * The collapsed stacks the sampling profiler writes for a recursive program:
+ * well-formed, sorted, within the program and adding up to the samples taken.
+ */
+class SamplingProfilerTest {
+    // fib(24) by recursion on the global n, adding the leaves to r (lines 6 to 17 are fib).
+    private static final String FIB = """
+            put int, n, 24
+            put int, r, 0
+            call fib
+            print r, "\\n"
+            goto 18
+            funcdec fib
+            cmplt n, 2, $c
+            assert $c, 9, 11
+            iadd r, n, r
+            return
+            decr n
+            call fib
+            decr n
+            call fib
+            incr n
+            incr n
+            return
+            """;
+    private static final Pattern STACK = Pattern
+            .compile("<main>((?:;fib)*)(?:;(<main>|fib):(\\d+))? (\\d+)");
+
+    @Test
+    @Timeout(value = 60, threadMode = ThreadMode.SEPARATE_THREAD)
+    void collapsedStacks(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("fib.jvse");
+        Files.writeString(file, FIB);
+        SamplingProfiler profiler = new SamplingProfiler(100_000);
+        ArchVM vm = new ArchVM(file.toString());
+        vm.setProfiler(profiler);
+        vm.setOutput(new OutputSink(OutputStream.nullOutputStream(), StandardCharsets.UTF_8, 8192));
+        // Runs until some samples are in fib, however fast the machine.
+        for (int run = 0; run < 100 && profiler.getSampleCount() < 50; run++) {
+            vm.start();
+        }
+
+        StringBuilder collapsed = new StringBuilder();
+        profiler.writeCollapsed(collapsed);
+        List<String> lines = collapsed.toString().lines().toList();
+        long total = 0;
+        boolean inFib = false; // Whether a sample is at a line of fib.
+        for (String line : lines) {
+            Matcher m = STACK.matcher(line);
+            assertTrue(m.matches(), line);
+            int depth = m.group(1).length() / ";fib".length();
+            if (m.group(2) != null) {
+                // The last method again, at its line (or 18, past the end, at exit). The
+                // depth and the line are read one after the other, so the line may be of
+                // another method.
+                int sourceLine = Integer.parseInt(m.group(3));
+                assertEquals((depth == 0) ? "<main>" : "fib", m.group(2), line);
+                assertTrue(sourceLine >= 1 && sourceLine <= 18, line);
+                inFib |= depth > 0 && sourceLine >= 6 && sourceLine <= 17;
+            }
+            total += Long.parseLong(m.group(4));
+        }
+        assertEquals(profiler.getSampleCount(), total);
+        assertTrue(inFib, collapsed.toString());
+        List<String> sorted = new ArrayList<>(lines);
+        sorted.sort(null);
+        assertEquals(sorted, lines);
+    }
+}
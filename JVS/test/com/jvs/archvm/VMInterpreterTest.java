@@ -0,0 +1,132 @@
+package com.jvs.archvm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.Timeout.ThreadMode;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+/**
+ * The results of the instructions whose semantics are easy to change by
+ * accident, on every engine: where cast reads and writes its variables, writes
+ * to an existing temporary variable, int results stored in float variables,
+ * instructions missing operands and jumps to the line of the jump.
+ */
+class VMInterpreterTest {
+    private static final String ERROR = "\n\n|Error occurred in VM while interpreting file - ";
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void writesToTemporaryVariables(Engine engine, @TempDir Path directory) throws IOException {
+        String output = engine.run(directory, """
+                put int, a, 9
+                iadd a, 1, $t
+                print "t ", $t, "\\n"
+                iadd a, 2, $t
+                print "t ", $t, "\\n"
+                fadd 1.5, 1.5, $t
+                print "t ", $t, "\\n"
+                """);
+        assertEquals("t 10\n"
+                + ERROR + "Invalid type for variable $t\n"
+                + "t 10\n"
+                + ERROR + "Invalid type for variable $t\n"
+                + "t 10\n", output);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void cast(Engine engine, @TempDir Path directory) throws IOException {
+        String output = engine.run(directory, """
+                put int, a, 7
+                put float, f, 8.5
+                put char, c, x
+                iadd a, 1, $t
+                cast float, int, f, a
+                print "a ", a, "\\n"
+                cast float, float, f, f
+                print "f ", f, "\\n"
+                cast char, int, c, a
+                print "a ", a, "\\n"
+                cast int, float, $t, f
+                print "f ", f, "\\n"
+                cast int, float, a, $c
+                print "c ", $c, "\\n"
+                cast int, int, $t, $t
+                print "t ", $t, "\\n"
+                cast int, float, a, b
+                cast int, float, b, a
+                print "a ", a, "\\n"
+                """);
+        assertEquals(ERROR + "Variable f not found or invalid type\n"
+                + "a 0\n"
+                + "f 8.5\n"
+                + ERROR + "Variable c not found or invalid type\n"
+                + "a 0\n"
+                + ERROR + "Variable $t not found or invalid type\n"
+                + "f 0.0\n"
+                + "c " + ERROR + "Invalid arguments.\n\n"
+                + "t 8\n"
+                + "a 0\n", output);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void intResultInFloatVariable(Engine engine, @TempDir Path directory) throws IOException {
+        String output = engine.run(directory, """
+                put int, a, 7
+                put float, f, 2.5
+                iadd a, 1, f
+                print "f ", f, "\\n"
+                fadd f, 1.5, a
+                print "a ", a, "\\n"
+                """);
+        assertEquals("f 8.0\na 9\n", output);
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    void missingOperands(Engine engine, @TempDir Path directory) {
+        // The program loads: the instruction only fails when it is run.
+        assertThrows(NoSuchElementException.class, () -> engine.run(directory, """
+                put boolean, b, true
+                goto 4
+                and b
+                print "b ", b, "\\n"
+                goto 3
+                """));
+    }
+
+    @ParameterizedTest
+    @EnumSource(Engine.class)
+    @Timeout(value = 10, threadMode = ThreadMode.SEPARATE_THREAD)
+    void jumpToOwnLineGoesOn(Engine engine, @TempDir Path directory) throws IOException {
+        // The return on line 13 returns to line 13 when the call on line 12
+        // returns; like the goto and the assert, it goes on to the next line.
+        String output = engine.run(directory, """
+                put int, a, 0
+                goto 2
+                incr a
+                assert true, 4, 5
+                call f
+                print "a ", a, "\\n"
+                goto 16
+                funcdec f
+                incr a
+                cmplt a, 4, $c
+                assert $c, 12, 14
+                call f
+                return
+                print "r ", a, "\\n"
+                return
+                """);
+        assertEquals("r 4\nr 4\na 4\n", output);
+    }
+}
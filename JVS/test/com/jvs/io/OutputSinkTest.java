@@ -0,0 +1,86 @@
+package com.jvs.io;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * The text of a sink reaches its stream whole and in order: surrogate pairs
+ * split by the end of the buffer, numbers, and writes to the stream made
+ * between flushes.
+ */
+class OutputSinkTest {
+    private static final int CAPACITY = 32; // The smallest buffer.
+
+    @ParameterizedTest
+    @ValueSource(strings = { "UTF-8", "UTF-16BE" })
+    void surrogatePairsSplitByTheBuffer(String charsetName) {
+        Charset charset = Charset.forName(charsetName);
+        String text = "é😀世"; // A pair between two other non-ASCII chars.
+        for (int offset = 0; offset < CAPACITY + 2; offset++) {
+            String expected = "x".repeat(offset) + text.repeat(10);
+            for (int mode = 0; mode < 3; mode++) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                OutputSink sink = new OutputSink(bytes, charset, CAPACITY);
+                sink.print("x".repeat(offset));
+                for (int i = 0; i < 10; i++) {
+                    switch (mode) {
+                        case 0 -> sink.print(text);
+                        case 1 -> sink.print(text.toCharArray(), 0, text.length());
+                        default -> text.chars().forEach(c -> sink.print((char) c));
+                    }
+                }
+                sink.flush();
+                assertEquals(expected, bytes.toString(charset), "offset " + offset + ", mode " + mode);
+            }
+        }
+    }
+
+    @Test
+    void numbers() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(bytes, StandardCharsets.UTF_8, CAPACITY);
+        long[] values = { 0, 7, -7, 1234567890123L, Long.MAX_VALUE, Long.MIN_VALUE };
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            for (long value : values) {
+                sink.print(value);
+                sink.print(' ');
+                expected.append(value).append(' ');
+            }
+        }
+        sink.print(2.5);
+        sink.print(true);
+        expected.append("2.5true");
+        sink.flush();
+        assertEquals(expected.toString(), bytes.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void flushOrdering() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        OutputSink sink = new OutputSink(bytes, StandardCharsets.UTF_8, CAPACITY);
+        sink.print("program ");
+        assertEquals("", bytes.toString(StandardCharsets.UTF_8), "written before a flush");
+
+        sink.flush();
+        bytes.writeBytes("error ".getBytes(StandardCharsets.UTF_8)); // Like an error message.
+        sink.println("more");
+        String line = "0123456789".repeat(5); // More than the buffer: written as it fills.
+        sink.print(line);
+        String head = "program error more" + System.lineSeparator();
+        String written = bytes.toString(StandardCharsets.UTF_8);
+        assertTrue(written.length() > head.length() && (head + line).startsWith(written), written);
+
+        sink.flush();
+        sink.flush();
+        assertEquals(head + line, bytes.toString(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,426 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+
+import com.jvs.io.OutputSink;
+
+/**
+ * The Velox programs the tests run: hand-written programs covering every
+ * opcode and the sequences the {@link Fuser} replaces, and random
+ * straight-line programs.
+ */
+final class Corpus {
+    private static final String[] POOL = { "pool0 ", "pool1", "Hello", ", ", "world", "abc", "é世", "" };
+    private static final int RANDOM_PROGRAMS = 100;
+
+    private Corpus() {
+    }
+
+    /**
+     * A Velox program, run from its start function with the given arguments.
+     */
+    record Program(String name, int[] code, FunctionMeta[] metadata, int start, long... args) {
+        /**
+         * Writes the program to a .jvelox file.
+         *
+         * @param directory The directory of the file.
+         * @return The file.
+         */
+        Path write(Path directory) throws VeloxVMError {
+            Path file = directory.resolve(name + ".jvelox");
+            new VeloxWriter(file.toString(), code, POOL, POOL.length, metadata, start).write();
+            return file;
+        }
+
+        /** Returns the program as a module, without writing it. */
+        VeloxInstructions module() {
+            return new VeloxInstructions(code.clone(), POOL, POOL.length, copy(metadata), start);
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Runs a program on a new VM.
+     *
+     * @param module The program.
+     * @param args   The arguments of its start function.
+     * @param setup  Sets up the VM before the run.
+     * @return What the program printed, followed by its result or its error.
+     */
+    static String run(VeloxInstructions module, long[] args, Consumer<VeloxVM> setup) throws VeloxVMError {
+        VeloxVM vm = new VeloxVM(module);
+        setup.accept(vm);
+        return run(vm, args);
+    }
+
+    /**
+     * Runs a program on a VM.
+     *
+     * @return What the program printed, followed by its result or its error.
+     */
+    static String run(VeloxVM vm, long... args) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        // A small buffer, so long outputs are written in several parts.
+        vm.setOutput(new OutputSink(bytes, StandardCharsets.UTF_8, 64));
+        String end;
+        try {
+            end = "result " + vm.run(args);
+        } catch (VeloxVMError | ArithmeticException e) {
+            end = "error " + e.getMessage();
+        }
+        return bytes.toString(StandardCharsets.UTF_8) + "\n" + end;
+    }
+
+    static List<Program> programs() {
+        List<Program> programs = new ArrayList<>();
+        programs.add(loop());
+        programs.add(fib(26, 15));
+        programs.add(new Program("fibArgs", fib(26, 0).code(), fib(26, 0).metadata(), 0, 20));
+        programs.add(arguments());
+        programs.add(misc());
+        programs.add(exitInCallee());
+        programs.add(squares());
+        programs.add(comparisons());
+        programs.add(floats());
+        programs.add(strings());
+        programs.add(stringIndexError());
+        programs.add(recursiveSum());
+        programs.add(globals());
+        programs.add(divisionByZero());
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_PROGRAMS; i++) {
+            int[] body = randomCode(random);
+            programs.add(new Program("random" + i, body, functions(new FunctionMeta("main", 0, 4, 0)), 0));
+            // The same code as a function called three times.
+            body[body.length - 1] = ret;
+            int main = body.length;
+            int[] code = concat(body, new int[] { invoke, 1, invoke, 1, invoke, 1, exit });
+            programs.add(new Program("randomFunction" + i, code,
+                    functions(new FunctionMeta("main", 0, 0, main), new FunctionMeta("body", 0, 4, 0)), main));
+        }
+        return programs;
+    }
+
+    /** Adds the numbers 0 to 999 (locals: 0 = i, 1 = s) and returns the sum. */
+    private static Program loop() {
+        int[] code = {
+                iconst, 0, store, 0, // 0: i = 0
+                iconst, 0, store, 1, // 4: s = 0
+                load, 0, iconst, 1000, icmpl, branchf, 31, // 8: while (i < 1000)
+                load, 1, load, 0, iadd, store, 1, // 15: s = s + i
+                load, 0, iconst, 1, iadd, store, 0, // 22: i = i + 1
+                branch, 8, // 29
+                load, 1, print, jumpnext, // 31: println(s)
+                load, 1, exit // 35
+        };
+        return new Program("loop", code, functions(new FunctionMeta("main", 0, 2, 0)), 0);
+    }
+
+    /** The recursive fibonacci function, and a main printing fib(n). */
+    private static Program fib(int main, int n) {
+        int[] code = {
+                load, 0, iconst, 2, icmpl, branchf, 10, // 0: if (n < 2)
+                load, 0, ret, // 7: return n
+                load, 0, iconst, 1, isub, invoke, 1, // 10: fib(n - 1)
+                load, 0, iconst, 2, isub, invoke, 1, // 17: fib(n - 2)
+                iadd, ret, // 24
+                iconst, n, invoke, 1, dup, print, jumpnext, exit // 26: main
+        };
+        return new Program("fib", code, functions(new FunctionMeta("main", 0, 0, main), new FunctionMeta("fib", 1, 0, 0)),
+                main);
+    }
+
+    /** f(a, b, c) = a * 100 + b * 10 + c and g() = 7, called with values left below them. */
+    private static Program arguments() {
+        int[] code = {
+                load, 0, iconst, 100, imul, load, 1, iconst, 10, imul, iadd, load, 2, iadd, ret, // 0: f
+                iconst, 7, ret, // 15: g
+                iconst, 5, iconst, 1, iconst, 2, iconst, 3, invoke, 1, invoke, 2, iadd, // 18: main
+                print, jumpnext, print, jumpnext, exit
+        };
+        return new Program("arguments", code, functions(new FunctionMeta("main", 0, 0, 18),
+                new FunctionMeta("f", 3, 1, 0), new FunctionMeta("g", 0, 0, 15)), 18);
+    }
+
+    private static Program misc() {
+        int[] code = {
+                printsp, 0, iconst, 104, iconst, 105, printstr, 2, jumpnext, // 0
+                iconst, 42, gstore, 3, gload, 3, dup, iadd, print, jumpnext, // 9
+                iconst, 1, iconst, 0, xor, iconst, 1, and, iconst, 0, or, not, print, jumpnext, // 19
+                iconst8, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0x7f, print, jumpnext, // 33
+                iconst, 3, iconst, 3, icmpe, brancht, 56, printsp, 1, iconst, 9, pop, // 44
+                iconst, -17, iconst, 5, imod, print, jumpnext, // 56
+                iconst, -17, iconst, 5, idiv, print, jumpnext, exit // 63
+        };
+        return new Program("misc", code, functions(new FunctionMeta("main", 0, 0, 0)), 0);
+    }
+
+    /** f(10) calls g(i) for i = 0 to 9, and g(3) exits. */
+    private static Program exitInCallee() {
+        int[] code = {
+                load, 0, iconst, 3, icmpe, branchf, 8, exit, // 0: g
+                load, 0, print, jumpnext, ret, // 8
+                iconst, 0, store, 1, // 13: f
+                load, 1, load, 0, icmpl, branchf, 37, // 17
+                load, 1, invoke, 1, // 24
+                load, 1, iconst, 1, iadd, store, 1, // 28
+                branch, 17, // 35
+                ret, // 37
+                iconst, 10, invoke, 2, printsp, 1, exit // 38: main
+        };
+        return new Program("exitInCallee", code, functions(new FunctionMeta("main", 0, 0, 38),
+                new FunctionMeta("g", 1, 0, 0), new FunctionMeta("f", 1, 1, 13)), 38);
+    }
+
+    /** sum(n) adds the squares below n and counts its calls in global 0. */
+    private static Program squares() {
+        int[] code = {
+                iconst, 0, store, 1, iconst, 0, store, 2, // 0: sum
+                load, 2, load, 0, icmpl, branchf, 34, // 8: while (i < n)
+                load, 1, load, 2, load, 2, imul, iadd, store, 1, // 15: s = s + i * i
+                load, 2, iconst, 1, iadd, store, 2, // 25: i = i + 1
+                branch, 8, // 32
+                gload, 0, iconst, 1, iadd, gstore, 0, load, 1, ret, // 34
+                iconst, 2000, invoke, 1, print, jumpnext, // 44: main
+                iconst, 2000, invoke, 1, print, jumpnext, gload, 0, print, exit
+        };
+        return new Program("squares", code, functions(new FunctionMeta("main", 0, 0, 44),
+                new FunctionMeta("sum", 1, 2, 0)), 44);
+    }
+
+    /**
+     * A counting loop for every comparison, as fused into the if_icmp*_lc_f
+     * superinstructions, then the same loops tested at the bottom with branchf
+     * and brancht.
+     */
+    private static Program comparisons() {
+        int[][] loops = {
+                { icmpl, 0, 5, 1 }, { icmple, 0, 5, 1 }, { icmpg, 5, 0, -1 },
+                { icmpge, 5, 0, -1 }, { icmpne, 0, 5, 1 }, { icmpe, 0, 0, 1 }
+        };
+        List<int[]> parts = new ArrayList<>();
+        List<FunctionMeta> functions = new ArrayList<>();
+        functions.add(null); // main, added last
+        int address = 0;
+        for (int[] loop : loops) {
+            functions.add(new FunctionMeta(Opcode.get(loop[0]).getName(), 0, 1, address));
+            parts.add(new int[] {
+                    iconst, loop[1], store, 0, // 0: i = from
+                    load, 0, iconst, loop[2], loop[0], branchf, address + 24, // 4: while (i cmp to)
+                    load, 0, print, jumpnext, // 11: println(i)
+                    load, 0, iconst, loop[3], iadd, store, 0, // 15: i = i + step
+                    branch, address + 4, // 22
+                    ret // 24
+            });
+            address += 25;
+        }
+        functions.add(new FunctionMeta("bottomF", 0, 1, address));
+        parts.add(new int[] {
+                iconst, 0, store, 0, // 0: i = 0
+                load, 0, print, jumpnext, // 4: do println(i)
+                load, 0, iconst, 1, iadd, store, 0, // 8: i = i + 1
+                load, 0, iconst, 3, icmpge, branchf, address + 4, // 15: while (!(i >= 3))
+                ret // 22
+        });
+        address += 23;
+        functions.add(new FunctionMeta("bottomT", 0, 1, address));
+        parts.add(new int[] {
+                iconst, 0, store, 0, // 0: i = 0
+                load, 0, print, jumpnext, // 4: do println(i)
+                load, 0, iconst, 1, iadd, store, 0, // 8: i = i + 1
+                load, 0, iconst, 3, icmpl, brancht, address + 4, // 15: while (i < 3)
+                ret // 22
+        });
+        address += 23;
+        functions.set(0, new FunctionMeta("main", 0, 0, address));
+        int[] main = new int[2 * (functions.size() - 1) + 1];
+        for (int i = 1; i < functions.size(); i++) {
+            main[2 * i - 2] = invoke;
+            main[2 * i - 1] = i;
+        }
+        main[main.length - 1] = exit;
+        parts.add(main);
+        return new Program("comparisons", concat(parts.toArray(new int[0][])),
+                functions.toArray(new FunctionMeta[0]), address);
+    }
+
+    private static Program floats() {
+        List<int[]> parts = new ArrayList<>();
+        for (int operation : new int[] { fadd, fsub, fmul, fdiv, fmod }) {
+            parts.add(fconst(1.5));
+            parts.add(fconst(2.25));
+            parts.add(new int[] { operation, fprint, jumpnext });
+        }
+        for (int comparison : new int[] { fcmpe, fcmpl, fcmple, fcmpg, fcmpge, fcmpne }) {
+            parts.add(fconst(1.5));
+            parts.add(fconst(2.25));
+            parts.add(new int[] { comparison, print, jumpnext });
+        }
+        parts.add(new int[] { iconst, 7, i2f });
+        parts.add(fconst(0.5));
+        parts.add(new int[] { fmul, fprint, jumpnext });
+        parts.add(fconst(-7.9));
+        parts.add(new int[] { f2i, print, jumpnext });
+        parts.add(fconst(1.0));
+        parts.add(fconst(0.0));
+        parts.add(new int[] { fdiv, fprint, jumpnext });
+        parts.add(fconst(2.5));
+        parts.add(new int[] { exit });
+        return new Program("floats", concat(parts.toArray(new int[0][])),
+                functions(new FunctionMeta("main", 0, 0, 0)), 0);
+    }
+
+    private static Program strings() {
+        int[] code = {
+                sconst, 2, sconst, 3, sconcat, sconst, 4, sconcat, dup, sprint, jumpnext, // "Hello, world"
+                slen, print, jumpnext,
+                sconst, 5, iconst, 1, scharat, print, jumpnext,
+                sconst, 2, sconst, 4, scmp, print, sconst, 4, sconst, 2, scmp, print,
+                sconst, 5, sconst, 5, scmp, print, jumpnext,
+                sconst, 6, sprint, printsp, 6, jumpnext, flush,
+                sconst, 7, sconst, 5, sconcat, sconst, 5, sconcat, sconst, 6, sconcat, dup, sprint, jumpnext,
+                slen, print, jumpnext,
+                sconst, 4, exit
+        };
+        return new Program("strings", code, functions(new FunctionMeta("main", 0, 0, 0)), 0);
+    }
+
+    private static Program stringIndexError() {
+        int[] code = { printsp, 2, jumpnext, sconst, 5, iconst, 7, scharat, print, exit };
+        return new Program("stringIndexError", code, functions(new FunctionMeta("main", 0, 0, 0)), 0);
+    }
+
+    /**
+     * sum(n) = (n == 0) ? 0 : n + sum(n - 1) for n = 3000, which grows the frame
+     * stack and the operand stack.
+     */
+    private static Program recursiveSum() {
+        int[] code = {
+                load, 0, iconst, 0, icmpe, branchf, 10, // 0: if (n == 0)
+                iconst, 0, ret, // 7: return 0
+                load, 0, load, 0, iconst, 1, isub, invoke, 1, iadd, ret, // 10: return n + sum(n - 1)
+                iconst, 3000, invoke, 1, dup, print, jumpnext, exit // 21: main
+        };
+        return new Program("recursiveSum", code, functions(new FunctionMeta("main", 0, 0, 21),
+                new FunctionMeta("sum", 1, 0, 0)), 21);
+    }
+
+    private static Program globals() {
+        List<int[]> parts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            parts.add(new int[] { iconst, i * i + 1, gstore, i });
+        }
+        parts.add(new int[] { iconst, 0 });
+        for (int i = 9; i >= 0; i--) {
+            parts.add(new int[] { gload, i, iadd });
+        }
+        parts.add(new int[] { dup, print, jumpnext, exit });
+        return new Program("globals", concat(parts.toArray(new int[0][])),
+                functions(new FunctionMeta("main", 0, 0, 0)), 0);
+    }
+
+    private static Program divisionByZero() {
+        int[] code = { iconst, 1, print, jumpnext, iconst, 1, iconst, 0, idiv, print, exit };
+        return new Program("divisionByZero", code, functions(new FunctionMeta("main", 0, 0, 0)), 0);
+    }
+
+    /** A straight-line program using locals 0 to 3 and globals 0 to 7, ending with exit. */
+    private static int[] randomCode(Random random) {
+        int[] binary = { iadd, isub, imul, icmpe, icmpl, icmple, icmpg, icmpge, icmpne, and, or, xor };
+        List<Integer> code = new ArrayList<>();
+        int depth = 0;
+        for (int i = 0; i < 60; i++) {
+            int choice = random.nextInt(8);
+            if (depth < 2 || choice == 0) {
+                switch (random.nextInt(4)) {
+                    case 0 -> add(code, iconst, random.nextInt(21) - 10);
+                    case 1 -> add(code, load, random.nextInt(4));
+                    case 2 -> add(code, gload, random.nextInt(8));
+                    default -> {
+                        long value = random.nextLong();
+                        for (int word : immediate(iconst8, value)) {
+                            code.add(word);
+                        }
+                    }
+                }
+                depth++;
+            } else if (choice == 1) {
+                add(code, (random.nextBoolean()) ? store : gstore, random.nextInt(4));
+                depth--;
+            } else if (choice == 2) {
+                add(code, dup);
+                depth++;
+            } else if (choice == 3) {
+                add(code, print, jumpnext);
+                depth--;
+            } else if (choice == 4) {
+                add(code, (random.nextBoolean()) ? pop : not);
+                depth -= (code.get(code.size() - 1) == pop) ? 1 : 0;
+            } else {
+                add(code, binary[random.nextInt(binary.length)]);
+                depth--;
+            }
+        }
+        while (depth-- > 0) {
+            add(code, print, jumpnext);
+        }
+        add(code, exit);
+        return code.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static void add(List<Integer> code, int... words) {
+        for (int word : words) {
+            code.add(word);
+        }
+    }
+
+    private static int[] fconst(double value) {
+        return immediate(fconst, Double.doubleToRawLongBits(value));
+    }
+
+    /** An iconst8 or fconst with its 8 little-endian byte operands. */
+    private static int[] immediate(int opcode, long value) {
+        int[] words = new int[9];
+        words[0] = opcode;
+        for (int i = 0; i < 8; i++) {
+            words[i + 1] = (int) (value >>> (8 * i)) & 0xFF;
+        }
+        return words;
+    }
+
+    static int[] concat(int[]... parts) {
+        int[] code = new int[0];
+        for (int[] part : parts) {
+            int length = code.length;
+            code = Arrays.copyOf(code, length + part.length);
+            System.arraycopy(part, 0, code, length, part.length);
+        }
+        return code;
+    }
+
+    private static FunctionMeta[] functions(FunctionMeta... functions) {
+        return functions;
+    }
+
+    private static FunctionMeta[] copy(FunctionMeta[] functions) {
+        FunctionMeta[] copy = new FunctionMeta[functions.length];
+        for (int i = 0; i < functions.length; i++) {
+            FunctionMeta f = functions[i];
+            copy[i] = new FunctionMeta(f.getName(), f.getNumberOfArgs(), f.getNumberOfLocals(), f.getAddress());
+        }
+        return copy;
+    }
+}
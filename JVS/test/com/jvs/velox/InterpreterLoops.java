@@ -0,0 +1,133 @@
+package com.jvs.velox;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Generates the copies of the interpreter loop of {@link VeloxVM} from the one
+ * written by hand, interpret():
+ * <ul>
+ * <li>interpretObserved() is interpret() without the JIT hooks (traced and
+ * profiled runs never compile) and with a call to observe after every
+ * instruction;</li>
+ * <li>in cpuCached(), the cases which do not use the operand stack are the ones
+ * of interpret() without the JIT hooks (stack-caching runs never compile
+ * either). The other cases keep the top of the stack in tos and are written
+ * by hand.</li>
+ * </ul>
+ * After a change to interpret(), run from the JVS directory (after
+ * {@code mvn test-compile}):
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes com.jvs.velox.InterpreterLoops
+ * </pre>
+ *
+ * {@link InterpreterLoopsTest} fails while the generated code is out of date.
+ */
+final class InterpreterLoops {
+    static final Path SOURCE = Path.of("src/com/jvs/velox/VeloxVM.java");
+
+    private static final String CASE_INDENT = " ".repeat(16);
+    private static final Pattern CASE = Pattern.compile("(?m)^" + CASE_INDENT + "(?:case (.+?)|default) -> .*$");
+    private static final Pattern BACK_EDGE = Pattern
+            .compile("(?m)^( *)if \\([^\\n]*jit != null\\) \\{\\n\\1    backEdge\\(\\w+\\);\\n\\1\\}\\n");
+    private static final Pattern COMPILED_INVOKE = Pattern.compile("(?s)( *)CompiledFunction compiledFunction = "
+            + "\\(jit != null\\) \\? jit\\.invoked\\(funcIndex\\) : null;\\n"
+            + "\\1if \\(compiledFunction != null\\) \\{\\n"
+            + "\\1    invokeCompiled\\(compiledFunction, function\\);\\n"
+            + "\\1\\} else \\{\\n(.*?\\n)\\1\\}\\n");
+    private static final Pattern NESTED_RETURN = Pattern
+            .compile("(?m)^( *)if \\(frameTop == returnFrameTop\\) \\{\\n[^\\n]*\\n\\1\\}\\n");
+    private static final Pattern OPERAND_STACK = Pattern.compile("\\b(stack|sp)\\b");
+    private static final String LOOP_END = "            }\n        }\n    }\n";
+
+    private InterpreterLoops() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        String source = Files.readString(SOURCE);
+        String generated = generate(source);
+        if (!generated.equals(source)) {
+            Files.writeString(SOURCE, generated);
+            System.out.println("Generated the loops in " + SOURCE);
+        }
+    }
+
+    /**
+     * Returns the source of VeloxVM with its generated loops made again from
+     * interpret().
+     */
+    static String generate(String source) {
+        String plain = method(source, "interpret");
+        String withoutJit = withoutJit(plain);
+
+        String observed = withoutJit.replace("void interpret()", "void interpretObserved()");
+        if (!observed.endsWith(LOOP_END)) {
+            throw new IllegalStateException("Unexpected end of the loop of interpret()");
+        }
+        observed = observed.substring(0, observed.length() - LOOP_END.length())
+                + "            }\n            observe(opcode);\n        }\n    }\n";
+        source = source.replace(method(source, "interpretObserved"), observed);
+
+        Map<String, String> plainCases = cases(withoutJit);
+        String cached = method(source, "cpuCached");
+        String generated = cached;
+        for (Map.Entry<String, String> c : cases(cached).entrySet()) {
+            String plainCase = plainCases.get(c.getKey());
+            if (plainCase != null && !OPERAND_STACK.matcher(plainCase).find()) {
+                generated = generated.replace(c.getValue(), plainCase);
+            }
+        }
+        return source.replace(cached, generated);
+    }
+
+    /** Returns a method of VeloxVM, from its signature to its closing brace. */
+    private static String method(String source, String name) {
+        String signature = "    private void " + name + "() throws VeloxVMError {\n";
+        int start = source.indexOf(signature);
+        if (start < 0) {
+            throw new IllegalStateException("No method " + name + "()");
+        }
+        int end = source.indexOf("\n    }\n", start) + "\n    }\n".length();
+        return source.substring(start, end);
+    }
+
+    /** Returns the cases of the switch of a loop, by their labels. */
+    private static Map<String, String> cases(String loop) {
+        Map<String, String> cases = new LinkedHashMap<>();
+        Matcher m = CASE.matcher(loop);
+        while (m.find()) {
+            int end;
+            if (m.group().endsWith("{")) {
+                end = loop.indexOf("\n" + CASE_INDENT + "}\n", m.end()) + CASE_INDENT.length() + 3;
+            } else {
+                end = loop.indexOf(";\n", m.end() - 1) + 2; // A statement, maybe on several lines.
+            }
+            cases.put((m.group(1) != null) ? m.group(1) : "default", loop.substring(m.start(), end));
+        }
+        return cases;
+    }
+
+    /**
+     * Removes the JIT hooks from the code of interpret(): the back-edge counts,
+     * the calls of compiled functions and the returns to compiled code.
+     */
+    private static String withoutJit(String code) {
+        code = BACK_EDGE.matcher(code).replaceAll("");
+        Matcher invoke = COMPILED_INVOKE.matcher(code);
+        if (invoke.find()) {
+            String body = invoke.group(2).replaceAll("(?m)^    ", "");
+            code = code.substring(0, invoke.start()) + body + code.substring(invoke.end());
+        }
+        code = NESTED_RETURN.matcher(code).replaceAll("");
+        if (code.contains("jit") || code.contains("returnFrameTop")) {
+            throw new IllegalStateException("A JIT hook of interpret() is not removed by InterpreterLoops");
+        }
+        return code;
+    }
+}
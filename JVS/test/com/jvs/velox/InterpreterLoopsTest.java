@@ -0,0 +1,22 @@
+package com.jvs.velox;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The loops of VeloxVM generated from interpret() (see
+ * {@link InterpreterLoops}) are up to date.
+ */
+class InterpreterLoopsTest {
+    @Test
+    void generatedLoopsAreUpToDate() throws IOException {
+        String source = Files.readString(InterpreterLoops.SOURCE);
+        // Not assertEquals, which would print the whole file.
+        assertTrue(InterpreterLoops.generate(source).equals(source),
+                "The loops generated from interpret() are out of date: run InterpreterLoops");
+    }
+}
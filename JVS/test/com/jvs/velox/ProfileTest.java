@@ -0,0 +1,36 @@
+package com.jvs.velox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.jvs.io.OutputSink;
+
+/**
+ * A profiled run only prints what the program prints, and the profile is
+ * printed to the output of the VM when it is asked for.
+ */
+class ProfileTest {
+    @Test
+    void printedOnlyWhenAsked() throws VeloxVMError {
+        Corpus.Program loop = Corpus.programs().get(0);
+        VeloxVM vm = new VeloxVM(loop.module());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        vm.setOutput(new OutputSink(bytes, StandardCharsets.UTF_8, 64));
+        vm.setProfiling(true);
+
+        assertEquals(499500, vm.run());
+        String printed = "499500" + System.lineSeparator();
+        assertEquals(printed, bytes.toString(StandardCharsets.UTF_8));
+
+        vm.printProfile();
+        String profile = bytes.toString(StandardCharsets.UTF_8).substring(printed.length());
+        assertTrue(profile.contains("PROFILE"), profile);
+        assertTrue(profile.contains(vm.getProfile().formatTable()), profile);
+        assertEquals(1, vm.getProfile().getInvocations(0));
+    }
+}
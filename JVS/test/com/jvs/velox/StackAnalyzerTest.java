@@ -0,0 +1,58 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The stack usage the {@link StackAnalyzer} gives functions: the deepest of
+ * all paths through their branches, with the arguments and results of the
+ * functions they invoke, recursive ones included.
+ */
+class StackAnalyzerTest {
+    @Test
+    void deepestBranch() throws VeloxVMError {
+        FunctionMeta main = new FunctionMeta("main", 0, 0, 0);
+        StackAnalyzer.analyze(new int[] {
+                iconst, 1, branchf, 13, // 0000
+                iconst, 1, iconst, 2, iconst, 3, iadd, iadd, print, // 0004: 3 values, only on this path
+                iconst, 4, print, exit, // 0013: both paths meet with an empty stack
+        }, new FunctionMeta[] { main });
+        assertEquals(3, main.getMaxStack());
+        assertEquals(0, main.getNumberOfResults());
+    }
+
+    @Test
+    void invokedFunctions() throws VeloxVMError {
+        // add pops its 2 arguments and pushes its result, and its own stack starts empty.
+        FunctionMeta main = new FunctionMeta("main", 0, 0, 0);
+        FunctionMeta add = new FunctionMeta("add", 2, 0, 11);
+        StackAnalyzer.analyze(new int[] {
+                iconst, 1, iconst, 5, iconst, 6, invoke, 1, iadd, print, // 0000: 3 values, then 2
+                exit,
+                load, 0, load, 1, iadd, ret, // 0011: add(a, b)
+        }, new FunctionMeta[] { main, add });
+        assertEquals(3, main.getMaxStack());
+        assertEquals(0, main.getNumberOfResults());
+        assertEquals(2, add.getMaxStack());
+        assertEquals(1, add.getNumberOfResults());
+    }
+
+    @Test
+    void recursiveFunction() throws VeloxVMError {
+        // sum(n) = (n == 0) ? 0 : sum(n - 1) + n: the results of sum are only known
+        // from the path which does not invoke it.
+        FunctionMeta main = new FunctionMeta("main", 0, 0, 0);
+        FunctionMeta sum = new FunctionMeta("sum", 1, 0, 6);
+        StackAnalyzer.analyze(new int[] {
+                iconst, 10, invoke, 1, print, exit, // 0000
+                load, 0, branchf, 21, // 0006: sum(n)
+                load, 0, iconst, 1, isub, invoke, 1, load, 0, iadd, ret, // 0010: 2 values at most
+                iconst, 0, ret, // 0021
+        }, new FunctionMeta[] { main, sum });
+        assertEquals(1, main.getMaxStack());
+        assertEquals(2, sum.getMaxStack());
+        assertEquals(1, sum.getNumberOfResults());
+    }
+}
@@ -0,0 +1,58 @@
+package com.jvs.velox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs the {@link Corpus} with the plain interpreter and the stack-caching one
+ * (see {@link VeloxVM#setStackCaching(boolean)}), with and without
+ * superinstructions: both must print the same output and end with the same
+ * result or error. The programs are written to .jvelox files and loaded back,
+ * like the programs the VM runs.
+ */
+class StackCachingTest {
+    static List<Corpus.Program> programs() {
+        return Corpus.programs();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("programs")
+    void sameOutputAndResult(Corpus.Program program, @TempDir Path directory) throws VeloxVMError {
+        VeloxInstructions module = VeloxLoader.load(program.write(directory).toString());
+        for (boolean fusion : new boolean[] { false, true }) {
+            String plain = Corpus.run(module, program.args(), vm -> vm.setFusion(fusion));
+            String cached = Corpus.run(module, program.args(), vm -> {
+                vm.setFusion(fusion);
+                vm.setStackCaching(true);
+            });
+            assertEquals(plain, cached, (fusion) ? "with superinstructions" : "without superinstructions");
+        }
+    }
+
+    @Test
+    void corpusOutput() throws VeloxVMError {
+        // A few known outputs, so that the corpus does not just agree on nothing.
+        assertEquals("499500\n\nresult 499500", run("loop"));
+        assertEquals("610\n\nresult 610", run("fib"));
+        assertEquals("\nresult 6765", run("fibArgs"));
+        assertEquals("Hello, world\n12\n98\n-110\né世é世\nabcabcé世\n8\n\nresult 4", run("strings"));
+        assertEquals("Hello\n\nerror String index out of range: 7 (length 3)", run("stringIndexError"));
+    }
+
+    private static String run(String name) throws VeloxVMError {
+        for (Corpus.Program program : Corpus.programs()) {
+            if (program.name().equals(name)) {
+                return Corpus.run(program.module(), program.args(), vm -> vm.setStackCaching(true))
+                        .replace(System.lineSeparator(), "\n");
+            }
+        }
+        throw new IllegalArgumentException(name);
+    }
+}
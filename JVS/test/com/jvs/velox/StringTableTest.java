@@ -0,0 +1,81 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The string table: the strings made at run time are freed once no slot
+ * references them, and their number is capped.
+ */
+class StringTableTest {
+    private static final String[] POOL = { "Hello", ", ", "world", "abc" };
+
+    @Test
+    void sweepFreesUnmarkedStrings() throws VeloxVMError {
+        StringTable table = new StringTable(POOL, POOL.length);
+        long kept = table.add("kept");
+        long dropped = table.add("dropped");
+        assertEquals(POOL.length, kept);
+        assertEquals("Hello", table.get(0));
+
+        table.mark(new long[] { 1, kept, -1 }, 3);
+        table.sweep();
+        assertEquals("kept", table.get(kept));
+        assertEquals("Hello", table.get(0));
+        assertThrows(VeloxVMError.class, () -> table.get(dropped));
+        assertEquals(dropped, table.add("reused"));
+        assertEquals("reused", table.get(dropped));
+    }
+
+    @Test
+    void fullAfterThresholdAndCapped() throws VeloxVMError {
+        StringTable table = new StringTable(POOL, POOL.length);
+        table.setMaxStrings(2000);
+        for (int i = 0; i < 1024; i++) {
+            assertFalse(table.isFull());
+            table.add("s" + i);
+        }
+        assertTrue(table.isFull());
+        table.sweep();
+        assertFalse(table.isFull());
+        for (int i = 0; i < 2000; i++) {
+            table.add("t" + i);
+        }
+        VeloxVMError e = assertThrows(VeloxVMError.class, () -> table.add("one too many"));
+        assertEquals("String table full: 2000 strings made at run time are in use", e.getMessage());
+    }
+
+    @Test
+    void loopMakingStringsKeepsTheReferencedOnes() throws VeloxVMError {
+        // Makes 100000 strings it drops, with fewer allowed at once, and prints
+        // the ones made before the loop (locals: 0 = i, 1 = s, 2 = t).
+        int[] code = {
+                sconst, 0, sconst, 1, sconcat, gstore, 0, // 0: g0 = "Hello, "
+                sconst, 2, sconst, 3, sconcat, store, 1, // 7: s = "worldabc"
+                iconst, 0, store, 0, // 14: i = 0
+                load, 0, iconst, 100000, icmpl, branchf, 41, // 18: while (i < 100000)
+                sconst, 3, sconst, 1, sconcat, store, 2, // 25: t = "abc, "
+                load, 0, iconst, 1, iadd, store, 0, // 32: i = i + 1
+                branch, 18, // 39
+                gload, 0, load, 1, sconcat, sprint, jumpnext, // 41: println(g0 + s)
+                load, 2, slen, exit // 48
+        };
+        VeloxInstructions module = new VeloxInstructions(code, POOL, POOL.length,
+                new FunctionMeta[] { new FunctionMeta("main", 0, 3, 0) }, 0);
+        for (boolean fusion : new boolean[] { false, true }) {
+            for (boolean stackCaching : new boolean[] { false, true }) {
+                String output = Corpus.run(module, new long[0], vm -> {
+                    vm.setMaxStrings(100);
+                    vm.setFusion(fusion);
+                    vm.setStackCaching(stackCaching);
+                });
+                assertEquals("Hello, worldabc\n\nresult 5", output.replace(System.lineSeparator(), "\n"));
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.jvs.velox;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The sizes of the trace buffer are checked before it is allocated, and the
+ * smallest buffer keeps the last instruction.
+ */
+class TraceBufferTest {
+    @Test
+    void invalidSizesAreRejected() throws VeloxVMError {
+        VeloxVM vm = new VeloxVM(new int[] { Opcode.exit }, new String[0], 0,
+                new FunctionMeta[] { new FunctionMeta("main", 0, 0, 0) });
+        for (int size : new int[] { 0, -1, (1 << 24) + 1 }) {
+            assertThrows(IllegalArgumentException.class, () -> vm.setTraceBufferSize(size));
+        }
+        for (int words : new int[] { 0, -1, 257 }) {
+            assertThrows(IllegalArgumentException.class, () -> vm.setTraceStackWords(words));
+        }
+        vm.setTraceBufferSize(1 << 24);
+        vm.setTraceStackWords(256);
+        assertThrows(IllegalArgumentException.class, () -> new TraceBuffer(1 << 24, 256));
+        assertThrows(IllegalArgumentException.class, () -> new TraceBuffer(0, 8));
+    }
+
+    @Test
+    void oneEntryKeepsTheLastInstruction() {
+        TraceBuffer buffer = new TraceBuffer(1, 2);
+        long[] stack = { 5, 6, 7 };
+        byte[] types = new byte[3];
+        buffer.record(0, Opcode.iconst, 0, stack, types);
+        buffer.record(2, Opcode.iconst, 2, stack, types);
+        assertEquals(2, buffer.count());
+        assertEquals(1, buffer.size());
+        assertEquals(2, buffer.ip(0));
+        assertEquals(2, buffer.sp(0));
+        assertEquals(7, buffer.word(0, 0));
+        assertEquals(6, buffer.word(0, 1));
+    }
+}
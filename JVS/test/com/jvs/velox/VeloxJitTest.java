@@ -0,0 +1,114 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * The JIT: the {@link Corpus} compiled as early as possible gives the results
+ * of the interpreter, loops are compiled for each function reaching them, and
+ * compiled code calls back into the interpreter (see
+ * {@link VeloxVM#compiledCall}).
+ */
+class VeloxJitTest {
+    private static final int G_ARGS = 128; // More than a JVM method takes, so g is not compiled.
+
+    /**
+     * Runs main(n), where f(n) and k(n) both return g(0, ..., 0, n) = 10 / n. f is
+     * compiled at its first call and runs g in a nested interpreter run; k also
+     * returns 1 (two results), so it is not compiled either.
+     */
+    private static VeloxVM vm() throws VeloxVMError {
+        int[] zeros = IntStream.range(0, 2 * (G_ARGS - 1)).map(i -> (i % 2 == 0) ? iconst : 0).toArray();
+        int g = 0;
+        int f = g + 6;
+        int k = f + zeros.length + 5;
+        int main = k + zeros.length + 7;
+        int[] code = Corpus.concat(
+                new int[] { iconst, 10, load, G_ARGS - 1, idiv, ret },
+                zeros, new int[] { load, 0, invoke, 2, ret },
+                zeros, new int[] { load, 0, invoke, 2, iconst, 1, ret },
+                new int[] { load, 0, invoke, 1, print, jumpnext, iconst, 5, invoke, 3, iadd, print, jumpnext, exit });
+        VeloxVM vm = new VeloxVM(new VeloxInstructions(code, new String[0], 0,
+                new FunctionMeta[] { new FunctionMeta("main", 1, 0, main), new FunctionMeta("f", 1, 0, f),
+                        new FunctionMeta("g", G_ARGS, 0, g), new FunctionMeta("k", 1, 0, k) },
+                main));
+        vm.setJit(true);
+        vm.setJitThreshold(1);
+        return vm;
+    }
+
+    static List<Corpus.Program> programs() {
+        return Corpus.programs();
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("programs")
+    void sameOutputAndResult(Corpus.Program program) throws VeloxVMError {
+        for (boolean fusion : new boolean[] { false, true }) {
+            // Every function is compiled at its first call, every loop (the fused
+            // ones too) at its first backward branch.
+            String compiled = Corpus.run(program.module(), program.args(), vm -> {
+                vm.setFusion(fusion);
+                vm.setJit(true);
+                vm.setJitThreshold(1);
+            });
+            assertEquals(Corpus.run(program.module(), program.args(), vm -> {
+            }), compiled, (fusion) ? "with superinstructions" : "without superinstructions");
+        }
+    }
+
+    @Test
+    void loopWithSuperinstructionCompiled() throws VeloxVMError {
+        // The loop of bottomF ends with a backward if_icmpge_lc_f.
+        Corpus.Program program = Corpus.programs().stream().filter(p -> p.name().equals("comparisons")).findFirst()
+                .orElseThrow();
+        assertEquals("bottomF", program.metadata()[7].getName());
+        int header = program.metadata()[7].getAddress() + 4;
+        VeloxVM vm = new VeloxVM(program.module());
+        vm.setFusion(true);
+        vm.setJit(true);
+        vm.setJitThreshold(2); // Its first call is interpreted, the branch at its end compiles the loop.
+        Corpus.run(vm);
+        assertTrue(vm.getJit().isCompiledLoop(7, header));
+    }
+
+    @Test
+    void loopSharedByTwoFunctions() throws VeloxVMError {
+        // f and h count their local up to 5 in the same loop, which each compiles.
+        int[] code = {
+                iconst, 0, store, 0, // 0000: f
+                load, 0, iconst, 1, iadd, store, 0, // 0004: loop header
+                load, 0, iconst, 5, icmpl, brancht, 4,
+                load, 0, ret,
+                iconst, 2, store, 0, branch, 4, // 0021: h
+                invoke, 0, print, jumpnext, invoke, 1, print, jumpnext, invoke, 0, print, exit, // 0027: main
+        };
+        VeloxInstructions module = new VeloxInstructions(code, new String[0], 0, new FunctionMeta[] {
+                new FunctionMeta("f", 0, 1, 0), new FunctionMeta("h", 0, 1, 21), new FunctionMeta("main", 0, 0, 27) },
+                27);
+        VeloxVM vm = new VeloxVM(module);
+        vm.setJit(true);
+        vm.setJitThreshold(2); // The first calls are interpreted, their first backward branch compiles the loop.
+        String output = Corpus.run(vm);
+        assertTrue(vm.getJit().isCompiledLoop(0, 4));
+        assertTrue(vm.getJit().isCompiledLoop(1, 4));
+        assertEquals(Corpus.run(new VeloxVM(module)), output);
+        assertEquals("5\n5\n5\nresult 0", output.replace(System.lineSeparator(), "\n"));
+    }
+
+    @Test
+    void runAfterFailureInNestedRun() throws VeloxVMError {
+        VeloxVM vm = vm();
+        assertEquals("\nerror / by zero", Corpus.run(vm, 0));
+        // The failed run left no state behind which ends this one early.
+        assertEquals("5\n3\n\nresult 0", Corpus.run(vm, 2).replace(System.lineSeparator(), "\n"));
+    }
+}
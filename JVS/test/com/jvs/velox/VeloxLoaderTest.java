@@ -0,0 +1,77 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Loading .jvelox modules from buffers: a truncated module is rejected with a
+ * VeloxVMError, whatever byte it stops at, and a version 1 module loads to the
+ * same module as its version 2 copy.
+ */
+class VeloxLoaderTest {
+    @Test
+    void truncatedModule(@TempDir Path directory) throws IOException, VeloxVMError {
+        byte[] bytes = Files.readAllBytes(program("strings").write(directory));
+        assertArrayEquals(program("strings").code(), VeloxLoader.load(ByteBuffer.wrap(bytes)).getInstructions());
+        for (int length = 0; length < bytes.length; length++) {
+            ByteBuffer truncated = ByteBuffer.wrap(Arrays.copyOf(bytes, length));
+            assertThrows(VeloxVMError.class, () -> VeloxLoader.load(truncated), length + " bytes");
+        }
+    }
+
+    @Test
+    void version1Module(@TempDir Path directory) throws IOException, VeloxVMError {
+        // A main printing the square of 7 computed by a function, in the v1
+        // layout of VeloxFormat: every field and code word is one byte, and the
+        // strings are ISO-8859-1.
+        byte[] v1 = bytes('J', 'V', 'L', 'X',
+                2, // functions
+                4, 'm', 'a', 'i', 'n', 0, 0, 0, // name, nArgs, nLocals, address
+                6, 's', 'q', 'u', 'a', 'r', 'e', 1, 0, 8,
+                1, // pool strings
+                5, '7', 0xB2, ' ', '=', ' ',
+                0, // start
+                printsp, 0, iconst, 7, invoke, 1, print, exit, // 0000: main
+                load, 0, load, 0, imul, ret); // 0008: square
+        VeloxInstructions module = VeloxLoader.load(ByteBuffer.wrap(v1));
+
+        Path file = directory.resolve("square.jvelox");
+        new VeloxWriter(file.toString(), module.getInstructions(), module.getPool(), module.getPoolLength(),
+                module.getMetadata(), module.getStartIP()).write();
+        VeloxInstructions v2 = VeloxLoader.load(file.toString());
+
+        assertEquals(Arrays.toString(v2.getMetadata()), Arrays.toString(module.getMetadata()));
+        assertEquals("[{Name: main, Number of Arguments: 0, Number of Locals: 0, Address: 0}, "
+                + "{Name: square, Number of Arguments: 1, Number of Locals: 0, Address: 8}]",
+                Arrays.toString(module.getMetadata()));
+        assertArrayEquals(v2.getPool(), module.getPool());
+        assertEquals("7\u00B2 = ", module.getPool()[0]);
+        assertArrayEquals(v2.getInstructions(), module.getInstructions());
+        assertEquals(v2.getStartIP(), module.getStartIP());
+        assertEquals("7\u00B2 = 49\nresult 0", Corpus.run(module, new long[0], vm -> {
+        }));
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+
+    private static Corpus.Program program(String name) {
+        return Corpus.programs().stream().filter(p -> p.name().equals(name)).findFirst().orElseThrow();
+    }
+}
@@ -0,0 +1,56 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * A VM of the pool which failed a run is reset on release and runs the next
+ * program like a new one, whatever its settings.
+ */
+class VeloxVMPoolTest {
+    /**
+     * main(n) prints g1 and 7 + f(n) + g0, where f(n) sets g1 to a string it
+     * makes, increments g0 and returns 100 / n.
+     */
+    private static final int[] CODE = {
+            sconst, 5, sconst, 3, sconcat, gstore, 1, // 0: f
+            gload, 0, iconst, 1, iadd, gstore, 0, // 7
+            iconst, 100, load, 0, idiv, ret, // 14
+            iconst, 7, load, 0, invoke, 1, iadd, gload, 0, iadd, // 20: main
+            gload, 1, sprint, jumpnext, dup, print, jumpnext, exit
+    };
+    private static final String[] POOL = { "Hello", ", ", "world", ", ", "abc", "abc" };
+
+    @Test
+    void reuseAfterFailedRun() throws VeloxVMError {
+        List<Consumer<VeloxVM>> setups = List.of(vm -> {
+        }, vm -> vm.setFusion(true), vm -> vm.setStackCaching(true), vm -> {
+            vm.setJit(true);
+            vm.setJitThreshold(1);
+        });
+        for (Consumer<VeloxVM> setup : setups) {
+            VeloxInstructions module = new VeloxInstructions(CODE.clone(), POOL, POOL.length,
+                    new FunctionMeta[] { new FunctionMeta("main", 1, 0, 20), new FunctionMeta("f", 1, 0, 0) }, 20);
+            VeloxVMPool pool = new VeloxVMPool(module, 1, setup);
+            VeloxVM vm = pool.acquire();
+            assertEquals("abc, \n33\n\nresult 33", Corpus.run(vm, 4).replace(System.lineSeparator(), "\n"));
+            pool.release(vm);
+
+            vm = pool.acquire();
+            assertEquals("\nerror / by zero", Corpus.run(vm, 0));
+            pool.release(vm);
+
+            // The same VM, without the global, string and stack values of the failed run.
+            VeloxVM reused = pool.acquire();
+            assertSame(vm, reused);
+            assertEquals("abc, \n33\n\nresult 33", Corpus.run(reused, 4).replace(System.lineSeparator(), "\n"));
+            pool.release(reused);
+        }
+    }
+}
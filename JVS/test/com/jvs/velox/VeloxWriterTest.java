@@ -0,0 +1,48 @@
+package com.jvs.velox;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writing .jvelox files: the module is loaded back unchanged, no temporary file
+ * is left behind, and the file gets the permissions of the file it replaces, or
+ * those of any new file.
+ */
+class VeloxWriterTest {
+    @Test
+    void writesAndReplaces(@TempDir Path directory) throws IOException, VeloxVMError {
+        Corpus.Program program = Corpus.programs().get(0);
+        Path file = program.write(directory);
+        assertArrayEquals(program.code(), VeloxLoader.load(file.toString()).getInstructions());
+        program.write(directory);
+        assertArrayEquals(program.code(), VeloxLoader.load(file.toString()).getInstructions());
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(List.of(file), files.toList());
+        }
+    }
+
+    @Test
+    void permissions(@TempDir Path directory) throws IOException, VeloxVMError {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Corpus.Program program = Corpus.programs().get(0);
+        Path file = program.write(directory);
+        Path plain = Files.createFile(directory.resolve("plain"));
+        assertEquals(Files.getPosixFilePermissions(plain), Files.getPosixFilePermissions(file));
+
+        Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-r-----"));
+        program.write(directory);
+        assertEquals("rw-r-----", PosixFilePermissions.toString(Files.getPosixFilePermissions(file)));
+    }
+}
@@ -0,0 +1,124 @@
+package com.jvs.velox;
+
+import static com.jvs.velox.Opcode.*;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * The verifier: hand-built modules with a single fault each are rejected, with
+ * the fault in the message, and are not marked verified.
+ */
+class VerifierTest {
+    private static final String[] POOL = { "Hello" };
+
+    @Test
+    void validModuleIsVerified() throws VeloxVMError {
+        VeloxInstructions module = module(0, new int[] {
+                invoke, 1, print, exit, // 0000: main
+                iconst, 7, ret, // 0004: seven
+        }, function("main", 0, 0, 0), function("seven", 0, 0, 4));
+        Verifier.verify(module);
+        assertTrue(module.isVerified());
+        assertEquals(1, module.getMetadata()[0].getMaxStack());
+        assertEquals(1, module.getMetadata()[1].getNumberOfResults());
+    }
+
+    @Test
+    void branchIntoOperand() {
+        assertRejected("Branch to 0001, which does not start an instruction at 0002",
+                module(0, new int[] { iconst, 1, branch, 1 }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void branchOutOfRange() {
+        assertRejected("Branch to 0005, which does not start an instruction at 0000",
+                module(0, new int[] { branch, 5, exit }, function("main", 0, 0, 0)));
+        assertRejected("Branch to -001, which does not start an instruction at 0002",
+                module(0, new int[] { iconst, 1, branchf, -1, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void localOutOfRange() {
+        assertRejected("Invalid local 1 at 0000 in function \"main\"",
+                module(0, new int[] { load, 1, print, exit }, function("main", 0, 1, 0)));
+        assertRejected("Invalid local -1 at 0002 in function \"main\"",
+                module(0, new int[] { iconst, 1, store, -1, exit }, function("main", 0, 1, 0)));
+    }
+
+    @Test
+    void globalOutOfRange() {
+        assertRejected("Invalid global " + VeloxVM.MEMORY_SIZE + " at 0000",
+                module(0, new int[] { gload, VeloxVM.MEMORY_SIZE, print, exit }, function("main", 0, 0, 0)));
+        assertRejected("Invalid global -1 at 0002",
+                module(0, new int[] { iconst, 1, gstore, -1, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void poolIndexOutOfRange() {
+        assertRejected("Invalid pool string 1 at 0000",
+                module(0, new int[] { sconst, 1, sprint, exit }, function("main", 0, 0, 0)));
+        assertRejected("Invalid pool string -1 at 0000",
+                module(0, new int[] { printsp, -1, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void functionOutOfRange() {
+        assertRejected("Invalid function 1 at 0000",
+                module(0, new int[] { invoke, 1, exit }, function("main", 0, 0, 0)));
+        assertRejected("Invalid function -1 at 0000",
+                module(0, new int[] { invoke, -1, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void differentDepthsWherePathsMerge() {
+        // The branch reaches 0006 with an empty stack, the path through iconst 2 with one value.
+        assertRejected("Inconsistent stack depth (0 and 1) at 0006 in function \"main\"",
+                module(0, new int[] { iconst, 1, branchf, 6, iconst, 2, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void stackUnderflow() {
+        assertRejected("Stack underflow (iadd pops 2 of 1 values) at 0002 in function \"main\"",
+                module(0, new int[] { iconst, 1, iadd, print, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void startIsNotAFunction() {
+        assertRejected("Invalid start address 0002 (not the address of a function)",
+                module(2, new int[] { iconst, 1, print, exit }, function("main", 0, 0, 0)));
+    }
+
+    @Test
+    void invalidFunctionAddress() {
+        assertRejected("Invalid address 0001 of function \"f\"", module(0, new int[] { iconst, 1, print, exit },
+                function("main", 0, 0, 0), function("f", 0, 0, 1)));
+        assertRejected("Invalid address 0004 of function \"f\"", module(0, new int[] { iconst, 1, print, exit },
+                function("main", 0, 0, 0), function("f", 0, 0, 4)));
+    }
+
+    @Test
+    void invalidNumberOfLocals() {
+        assertRejected("Invalid number of locals of function \"main\"",
+                module(0, new int[] { exit }, function("main", 0, -1, 0)));
+        assertRejected("Invalid number of locals of function \"main\"",
+                module(0, new int[] { exit }, function("main", -1, 0, 0)));
+    }
+
+    private static VeloxInstructions module(int start, int[] code, FunctionMeta... functions) {
+        return new VeloxInstructions(code, POOL, POOL.length, functions, start);
+    }
+
+    private static FunctionMeta function(String name, int nArgs, int nLocals, int address) {
+        return new FunctionMeta(name, nArgs, nLocals, address);
+    }
+
+    private static void assertRejected(String message, VeloxInstructions module) {
+        VeloxVMError error = assertThrows(VeloxVMError.class, () -> Verifier.verify(module));
+        assertEquals(message, error.getMessage());
+        assertFalse(module.isVerified());
+    }
+}